@@ -0,0 +1,159 @@
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Random;
+
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+import dkwakkel.jgcode.GCodeParser.LineContext;
+import dkwakkel.jgcode.bench.Workloads;
+
+// The workloads of the benchmarks in dkwakkel.jgcode.bench, see Workloads
+public class BenchmarkWorkloads extends Workloads
+{
+	// Machine that does nothing but count the calls
+	static class CountingMachine extends CanonicalColumns
+	{
+		long	calls;
+
+		CountingMachine() {
+			super(1);
+		}
+
+		@Override
+		int add(Canonical opcode) {
+			calls++;
+			return 0;
+		}
+	}
+
+	// Counts the moves of the X axis
+	static class CountingMotor extends MotorMachine.Motor
+	{
+		long	moves;
+
+		CountingMotor() {
+			super("X");
+		}
+
+		@Override
+		public void setSpeed(double speed) {
+			// Nothing
+		}
+
+		@Override
+		public void moveTo(double valueInMM) {
+			moves++;
+		}
+	}
+
+	@Override
+	public Workload arcFeed(final double radius) {
+		final MotorMachine machine = new MotorMachine();
+		for (MotorMachine.Axis axis : MotorMachine.Axis.values()) {
+			machine.setMotor(axis, new BatchSimulator.SimulationMotor(axis.name()));
+		}
+		final CountingMotor motor = new CountingMotor();
+		machine.setMotor(MotorMachine.Axis.X, motor);
+		machine.SET_FEED_RATE(1000);
+		machine.STRAIGHT_FEED(radius, 0, 0, 0, 0, 0);
+		return new Workload()
+		{
+			@Override
+			public long run() {
+				long before = motor.moves;
+				machine.ARC_FEED(radius, 0, 0, 0, -360, 0, 0, 0, 0);
+				return motor.moves - before;
+			}
+		};
+	}
+
+	@Override
+	public Workload blockScanner(final byte[] program) {
+		return new Workload()
+		{
+			@Override
+			public long run() throws Exception {
+				CountingMachine machine = new CountingMachine();
+				new BlockScanner(machine).executeLines(new ByteArrayInputStream(program));
+				return machine.calls;
+			}
+		};
+	}
+
+	@Override
+	public Workload executor(byte[] program) throws Exception {
+		final List<LineContext> lines = MotorMachine.parse(new ByteArrayInputStream(program)).line();
+		final CountingMachine machine = new CountingMachine();
+		final Executor executor = new Executor(machine);
+		return new Workload()
+		{
+			@Override
+			public long run() {
+				ParseTreeWalker walker = ParseTreeWalker.DEFAULT;
+				long before = machine.calls;
+				for (LineContext line : lines) {
+					walker.walk(executor, line);
+				}
+				return machine.calls - before;
+			}
+		};
+	}
+
+	@Override
+	public Workload parser(final byte[] program) {
+		return new Workload()
+		{
+			@Override
+			public long run() throws Exception {
+				return MotorMachine.parse(new ByteArrayInputStream(program)).line().size();
+			}
+		};
+	}
+
+	@Override
+	public Workload serial(final byte[] program) {
+		return new Workload()
+		{
+			@Override
+			public long run() throws Exception {
+				CountingMachine machine = new CountingMachine();
+				MotorMachine.execute(machine, new ByteArrayInputStream(program));
+				return machine.calls;
+			}
+		};
+	}
+
+	@Override
+	public Workload parallel(final byte[] program, final int threads, final int chunkSize) {
+		return new Workload()
+		{
+			@Override
+			public long run() throws Exception {
+				CountingMachine machine = new CountingMachine();
+				ParallelParser.execute(machine, new ByteArrayInputStream(program), threads, chunkSize);
+				return machine.calls;
+			}
+		};
+	}
+
+	@Override
+	public Workload rapidOptimizer(int holes) {
+		Random random = new Random(1);
+		final RapidOptimizer optimizer = new RapidOptimizer(holes * 3 + 2);
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		for (int k = 0; k < holes; k++) {
+			double x = random.nextDouble() * 1000, y = random.nextDouble() * 1000;
+			optimizer.STRAIGHT_TRAVERSE(x, y, 5, 0, 0, 0);
+			optimizer.STRAIGHT_FEED(x, y, -1, 0, 0, 0);
+			optimizer.STRAIGHT_TRAVERSE(x, y, 5, 0, 0, 0);
+		}
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		return new Workload()
+		{
+			@Override
+			public long run() {
+				return Math.round(optimizer.optimize());
+			}
+		};
+	}
+}
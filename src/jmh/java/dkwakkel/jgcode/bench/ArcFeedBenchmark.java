@@ -0,0 +1,57 @@
+package dkwakkel.jgcode.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cutting full circles of different radii into chords with MotorMachine.ARC_FEED.
+// The score is circles per second, the segments counter chords per second.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArcFeedBenchmark
+{
+	@Param({ "1", "10", "100", "1000" })
+	public double								radius;
+
+	private Workloads.Workload	circle;
+
+	@AuxCounters
+	@State(Scope.Thread)
+	public static class Segments
+	{
+		public long	segments;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			segments = 0;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		circle = Workloads.INSTANCE.arcFeed(radius);
+	}
+
+	@Benchmark
+	public long fullCircle(Segments segments) throws Exception {
+		long chords = circle.run();
+		segments.segments += chords;
+		return chords;
+	}
+}
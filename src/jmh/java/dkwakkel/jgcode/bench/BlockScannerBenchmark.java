@@ -0,0 +1,40 @@
+package dkwakkel.jgcode.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Scanning and executing the synthetic program with BlockScanner into a machine that only counts the calls.
+// The score is lines per second, compare with ParserBenchmark and ExecutorBenchmark together.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockScannerBenchmark
+{
+	private Workloads.Workload	synthetic;
+
+	@Setup
+	public void setup() throws Exception {
+		synthetic = Workloads.INSTANCE.blockScanner(Programs.synthetic().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Programs.LINES)
+	public long synthetic() throws Exception {
+		return synthetic.run();
+	}
+}
@@ -0,0 +1,58 @@
+package dkwakkel.jgcode.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Walking a parsed program with the Executor into a machine that only counts the canonical calls.
+// The score is lines per second, the calls counter canonical calls per second.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutorBenchmark
+{
+	private byte[]	synthetic;
+
+	@AuxCounters
+	@State(Scope.Thread)
+	public static class Calls
+	{
+		public long									calls;
+		private Workloads.Workload	execute;
+
+		@Setup(Level.Iteration)
+		public void reset(ExecutorBenchmark benchmark) throws Exception {
+			calls = 0;
+			execute = Workloads.INSTANCE.executor(benchmark.synthetic); // a new Executor and machine
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		synthetic = Programs.synthetic().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Programs.LINES)
+	public long execute(Calls calls) throws Exception {
+		long count = calls.execute.run();
+		calls.calls += count;
+		return count;
+	}
+}
@@ -0,0 +1,73 @@
+package dkwakkel.jgcode.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dkwakkel.jgcode.GCodeLexer;
+
+// Raw lexer speed: the primary score is lines per second, the tokens counter tokens per second
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LexerBenchmark
+{
+	private String	synthetic;
+	private String	program1;
+
+	@AuxCounters
+	@State(Scope.Thread)
+	public static class Tokens
+	{
+		public long	tokens;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tokens = 0;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		synthetic = Programs.synthetic();
+		program1 = Programs.program1();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Programs.LINES)
+	public int synthetic(Tokens tokens) {
+		return lex(synthetic, tokens);
+	}
+
+	@Benchmark
+	public int program1(Tokens tokens) {
+		return lex(program1, tokens);
+	}
+
+	private static int lex(String program, Tokens tokens) {
+		GCodeLexer lexer = new GCodeLexer(new ANTLRInputStream(program));
+		int count = 0;
+		while (lexer.nextToken().getType() != Token.EOF) {
+			count++;
+		}
+		tokens.tokens += count;
+		return count;
+	}
+}
@@ -0,0 +1,61 @@
+package dkwakkel.jgcode.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Lexing, parsing and executing the synthetic program repeated REPEAT times, serial and with ParallelParser.
+// The score is lines per second, it should grow with the number of threads until the Executor pass is the bottleneck.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelParserBenchmark
+{
+	private static final int	REPEAT			= 100;
+	private static final int	CHUNK_SIZE	= 1 << 16;
+
+	@Param({ "1", "2", "4", "8", "16", "32" })
+	public int									threads;
+
+	private Workloads.Workload	serial;
+	private Workloads.Workload	parallel;
+
+	@Setup
+	public void setup() throws Exception {
+		String synthetic = Programs.synthetic();
+		StringBuilder repeated = new StringBuilder(synthetic.length() * REPEAT);
+		for (int k = 0; k < REPEAT; k++) {
+			repeated.append(synthetic);
+		}
+		byte[] program = repeated.toString().getBytes(StandardCharsets.UTF_8);
+		serial = Workloads.INSTANCE.serial(program);
+		parallel = Workloads.INSTANCE.parallel(program, threads, CHUNK_SIZE);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Programs.LINES * REPEAT)
+	public long serial() throws Exception {
+		return serial.run();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Programs.LINES * REPEAT)
+	public long parallel() throws Exception {
+		return parallel.run();
+	}
+}
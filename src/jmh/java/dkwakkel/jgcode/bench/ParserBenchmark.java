@@ -0,0 +1,63 @@
+package dkwakkel.jgcode.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Lexing and parsing a whole program into a tree with GCodeParser.program().
+// The synthetic score is lines per second, so the GC profiler reports the allocation per line.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark
+{
+	private Workloads.Workload	synthetic;
+	private Workloads.Workload	program1;
+
+	@AuxCounters
+	@State(Scope.Thread)
+	public static class Lines
+	{
+		public long	lines;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			lines = 0;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		synthetic = Workloads.INSTANCE.parser(Programs.synthetic().getBytes(StandardCharsets.UTF_8));
+		program1 = Workloads.INSTANCE.parser(Programs.program1().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Programs.LINES)
+	public long synthetic() throws Exception {
+		return synthetic.run();
+	}
+
+	@Benchmark
+	public long program1(Lines lines) throws Exception {
+		long count = program1.run();
+		lines.lines += count;
+		return count;
+	}
+}
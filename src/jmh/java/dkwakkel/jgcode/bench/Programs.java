@@ -0,0 +1,54 @@
+package dkwakkel.jgcode.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// Programs used by the benchmarks
+final class Programs
+{
+	// Number of lines of the synthetic program, benchmarks on it report their operations per line
+	static final int	LINES	= 1000;
+
+	private Programs() {
+	}
+
+	// Profile milling: straight feeds and arcs with comments, a rapid at the start of every 100 lines
+	static String synthetic() {
+		StringBuilder program = new StringBuilder();
+		for (int line = 0; line < LINES; line++) {
+			double x = line % 100;
+			switch (line % 5) {
+				case 0:
+					program.append(line % 100 == 0 ? "G00" : "G01").append(String.format(Locale.ROOT, " X%.3f Y0.0 F100;\n", x));
+					break;
+				case 1:
+					program.append(String.format(Locale.ROOT, "G01 X%.3f Y10.0 (P%d);\n", x, line));
+					break;
+				case 2:
+					program.append(String.format(Locale.ROOT, "G02 X%.3f Y10.0 I0.5 J0.0;\n", x + 1));
+					break;
+				case 3:
+					program.append(String.format(Locale.ROOT, "G01 X%.3f Y0.0;\n", x + 1));
+					break;
+				default:
+					program.append(String.format(Locale.ROOT, "G03 X%.3f Y0.0 I-0.5 J0.0;\n", x));
+					break;
+			}
+		}
+		return program.toString();
+	}
+
+	static String program1() throws IOException {
+		try (InputStream in = Programs.class.getResourceAsStream("/Program1.gcode")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read; (read = in.read(buffer)) >= 0;) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
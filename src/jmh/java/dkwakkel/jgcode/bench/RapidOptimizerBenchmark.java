@@ -0,0 +1,41 @@
+package dkwakkel.jgcode.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Reordering holes drilled in random order on a 1 m square plate with RapidOptimizer.
+// The score is the time per program, the returned rapid distance saved keeps the work from being optimized away.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RapidOptimizerBenchmark
+{
+	@Param({ "1000", "10000", "100000" })
+	public int									holes;
+
+	private Workloads.Workload	optimize;
+
+	@Setup
+	public void setup() {
+		optimize = Workloads.INSTANCE.rapidOptimizer(holes);
+	}
+
+	@Benchmark
+	public long optimize() throws Exception {
+		return optimize.run();
+	}
+}
@@ -0,0 +1,44 @@
+package dkwakkel.jgcode.bench;
+
+// The code the benchmarks measure. JMH needs the benchmarks in a package, and the interpreter is in the default
+// package, which a package cannot import. So the benchmarks call it through this class, implemented by the public
+// BenchmarkWorkloads in the default package. It is loaded by name once, the calls after that are plain calls.
+public abstract class Workloads
+{
+	// One operation of a benchmark, returns a count that keeps it from being optimized away
+	public interface Workload
+	{
+		long run() throws Exception;
+	}
+
+	static final Workloads INSTANCE;
+	static {
+		try {
+			INSTANCE = (Workloads) Class.forName("BenchmarkWorkloads").newInstance();
+		}
+		catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	// MotorMachine cutting a full circle of the radius into chords, returns the number of chords
+	public abstract Workload arcFeed(double radius);
+
+	// BlockScanner executing the program, returns the number of canonical calls
+	public abstract Workload blockScanner(byte[] program);
+
+	// Executor walking the parsed program, returns the number of canonical calls
+	public abstract Workload executor(byte[] program) throws Exception;
+
+	// MotorMachine.parse, returns the number of lines
+	public abstract Workload parser(byte[] program);
+
+	// MotorMachine.execute, returns the number of canonical calls
+	public abstract Workload serial(byte[] program);
+
+	// ParallelParser.execute, returns the number of canonical calls
+	public abstract Workload parallel(byte[] program, int threads, int chunkSize);
+
+	// RapidOptimizer reordering holes drilled in random order on a 1 m square plate, returns the rapid distance saved
+	public abstract Workload rapidOptimizer(int holes);
+}
@@ -8,7 +8,6 @@ options {
 
 @header {
 package dkwakkel.jgcode;
-import static java.lang.StrictMath.*;
 }
 
 fragment Digit		: '0'..'9' ;
@@ -49,17 +48,17 @@ line		: ( BLOCK_DELETE )? ( lineNumber )? ( segment )* endOfLine ;
 
 segment		: word | parameterSetting | comment | oword_label oword_statement;
 
+parameterSetting locals [Object compiled] : parameter EQUALS e ;
+
 comment		: MESSAGE_COMMENT | IGNORED_COMMENT ;
 MESSAGE_COMMENT : '(MSG' COMMENT_TEXT ')' ;
 IGNORED_COMMENT : '(' COMMENT_TEXT ')' ;
 
-parameterSetting : parameter EQUALS e ;
-
 parameter	: HASH designator ;
 
 designator	: NUMBER | NAME | parameter | bracketExpression ;
 
-oword_label	: 'o' NUMBER | 'o' NAME | 'o' parameter ;
+oword_label	: ('o'|'O') NUMBER | ('o'|'O') NAME | ('o'|'O') parameter ;
 
 oword_statement
 	:  SUB
@@ -280,18 +279,19 @@ m49 : M49 ; // disable speed and feed overrides
 m60 : M60 ; // pallet shuttle and program stop
 
 
-e returns [double v]: logicalExpression { $v = $logicalExpression.v; };
+// Expressions are evaluated by the interpreter (see ExpressionCompiler), which keeps the compiled form in compiled
+e locals [Object compiled]: logicalExpression ;
 
-logicalExpression returns [double v]:
-				comparisonExpression { $v = $comparisonExpression.v;} (
+logicalExpression :
+				comparisonExpression (
 					( OR comparisonExpression ) |
 					( XOR comparisonExpression ) |
 					( AND comparisonExpression )
 				)*
 				;
 
-comparisonExpression returns [double v]:
-				plusMinExpression { $v = $plusMinExpression.v;} (
+comparisonExpression :
+				plusMinExpression (
 					( EQ plusMinExpression ) |
 					( NE plusMinExpression ) |
 					( GT plusMinExpression ) |
@@ -300,14 +300,14 @@ comparisonExpression returns [double v]:
 					( LE plusMinExpression )
 				)* ;
 
-plusMinExpression returns [double v]:
-				aggregateExpression { $v = $aggregateExpression.v;} (
+plusMinExpression :
+				aggregateExpression (
 					( PLUS aggregateExpression ) |
 					( MINUS aggregateExpression )
 				)* ;
 
-aggregateExpression returns [double v]:
-				powerExpression { $v = $powerExpression.v;} (
+aggregateExpression :
+				powerExpression (
 					( TIMES powerExpression ) |
 					( SLASH powerExpression ) |
 					( MOD powerExpression )
@@ -319,36 +319,35 @@ aggregateExpression returns [double v]:
 // If an expression contains more than one operation from the same group
 // (such as the first / and * in the example), the operation on the left is performed first.
 
-powerExpression	returns [double v]:
-	unaryExpression ( POWER powerExpression )?
-	{ if($powerExpression.ctx==null) { $v = $unaryExpression.v; } else { $v = pow($unaryExpression.v, $powerExpression.v); }};
-
-unaryExpression returns [double v]:
-// TODO: fix and are these all mathematical functions?
-	ACOS bracketExpression		{ $v = cos($bracketExpression.v);}
-	| ASIN bracketExpression	{ $v = asin($bracketExpression.v);}
-	| COS bracketExpression		{ $v = cos($bracketExpression.v);}
-	| SIN bracketExpression		{ $v = sin($bracketExpression.v);}
-	| TAN bracketExpression		{ $v = tan($bracketExpression.v);}
-	| LN bracketExpression		
-	| EXP bracketExpression		{ $v = exp($bracketExpression.v);}
-	| SQRT bracketExpression	{ $v = pow($bracketExpression.v,0.5);}
-	| FIX bracketExpression		{ $v = floor($bracketExpression.v);}
-	| FUP bracketExpression		{ $v = ceil($bracketExpression.v);}
-	| ROUND bracketExpression	{ $v = cos($bracketExpression.v);}
-	| ABS bracketExpression		{ $v = abs($bracketExpression.v);}
-	| EXISTS bracketExpression	
+powerExpression :
+	unaryExpression ( POWER powerExpression )? ;
+
+unaryExpression :
+	ACOS bracketExpression
+	| ASIN bracketExpression
+	| COS bracketExpression
+	| SIN bracketExpression
+	| TAN bracketExpression
+	| LN bracketExpression
+	| EXP bracketExpression
+	| SQRT bracketExpression
+	| FIX bracketExpression
+	| FUP bracketExpression
+	| ROUND bracketExpression
+	| ABS bracketExpression
+	| EXISTS bracketExpression
 	| ATAN bracketExpression SLASH bracketExpression
-	| parameter
-	| primitiveExpression { $v = $primitiveExpression.v;}
+	| MINUS unaryExpression
+	| PLUS unaryExpression
+	| primitiveExpression
 ;
 
-bracketExpression returns [double v]:	LBRACKET e RBRACKET { $v = $e.v; };
+bracketExpression :	LBRACKET e RBRACKET ;
 
-primitiveExpression returns [double v]: 
-	bracketExpression { $v = $bracketExpression.v; }
+primitiveExpression :
+	bracketExpression
 	| parameter
-	| NUMBER { $v = Double.valueOf($NUMBER.text); }
+	| NUMBER
 ; 
 
 lineNumber : LINE_NUMBER ; 
@@ -361,7 +360,7 @@ LINE_NUMBER	: N Digit Digit? Digit? Digit? Digit? ;
 
 END_OF_LINE	: ( '\r' | '\n' | '\r' '\n' ) ;
 
-NUMBER 		: ('+'|'-')? ( Digit+ | Digit* ('.' Digit+) ) ;
+NUMBER 		: Digit+ | Digit* '.' Digit+ | Digit+ '.' ;
 
 NAME		: '<' ~('>')+ '>' ;
 
@@ -403,7 +402,7 @@ EXISTS	: E X I S T S ;
 
 EQ	: E Q ;
 NE	: N E ;
-GT	: Q T ;
+GT	: G T ;
 GE	: G E ;
 LT	: L T ;
 LE 	: L E ;
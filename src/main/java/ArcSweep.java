@@ -0,0 +1,42 @@
+import static java.lang.StrictMath.PI;
+import static java.lang.StrictMath.abs;
+import static java.lang.StrictMath.acos;
+import static java.lang.StrictMath.atan2;
+import static java.lang.StrictMath.ceil;
+import static java.lang.StrictMath.max;
+import static java.lang.StrictMath.sqrt;
+
+// Sweep of an ARC_FEED in its plane, from the start point around the center to the end point. Clockwise is decreasing
+// angle, equal start and end point means a full circle. MotorMachine and the machines that follow its path all cut the
+// arc into the chords of steps, so they agree on the path.
+final class ArcSweep
+{
+	final double	startAngle;
+	final double	angle;			// signed, negative for clockwise
+	final double	radius;
+
+	ArcSweep(	double firstStart, double secondStart, double firstEnd, double secondEnd, double firstCenter,
+						double secondCenter, int rotation) {
+		startAngle = atan2(secondStart - secondCenter, firstStart - firstCenter);
+		double endAngle = atan2(secondEnd - secondCenter, firstEnd - firstCenter);
+		boolean clockwise = rotation >= 0;
+		double sweep = clockwise ? startAngle - endAngle : endAngle - startAngle;
+		if (sweep <= 0) {
+			sweep += 2 * PI;
+		}
+		angle = clockwise ? -sweep : sweep;
+		double firstRadius = firstStart - firstCenter, secondRadius = secondStart - secondCenter;
+		radius = sqrt(firstRadius * firstRadius + secondRadius * secondRadius);
+	}
+
+	// Number of chords for which every chord stays within the tolerance of the arc, at least one
+	int steps(double tolerance) {
+		double maxStepAngle = tolerance < radius ? 2 * acos(1 - tolerance / radius) : PI;
+		return (int) max(1, ceil(abs(angle) / maxStepAngle));
+	}
+
+	// Length along the arc
+	double length() {
+		return radius * abs(angle);
+	}
+}
@@ -0,0 +1,215 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import dkwakkel.jgcode.GCodeParser.ProgramContext;
+
+// Simulates many programs concurrently, each on its own MotorMachine with motors that do nothing.
+// Usage: BatchSimulator <file or directory>...
+public class BatchSimulator
+{
+	private static final String[]	EXTENSIONS	= { ".gcode", ".nc", ".ngc", ".tap" };
+
+	public static class Result
+	{
+		final File				file;
+		PathStatistics		statistics;
+		long							calls;
+		long							parseNanos;
+		long							interpretNanos;
+		long							simulateNanos;
+		Throwable					failure;
+
+		Result(File file) {
+			this.file = file;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public PathStatistics getStatistics() {
+			return statistics;
+		}
+
+		// Number of canonical calls made by the interpreter
+		public long getCalls() {
+			return calls;
+		}
+
+		public long getParseNanos() {
+			return parseNanos;
+		}
+
+		public long getInterpretNanos() {
+			return interpretNanos;
+		}
+
+		public long getSimulateNanos() {
+			return simulateNanos;
+		}
+
+		public Throwable getFailure() {
+			return failure;
+		}
+	}
+
+	static class SimulationMotor extends MotorMachine.Motor
+	{
+		SimulationMotor(String name) {
+			super(name);
+		}
+
+		@Override
+		public void moveTo(double valueInMM) {
+			// Nothing
+		}
+
+		@Override
+		public void setSpeed(double speed) {
+			// Nothing
+		}
+	}
+
+	public static List<Result> simulate(List<File> files, int parallelism) throws InterruptedException {
+		List<Callable<Result>> jobs = new ArrayList<>();
+		for (final File file : files) {
+			jobs.add(new Callable<Result>()
+			{
+				@Override
+				public Result call() {
+					return simulate(file);
+				}
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			List<Result> results = new ArrayList<>();
+			for (Future<Result> future : pool.invokeAll(jobs)) {
+				results.add(getResult(future));
+			}
+			return results;
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private static Result getResult(Future<Result> future) throws InterruptedException {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	public static Result simulate(File file) {
+		Result result = new Result(file);
+		try {
+			long start = System.nanoTime();
+			ProgramContext program;
+			try (InputStream in = new FileInputStream(file)) {
+				program = MotorMachine.parse(in);
+			}
+			long parsed = System.nanoTime();
+
+			Toolpath toolpath = new Toolpath();
+			MotorMachine.execute(toolpath, program);
+			program = null; // the tree is no longer needed
+			long interpreted = System.nanoTime();
+
+			MotorMachine machine = new MotorMachine();
+			for (MotorMachine.Axis axis : MotorMachine.Axis.values()) {
+				machine.setMotor(axis, new SimulationMotor(axis.name()));
+			}
+			result.statistics = new PathStatistics(machine);
+			toolpath.replay(result.statistics);
+			long simulated = System.nanoTime();
+
+			result.calls = toolpath.size();
+			result.parseNanos = parsed - start;
+			result.interpretNanos = interpreted - parsed;
+			result.simulateNanos = simulated - interpreted;
+		}
+		catch (Exception | StackOverflowError e) {
+			result.failure = e;
+		}
+		return result;
+	}
+
+	static List<File> collect(String... paths) {
+		List<File> files = new ArrayList<>();
+		for (String path : paths) {
+			collect(new File(path), files);
+		}
+		return files;
+	}
+
+	private static void collect(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			Arrays.sort(children);
+			for (File child : children) {
+				if (child.isDirectory() || hasProgramExtension(child)) {
+					collect(child, files);
+				}
+			}
+		}
+		else {
+			files.add(file);
+		}
+	}
+
+	private static boolean hasProgramExtension(File file) {
+		String name = file.getName().toLowerCase();
+		for (String extension : EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static void report(PrintStream out, List<Result> results, long wallNanos) {
+		long calls = 0, bytes = 0, cpuNanos = 0;
+		int failures = 0;
+		for (Result result : results) {
+			bytes += result.file.length();
+			if (result.failure != null) {
+				failures++;
+				out.printf("%s: FAILED %s%n", result.file, result.failure);
+				continue;
+			}
+			PathStatistics statistics = result.statistics;
+			double[] min = statistics.getMin();
+			double[] max = statistics.getMax();
+			out.printf("%s: path %.3f mm (rapid %.3f, feed %.3f), box [%.3f %.3f %.3f]-[%.3f %.3f %.3f], %d calls, parse %.1f ms, interpret %.1f ms, simulate %.1f ms%n",
+					result.file, statistics.getPathLength(), statistics.getRapidDistance(), statistics.getFeedDistance(),
+					min[0], min[1], min[2], max[0], max[1], max[2], result.calls,
+					result.parseNanos / 1e6, result.interpretNanos / 1e6, result.simulateNanos / 1e6);
+			calls += result.calls;
+			cpuNanos += result.parseNanos + result.interpretNanos + result.simulateNanos;
+		}
+		double seconds = wallNanos / 1e9;
+		out.printf("%d jobs, %d failed, %d calls, %.1f MB in %.3f s: %.1f jobs/s, %.0f calls/s, %.1f MB/s, %.1fx parallel speedup%n",
+				results.size(), failures, calls, bytes / 1e6, seconds,
+				results.size() / seconds, calls / seconds, bytes / 1e6 / seconds, cpuNanos / (double) wallNanos);
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<File> files = collect(args);
+		long start = System.nanoTime();
+		List<Result> results = simulate(files, Runtime.getRuntime().availableProcessors());
+		report(System.out, results, System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,404 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import dkwakkel.jgcode.GCodeLexer;
+import dkwakkel.jgcode.GCodeParser;
+
+// Executes a program line by line like MotorMachine.executeStreaming, but scans simple lines straight from the bytes:
+// line numbers, G and M codes, axis, feed and canned cycle words with plain numbers, S, T and other words without effect
+// and comments.
+// Lines with expressions, parameters, O-words or anything else it does not know go to GCodeParser, so the
+// Machine gets the same calls either way. Scanning a line does not allocate.
+public class BlockScanner
+{
+	private static final int				BUFFER_SIZE	= 1 << 16;
+	private static final int				MAX_WORDS		= 32;
+
+	// Codes times ten that the grammar has a rule for, G61.1 is 611
+	private static final boolean[]	G_CODES			= WordListener.G_CODES;
+	private static final boolean[]	M_CODES			= codes(0, 10, 20, 30, 40, 50, 60, 70, 80, 90, 300, 480, 490, 600);
+
+	// Powers of ten that are exact doubles
+	private static final double[]		POWERS			= new double[23];
+	static {
+		POWERS[0] = 1;
+		for (int k = 1; k < POWERS.length; k++) {
+			POWERS[k] = POWERS[k - 1] * 10;
+		}
+	}
+
+	final Executor									executor;
+
+	// Words of the scanned line, in order: the letter in lower case with its value or G code
+	private final int[]							letters			= new int[MAX_WORDS];
+	private final double[]					values			= new double[MAX_WORDS];
+	private int											words;
+
+	private GCodeLexer							lexer;
+	private GCodeParser							parser;
+
+	private long										scannedLines;
+	private long										parsedLines;
+
+	public BlockScanner(Machine machine) {
+		this(new Executor(machine));
+	}
+
+	BlockScanner(Executor executor) {
+		this.executor = executor;
+	}
+
+	private static boolean[] codes(int... codes) {
+		boolean[] known = new boolean[1000];
+		for (int code : codes) {
+			known[code] = true;
+		}
+		return known;
+	}
+
+	public static void execute(Machine machine, InputStream in) throws IOException {
+		BlockScanner scanner = new BlockScanner(machine);
+		scanner.executeLines(in == null ? System.in : in);
+		scanner.executor.exitProgram(null);
+		MotorMachine.flush(machine);
+	}
+
+	// Number of lines executed without GCodeParser
+	public long getScannedLines() {
+		return scannedLines;
+	}
+
+	// Number of lines (or groups of lines joined by a comment) that went to GCodeParser
+	public long getParsedLines() {
+		return parsedLines;
+	}
+
+	void executeLines(InputStream in) throws IOException {
+		executeLines(in, 0, 1);
+	}
+
+	// Executes the rest of a program, the stream starts at the given byte offset and line number in the program
+	void executeLines(InputStream in, long offset, int lineNumber) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int start = 0, limit = 0;
+		boolean eof = false;
+		while (true) {
+			int end = endOfLine(buffer, start, limit, eof);
+			if (end < 0) {
+				if (eof) {
+					if (start < limit) { // last line without end of line
+						startBlock(offset + start, lineNumber);
+						parse(buffer, start, limit, lineNumber);
+					}
+					return;
+				}
+				// keep the partial line and read more, the buffer only grows for lines longer than it
+				if (start > 0) {
+					System.arraycopy(buffer, start, buffer, 0, limit - start);
+					limit -= start;
+					offset += start;
+					start = 0;
+				}
+				else if (limit == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				int read = in.read(buffer, limit, buffer.length - limit);
+				if (read < 0) {
+					eof = true;
+				}
+				else {
+					limit += read;
+				}
+				continue;
+			}
+			int next = buffer[end] == '\r' && end + 1 < limit && buffer[end + 1] == '\n' ? end + 2 : end + 1;
+			startBlock(offset + start, lineNumber);
+			if (!executor.isCompiling() && scan(buffer, start, end)) {
+				executor.startLine(lineNumber);
+				for (int k = 0; k < words; k++) {
+					execute(letters[k], values[k]);
+				}
+				executor.endOfLine();
+				scannedLines++;
+			}
+			else {
+				parse(buffer, start, next, lineNumber);
+			}
+			for (int k = start; k < next; k++) {
+				if (buffer[k] == '\n') {
+					lineNumber++;
+				}
+			}
+			start = next;
+		}
+	}
+
+	// Called before every block, a line or lines joined by a comment, with its byte offset in the program
+	void startBlock(long offset, int lineNumber) {
+		// Nothing
+	}
+
+	// Index of the end of line that ends the line at start, -1 when the buffer has no complete line.
+	// Comments may span lines, so an end of line in a comment does not count.
+	private static int endOfLine(byte[] bytes, int start, int limit, boolean eof) {
+		boolean comment = false;
+		for (int k = start; k < limit; k++) {
+			switch (bytes[k]) {
+				case '(':
+					comment = true;
+					break;
+				case ')':
+					comment = false;
+					break;
+				case '\r':
+					if (!comment && (k + 1 < limit || eof)) { // \r\n is one end of line
+						return k;
+					}
+					break;
+				case '\n':
+					if (!comment) {
+						return k;
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		return -1;
+	}
+
+	private void execute(int letter, double value) {
+		switch (letter) {
+			case 'g':
+				executor.gCode((int) value);
+				break;
+			case 'f':
+				executor.feedRate(value);
+				break;
+			case 'l':
+			case 'p':
+			case 'q':
+				executor.cycleWord(letter, value);
+				break;
+			default:
+				executor.axisWord(letter, value);
+				break;
+		}
+	}
+
+	// Scans the line from start to end (the end of line) into the words, false when GCodeParser has to do it
+	boolean scan(byte[] bytes, int start, int end) {
+		words = 0;
+		int p = skipWhitespace(bytes, start, end);
+		if (p < end && (bytes[p] | 0x20) == 'n') { // line number, one to five digits
+			int digits = digits(bytes, p + 1, end);
+			p += 1 + digits;
+			if (digits == 0 || digits > 5 || p < end && bytes[p] == '.') {
+				return false;
+			}
+		}
+		while (true) {
+			p = skipWhitespace(bytes, p, end);
+			if (p == end) {
+				return true;
+			}
+			int c = bytes[p];
+			if (c == '(') {
+				p = endOfComment(bytes, p + 1, end);
+				if (p < 0) {
+					return false;
+				}
+				continue;
+			}
+			if (c == ';') { // only allowed right before the end of line
+				return skipWhitespace(bytes, p + 1, end) == end;
+			}
+			c |= 0x20;
+			if (p + 1 < end && isLetter(bytes[p + 1]) || words == MAX_WORDS) { // keyword such as COS or XOR
+				return false;
+			}
+			switch (c) {
+				case 'g':
+				case 'm': {
+					p = code(bytes, p + 1, end, c == 'g' ? G_CODES : M_CODES);
+					if (p < 0) {
+						return false;
+					}
+					break;
+				}
+				case 'a':
+				case 'b':
+				case 'c':
+				case 'i':
+				case 'j':
+				case 'k':
+				case 'r':
+				case 'x':
+				case 'y':
+				case 'z':
+				case 'f':
+				case 'l':
+				case 'p':
+				case 'q':
+					letters[words] = c;
+					p = number(bytes, p + 1, end);
+					if (p < 0) {
+						return false;
+					}
+					words++;
+					break;
+				case 'd':
+				case 'h':
+				case 's':
+				case 't': // words the Executor does not use
+					p = number(bytes, p + 1, end);
+					if (p < 0) {
+						return false;
+					}
+					break;
+				default:
+					return false;
+			}
+		}
+	}
+
+	// Scans the number of a G or M code right after the letter. G codes become a word.
+	private int code(byte[] bytes, int p, int end, boolean[] known) {
+		int digits = digits(bytes, p, end);
+		if (digits == 0) {
+			return -1;
+		}
+		int code = 0;
+		for (int k = p; k < p + digits; k++) {
+			code = code * 10 + bytes[k] - '0';
+			if (code >= 100) {
+				return -1;
+			}
+		}
+		p += digits;
+		code *= 10;
+		if (p + 1 < end && bytes[p] == '.' && isDigit(bytes[p + 1])) {
+			if (bytes[p + 1] == '0') { // G61.0 is G61 followed by the number .0
+				return -1;
+			}
+			code += bytes[p + 1] - '0';
+			p += 2;
+		}
+		if (p < end && (bytes[p] == '.' || isDigit(bytes[p])) || !known[code]) {
+			return -1;
+		}
+		if (known == G_CODES) { // the Executor ignores the codes it does not handle, as with a parse tree
+			letters[words] = 'g';
+			values[words] = code;
+			words++;
+		}
+		return p;
+	}
+
+	// Scans an optional sign and a number into values[words], with the same value as Double.parseDouble
+	private int number(byte[] bytes, int p, int end) {
+		p = skipWhitespace(bytes, p, end);
+		boolean negative = false;
+		if (p < end && (bytes[p] == '-' || bytes[p] == '+')) {
+			negative = bytes[p] == '-';
+			p = skipWhitespace(bytes, p + 1, end);
+		}
+		int first = p, digits = 0, significant = 0, scale = 0;
+		long mantissa = 0;
+		boolean fraction = false;
+		for (; p < end; p++) {
+			int c = bytes[p];
+			if (isDigit(c)) {
+				digits++;
+				if (significant > 0 || c != '0') {
+					significant++;
+				}
+				if (significant <= 15) {
+					mantissa = mantissa * 10 + c - '0';
+					if (fraction) {
+						scale++;
+					}
+				}
+			}
+			else if (c == '.' && !fraction) {
+				fraction = true;
+			}
+			else {
+				break;
+			}
+		}
+		if (digits == 0 || p < end && bytes[p] == '.') {
+			return -1;
+		}
+		double value;
+		if (significant <= 15 && scale < POWERS.length) {
+			// both are exact, so the division rounds once, like parseDouble
+			value = scale == 0 ? mantissa : mantissa / POWERS[scale];
+		}
+		else {
+			value = Double.parseDouble(new String(bytes, first, p - first, StandardCharsets.US_ASCII));
+		}
+		values[words] = negative ? -value : value;
+		return p;
+	}
+
+	private static int endOfComment(byte[] bytes, int p, int end) {
+		for (; p < end; p++) {
+			if (bytes[p] == ')') {
+				return p + 1;
+			}
+		}
+		return -1;
+	}
+
+	private static int digits(byte[] bytes, int p, int end) {
+		int digits = 0;
+		while (p + digits < end && isDigit(bytes[p + digits])) {
+			digits++;
+		}
+		return digits;
+	}
+
+	private static int skipWhitespace(byte[] bytes, int p, int end) {
+		while (p < end && (bytes[p] == ' ' || bytes[p] == '\t')) {
+			p++;
+		}
+		return p;
+	}
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLetter(int c) {
+		c |= 0x20;
+		return c >= 'a' && c <= 'z';
+	}
+
+	// Parses and executes the text from start to next (including the end of line) with GCodeParser
+	private void parse(byte[] bytes, int start, int next, int lineNumber) {
+		ANTLRInputStream input = new ANTLRInputStream(new String(bytes, start, next - start, Charset.defaultCharset()));
+		if (lexer == null) {
+			lexer = new GCodeLexer(input);
+		}
+		else {
+			lexer.setInputStream(input);
+		}
+		lexer.setLine(lineNumber);
+		CommonTokenStream tokens = new CommonTokenStream(lexer);
+		if (parser == null) {
+			parser = new GCodeParser(tokens);
+		}
+		else {
+			parser.setTokenStream(tokens);
+		}
+		MotorMachine.executeLines(executor, tokens, parser);
+		parsedLines++;
+	}
+}
@@ -0,0 +1,207 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Machine wrapper that appends every canonical call with its arguments and a timestamp to a binary log, then passes
+// the call on to the target machine. See CallReplayer to play a log back.
+// The log is written through a memory mapped file, one chunk at a time, so recording only costs a few memory writes
+// per call and allocates nothing.
+//
+// File layout (little endian):
+// header: magic, format version, Executor version, start time in milliseconds since the epoch (long)
+// records: opcode + 1 as byte, nanoseconds since the start (long), then the arguments the opcode uses:
+// - position (SET_ORIGIN_OFFSETS, STRAIGHT_*): x, y, z, a, b, c as doubles
+// - arc: first end, second end, axis end point, a, b, c, first center, second center as doubles, rotation as int
+// - value (feed rate, dwell, spindle speed, tool length offset, cutter radius): double
+// - enum, tool slot: int
+// - ORIENT_SPINDLE: orientation as double, direction as int
+// - text: char count as int (-1 for null), then UTF-16 chars
+// A 0 opcode ends the log, 0xFF means the rest of the chunk is unused and the next record starts the next chunk.
+public class CallRecorder extends CanonicalColumns implements LineListener, ParameterHolder, AutoCloseable
+{
+	static final int						MAGIC						= 0x4A47434C;	// JGCL
+	static final int						FORMAT_VERSION	= 1;
+	static final int						HEADER_SIZE			= 3 * 4 + 8;
+	static final int						CHUNK_SIZE			= 1 << 26;
+	static final byte						END							= 0;
+	static final byte						NEXT_CHUNK			= (byte) 0xFF;
+
+	static final int						NONE						= 0, POSITION = 1, ARC = 2, VALUE = 3, ENUM = 4, VALUE_ENUM = 5, TEXT = 6;
+
+	private final Machine				target;
+	private final RandomAccessFile	file;
+	private final long					startNanos;
+	private MappedByteBuffer		buffer;
+	private long								chunkStart;
+	private long								calls;
+
+	public CallRecorder(File log, Machine target) throws IOException {
+		super(1);
+		this.target = target;
+		file = new RandomAccessFile(log, "rw");
+		file.setLength(0);
+		map(0);
+		buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(Executor.VERSION).putLong(System.currentTimeMillis());
+		startNanos = System.nanoTime();
+	}
+
+	private void map(long position) throws IOException {
+		chunkStart = position;
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, position, CHUNK_SIZE);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	static int kind(Canonical opcode) {
+		switch (opcode) {
+			case SET_ORIGIN_OFFSETS:
+			case STRAIGHT_TRAVERSE:
+			case STRAIGHT_FEED:
+			case STRAIGHT_PROBE:
+				return POSITION;
+			case ARC_FEED:
+				return ARC;
+			case SET_FEED_RATE:
+			case DWELL:
+			case SET_SPINDLE_SPEED:
+			case USE_TOOL_LENGTH_OFFSET:
+			case SET_CUTTER_RADIUS_COMPENSATION:
+				return VALUE;
+			case USE_LENGTH_UNITS:
+			case SELECT_PLANE:
+			case SET_FEED_REFERENCE:
+			case SET_MOTION_CONTROL_MODE:
+			case CHANGE_TOOL:
+			case SELECT_TOOL:
+			case START_CUTTER_RADIUS_COMPENSATION:
+				return ENUM;
+			case ORIENT_SPINDLE:
+				return VALUE_ENUM;
+			case COMMENT:
+			case MESSAGE:
+				return TEXT;
+			default:
+				return NONE;
+		}
+	}
+
+	private static int recordSize(int kind, String text) {
+		int size = 1 + 8;
+		switch (kind) {
+			case POSITION:
+				return size + 6 * 8;
+			case ARC:
+				return size + 8 * 8 + 4;
+			case VALUE:
+				return size + 8;
+			case ENUM:
+				return size + 4;
+			case VALUE_ENUM:
+				return size + 8 + 4;
+			case TEXT:
+				return size + 4 + (text == null ? 0 : text.length() * 2);
+			default:
+				return size;
+		}
+	}
+
+	@Override
+	int add(Canonical opcode) {
+		op[0] = (byte) opcode.ordinal();
+		return 0;
+	}
+
+	@Override
+	void commit() {
+		try {
+			write(System.nanoTime() - startNanos);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Can not write call log", e);
+		}
+		replay(0, target);
+		text[0] = null;
+	}
+
+	private void write(long nanos) throws IOException {
+		int kind = kind(Canonical.VALUES[op[0]]);
+		int size = recordSize(kind, text[0]);
+		if (buffer.remaining() < size) {
+			if (size > CHUNK_SIZE) {
+				throw new IllegalArgumentException("Text too long for call log: " + text[0].length());
+			}
+			if (buffer.hasRemaining()) {
+				buffer.put(NEXT_CHUNK);
+			}
+			map(chunkStart + CHUNK_SIZE);
+		}
+		buffer.put((byte) (op[0] + 1)).putLong(nanos);
+		switch (kind) {
+			case POSITION:
+				buffer.putDouble(x[0]).putDouble(y[0]).putDouble(z[0]).putDouble(a[0]).putDouble(b[0]).putDouble(c[0]);
+				break;
+			case ARC:
+				buffer.putDouble(x[0]).putDouble(y[0]).putDouble(z[0]).putDouble(a[0]).putDouble(b[0]).putDouble(c[0]);
+				buffer.putDouble(i[0]).putDouble(j[0]).putInt(n[0]);
+				break;
+			case VALUE:
+				buffer.putDouble(f[0]);
+				break;
+			case ENUM:
+				buffer.putInt(n[0]);
+				break;
+			case VALUE_ENUM:
+				buffer.putDouble(f[0]).putInt(n[0]);
+				break;
+			case TEXT:
+				String value = text[0];
+				if (value == null) {
+					buffer.putInt(-1);
+				}
+				else {
+					buffer.putInt(value.length());
+					for (int k = 0; k < value.length(); k++) {
+						buffer.putChar(value.charAt(k));
+					}
+				}
+				break;
+			default:
+				break;
+		}
+		calls++;
+	}
+
+	@Override
+	public void startLine(int lineNumber) {
+		if (target instanceof LineListener) {
+			((LineListener) target).startLine(lineNumber);
+		}
+	}
+
+	@Override
+	public double[] getParameters() {
+		return Executor.parametersOf(target);
+	}
+
+	// Writes the log to disk, so it survives a crash of the machine but not of the operating system
+	public void force() {
+		buffer.force();
+	}
+
+	// Cuts the log file to the recorded calls and closes it
+	@Override
+	public void close() throws IOException {
+		long length = chunkStart + buffer.position();
+		buffer.force();
+		buffer = null;
+		file.setLength(length);
+		file.close();
+		MotorMachine.flush(target);
+	}
+}
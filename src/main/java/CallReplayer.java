@@ -0,0 +1,123 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+// Plays a log written by CallRecorder back into a machine, as fast as possible or with the original timing.
+public class CallReplayer
+{
+	private static final long	SPIN_NANOS	= 50000;	// park until this close to a call, then spin
+
+	// Returns the number of calls
+	public static long replay(File log, Machine machine, boolean realTime) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(log, "r")) {
+			long length = file.length();
+			MappedByteBuffer buffer = map(file, 0, length);
+			if (length < CallRecorder.HEADER_SIZE || buffer.getInt() != CallRecorder.MAGIC) {
+				throw new IOException("Not a call log: " + log);
+			}
+			if (buffer.getInt() != CallRecorder.FORMAT_VERSION) {
+				throw new IOException("Unsupported call log version: " + log);
+			}
+			buffer.getInt(); // Executor version
+			buffer.getLong(); // start time
+
+			long chunkStart = 0;
+			long startNanos = System.nanoTime();
+			long calls = 0;
+			while (true) {
+				if (!buffer.hasRemaining()) {
+					chunkStart += CallRecorder.CHUNK_SIZE;
+					if (chunkStart >= length) {
+						break;
+					}
+					buffer = map(file, chunkStart, length);
+				}
+				byte opcode = buffer.get();
+				if (opcode == CallRecorder.END) {
+					break;
+				}
+				if (opcode == CallRecorder.NEXT_CHUNK) {
+					buffer.position(buffer.limit());
+					continue;
+				}
+				long nanos = buffer.getLong();
+				if (realTime) {
+					waitUntil(startNanos + nanos);
+				}
+				call(buffer, Canonical.VALUES[opcode - 1], machine);
+				calls++;
+			}
+			MotorMachine.flush(machine);
+			return calls;
+		}
+	}
+
+	private static MappedByteBuffer map(RandomAccessFile file, long position, long length) throws IOException {
+		MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, position, Math.min(CallRecorder.CHUNK_SIZE, length - position));
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	private static void waitUntil(long due) {
+		long remaining;
+		while ((remaining = due - System.nanoTime()) > 0) {
+			if (remaining > SPIN_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_NANOS);
+			}
+		}
+	}
+
+	private static void call(MappedByteBuffer buffer, Canonical opcode, Machine machine) {
+		double x = 0, y = 0, z = 0, a = 0, b = 0, c = 0, i = 0, j = 0, f = 0;
+		int n = 0;
+		String text = null;
+		switch (CallRecorder.kind(opcode)) {
+			case CallRecorder.POSITION:
+				x = buffer.getDouble();
+				y = buffer.getDouble();
+				z = buffer.getDouble();
+				a = buffer.getDouble();
+				b = buffer.getDouble();
+				c = buffer.getDouble();
+				break;
+			case CallRecorder.ARC:
+				x = buffer.getDouble();
+				y = buffer.getDouble();
+				z = buffer.getDouble();
+				a = buffer.getDouble();
+				b = buffer.getDouble();
+				c = buffer.getDouble();
+				i = buffer.getDouble();
+				j = buffer.getDouble();
+				n = buffer.getInt();
+				break;
+			case CallRecorder.VALUE:
+				f = buffer.getDouble();
+				break;
+			case CallRecorder.ENUM:
+				n = buffer.getInt();
+				break;
+			case CallRecorder.VALUE_ENUM:
+				f = buffer.getDouble();
+				n = buffer.getInt();
+				break;
+			case CallRecorder.TEXT:
+				int length = buffer.getInt();
+				if (length >= 0) {
+					char[] chars = new char[length];
+					for (int k = 0; k < length; k++) {
+						chars[k] = buffer.getChar();
+					}
+					text = new String(chars);
+				}
+				break;
+			default:
+				break;
+		}
+		CanonicalColumns.call(machine, opcode, x, y, z, a, b, c, i, j, f, n, text);
+	}
+}
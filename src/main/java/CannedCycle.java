@@ -0,0 +1,175 @@
+import java.util.Arrays;
+
+// Calls of a canned cycle (G81 to G89) for one hole in the XY plane, from the R level on, as in RS274NGC.
+// They only depend on the cycle and its modal values, not on the hole, so they are computed once into a template of
+// Z levels and replayed for every hole with the X and Y of the hole. See Executor.cycle for the motion to the R level.
+// The Executor does not know the spindle direction, so the cycles that stop the spindle start it clockwise again.
+final class CannedCycle
+{
+	// Calls of the template, with the Z level or dwell time in values
+	private static final byte	TRAVERSE					= 0;
+	private static final byte	FEED							= 1;
+	private static final byte	TRAVERSE_OFFSET		= 2;	// to the X and Y offset by I and J (G87)
+	private static final byte	DWELL							= 3;
+	private static final byte	STOP_SPINDLE			= 4;
+	private static final byte	START_SPINDLE			= 5;
+	private static final byte	REVERSE_SPINDLE		= 6;
+	private static final byte	ORIENT_SPINDLE		= 7;
+	private static final byte	START_SYNCH				= 8;
+	private static final byte	STOP_SYNCH				= 9;
+	private static final byte	PROGRAM_STOP			= 10;
+
+	// Rapid distance above the last peck of G83
+	static final double				PECK_CLEARANCE_MM		= 0.254;
+	static final double				PECK_CLEARANCE_INCH	= 0.010;
+
+	// The modal values the template was made for
+	final int									mode;
+	final double							r, bottom, clear, dwell, peck, middle, peckClearance;
+
+	private byte[]						calls							= new byte[8];
+	private double[]					values						= new double[8];
+	private int								size;
+
+	// Mode is the G code, r, bottom and clear the Z levels of R, the Z word and the retract, dwell the P word, peck the Q
+	// word (G83), middle the K word (G87), peckClearance the rapid distance above the last peck in program units
+	CannedCycle(int mode, double r, double bottom, double clear, double dwell, double peck, double middle, double peckClearance) {
+		this.mode = mode;
+		this.r = r;
+		this.bottom = bottom;
+		this.clear = clear;
+		this.dwell = dwell;
+		this.peck = peck;
+		this.middle = middle;
+		this.peckClearance = peckClearance;
+		switch (mode) {
+			case 81:
+				add(FEED, bottom);
+				add(TRAVERSE, clear);
+				break;
+			case 82:
+				add(FEED, bottom);
+				add(DWELL, dwell);
+				add(TRAVERSE, clear);
+				break;
+			case 83:
+				for (int n = 1; r - n * peck > bottom; n++) {
+					add(FEED, r - n * peck);
+					add(TRAVERSE, clear);
+					add(TRAVERSE, r - n * peck + peckClearance);
+				}
+				add(FEED, bottom);
+				add(TRAVERSE, clear);
+				break;
+			case 84:
+				add(START_SYNCH, 0);
+				add(FEED, bottom);
+				add(STOP_SPINDLE, 0);
+				add(REVERSE_SPINDLE, 0);
+				add(FEED, clear);
+				add(STOP_SYNCH, 0);
+				add(STOP_SPINDLE, 0);
+				add(START_SPINDLE, 0);
+				break;
+			case 85:
+				add(FEED, bottom);
+				add(FEED, clear);
+				break;
+			case 86:
+				add(FEED, bottom);
+				add(DWELL, dwell);
+				add(STOP_SPINDLE, 0);
+				add(TRAVERSE, clear);
+				add(START_SPINDLE, 0);
+				break;
+			case 87: // back boring, the tool enters the hole at the offset with the spindle oriented
+				add(TRAVERSE_OFFSET, r);
+				add(STOP_SPINDLE, 0);
+				add(ORIENT_SPINDLE, 0);
+				add(TRAVERSE_OFFSET, bottom);
+				add(TRAVERSE, bottom);
+				add(START_SPINDLE, 0);
+				add(FEED, middle);
+				add(FEED, bottom);
+				add(STOP_SPINDLE, 0);
+				add(ORIENT_SPINDLE, 0);
+				add(TRAVERSE_OFFSET, bottom);
+				add(TRAVERSE_OFFSET, clear);
+				add(TRAVERSE, clear);
+				add(START_SPINDLE, 0);
+				break;
+			case 88: // the operator retracts the tool
+				add(FEED, bottom);
+				add(DWELL, dwell);
+				add(STOP_SPINDLE, 0);
+				add(PROGRAM_STOP, 0);
+				add(START_SPINDLE, 0);
+				break;
+			case 89:
+				add(FEED, bottom);
+				add(DWELL, dwell);
+				add(FEED, clear);
+				break;
+			default:
+				throw new IllegalArgumentException("Not a canned cycle: G" + mode);
+		}
+	}
+
+	private void add(byte call, double value) {
+		if (size == calls.length) {
+			calls = Arrays.copyOf(calls, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		calls[size] = call;
+		values[size] = value;
+		size++;
+	}
+
+	boolean isFor(int mode, double r, double bottom, double clear, double dwell, double peck, double middle, double peckClearance) {
+		return mode == this.mode && r == this.r && bottom == this.bottom && clear == this.clear && dwell == this.dwell
+				&& peck == this.peck && middle == this.middle && peckClearance == this.peckClearance;
+	}
+
+	// Drills the hole at x and y, the tool is above it at the R level
+	void execute(Machine machine, double x, double y, double offsetX, double offsetY, double a, double b, double c) {
+		for (int k = 0; k < size; k++) {
+			switch (calls[k]) {
+				case TRAVERSE:
+					machine.STRAIGHT_TRAVERSE(x, y, values[k], a, b, c);
+					break;
+				case FEED:
+					machine.STRAIGHT_FEED(x, y, values[k], a, b, c);
+					break;
+				case TRAVERSE_OFFSET:
+					machine.STRAIGHT_TRAVERSE(offsetX, offsetY, values[k], a, b, c);
+					break;
+				case DWELL:
+					machine.DWELL(values[k]);
+					break;
+				case STOP_SPINDLE:
+					machine.STOP_SPINDLE_TURNING();
+					break;
+				case START_SPINDLE:
+					machine.START_SPINDLE_CLOCKWISE();
+					break;
+				case REVERSE_SPINDLE:
+					machine.START_SPINDLE_COUNTERCLOCKWISE();
+					break;
+				case ORIENT_SPINDLE:
+					machine.ORIENT_SPINDLE(0, Machine.CANON_DIRECTION.CANON_CLOCKWISE);
+					break;
+				case START_SYNCH:
+					machine.START_SPEED_FEED_SYNCH();
+					break;
+				case STOP_SYNCH:
+					machine.STOP_SPEED_FEED_SYNCH();
+					break;
+				case PROGRAM_STOP:
+					machine.PROGRAM_STOP();
+					break;
+				default:
+					throw new IllegalStateException("call: " + calls[k]);
+			}
+		}
+	}
+}
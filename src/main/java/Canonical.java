@@ -0,0 +1,45 @@
+// Opcodes of the canonical machining functions, see Machine
+public enum Canonical
+{
+	SET_ORIGIN_OFFSETS,
+	USE_LENGTH_UNITS,
+	STRAIGHT_TRAVERSE,
+	SELECT_PLANE,
+	SET_FEED_RATE,
+	SET_FEED_REFERENCE,
+	SET_MOTION_CONTROL_MODE,
+	START_SPEED_FEED_SYNCH,
+	STOP_SPEED_FEED_SYNCH,
+	ARC_FEED,
+	DWELL,
+	STRAIGHT_FEED,
+	STRAIGHT_PROBE,
+	ORIENT_SPINDLE,
+	SET_SPINDLE_SPEED,
+	START_SPINDLE_CLOCKWISE,
+	START_SPINDLE_COUNTERCLOCKWISE,
+	STOP_SPINDLE_TURNING,
+	CHANGE_TOOL,
+	SELECT_TOOL,
+	USE_TOOL_LENGTH_OFFSET,
+	COMMENT,
+	DISABLE_FEED_OVERRIDE,
+	DISABLE_SPEED_OVERRIDE,
+	ENABLE_FEED_OVERRIDE,
+	ENABLE_SPEED_OVERRIDE,
+	FLOOD_OFF,
+	FLOOD_ON,
+	INIT_CANON,
+	MESSAGE,
+	MIST_OFF,
+	MIST_ON,
+	PALLET_SHUTTLE,
+	OPTIONAL_PROGRAM_STOP,
+	PROGRAM_END,
+	PROGRAM_STOP,
+	SET_CUTTER_RADIUS_COMPENSATION,
+	START_CUTTER_RADIUS_COMPENSATION,
+	STOP_CUTTER_RADIUS_COMPENSATION;
+
+	static final Canonical[]	VALUES	= values();
+}
@@ -0,0 +1,459 @@
+import java.util.Arrays;
+
+// Canonical calls stored column wise in primitive arrays, see Toolpath and QueuedMachine.
+// Subclasses decide where a call is stored (add) and when it becomes visible (commit).
+//
+// Column usage per opcode:
+// - x, y, z, a, b, c: end point (ARC_FEED: first end, second end, axis end point, a, b, c)
+// - i, j: arc center (first axis, second axis)
+// - f: feed rate, dwell time, spindle speed, orientation, tool length offset or cutter radius
+// - n: arc rotation, tool slot or ordinal of the enum argument
+// - text: comment and message text
+abstract class CanonicalColumns implements Machine
+{
+	private static final CANON_UNITS[]						UNITS						= CANON_UNITS.values();
+	private static final CANON_PLANE[]						PLANES					= CANON_PLANE.values();
+	private static final CANON_FEED_REFERENCE[]	FEED_REFERENCES	= CANON_FEED_REFERENCE.values();
+	private static final CANON_MOTION_MODE[]			MOTION_MODES		= CANON_MOTION_MODE.values();
+	private static final CANON_DIRECTION[]				DIRECTIONS			= CANON_DIRECTION.values();
+	private static final CANON_COMP_SIDE[]				COMP_SIDES			= CANON_COMP_SIDE.values();
+
+	byte[]																				op;
+	double[]																			x, y, z, a, b, c;
+	double[]																			i, j;
+	double[]																			f;
+	int[]																					n;
+	String[]																			text;
+
+	CanonicalColumns(int capacity) {
+		op = new byte[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		z = new double[capacity];
+		a = new double[capacity];
+		b = new double[capacity];
+		c = new double[capacity];
+		i = new double[capacity];
+		j = new double[capacity];
+		f = new double[capacity];
+		n = new int[capacity];
+		text = new String[capacity];
+	}
+
+	// Stores the opcode of a new call and returns the index of its columns
+	abstract int add(Canonical opcode);
+
+	// Called when all columns of the last added call are written
+	void commit() {
+		// Nothing
+	}
+
+	public Canonical getOpcode(int index) {
+		return Canonical.VALUES[op[index]];
+	}
+
+	void replay(int k, Machine machine) {
+		call(machine, Canonical.VALUES[op[k]], x[k], y[k], z[k], a[k], b[k], c[k], i[k], j[k], f[k], n[k], text[k]);
+	}
+
+	static void call(	Machine machine,
+										Canonical opcode,
+										double x,
+										double y,
+										double z,
+										double a,
+										double b,
+										double c,
+										double i,
+										double j,
+										double f,
+										int n,
+										String text) {
+		switch (opcode) {
+			case SET_ORIGIN_OFFSETS:
+				machine.SET_ORIGIN_OFFSETS(x, y, z, a, b, c);
+				break;
+			case USE_LENGTH_UNITS:
+				machine.USE_LENGTH_UNITS(UNITS[n]);
+				break;
+			case STRAIGHT_TRAVERSE:
+				machine.STRAIGHT_TRAVERSE(x, y, z, a, b, c);
+				break;
+			case SELECT_PLANE:
+				machine.SELECT_PLANE(PLANES[n]);
+				break;
+			case SET_FEED_RATE:
+				machine.SET_FEED_RATE(f);
+				break;
+			case SET_FEED_REFERENCE:
+				machine.SET_FEED_REFERENCE(FEED_REFERENCES[n]);
+				break;
+			case SET_MOTION_CONTROL_MODE:
+				machine.SET_MOTION_CONTROL_MODE(MOTION_MODES[n]);
+				break;
+			case START_SPEED_FEED_SYNCH:
+				machine.START_SPEED_FEED_SYNCH();
+				break;
+			case STOP_SPEED_FEED_SYNCH:
+				machine.STOP_SPEED_FEED_SYNCH();
+				break;
+			case ARC_FEED:
+				machine.ARC_FEED(x, y, i, j, n, z, a, b, c);
+				break;
+			case DWELL:
+				machine.DWELL(f);
+				break;
+			case STRAIGHT_FEED:
+				machine.STRAIGHT_FEED(x, y, z, a, b, c);
+				break;
+			case STRAIGHT_PROBE:
+				machine.STRAIGHT_PROBE(x, y, z, a, b, c);
+				break;
+			case ORIENT_SPINDLE:
+				machine.ORIENT_SPINDLE(f, DIRECTIONS[n]);
+				break;
+			case SET_SPINDLE_SPEED:
+				machine.SET_SPINDLE_SPEED(f);
+				break;
+			case START_SPINDLE_CLOCKWISE:
+				machine.START_SPINDLE_CLOCKWISE();
+				break;
+			case START_SPINDLE_COUNTERCLOCKWISE:
+				machine.START_SPINDLE_COUNTERCLOCKWISE();
+				break;
+			case STOP_SPINDLE_TURNING:
+				machine.STOP_SPINDLE_TURNING();
+				break;
+			case CHANGE_TOOL:
+				machine.CHANGE_TOOL(n);
+				break;
+			case SELECT_TOOL:
+				machine.SELECT_TOOL(n);
+				break;
+			case USE_TOOL_LENGTH_OFFSET:
+				machine.USE_TOOL_LENGTH_OFFSET(f);
+				break;
+			case COMMENT:
+				machine.COMMENT(text);
+				break;
+			case DISABLE_FEED_OVERRIDE:
+				machine.DISABLE_FEED_OVERRIDE();
+				break;
+			case DISABLE_SPEED_OVERRIDE:
+				machine.DISABLE_SPEED_OVERRIDE();
+				break;
+			case ENABLE_FEED_OVERRIDE:
+				machine.ENABLE_FEED_OVERRIDE();
+				break;
+			case ENABLE_SPEED_OVERRIDE:
+				machine.ENABLE_SPEED_OVERRIDE();
+				break;
+			case FLOOD_OFF:
+				machine.FLOOD_OFF();
+				break;
+			case FLOOD_ON:
+				machine.FLOOD_ON();
+				break;
+			case INIT_CANON:
+				machine.INIT_CANON();
+				break;
+			case MESSAGE:
+				machine.MESSAGE(text);
+				break;
+			case MIST_OFF:
+				machine.MIST_OFF();
+				break;
+			case MIST_ON:
+				machine.MIST_ON();
+				break;
+			case PALLET_SHUTTLE:
+				machine.PALLET_SHUTTLE();
+				break;
+			case OPTIONAL_PROGRAM_STOP:
+				machine.OPTIONAL_PROGRAM_STOP();
+				break;
+			case PROGRAM_END:
+				machine.PROGRAM_END();
+				break;
+			case PROGRAM_STOP:
+				machine.PROGRAM_STOP();
+				break;
+			case SET_CUTTER_RADIUS_COMPENSATION:
+				machine.SET_CUTTER_RADIUS_COMPENSATION(f);
+				break;
+			case START_CUTTER_RADIUS_COMPENSATION:
+				machine.START_CUTTER_RADIUS_COMPENSATION(COMP_SIDES[n]);
+				break;
+			case STOP_CUTTER_RADIUS_COMPENSATION:
+				machine.STOP_CUTTER_RADIUS_COMPENSATION();
+				break;
+			default:
+				throw new IllegalStateException("opcode=" + opcode);
+		}
+	}
+
+	void resize(int capacity) {
+		op = Arrays.copyOf(op, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		z = Arrays.copyOf(z, capacity);
+		a = Arrays.copyOf(a, capacity);
+		b = Arrays.copyOf(b, capacity);
+		c = Arrays.copyOf(c, capacity);
+		i = Arrays.copyOf(i, capacity);
+		j = Arrays.copyOf(j, capacity);
+		f = Arrays.copyOf(f, capacity);
+		n = Arrays.copyOf(n, capacity);
+		text = Arrays.copyOf(text, capacity);
+	}
+
+	private void put(Canonical opcode) {
+		add(opcode);
+		commit();
+	}
+
+	private void put(Canonical opcode, double x, double y, double z, double a, double b, double c) {
+		int k = add(opcode);
+		this.x[k] = x;
+		this.y[k] = y;
+		this.z[k] = z;
+		this.a[k] = a;
+		this.b[k] = b;
+		this.c[k] = c;
+		commit();
+	}
+
+	private void put(Canonical opcode, double f) {
+		int k = add(opcode);
+		this.f[k] = f;
+		commit();
+	}
+
+	private void put(Canonical opcode, int n) {
+		int k = add(opcode);
+		this.n[k] = n;
+		commit();
+	}
+
+	private void put(Canonical opcode, String text) {
+		int k = add(opcode);
+		this.text[k] = text;
+		commit();
+	}
+
+	@Override
+	public void SET_ORIGIN_OFFSETS(double x, double y, double z, double a, double b, double c) {
+		put(Canonical.SET_ORIGIN_OFFSETS, x, y, z, a, b, c);
+	}
+
+	@Override
+	public void USE_LENGTH_UNITS(CANON_UNITS units) {
+		put(Canonical.USE_LENGTH_UNITS, units.ordinal());
+	}
+
+	@Override
+	public void STRAIGHT_TRAVERSE(double x, double y, double z, double a, double b, double c) {
+		put(Canonical.STRAIGHT_TRAVERSE, x, y, z, a, b, c);
+	}
+
+	@Override
+	public void SELECT_PLANE(CANON_PLANE plane) {
+		put(Canonical.SELECT_PLANE, plane.ordinal());
+	}
+
+	@Override
+	public void SET_FEED_RATE(double rate) {
+		put(Canonical.SET_FEED_RATE, rate);
+	}
+
+	@Override
+	public void SET_FEED_REFERENCE(CANON_FEED_REFERENCE reference) {
+		put(Canonical.SET_FEED_REFERENCE, reference.ordinal());
+	}
+
+	@Override
+	public void SET_MOTION_CONTROL_MODE(CANON_MOTION_MODE mode) {
+		put(Canonical.SET_MOTION_CONTROL_MODE, mode.ordinal());
+	}
+
+	@Override
+	public void START_SPEED_FEED_SYNCH() {
+		put(Canonical.START_SPEED_FEED_SYNCH);
+	}
+
+	@Override
+	public void STOP_SPEED_FEED_SYNCH() {
+		put(Canonical.STOP_SPEED_FEED_SYNCH);
+	}
+
+	@Override
+	public void ARC_FEED(	double firstEnd,
+												double secondEnd,
+												double firstCenter,
+												double secondCenter,
+												int rotation,
+												double axisEndPoint,
+												double a,
+												double b,
+												double c) {
+		int k = add(Canonical.ARC_FEED);
+		x[k] = firstEnd;
+		y[k] = secondEnd;
+		z[k] = axisEndPoint;
+		this.a[k] = a;
+		this.b[k] = b;
+		this.c[k] = c;
+		i[k] = firstCenter;
+		j[k] = secondCenter;
+		n[k] = rotation;
+		commit();
+	}
+
+	@Override
+	public void DWELL(double seconds) {
+		put(Canonical.DWELL, seconds);
+	}
+
+	@Override
+	public void STRAIGHT_FEED(double x, double y, double z, double a, double b, double c) {
+		put(Canonical.STRAIGHT_FEED, x, y, z, a, b, c);
+	}
+
+	@Override
+	public void STRAIGHT_PROBE(double x, double y, double z, double a, double b, double c) {
+		put(Canonical.STRAIGHT_PROBE, x, y, z, a, b, c);
+	}
+
+	@Override
+	public void ORIENT_SPINDLE(double orientation, CANON_DIRECTION direction) {
+		int k = add(Canonical.ORIENT_SPINDLE);
+		f[k] = orientation;
+		n[k] = direction.ordinal();
+		commit();
+	}
+
+	@Override
+	public void SET_SPINDLE_SPEED(double r) {
+		put(Canonical.SET_SPINDLE_SPEED, r);
+	}
+
+	@Override
+	public void START_SPINDLE_CLOCKWISE() {
+		put(Canonical.START_SPINDLE_CLOCKWISE);
+	}
+
+	@Override
+	public void START_SPINDLE_COUNTERCLOCKWISE() {
+		put(Canonical.START_SPINDLE_COUNTERCLOCKWISE);
+	}
+
+	@Override
+	public void STOP_SPINDLE_TURNING() {
+		put(Canonical.STOP_SPINDLE_TURNING);
+	}
+
+	@Override
+	public void CHANGE_TOOL(int slot) {
+		put(Canonical.CHANGE_TOOL, slot);
+	}
+
+	@Override
+	public void SELECT_TOOL(int i) {
+		put(Canonical.SELECT_TOOL, i);
+	}
+
+	@Override
+	public void USE_TOOL_LENGTH_OFFSET(double offset) {
+		put(Canonical.USE_TOOL_LENGTH_OFFSET, offset);
+	}
+
+	@Override
+	public void COMMENT(String s) {
+		put(Canonical.COMMENT, s);
+	}
+
+	@Override
+	public void DISABLE_FEED_OVERRIDE() {
+		put(Canonical.DISABLE_FEED_OVERRIDE);
+	}
+
+	@Override
+	public void DISABLE_SPEED_OVERRIDE() {
+		put(Canonical.DISABLE_SPEED_OVERRIDE);
+	}
+
+	@Override
+	public void ENABLE_FEED_OVERRIDE() {
+		put(Canonical.ENABLE_FEED_OVERRIDE);
+	}
+
+	@Override
+	public void ENABLE_SPEED_OVERRIDE() {
+		put(Canonical.ENABLE_SPEED_OVERRIDE);
+	}
+
+	@Override
+	public void FLOOD_OFF() {
+		put(Canonical.FLOOD_OFF);
+	}
+
+	@Override
+	public void FLOOD_ON() {
+		put(Canonical.FLOOD_ON);
+	}
+
+	@Override
+	public void INIT_CANON() {
+		put(Canonical.INIT_CANON);
+	}
+
+	@Override
+	public void MESSAGE(String s) {
+		put(Canonical.MESSAGE, s);
+	}
+
+	@Override
+	public void MIST_OFF() {
+		put(Canonical.MIST_OFF);
+	}
+
+	@Override
+	public void MIST_ON() {
+		put(Canonical.MIST_ON);
+	}
+
+	@Override
+	public void PALLET_SHUTTLE() {
+		put(Canonical.PALLET_SHUTTLE);
+	}
+
+	@Override
+	public void OPTIONAL_PROGRAM_STOP() {
+		put(Canonical.OPTIONAL_PROGRAM_STOP);
+	}
+
+	@Override
+	public void PROGRAM_END() {
+		put(Canonical.PROGRAM_END);
+	}
+
+	@Override
+	public void PROGRAM_STOP() {
+		put(Canonical.PROGRAM_STOP);
+	}
+
+	@Override
+	public void SET_CUTTER_RADIUS_COMPENSATION(double radius) {
+		put(Canonical.SET_CUTTER_RADIUS_COMPENSATION, radius);
+	}
+
+	@Override
+	public void START_CUTTER_RADIUS_COMPENSATION(CANON_COMP_SIDE side) {
+		put(Canonical.START_CUTTER_RADIUS_COMPENSATION, side.ordinal());
+	}
+
+	@Override
+	public void STOP_CUTTER_RADIUS_COMPENSATION() {
+		put(Canonical.STOP_CUTTER_RADIUS_COMPENSATION);
+	}
+}
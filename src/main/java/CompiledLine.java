@@ -0,0 +1,120 @@
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+import dkwakkel.jgcode.GCodeParser.EContext;
+import dkwakkel.jgcode.GCodeParser.LineContext;
+import dkwakkel.jgcode.GCodeParser.ParameterSettingContext;
+
+// Line of a loop or subroutine, compiled once: the words the Executor acts on, in order, with compiled expressions.
+// Executing it makes the same calls on the Executor as walking the parse tree of the line.
+final class CompiledLine
+{
+	private static final int					G						= 'g', F = 'f', NUMBERED = '#', NAMED = '<';
+
+	private final int									lineNumber;
+	private final int[]								letters;	// axis, L, P or Q letter in lower case, G, F, NUMBERED or NAMED
+	private final int[]								codes;		// G code times ten or slot of a named parameter
+	private final Expression[]				values;
+	private final Expression[]				targets;	// number of a numbered parameter
+
+	private CompiledLine(Compiler compiler) {
+		lineNumber = compiler.lineNumber;
+		letters = Arrays.copyOf(compiler.letters, compiler.words);
+		codes = Arrays.copyOf(compiler.codes, compiler.words);
+		values = Arrays.copyOf(compiler.values, compiler.words);
+		targets = Arrays.copyOf(compiler.targets, compiler.words);
+	}
+
+	static CompiledLine compile(LineContext line, ExpressionCompiler expressions) {
+		Compiler compiler = new Compiler(expressions);
+		ParseTreeWalker.DEFAULT.walk(compiler, line);
+		return new CompiledLine(compiler);
+	}
+
+	void execute(Executor executor, ParameterTable parameters) {
+		executor.startLine(lineNumber);
+		for (int k = 0; k < letters.length; k++) {
+			switch (letters[k]) {
+				case G:
+					executor.gCode(codes[k]);
+					break;
+				case F:
+					executor.feedRate(values[k].evaluate(parameters));
+					break;
+				case NUMBERED:
+					executor.setParameter(ParameterTable.index(targets[k].evaluate(parameters)), values[k].evaluate(parameters));
+					break;
+				case NAMED:
+					executor.setParameter(-(codes[k] + 1), values[k].evaluate(parameters));
+					break;
+				case 'l':
+				case 'p':
+				case 'q':
+					executor.cycleWord(letters[k], values[k].evaluate(parameters));
+					break;
+				default:
+					executor.axisWord(letters[k], values[k].evaluate(parameters));
+					break;
+			}
+		}
+		executor.endOfLine();
+	}
+
+	// Records the words in the order the Executor handles them
+	private static final class Compiler extends WordListener
+	{
+		private final ExpressionCompiler	expressions;
+		int																lineNumber;
+		int[]															letters	= new int[8];
+		int[]															codes		= new int[8];
+		Expression[]											values	= new Expression[8];
+		Expression[]											targets	= new Expression[8];
+		int																words;
+
+		Compiler(ExpressionCompiler expressions) {
+			this.expressions = expressions;
+		}
+
+		private void add(int letter, int code, Expression value, Expression target) {
+			if (words == letters.length) {
+				letters = Arrays.copyOf(letters, words * 2);
+				codes = Arrays.copyOf(codes, words * 2);
+				values = Arrays.copyOf(values, words * 2);
+				targets = Arrays.copyOf(targets, words * 2);
+			}
+			letters[words] = letter;
+			codes[words] = code;
+			values[words] = value;
+			targets[words] = target;
+			words++;
+		}
+
+		@Override
+		void startLine(int lineNumber) {
+			this.lineNumber = lineNumber;
+		}
+
+		@Override
+		void gCode(int code) {
+			add(G, code, null, null);
+		}
+
+		@Override
+		void word(int letter, EContext value) {
+			add(letter, 0, expressions.compile(value), null);
+		}
+
+		@Override
+		public void exitParameterSetting(ParameterSettingContext ctx) {
+			Object target = expressions.compileTarget(ctx);
+			Expression value = expressions.compile(ctx.e());
+			if (target instanceof Expression) {
+				add(NUMBERED, 0, value, (Expression) target);
+			}
+			else {
+				add(NAMED, (Integer) target, value, null);
+			}
+		}
+	}
+}
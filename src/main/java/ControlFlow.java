@@ -0,0 +1,520 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import dkwakkel.jgcode.GCodeParser;
+import dkwakkel.jgcode.GCodeParser.LineContext;
+import dkwakkel.jgcode.GCodeParser.Oword_labelContext;
+import dkwakkel.jgcode.GCodeParser.Oword_statementContext;
+import dkwakkel.jgcode.GCodeParser.SegmentContext;
+
+// O-word control flow as in LinuxCNC: subroutines (sub, endsub, return, call), loops (while, do while, repeat,
+// break, continue) and conditionals (if, elseif, else, endif).
+// Lines outside of these run when they arrive. The lines of a subroutine, loop or if are compiled once into a Block
+// of jumps over CompiledLines; a loop or if runs when it is complete, a subroutine on every call. Iterations and
+// calls run the compiled lines, so they cost as much per move as straight code.
+// In a call #1 to #30 are local: they hold the arguments, and get their old values back on return.
+// The value of return or endsub is in #<_value>.
+final class ControlFlow
+{
+	private static final int					LOCALS					= 30;
+	private static final int					MAX_CALL_DEPTH	= 1000;
+
+	// Instructions of a Block, operands follow the opcode
+	static final int									LINE						= 0;	// line
+	static final int									JUMP						= 1;	// target
+	static final int									JUMP_UNLESS			= 2;	// condition, target
+	static final int									JUMP_IF					= 3;	// condition, target
+	static final int									REPEAT					= 4;	// count, target when count is not positive
+	static final int									END_REPEAT			= 5;	// target while the count is not reached
+	static final int									POP							= 6;	// number of repeat counts to drop
+	static final int									CALL						= 7;	// label, argument count, arguments
+	static final int									CALL_INDIRECT		= 8;	// label expression, argument count, arguments
+	static final int									RETURN					= 9;	// value or -1
+
+	// Kinds of constructs
+	private static final int					SUB							= 0, WHILE = 1, DO = 2, REPEAT_LOOP = 3, IF = 4;
+	private static final String[]			KIND_NAMES			= { "sub", "while", "do", "repeat", "if" };
+
+	static final class Block
+	{
+		final int[]						code;
+		final Expression[]		expressions;
+		final CompiledLine[]	lines;
+		final String[]				labels;
+
+		Block(int[] code, Expression[] expressions, CompiledLine[] lines, String[] labels) {
+			this.code = code;
+			this.expressions = expressions;
+			this.lines = lines;
+			this.labels = labels;
+		}
+	}
+
+	private final Executor						executor;
+	private final ParameterTable			parameters;
+	private final ExpressionCompiler	compiler;
+	private final int									valueSlot;
+
+	private final Map<String, Block>	subroutines			= new HashMap<>();
+
+	// Construct being compiled, null when lines run when they arrive
+	private Builder										builder;
+
+	// Repeat counts and saved locals of the running blocks
+	private int[]											counts					= new int[8];
+	private int												countTop;
+	private double[]									locals					= new double[4 * LOCALS];
+	private int												localTop;
+	private int												depth;
+
+	ControlFlow(Executor executor, ParameterTable parameters, ExpressionCompiler compiler) {
+		this.executor = executor;
+		this.parameters = parameters;
+		this.compiler = compiler;
+		this.valueSlot = parameters.slot("_value");
+	}
+
+	boolean isCompiling() {
+		return builder != null;
+	}
+
+	// Takes the line when it is an O-word or part of a construct being compiled, false when the line is for the Executor
+	boolean take(LineContext line) {
+		SegmentContext oword = null;
+		boolean words = false;
+		for (SegmentContext segment : line.segment()) {
+			if (segment.oword_statement() != null) {
+				oword = segment;
+			}
+			else if (segment.comment() == null) {
+				words = true;
+			}
+		}
+		if (oword != null && words) {
+			throw error(line.getStart().getLine(), "an O-word must be alone on its line");
+		}
+		if (oword == null && builder == null) {
+			return false;
+		}
+		if (builder == null) {
+			builder = new Builder();
+		}
+		if (oword == null) {
+			builder.line(CompiledLine.compile(line, compiler));
+			return true;
+		}
+
+		int lineNumber = line.getStart().getLine();
+		boolean definition = builder.statement(oword.oword_label(), oword.oword_statement(), lineNumber);
+		if (builder.isComplete()) {
+			Block block = builder.build();
+			String label = builder.firstLabel;
+			builder = null;
+			if (definition) {
+				subroutines.put(label, block);
+			}
+			else {
+				run(block);
+			}
+		}
+		return true;
+	}
+
+	void checkClosed() {
+		if (builder != null) {
+			throw new IllegalStateException("o" + builder.open.get(builder.open.size() - 1).label + " is not closed");
+		}
+	}
+
+	static String label(Oword_labelContext ctx) {
+		if (ctx.NUMBER() != null) {
+			return label(Double.parseDouble(ctx.NUMBER().getText()));
+		}
+		String name = ctx.NAME().getText();
+		return name.substring(1, name.length() - 1).replace(" ", "").toLowerCase();
+	}
+
+	private static String label(double number) {
+		return Integer.toString((int) Math.round(number));
+	}
+
+	private void run(Block block) {
+		int[] code = block.code;
+		Expression[] expressions = block.expressions;
+		int countBase = countTop;
+		for (int pc = 0; pc < code.length;) {
+			switch (code[pc]) {
+				case LINE:
+					block.lines[code[pc + 1]].execute(executor, parameters);
+					pc += 2;
+					break;
+				case JUMP:
+					pc = code[pc + 1];
+					break;
+				case JUMP_UNLESS:
+					pc = expressions[code[pc + 1]].evaluate(parameters) != 0 ? pc + 3 : code[pc + 2];
+					break;
+				case JUMP_IF:
+					pc = expressions[code[pc + 1]].evaluate(parameters) != 0 ? code[pc + 2] : pc + 3;
+					break;
+				case REPEAT: {
+					int count = (int) Math.round(expressions[code[pc + 1]].evaluate(parameters));
+					if (count > 0) {
+						if (countTop == counts.length) {
+							counts = Arrays.copyOf(counts, countTop * 2);
+						}
+						counts[countTop++] = count;
+						pc += 3;
+					}
+					else {
+						pc = code[pc + 2];
+					}
+					break;
+				}
+				case END_REPEAT:
+					if (--counts[countTop - 1] > 0) {
+						pc = code[pc + 1];
+					}
+					else {
+						countTop--;
+						pc += 2;
+					}
+					break;
+				case POP:
+					countTop -= code[pc + 1];
+					pc += 2;
+					break;
+				case CALL:
+				case CALL_INDIRECT: {
+					String label = code[pc] == CALL ? block.labels[code[pc + 1]] : label(expressions[code[pc + 1]].evaluate(parameters));
+					Block subroutine = subroutines.get(label);
+					if (subroutine == null) {
+						throw new IllegalArgumentException("Unknown subroutine: o" + label);
+					}
+					int arguments = code[pc + 2];
+					call(subroutine, expressions, code, pc + 3, arguments);
+					pc += 3 + arguments;
+					break;
+				}
+				case RETURN:
+					if (code[pc + 1] >= 0) {
+						parameters.setNamed(valueSlot, expressions[code[pc + 1]].evaluate(parameters));
+					}
+					countTop = countBase;
+					return;
+				default:
+					throw new IllegalStateException("opcode=" + code[pc]);
+			}
+		}
+		countTop = countBase;
+	}
+
+	private void call(Block subroutine, Expression[] expressions, int[] code, int first, int arguments) {
+		if (depth == MAX_CALL_DEPTH) {
+			throw new IllegalStateException("Subroutine calls nested more than " + MAX_CALL_DEPTH + " deep");
+		}
+		int frame = localTop;
+		if (frame + LOCALS + arguments > locals.length) {
+			locals = Arrays.copyOf(locals, Math.max(locals.length * 2, frame + LOCALS + arguments));
+		}
+		for (int k = 0; k < LOCALS; k++) {
+			locals[frame + k] = parameters.get(k + 1);
+		}
+		// arguments are evaluated before any local changes
+		for (int k = 0; k < arguments; k++) {
+			locals[frame + LOCALS + k] = expressions[code[first + k]].evaluate(parameters);
+		}
+		for (int k = 0; k < LOCALS; k++) {
+			parameters.set(k + 1, k < arguments ? locals[frame + LOCALS + k] : 0);
+		}
+		localTop = frame + LOCALS;
+		depth++;
+		try {
+			run(subroutine);
+		}
+		finally {
+			depth--;
+			localTop = frame;
+			for (int k = 0; k < LOCALS; k++) {
+				parameters.set(k + 1, locals[frame + k]);
+			}
+		}
+	}
+
+	// Construct that is not closed yet
+	private static final class Construct
+	{
+		final int		kind;
+		final String	label;
+		final int		start;						// first instruction of the loop body, or the condition of a while
+		int					branch	= -1;			// operand of the jump to the next branch of an if
+		boolean			hasElse;
+		int[]				exits		= new int[4];	// operands of jumps to the end
+		int					exitCount;
+		int[]				continues	= new int[4];	// operands of jumps to the condition of a do
+		int					continueCount;
+
+		Construct(int kind, String label, int start) {
+			this.kind = kind;
+			this.label = label;
+			this.start = start;
+		}
+
+		boolean isLoop() {
+			return kind == WHILE || kind == DO || kind == REPEAT_LOOP;
+		}
+	}
+
+	// Compiles the lines and O-words of one outer construct into a Block
+	private final class Builder
+	{
+		int[]										code				= new int[64];
+		int											size;
+		final List<Expression>		expressions	= new ArrayList<>();
+		final List<CompiledLine>	lines				= new ArrayList<>();
+		final List<String>				labels			= new ArrayList<>();
+		final List<Construct>			open				= new ArrayList<>();
+		String									firstLabel;
+		boolean									started;
+
+		boolean isComplete() {
+			return started && open.isEmpty();
+		}
+
+		void line(CompiledLine line) {
+			emit(LINE, lines.size());
+			lines.add(line);
+		}
+
+		// Returns true when the statement ends a subroutine definition
+		boolean statement(Oword_labelContext labelContext, Oword_statementContext statement, int lineNumber) {
+			int type = ((TerminalNode) statement.getChild(0)).getSymbol().getType();
+			if (labelContext.parameter() != null) {
+				if (type != GCodeParser.CALL) {
+					throw error(lineNumber, "only call can have a computed label");
+				}
+				started = true;
+				expressions.add(compiler.compile(labelContext.parameter()));
+				call(CALL_INDIRECT, expressions.size() - 1, statement);
+				return false;
+			}
+			String label = label(labelContext);
+			if (!started) {
+				firstLabel = label;
+				started = true;
+			}
+			switch (type) {
+				case GCodeParser.SUB:
+					if (!open.isEmpty() || size > 0) {
+						throw error(lineNumber, "o" + label + " sub must not be in another construct");
+					}
+					open(SUB, label);
+					return false;
+				case GCodeParser.ENDSUB:
+				case GCodeParser.RETURN: {
+					Construct sub = open.isEmpty() ? null : open.get(0);
+					if (sub == null || sub.kind != SUB || !sub.label.equals(label)) {
+						throw error(lineNumber, "o" + label + " is not the subroutine being defined");
+					}
+					emit(RETURN, statement.bracketExpression().isEmpty() ? -1 : expression(statement, 0));
+					if (type == GCodeParser.ENDSUB) {
+						close(SUB, label, lineNumber);
+						return true;
+					}
+					return false;
+				}
+				case GCodeParser.CALL:
+					call(CALL, labels.size(), statement);
+					labels.add(label);
+					return false;
+				case GCodeParser.DO:
+					open(DO, label);
+					return false;
+				case GCodeParser.WHILE: {
+					Construct top = open.isEmpty() ? null : open.get(open.size() - 1);
+					if (top != null && top.kind == DO && top.label.equals(label)) { // end of do while
+						patch(top.continues, top.continueCount, size);
+						emit(JUMP_IF, expression(statement, 0), top.start);
+						close(DO, label, lineNumber);
+						return false;
+					}
+					Construct loop = open(WHILE, label);
+					emit(JUMP_UNLESS, expression(statement, 0), -1);
+					loop.exits = add(loop.exits, loop.exitCount++, size - 1);
+					return false;
+				}
+				case GCodeParser.ENDWHILE: {
+					Construct loop = top(WHILE, label, lineNumber);
+					emit(JUMP, loop.start);
+					close(WHILE, label, lineNumber);
+					return false;
+				}
+				case GCodeParser.REPEAT: {
+					int count = expression(statement, 0);
+					Construct loop = new Construct(REPEAT_LOOP, label, size + 3);
+					open.add(loop);
+					emit(REPEAT, count, -1);
+					loop.exits = add(loop.exits, loop.exitCount++, size - 1);
+					return false;
+				}
+				case GCodeParser.ENDREPEAT: {
+					Construct loop = top(REPEAT_LOOP, label, lineNumber);
+					patch(loop.continues, loop.continueCount, size);
+					emit(END_REPEAT, loop.start);
+					close(REPEAT_LOOP, label, lineNumber);
+					return false;
+				}
+				case GCodeParser.IF: {
+					Construct conditional = open(IF, label);
+					emit(JUMP_UNLESS, expression(statement, 0), -1);
+					conditional.branch = size - 1;
+					return false;
+				}
+				case GCodeParser.ELSEIF:
+				case GCodeParser.ELSE: {
+					Construct conditional = top(IF, label, lineNumber);
+					if (conditional.hasElse) {
+						throw error(lineNumber, "o" + label + " already has an else");
+					}
+					emit(JUMP, -1);
+					conditional.exits = add(conditional.exits, conditional.exitCount++, size - 1);
+					code[conditional.branch] = size;
+					if (type == GCodeParser.ELSEIF) {
+						emit(JUMP_UNLESS, expression(statement, 0), -1);
+						conditional.branch = size - 1;
+					}
+					else {
+						conditional.branch = -1;
+						conditional.hasElse = true;
+					}
+					return false;
+				}
+				case GCodeParser.ENDIF: {
+					Construct conditional = top(IF, label, lineNumber);
+					if (conditional.branch >= 0) {
+						code[conditional.branch] = size;
+					}
+					close(IF, label, lineNumber);
+					return false;
+				}
+				case GCodeParser.BREAK:
+				case GCodeParser.CONTINUE: {
+					// leave the repeats inside the loop, and the loop itself for a break out of a repeat
+					int repeats = 0;
+					Construct loop = null;
+					for (int k = open.size() - 1; k >= 0 && loop == null; k--) {
+						Construct construct = open.get(k);
+						if (construct.isLoop() && construct.label.equals(label)) {
+							loop = construct;
+							if (type == GCodeParser.BREAK && construct.kind == REPEAT_LOOP) {
+								repeats++;
+							}
+						}
+						else if (construct.kind == REPEAT_LOOP) {
+							repeats++;
+						}
+					}
+					if (loop == null) {
+						throw error(lineNumber, "o" + label + " is not a loop around " + statement.getText());
+					}
+					if (repeats > 0) {
+						emit(POP, repeats);
+					}
+					if (type == GCodeParser.BREAK) {
+						emit(JUMP, -1);
+						loop.exits = add(loop.exits, loop.exitCount++, size - 1);
+					}
+					else if (loop.kind == WHILE) {
+						emit(JUMP, loop.start);
+					}
+					else { // to the condition of a do or the count of a repeat
+						emit(JUMP, -1);
+						loop.continues = add(loop.continues, loop.continueCount++, size - 1);
+					}
+					return false;
+				}
+				default:
+					throw error(lineNumber, "unknown O-word " + statement.getText());
+			}
+		}
+
+		private Construct open(int kind, String label) {
+			Construct construct = new Construct(kind, label, size);
+			open.add(construct);
+			return construct;
+		}
+
+		// The construct that the statement belongs to, it must be the innermost one
+		private Construct top(int kind, String label, int lineNumber) {
+			Construct top = open.isEmpty() ? null : open.get(open.size() - 1);
+			if (top == null || top.kind != kind || !top.label.equals(label)) {
+				throw error(lineNumber, "o" + label + " does not match " + (top == null ? "any construct" : "o" + top.label + " " + KIND_NAMES[top.kind]));
+			}
+			return top;
+		}
+
+		private void close(int kind, String label, int lineNumber) {
+			Construct construct = top(kind, label, lineNumber);
+			patch(construct.exits, construct.exitCount, size);
+			open.remove(open.size() - 1);
+		}
+
+		private void patch(int[] operands, int count, int target) {
+			for (int k = 0; k < count; k++) {
+				code[operands[k]] = target;
+			}
+		}
+
+		private void call(int opcode, int label, Oword_statementContext statement) {
+			emit(opcode, label);
+			arguments(statement);
+		}
+
+		private void arguments(Oword_statementContext statement) {
+			int arguments = statement.bracketExpression().size();
+			if (arguments > LOCALS) {
+				throw new IllegalArgumentException("More than " + LOCALS + " arguments: " + statement.getText());
+			}
+			emit(arguments);
+			for (int k = 0; k < arguments; k++) {
+				emit(expression(statement, k));
+			}
+		}
+
+		private int expression(Oword_statementContext statement, int index) {
+			expressions.add(compiler.compile(statement.bracketExpression(index).e()));
+			return expressions.size() - 1;
+		}
+
+		private void emit(int... values) {
+			if (size + values.length > code.length) {
+				code = Arrays.copyOf(code, Math.max(code.length * 2, size + values.length));
+			}
+			for (int value : values) {
+				code[size++] = value;
+			}
+		}
+
+		Block build() {
+			return new Block(Arrays.copyOf(code, size), expressions.toArray(new Expression[expressions.size()]),
+					lines.toArray(new CompiledLine[lines.size()]), labels.toArray(new String[labels.size()]));
+		}
+	}
+
+	private static int[] add(int[] values, int index, int value) {
+		if (index == values.length) {
+			values = Arrays.copyOf(values, index * 2);
+		}
+		values[index] = value;
+		return values;
+	}
+
+	private static IllegalArgumentException error(int lineNumber, String message) {
+		return new IllegalArgumentException("Line " + lineNumber + ": " + message);
+	}
+}
@@ -0,0 +1,465 @@
+import static java.lang.StrictMath.abs;
+import static java.lang.StrictMath.cos;
+import static java.lang.StrictMath.max;
+import static java.lang.StrictMath.min;
+import static java.lang.StrictMath.sin;
+import static java.lang.StrictMath.sqrt;
+
+import java.util.Arrays;
+
+// Dry-run machine that estimates the cycle time of a program without moving anything.
+// Every move is planned like MotorMachine does, with per axis velocity and acceleration limits, and timed with a
+// trapezoidal velocity profile. Arcs are cut into chords within the arc tolerance.
+// In continuous mode (G64) the junction speeds come from the look-ahead planner, otherwise every move stops.
+//
+// The time is also accumulated per program line when the calls come from the interpreter (see LineListener).
+// Nothing is allocated per call, only the per line array grows when a program has more lines than before.
+public class CycleTimeEstimator implements Machine, LineListener
+{
+	private static final int					AXES				= LookAheadPlanner.AXES;
+	private static final int					LOOK_AHEAD	= 16;
+
+	private final double[]						maxVelocityInMmPerMinute			= new double[AXES];
+	private double										rapidRateInMmPerMinute				= 5000;
+	private double										junctionDeviationInMm					= 0.05;
+	private double										arcToleranceInMm							= 0.01;
+	private double										toolChangeTimeInSeconds;
+
+	private double										unitInMm											= 1;
+	private CANON_PLANE								plane													= CANON_PLANE.CANON_PLANE_XY;
+	private CANON_MOTION_MODE					motionControlMode;
+	private double										feedRateInMmPerMinute;
+
+	private final double[]						position											= new double[AXES];	// mm
+	private final double[]						unitVector										= new double[AXES];
+
+	private int												line;
+	private double[]									lineSeconds										= new double[256];
+	private int												lineCount;
+	private double										seconds;
+
+	// Lines of the segments held by the planner, in the same order. One extra for the segment being added.
+	private final int[]								plannedLines									= new int[LOOK_AHEAD + 1];
+	private int												plannedHead;
+	private int												plannedCount;
+
+	private final LookAheadPlanner		planner												= new LookAheadPlanner(LOOK_AHEAD)
+	{
+		@Override
+		protected void profile(double length, double entrySpeed, double peakSpeed, double exitSpeed, double acceleration) {
+			addTime(plannedLines[plannedHead], time(length, entrySpeed, peakSpeed, exitSpeed, acceleration) * 60);
+			plannedHead = (plannedHead + 1) % plannedLines.length;
+			plannedCount--;
+		}
+
+		@Override
+		protected void move(double x, double y, double z, double a, double b, double c, double speed) {
+			// Nothing
+		}
+
+		@Override
+		protected double getIssuedPosition(int axis) {
+			return position[axis];
+		}
+	};
+	{
+		for (int axis = 0; axis < AXES; axis++) {
+			setAcceleration(MotorMachine.Axis.values()[axis], 500);
+		}
+		planner.setJunctionDeviation(junctionDeviationInMm);
+	}
+
+	// Highest speed of the axis, 0 means no limit
+	public void setMaxVelocity(MotorMachine.Axis axis, double maxVelocityInMmPerMinute) {
+		this.maxVelocityInMmPerMinute[axis.ordinal()] = maxVelocityInMmPerMinute;
+	}
+
+	// Acceleration of the axis, 0 means no limit
+	public void setAcceleration(MotorMachine.Axis axis, double accelerationInMmPerSecond2) {
+		planner.flush();
+		planner.setAcceleration(axis.ordinal(), accelerationInMmPerSecond2 * 60 * 60);
+	}
+
+	// Speed of STRAIGHT_TRAVERSE, which has no feed rate of its own
+	public void setRapidRate(double rapidRateInMmPerMinute) {
+		this.rapidRateInMmPerMinute = rapidRateInMmPerMinute;
+	}
+
+	public void setJunctionDeviation(double junctionDeviationInMm) {
+		planner.flush();
+		this.junctionDeviationInMm = junctionDeviationInMm;
+		planner.setJunctionDeviation(junctionDeviationInMm);
+	}
+
+	public void setArcTolerance(double arcToleranceInMm) {
+		this.arcToleranceInMm = arcToleranceInMm;
+	}
+
+	public void setToolChangeTime(double toolChangeTimeInSeconds) {
+		this.toolChangeTimeInSeconds = toolChangeTimeInSeconds;
+	}
+
+	// Estimated time of all calls so far, in seconds
+	public double getCycleTime() {
+		planner.flush();
+		return seconds;
+	}
+
+	// Estimated time of the calls of a program line, in seconds.
+	// Calls made without a line number are counted for line 0.
+	public double getLineTime(int lineNumber) {
+		planner.flush();
+		return lineNumber < lineCount ? lineSeconds[lineNumber] : 0;
+	}
+
+	// Highest line number that has a time, plus one
+	public int getLineCount() {
+		planner.flush();
+		return lineCount;
+	}
+
+	@Override
+	public void startLine(int lineNumber) {
+		line = lineNumber;
+	}
+
+	private void addTime(int lineNumber, double time) {
+		if (lineNumber >= lineSeconds.length) {
+			lineSeconds = Arrays.copyOf(lineSeconds, max(lineNumber + 1, lineSeconds.length * 2));
+		}
+		lineSeconds[lineNumber] += time;
+		lineCount = max(lineCount, lineNumber + 1);
+		seconds += time;
+	}
+
+	// Time in minutes to move length at the given speeds in units per minute and acceleration in units per minute^2
+	static double time(double length, double entrySpeed, double peakSpeed, double exitSpeed, double acceleration) {
+		double accelerationLength = (peakSpeed * peakSpeed - entrySpeed * entrySpeed) / (2 * acceleration);
+		double decelerationLength = (peakSpeed * peakSpeed - exitSpeed * exitSpeed) / (2 * acceleration);
+		double cruiseLength = max(0, length - accelerationLength - decelerationLength);
+		return (peakSpeed - entrySpeed) / acceleration + (peakSpeed - exitSpeed) / acceleration + cruiseLength / peakSpeed;
+	}
+
+	private void moveTo(double x, double y, double z, double a, double b, double c, double speed) {
+		double squaredLength = 0;
+		for (int axis = 0; axis < AXES; axis++) {
+			double delta = get(axis, x, y, z, a, b, c) - position[axis];
+			unitVector[axis] = delta;
+			squaredLength += delta * delta;
+		}
+		if (squaredLength == 0) {
+			return;
+		}
+		if (!(speed > 0)) {
+			throw new IllegalStateException("No feed rate for move on line " + line);
+		}
+
+		// Slow down so no axis goes faster than its maximum
+		double length = sqrt(squaredLength);
+		for (int axis = 0; axis < AXES; axis++) {
+			if (unitVector[axis] != 0 && maxVelocityInMmPerMinute[axis] > 0) {
+				speed = min(speed, maxVelocityInMmPerMinute[axis] / abs(unitVector[axis] / length));
+			}
+		}
+
+		plannedLines[(plannedHead + plannedCount++) % plannedLines.length] = line;
+		planner.add(x, y, z, a, b, c, speed);
+		position[0] = x;
+		position[1] = y;
+		position[2] = z;
+		position[3] = a;
+		position[4] = b;
+		position[5] = c;
+	}
+
+	// Outside continuous mode the machine stops at the end of every move
+	private void endOfMove() {
+		if (motionControlMode != CANON_MOTION_MODE.CANON_CONTINUOUS) {
+			planner.flush();
+		}
+	}
+
+	private static double get(int axis, double x, double y, double z, double a, double b, double c) {
+		switch (axis) {
+			case 0:
+				return x;
+			case 1:
+				return y;
+			case 2:
+				return z;
+			case 3:
+				return a;
+			case 4:
+				return b;
+			default:
+				return c;
+		}
+	}
+
+	@Override
+	public void SET_ORIGIN_OFFSETS(double x, double y, double z, double a, double b, double c) {
+		planner.flush();
+	}
+
+	@Override
+	public void USE_LENGTH_UNITS(CANON_UNITS units) {
+		unitInMm = MotorMachine.convertUnit(units, CANON_UNITS.CANON_UNITS_MM, 1);
+	}
+
+	@Override
+	public void STRAIGHT_TRAVERSE(double x, double y, double z, double a, double b, double c) {
+		moveTo(x * unitInMm, y * unitInMm, z * unitInMm, a, b, c, rapidRateInMmPerMinute);
+		endOfMove();
+	}
+
+	@Override
+	public void SELECT_PLANE(CANON_PLANE plane) {
+		this.plane = plane;
+	}
+
+	@Override
+	public void SET_FEED_RATE(double rate) {
+		feedRateInMmPerMinute = rate * unitInMm;
+	}
+
+	@Override
+	public void SET_FEED_REFERENCE(CANON_FEED_REFERENCE reference) {
+		// Nothing
+	}
+
+	@Override
+	public void SET_MOTION_CONTROL_MODE(CANON_MOTION_MODE mode) {
+		planner.flush();
+		this.motionControlMode = mode;
+	}
+
+	@Override
+	public void START_SPEED_FEED_SYNCH() {
+		// Nothing
+	}
+
+	@Override
+	public void STOP_SPEED_FEED_SYNCH() {
+		// Nothing
+	}
+
+	@Override
+	public void ARC_FEED(	double firstEnd,
+												double secondEnd,
+												double firstCenter,
+												double secondCenter,
+												int rotation,
+												double axisEndPoint,
+												double a,
+												double b,
+												double c) {
+		int first, second, axis;
+		switch (plane) {
+			case CANON_PLANE_XY:
+				first = 0;
+				second = 1;
+				axis = 2;
+				break;
+			case CANON_PLANE_XZ:
+				first = 0;
+				second = 2;
+				axis = 1;
+				break;
+			case CANON_PLANE_YZ:
+				first = 1;
+				second = 2;
+				axis = 0;
+				break;
+			default:
+				throw new IllegalStateException("plane=" + plane);
+		}
+		firstEnd *= unitInMm;
+		secondEnd *= unitInMm;
+		firstCenter *= unitInMm;
+		secondCenter *= unitInMm;
+		axisEndPoint *= unitInMm;
+
+		double firstStart = position[first];
+		double secondStart = position[second];
+		double axisStart = position[axis];
+		double aStart = position[3];
+		double bStart = position[4];
+		double cStart = position[5];
+
+		// The chords of MotorMachine.ARC_FEED, planned as one continuous move
+		ArcSweep sweep = new ArcSweep(firstStart, secondStart, firstEnd, secondEnd, firstCenter, secondCenter, rotation);
+		int steps = sweep.steps(arcToleranceInMm);
+
+		double firstRadius = firstStart - firstCenter;
+		double secondRadius = secondStart - secondCenter;
+		double stepAngle = sweep.angle / steps;
+		double cosStep = cos(stepAngle);
+		double sinStep = sin(stepAngle);
+		for (int s = 1; s <= steps; s++) {
+			double rotated = firstRadius * cosStep - secondRadius * sinStep;
+			secondRadius = firstRadius * sinStep + secondRadius * cosStep;
+			firstRadius = rotated;
+
+			double firstValue = s == steps ? firstEnd : firstCenter + firstRadius;
+			double secondValue = s == steps ? secondEnd : secondCenter + secondRadius;
+			double axisValue = axisStart + (axisEndPoint - axisStart) * s / steps;
+			double x = first == 0 ? firstValue : axis == 0 ? axisValue : secondValue;
+			double y = first == 1 ? firstValue : second == 1 ? secondValue : axisValue;
+			double z = second == 2 ? secondValue : axisValue;
+			moveTo(	x, y, z,
+							aStart + (a - aStart) * s / steps, bStart + (b - bStart) * s / steps, cStart + (c - cStart) * s / steps,
+							feedRateInMmPerMinute);
+		}
+		endOfMove();
+	}
+
+	@Override
+	public void DWELL(double seconds) {
+		planner.flush();
+		addTime(line, seconds);
+	}
+
+	@Override
+	public void STRAIGHT_FEED(double x, double y, double z, double a, double b, double c) {
+		moveTo(x * unitInMm, y * unitInMm, z * unitInMm, a, b, c, feedRateInMmPerMinute);
+		endOfMove();
+	}
+
+	@Override
+	public void STRAIGHT_PROBE(double x, double y, double z, double a, double b, double c) {
+		planner.flush();
+		moveTo(x * unitInMm, y * unitInMm, z * unitInMm, a, b, c, feedRateInMmPerMinute);
+		endOfMove();
+	}
+
+	@Override
+	public void ORIENT_SPINDLE(double orientation, CANON_DIRECTION direction) {
+		// Nothing
+	}
+
+	@Override
+	public void SET_SPINDLE_SPEED(double r) {
+		// Nothing
+	}
+
+	@Override
+	public void START_SPINDLE_CLOCKWISE() {
+		// Nothing
+	}
+
+	@Override
+	public void START_SPINDLE_COUNTERCLOCKWISE() {
+		// Nothing
+	}
+
+	@Override
+	public void STOP_SPINDLE_TURNING() {
+		// Nothing
+	}
+
+	@Override
+	public void CHANGE_TOOL(int slot) {
+		planner.flush();
+		addTime(line, toolChangeTimeInSeconds);
+	}
+
+	@Override
+	public void SELECT_TOOL(int i) {
+		// Nothing
+	}
+
+	@Override
+	public void USE_TOOL_LENGTH_OFFSET(double offset) {
+		// Nothing
+	}
+
+	@Override
+	public void COMMENT(String s) {
+		// Nothing
+	}
+
+	@Override
+	public void DISABLE_FEED_OVERRIDE() {
+		// Nothing
+	}
+
+	@Override
+	public void DISABLE_SPEED_OVERRIDE() {
+		// Nothing
+	}
+
+	@Override
+	public void ENABLE_FEED_OVERRIDE() {
+		// Nothing
+	}
+
+	@Override
+	public void ENABLE_SPEED_OVERRIDE() {
+		// Nothing
+	}
+
+	@Override
+	public void FLOOD_OFF() {
+		// Nothing
+	}
+
+	@Override
+	public void FLOOD_ON() {
+		// Nothing
+	}
+
+	@Override
+	public void INIT_CANON() {
+		// Nothing
+	}
+
+	@Override
+	public void MESSAGE(String s) {
+		// Nothing
+	}
+
+	@Override
+	public void MIST_OFF() {
+		// Nothing
+	}
+
+	@Override
+	public void MIST_ON() {
+		// Nothing
+	}
+
+	@Override
+	public void PALLET_SHUTTLE() {
+		// Nothing
+	}
+
+	@Override
+	public void OPTIONAL_PROGRAM_STOP() {
+		planner.flush();
+	}
+
+	@Override
+	public void PROGRAM_END() {
+		planner.flush();
+	}
+
+	@Override
+	public void PROGRAM_STOP() {
+		planner.flush();
+	}
+
+	@Override
+	public void SET_CUTTER_RADIUS_COMPENSATION(double radius) {
+		// Nothing
+	}
+
+	@Override
+	public void START_CUTTER_RADIUS_COMPENSATION(CANON_COMP_SIDE side) {
+		// Nothing
+	}
+
+	@Override
+	public void STOP_CUTTER_RADIUS_COMPENSATION() {
+		// Nothing
+	}
+}
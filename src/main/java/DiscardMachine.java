@@ -0,0 +1,12 @@
+// Machine that ignores all calls, for callers that only want the effects of the interpreter or of a ForwardingMachine
+public final class DiscardMachine extends CanonicalColumns
+{
+	public DiscardMachine() {
+		super(1);
+	}
+
+	@Override
+	int add(Canonical opcode) {
+		return 0;
+	}
+}
@@ -33,7 +33,7 @@ public class DrawMachine extends MotorMachine implements AutoCloseable
 		@SuppressWarnings("resource")
 		EV3LargeRegulatedMotor regulatedMotor = new EV3LargeRegulatedMotor(brick.getPort(port));
 		motors.add(regulatedMotor);
-		axis.setMotor(new EV3Motor(axis.name(), regulatedMotor));
+		setMotor(axis, new EV3Motor(axis.name(), regulatedMotor));
 	}
 
 	@Override
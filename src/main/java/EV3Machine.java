@@ -26,6 +26,7 @@ public class EV3Machine extends MotorMachine implements AutoCloseable
 
 	@Override
 	public void close() {
+		super.close();
 		for (EV3LargeRegulatedMotor ev3LargeRegulatedMotor : motors) {
 			ev3LargeRegulatedMotor.close();
 		}
@@ -36,7 +37,7 @@ public class EV3Machine extends MotorMachine implements AutoCloseable
 		@SuppressWarnings("resource")
 		EV3LargeRegulatedMotor regulatedMotor = new EV3LargeRegulatedMotor(brick.getPort(port));
 		motors.add(regulatedMotor);
-		axis.setMotor(new EV3Motor(axis.name(), regulatedMotor));
+		setMotor(axis, new EV3Motor(axis.name(), regulatedMotor));
 	}
 
 	@Override
@@ -50,6 +51,11 @@ public class EV3Machine extends MotorMachine implements AutoCloseable
 		private final RegulatedMotor	motor;
 		private final double					mmPerRotation	= 25;
 
+		// In coordinated mode the speed and target are held until start, so all axes start together
+		private boolean								held;
+		private int										speed;
+		private int										degrees;
+
 		public EV3Motor(String name, RegulatedMotor motor) {
 			super(name);
 			this.motor = motor;
@@ -57,14 +63,29 @@ public class EV3Machine extends MotorMachine implements AutoCloseable
 
 		@Override
 		public void moveTo(double valueInMM) {
-			int degrees = (int) ((valueInMM / mmPerRotation) * 360);
-			motor.rotateTo(degrees, true);
+			degrees = (int) ((valueInMM / mmPerRotation) * 360);
+			if (!held) {
+				motor.rotateTo(degrees, true);
+			}
 		}
 
 		@Override
 		public void setSpeed(double feedRateInMMPerMinute) {
-			double speed = getRotationSpeedInDegreesPerSecond(feedRateInMMPerMinute);
-			motor.setSpeed((int) speed);
+			speed = (int) getRotationSpeedInDegreesPerSecond(feedRateInMMPerMinute);
+			if (!held) {
+				motor.setSpeed(speed);
+			}
+		}
+
+		@Override
+		public void setCoordinated(boolean coordinated) {
+			held = coordinated;
+		}
+
+		@Override
+		public void start() {
+			motor.setSpeed(speed);
+			motor.rotateTo(degrees, true);
 		}
 
 		private double getRotationSpeedInDegreesPerSecond(double feedRateInMMPerMinute) {
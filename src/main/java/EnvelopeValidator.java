@@ -0,0 +1,511 @@
+import static java.lang.StrictMath.cos;
+import static java.lang.StrictMath.max;
+import static java.lang.StrictMath.min;
+import static java.lang.StrictMath.sin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// Checks before a job runs that no move of X, Y and Z leaves the travel envelope or enters a keep-out zone of a
+// fixture, and passes all calls on. The moves are kept as segments in mm, arcs cut into chords within the tolerance.
+// Chords lie inside their arc, so they are tested against zones grown and an envelope shrunk by the tolerance.
+// The path starts at the origin, like MotorMachine.
+//
+// validate builds a bounding volume hierarchy over the segments in program order: a leaf holds LEAF consecutive
+// segments and a node the two nodes below it. A tool path hardly jumps around, so consecutive segments make tight
+// boxes, and the tree is built in linear time without sorting. Both building and searching run on all cores.
+public class EnvelopeValidator extends ForwardingMachine
+{
+	static final int											LEAF					= 8;
+	private static final int							BUILD_CHUNK		= 1 << 12;	// nodes per task when building a level
+	private static final int							FORK_LEVEL		= 8;				// levels below this are searched by one task
+	private static final int[]						NONE					= new int[0];
+	private static final int							X							= 0, Y = 1, Z = 2;
+	private static final byte							RAPID					= 1, CHORD = 2;
+
+	private final double									toleranceInMm;
+	private double												unitInMm			= 1;
+	private CANON_PLANE										plane					= CANON_PLANE.CANON_PLANE_XY;
+	private int														lineNumber;
+
+	// Points of the path, segment k goes from point k to point k + 1
+	private double[]											x							= new double[1024];
+	private double[]											y							= new double[1024];
+	private double[]											z							= new double[1024];
+	private int[]													lines					= new int[1024];	// of the segment
+	private byte[]												flags					= new byte[1024];	// of the segment
+	private int														segments;
+
+	private Zone													envelope;
+	private final List<Zone>							zones					= new ArrayList<>();
+
+	// Boxes of the nodes per level, minimum and maximum X, Y and Z, for the segments when they were built
+	private double[][]										levels;
+	private int														indexedSegments	= -1;
+
+	// Box or cylinder along Z in mm
+	static final class Zone
+	{
+		final String	name;
+		final boolean	cylinder;
+		final double	minX, minY, minZ, maxX, maxY, maxZ;
+		final double	centerX, centerY, radius;
+
+		private Zone(String name, boolean cylinder, double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+									double radius) {
+			if (minX > maxX || minY > maxY || minZ > maxZ || radius < 0) {
+				throw new IllegalArgumentException("Empty zone " + name);
+			}
+			this.name = name;
+			this.cylinder = cylinder;
+			this.minX = minX;
+			this.minY = minY;
+			this.minZ = minZ;
+			this.maxX = maxX;
+			this.maxY = maxY;
+			this.maxZ = maxZ;
+			this.centerX = (minX + maxX) / 2;
+			this.centerY = (minY + maxY) / 2;
+			this.radius = radius;
+		}
+	}
+
+	public static class Violation
+	{
+		final int			line;
+		final String	zone;
+		final boolean	rapid;
+
+		Violation(int line, String zone, boolean rapid) {
+			this.line = line;
+			this.zone = zone;
+			this.rapid = rapid;
+		}
+
+		public int getLine() {
+			return line;
+		}
+
+		// Name of the keep-out zone, or "envelope"
+		public String getZone() {
+			return zone;
+		}
+
+		// Whether the first offending move of the line is a rapid
+		public boolean isRapid() {
+			return rapid;
+		}
+
+		@Override
+		public String toString() {
+			return "line " + line + ": " + (rapid ? "rapid" : "feed") + " " + (zone.equals("envelope") ? "leaves " : "enters ") + zone;
+		}
+	}
+
+	public EnvelopeValidator(Machine machine, double toleranceInMm) {
+		super(machine);
+		this.toleranceInMm = toleranceInMm;
+	}
+
+	public EnvelopeValidator(double toleranceInMm) {
+		this(new DiscardMachine(), toleranceInMm);
+	}
+
+	// Travel envelope in mm, the moves have to stay inside it. Without one only the keep-out zones are checked.
+	public void setEnvelope(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		envelope = new Zone("envelope", false, minX, minY, minZ, maxX, maxY, maxZ, 0);
+	}
+
+	// Keep-out box in mm
+	public void addBox(String name, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		zones.add(new Zone(name, false, minX, minY, minZ, maxX, maxY, maxZ, 0));
+	}
+
+	// Keep-out cylinder along Z in mm
+	public void addCylinder(String name, double centerX, double centerY, double radius, double minZ, double maxZ) {
+		zones.add(new Zone(name, true, centerX - radius, centerY - radius, minZ, centerX + radius, centerY + radius, maxZ, radius));
+	}
+
+	public int getSegments() {
+		return segments;
+	}
+
+	@Override
+	public void startLine(int lineNumber) {
+		this.lineNumber = lineNumber;
+		super.startLine(lineNumber);
+	}
+
+	@Override
+	public void USE_LENGTH_UNITS(CANON_UNITS units) {
+		unitInMm = MotorMachine.convertUnit(units, CANON_UNITS.CANON_UNITS_MM, 1);
+		super.USE_LENGTH_UNITS(units);
+	}
+
+	@Override
+	public void SELECT_PLANE(CANON_PLANE plane) {
+		this.plane = plane;
+		super.SELECT_PLANE(plane);
+	}
+
+	@Override
+	public void STRAIGHT_TRAVERSE(double x, double y, double z, double a, double b, double c) {
+		add(x * unitInMm, y * unitInMm, z * unitInMm, RAPID);
+		super.STRAIGHT_TRAVERSE(x, y, z, a, b, c);
+	}
+
+	@Override
+	public void STRAIGHT_FEED(double x, double y, double z, double a, double b, double c) {
+		add(x * unitInMm, y * unitInMm, z * unitInMm, (byte) 0);
+		super.STRAIGHT_FEED(x, y, z, a, b, c);
+	}
+
+	@Override
+	public void ARC_FEED(	double firstEnd,
+												double secondEnd,
+												double firstCenter,
+												double secondCenter,
+												int rotation,
+												double axisEndPoint,
+												double a,
+												double b,
+												double c) {
+		int first, second, axis;
+		switch (plane) {
+			case CANON_PLANE_XY:
+				first = X;
+				second = Y;
+				axis = Z;
+				break;
+			case CANON_PLANE_XZ:
+				first = X;
+				second = Z;
+				axis = Y;
+				break;
+			case CANON_PLANE_YZ:
+				first = Y;
+				second = Z;
+				axis = X;
+				break;
+			default:
+				throw new IllegalStateException("plane=" + plane);
+		}
+		double[] position = { x[segments], y[segments], z[segments] };
+
+		ArcSweep sweep = new ArcSweep(position[first], position[second], firstEnd * unitInMm, secondEnd * unitInMm,
+				firstCenter * unitInMm, secondCenter * unitInMm, rotation);
+		int steps = sweep.steps(toleranceInMm);
+		double stepAngle = sweep.angle / steps;
+		double axisStart = position[axis];
+		double axisStep = (axisEndPoint * unitInMm - axisStart) / steps;
+		double[] point = new double[3];
+		for (int s = 1; s < steps; s++) {
+			point[first] = firstCenter * unitInMm + sweep.radius * cos(sweep.startAngle + stepAngle * s);
+			point[second] = secondCenter * unitInMm + sweep.radius * sin(sweep.startAngle + stepAngle * s);
+			point[axis] = axisStart + axisStep * s;
+			add(point[X], point[Y], point[Z], CHORD);
+		}
+		point[first] = firstEnd * unitInMm;
+		point[second] = secondEnd * unitInMm;
+		point[axis] = axisEndPoint * unitInMm;
+		add(point[X], point[Y], point[Z], CHORD);
+
+		super.ARC_FEED(firstEnd, secondEnd, firstCenter, secondCenter, rotation, axisEndPoint, a, b, c);
+	}
+
+	// Adds the segment from the last point to this one, moves that stay in place add nothing
+	private void add(double toX, double toY, double toZ, byte flag) {
+		if (toX == x[segments] && toY == y[segments] && toZ == z[segments]) {
+			return;
+		}
+		if (segments + 1 == x.length) {
+			int capacity = x.length * 2;
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+			z = Arrays.copyOf(z, capacity);
+			lines = Arrays.copyOf(lines, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+		}
+		lines[segments] = lineNumber;
+		flags[segments] = flag;
+		segments++;
+		x[segments] = toX;
+		y[segments] = toY;
+		z[segments] = toZ;
+	}
+
+	public List<Violation> validate() {
+		return validate(Runtime.getRuntime().availableProcessors());
+	}
+
+	// The lines with a move that leaves the envelope or enters a keep-out zone, once per line and zone, by line
+	public List<Violation> validate(int parallelism) {
+		List<Violation> violations = new ArrayList<>();
+		if (segments == 0) {
+			return violations;
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			if (indexedSegments != segments) {
+				build(pool);
+			}
+			List<Zone> checked = new ArrayList<>(zones);
+			if (envelope != null) {
+				checked.add(0, envelope);
+			}
+			for (Zone zone : checked) {
+				int[] hits = pool.invoke(new Search(zone, levels.length - 1, 0));
+				addViolations(zone, hits, violations);
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+		Collections.sort(violations, new Comparator<Violation>()
+		{
+			@Override
+			public int compare(Violation a, Violation b) {
+				return Integer.compare(a.line, b.line);
+			}
+		});
+		return violations;
+	}
+
+	// Adds the first hit of every line
+	private void addViolations(Zone zone, int[] hits, List<Violation> violations) {
+		long[] byLine = new long[hits.length];
+		for (int k = 0; k < hits.length; k++) {
+			byLine[k] = (long) lines[hits[k]] << 32 | hits[k];
+		}
+		Arrays.sort(byLine);
+		for (int k = 0; k < byLine.length; k++) {
+			int line = (int) (byLine[k] >>> 32);
+			if (k == 0 || line != (int) (byLine[k - 1] >>> 32)) {
+				violations.add(new Violation(line, zone.name, (flags[(int) byLine[k]] & RAPID) != 0));
+			}
+		}
+	}
+
+	// Builds the levels bottom up, every level in parallel
+	private void build(ForkJoinPool pool) {
+		List<double[]> built = new ArrayList<>();
+		int count = (segments + LEAF - 1) / LEAF;
+		double[] level = new double[count * 6];
+		pool.invoke(new Build(null, level, 0, count));
+		built.add(level);
+		while (count > 1) {
+			double[] below = level;
+			count = (count + 1) / 2;
+			level = new double[count * 6];
+			pool.invoke(new Build(below, level, 0, count));
+			built.add(level);
+		}
+		levels = built.toArray(new double[built.size()][]);
+		indexedSegments = segments;
+	}
+
+	// Computes the boxes of the nodes from to to of a level, from the segments or the level below
+	private final class Build extends RecursiveAction
+	{
+		private static final long	serialVersionUID	= 1L;
+
+		private final double[]	below, level;
+		private final int				from, to;
+
+		Build(double[] below, double[] level, int from, int to) {
+			this.below = below;
+			this.level = level;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > BUILD_CHUNK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Build(below, level, from, middle), new Build(below, level, middle, to));
+				return;
+			}
+			for (int node = from; node < to; node++) {
+				if (below == null) {
+					leafBox(node);
+				}
+				else {
+					nodeBox(node);
+				}
+			}
+		}
+
+		private void leafBox(int node) {
+			int first = node * LEAF, end = min(segments, first + LEAF);
+			double minX = x[first], minY = y[first], minZ = z[first];
+			double maxX = minX, maxY = minY, maxZ = minZ;
+			for (int k = first + 1; k <= end; k++) {
+				minX = min(minX, x[k]);
+				minY = min(minY, y[k]);
+				minZ = min(minZ, z[k]);
+				maxX = max(maxX, x[k]);
+				maxY = max(maxY, y[k]);
+				maxZ = max(maxZ, z[k]);
+			}
+			set(node, minX, minY, minZ, maxX, maxY, maxZ);
+		}
+
+		private void nodeBox(int node) {
+			int left = node * 2 * 6, right = left + 6;
+			if (right >= below.length) {
+				System.arraycopy(below, left, level, node * 6, 6);
+				return;
+			}
+			set(node, min(below[left], below[right]), min(below[left + 1], below[right + 1]), min(below[left + 2], below[right + 2]),
+					max(below[left + 3], below[right + 3]), max(below[left + 4], below[right + 4]), max(below[left + 5], below[right + 5]));
+		}
+
+		private void set(int node, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+			int k = node * 6;
+			level[k] = minX;
+			level[k + 1] = minY;
+			level[k + 2] = minZ;
+			level[k + 3] = maxX;
+			level[k + 4] = maxY;
+			level[k + 5] = maxZ;
+		}
+	}
+
+	// Segments of the subtree of a node that violate the zone, in program order
+	private final class Search extends RecursiveTask<int[]>
+	{
+		private static final long	serialVersionUID	= 1L;
+
+		private final Zone	zone;
+		private final int		level, node;
+
+		Search(Zone zone, int level, int node) {
+			this.zone = zone;
+			this.level = level;
+			this.node = node;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (level < FORK_LEVEL) {
+				Hits hits = new Hits();
+				search(level, node, hits);
+				return hits.size == 0 ? NONE : Arrays.copyOf(hits.segments, hits.size);
+			}
+			if (!mayViolate(level, node)) {
+				return NONE;
+			}
+			Search left = new Search(zone, level - 1, node * 2);
+			if (node * 2 + 1 >= levels[level - 1].length / 6) {
+				return left.compute();
+			}
+			Search right = new Search(zone, level - 1, node * 2 + 1);
+			right.fork();
+			int[] leftHits = left.compute();
+			int[] rightHits = right.join();
+			int[] hits = Arrays.copyOf(leftHits, leftHits.length + rightHits.length);
+			System.arraycopy(rightHits, 0, hits, leftHits.length, rightHits.length);
+			return hits;
+		}
+
+		private void search(int level, int node, Hits hits) {
+			if (!mayViolate(level, node)) {
+				return;
+			}
+			if (level == 0) {
+				for (int k = node * LEAF, end = min(segments, k + LEAF); k < end; k++) {
+					double margin = (flags[k] & CHORD) != 0 ? toleranceInMm : 0;
+					if (zone == envelope ? !inside(zone, k, margin) : enters(zone, k, margin)) {
+						hits.add(k);
+					}
+				}
+				return;
+			}
+			search(level - 1, node * 2, hits);
+			if (node * 2 + 1 < levels[level - 1].length / 6) {
+				search(level - 1, node * 2 + 1, hits);
+			}
+		}
+
+		// False when the box of the node is inside the envelope or apart from the keep-out zone
+		private boolean mayViolate(int level, int node) {
+			double[] box = levels[level];
+			int k = node * 6;
+			double m = toleranceInMm;
+			if (zone == envelope) {
+				return box[k] < zone.minX + m || box[k + 1] < zone.minY + m || box[k + 2] < zone.minZ + m
+						|| box[k + 3] > zone.maxX - m || box[k + 4] > zone.maxY - m || box[k + 5] > zone.maxZ - m;
+			}
+			return box[k] <= zone.maxX + m && box[k + 3] >= zone.minX - m && box[k + 1] <= zone.maxY + m && box[k + 4] >= zone.minY - m
+					&& box[k + 2] <= zone.maxZ + m && box[k + 5] >= zone.minZ - m;
+		}
+	}
+
+	// Whether segment k stays inside the box shrunk by the margin, the box is convex so its end points tell
+	private boolean inside(Zone box, int k, double margin) {
+		for (int point = k; point <= k + 1; point++) {
+			if (x[point] < box.minX + margin || x[point] > box.maxX - margin || y[point] < box.minY + margin
+					|| y[point] > box.maxY - margin || z[point] < box.minZ + margin || z[point] > box.maxZ - margin) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Whether segment k touches the zone grown by the margin
+	private boolean enters(Zone zone, int k, double margin) {
+		double x0 = x[k], y0 = y[k], z0 = z[k];
+		double dx = x[k + 1] - x0, dy = y[k + 1] - y0, dz = z[k + 1] - z0;
+		// clip the segment, parameter 0 to 1, against the slabs of the bounds
+		double[] range = { 0, 1 };
+		if (!clip(z0, dz, zone.minZ - margin, zone.maxZ + margin, range)) {
+			return false;
+		}
+		if (!zone.cylinder) {
+			return clip(x0, dx, zone.minX - margin, zone.maxX + margin, range) && clip(y0, dy, zone.minY - margin, zone.maxY + margin, range);
+		}
+		// closest point in XY to the axis on the clipped segment
+		double ox = x0 - zone.centerX, oy = y0 - zone.centerY;
+		double length2 = dx * dx + dy * dy;
+		double t = length2 == 0 ? range[0] : max(range[0], min(range[1], -(ox * dx + oy * dy) / length2));
+		double cx = ox + t * dx, cy = oy + t * dy;
+		double radius = zone.radius + margin;
+		return cx * cx + cy * cy <= radius * radius;
+	}
+
+	// Narrows the range of the parameter to where start + t * delta is between min and max, false when it is empty
+	private static boolean clip(double start, double delta, double min, double max, double[] range) {
+		if (delta == 0) {
+			return start >= min && start <= max;
+		}
+		double t0 = (min - start) / delta, t1 = (max - start) / delta;
+		if (t0 > t1) {
+			double swap = t0;
+			t0 = t1;
+			t1 = swap;
+		}
+		range[0] = max(range[0], t0);
+		range[1] = min(range[1], t1);
+		return range[0] <= range[1];
+	}
+
+	private static final class Hits
+	{
+		int[]	segments	= new int[16];
+		int		size;
+
+		void add(int segment) {
+			if (size == segments.length) {
+				segments = Arrays.copyOf(segments, size * 2);
+			}
+			segments[size++] = segment;
+		}
+	}
+}
@@ -8,35 +8,33 @@ import static java.lang.StrictMath.sin;
 import static java.lang.StrictMath.sqrt;
 import static java.lang.StrictMath.toDegrees;
 
-import org.antlr.v4.runtime.ParserRuleContext;
+import java.util.Arrays;
 
-import dkwakkel.jgcode.GCodeBaseListener;
-import dkwakkel.jgcode.GCodeParser.AContext;
-import dkwakkel.jgcode.GCodeParser.AxisWordContext;
-import dkwakkel.jgcode.GCodeParser.BContext;
-import dkwakkel.jgcode.GCodeParser.CContext;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+import dkwakkel.jgcode.GCodeParser.EContext;
 import dkwakkel.jgcode.GCodeParser.EndOfLineContext;
-import dkwakkel.jgcode.GCodeParser.FContext;
-import dkwakkel.jgcode.GCodeParser.G0Context;
-import dkwakkel.jgcode.GCodeParser.G1Context;
-import dkwakkel.jgcode.GCodeParser.G20Context;
-import dkwakkel.jgcode.GCodeParser.G21Context;
-import dkwakkel.jgcode.GCodeParser.G2Context;
-import dkwakkel.jgcode.GCodeParser.G3Context;
-import dkwakkel.jgcode.GCodeParser.IContext;
-import dkwakkel.jgcode.GCodeParser.JContext;
-import dkwakkel.jgcode.GCodeParser.KContext;
+import dkwakkel.jgcode.GCodeParser.LineContext;
+import dkwakkel.jgcode.GCodeParser.ParameterSettingContext;
 import dkwakkel.jgcode.GCodeParser.ProgramContext;
-import dkwakkel.jgcode.GCodeParser.RContext;
-import dkwakkel.jgcode.GCodeParser.XContext;
-import dkwakkel.jgcode.GCodeParser.YContext;
-import dkwakkel.jgcode.GCodeParser.ZContext;
 
-class Executor extends GCodeBaseListener
+class Executor extends WordListener
 {
 	// https://github.com/nraynaud/webgcode/blob/gh-pages/webapp/cnc/gcode/parser.js
 
-	private final Machine	machine;
+	// Increment when the canonical calls produced for a program change, so cached toolpaths are recompiled
+	static final int			VERSION	= 5;
+
+	private Machine				machine;
+
+	private final ParameterTable		parameters;
+	private final ExpressionCompiler	compiler;
+	private final ControlFlow					controlFlow;
+
+	// Parameter settings of the current line, they take effect when the line ends. Named parameters are -(slot + 1)
+	private int[]						pendingTargets	= new int[4];
+	private double[]					pendingValues	= new double[4];
+	private int							pendingCount;
 
 	String								messageComment;
 
@@ -58,108 +56,258 @@ class Executor extends GCodeBaseListener
 	int										group1Value;
 	boolean								radiusFormat;
 
+	// Canned cycles: the P, Q and L words, the Z level of the bottom of the hole and the cycle of the previous cycle line,
+	// 0 when the line before was not a cycle, and whether to retract to the R level (G99) or the initial level (G98)
+	double								pValue;
+	double								qValue;
+	int										lValue	= 1;
+	double								cycleZ;
+	int										cycleMode;
+	boolean								retractToR;
+
+	// Letters of the words of the current line as bits, see word, and MOTION when it has a G code of a canned cycle
+	private static final int	MOTION	= 1 << 26;
+	private static final int	AXES		= word('a') | word('b') | word('c') | word('x') | word('y') | word('z');
+	private int								lineWords;
+
+	// Templates of the last canned cycles, used round robin
+	private final CannedCycle[]	cycles	= new CannedCycle[8];
+	private int									nextCycle;
+
 	Machine.CANON_PLANE		plane	= Machine.CANON_PLANE.CANON_PLANE_XY;	// Default
 
+	// Modal state set on the machine, kept so ProgramIndex can set it again when a program resumes halfway
+	Machine.CANON_UNITS				units	= Machine.CANON_UNITS.CANON_UNITS_MM;
+	Machine.CANON_MOTION_MODE	motionMode;
+	double										feedRate;
+
 	public Executor(Machine machine) {
-		this.machine = machine;
+		this(machine, parametersOf(machine));
 	}
 
-	@Override
-	public void exitA(AContext ctx) {
-		aValue = getExpressionValue(ctx);
+	// Executor that shares the parameters, see parametersOf
+	Executor(Machine machine, double[] parameters) {
+		this.machine = machine;
+		this.parameters = new ParameterTable(parameters);
+		this.compiler = new ExpressionCompiler(this.parameters);
+		this.controlFlow = new ControlFlow(this, this.parameters, compiler);
 	}
 
-	@Override
-	public void exitB(BContext ctx) {
-		bValue = getExpressionValue(ctx);
+	// The parameters of the machine, or of the machine behind it, see ParameterHolder. New defaults for other machines
+	static double[] parametersOf(Machine machine) {
+		return machine instanceof ParameterHolder ? ((ParameterHolder) machine).getParameters() : ParameterTable.defaults();
 	}
 
-	@Override
-	public void exitC(CContext ctx) {
-		cValue = getExpressionValue(ctx);
+	// True when the program refers to parameters, so its calls depend on the parameters it ran with
+	boolean usesParameters() {
+		return parameters.referenced;
 	}
 
-	@Override
-	public void exitI(IContext ctx) {
-		iValue = getExpressionValue(ctx);
+	// Sends the calls of the following lines to another machine, see ProgramIndex
+	void setMachine(Machine machine) {
+		this.machine = machine;
 	}
 
-	@Override
-	public void exitJ(JContext ctx) {
-		jValue = getExpressionValue(ctx);
+	// Executes the line, unless it is an O-word or part of a subroutine or loop, see ControlFlow
+	void execute(LineContext line) {
+		if (!controlFlow.take(line)) {
+			ParseTreeWalker.DEFAULT.walk(this, line);
+		}
 	}
 
-	@Override
-	public void exitK(KContext ctx) {
-		kValue = getExpressionValue(ctx);
+	// True while the lines of a subroutine or loop are being compiled, they do not run when they arrive
+	boolean isCompiling() {
+		return controlFlow.isCompiling();
 	}
 
+	// Axis, F, L, P or Q word, see WordListener
 	@Override
-	public void exitR(RContext ctx) {
-		rValue = getExpressionValue(ctx);
+	void word(int letter, EContext value) {
+		double evaluated = compiler.compile(value).evaluate(parameters);
+		switch (letter) {
+			case 'f':
+				feedRate(evaluated);
+				break;
+			case 'l':
+			case 'p':
+			case 'q':
+				cycleWord(letter, evaluated);
+				break;
+			default:
+				axisWord(letter, evaluated);
+				break;
+		}
 	}
 
 	@Override
-	public void exitX(XContext ctx) {
-		xValue = getExpressionValue(ctx);
+	public void exitParameterSetting(ParameterSettingContext ctx) {
+		Object target = compiler.compileTarget(ctx);
+		double value = compiler.compile(ctx.e()).evaluate(parameters);
+		setParameter(target instanceof Expression ? ParameterTable.index(((Expression) target).evaluate(parameters)) : -((Integer) target + 1), value);
 	}
 
-	@Override
-	public void exitY(YContext ctx) {
-		yValue = getExpressionValue(ctx);
+	// Number of a numbered parameter or -(slot + 1) of a named one, the value is set when the line ends
+	void setParameter(int target, double value) {
+		if (pendingCount == pendingTargets.length) {
+			pendingTargets = Arrays.copyOf(pendingTargets, pendingCount * 2);
+			pendingValues = Arrays.copyOf(pendingValues, pendingCount * 2);
+		}
+		pendingTargets[pendingCount] = target;
+		pendingValues[pendingCount] = value;
+		pendingCount++;
 	}
 
-	@Override
-	public void exitZ(ZContext ctx) {
-		zValue = getExpressionValue(ctx);
+	private void setParameters() {
+		for (int k = 0; k < pendingCount; k++) {
+			int target = pendingTargets[k];
+			if (target > 0) {
+				parameters.set(target, pendingValues[k]);
+			} else {
+				parameters.setNamed(-target - 1, pendingValues[k]);
+			}
+		}
+		pendingCount = 0;
 	}
 
 	@Override
-	public void exitF(FContext ctx) {
-		machine.SET_FEED_RATE(getExpressionValue(ctx));
+	public void exitEndOfLine(EndOfLineContext ctx) {
+		endOfLine();
 	}
 
-	private double getExpressionValue(ParserRuleContext ctx) {
-		return Double.parseDouble(ctx.getChild(1).getText());
-	}
+	// BlockScanner and CompiledLine execute lines without walking a parse tree through the methods below
 
 	@Override
-	public void exitAxisWord(AxisWordContext ctx) {
-		radiusFormat = ctx.r() != null;
-	}
-
-	@Override
-	public void exitG0(G0Context ctx) {
-		group1Value = 0;
+	void startLine(int lineNumber) {
+		if (machine instanceof LineListener) {
+			((LineListener) machine).startLine(lineNumber);
+		}
 	}
 
-	@Override
-	public void exitG1(G1Context ctx) {
-		group1Value = 1;
+	// Axis word with its letter in lower case
+	void axisWord(int letter, double value) {
+		switch (letter) {
+			case 'a':
+				aValue = value;
+				break;
+			case 'b':
+				bValue = value;
+				break;
+			case 'c':
+				cValue = value;
+				break;
+			case 'i':
+				iValue = value;
+				break;
+			case 'j':
+				jValue = value;
+				break;
+			case 'k':
+				kValue = value;
+				break;
+			case 'r':
+				rValue = value;
+				break;
+			case 'x':
+				xValue = value;
+				break;
+			case 'y':
+				yValue = value;
+				break;
+			case 'z':
+				zValue = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Not an axis word: " + (char) letter);
+		}
+		radiusFormat = letter == 'r';
+		lineWords |= word(letter);
 	}
 
-	@Override
-	public void exitG2(G2Context ctx) {
-		group1Value = 2;
+	// L, P or Q word of a canned cycle with its letter in lower case
+	void cycleWord(int letter, double value) {
+		switch (letter) {
+			case 'l':
+				lValue = (int) value;
+				break;
+			case 'p':
+				pValue = value;
+				break;
+			case 'q':
+				qValue = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Not a canned cycle word: " + (char) letter);
+		}
+		lineWords |= word(letter);
 	}
 
-	@Override
-	public void exitG3(G3Context ctx) {
-		group1Value = 3;
+	private static int word(int letter) {
+		return 1 << (letter - 'a');
 	}
 
-	@Override
-	public void exitG20(G20Context ctx) {
-		machine.USE_LENGTH_UNITS(MotorMachine.CANON_UNITS.CANON_UNITS_INCHES);
+	void feedRate(double value) {
+		feedRate = value;
+		machine.SET_FEED_RATE(value);
 	}
 
+	// G code times ten, so G61.1 is 611. The codes not below are ignored.
 	@Override
-	public void exitG21(G21Context ctx) {
-		machine.USE_LENGTH_UNITS(MotorMachine.CANON_UNITS.CANON_UNITS_MM);
+	void gCode(int code) {
+		switch (code) {
+			case 0:
+			case 10:
+			case 20:
+			case 30:
+				group1Value = code / 10;
+				break;
+			case 200:
+				units = Machine.CANON_UNITS.CANON_UNITS_INCHES;
+				machine.USE_LENGTH_UNITS(units);
+				break;
+			case 210:
+				units = Machine.CANON_UNITS.CANON_UNITS_MM;
+				machine.USE_LENGTH_UNITS(units);
+				break;
+			case 610:
+				motionMode = Machine.CANON_MOTION_MODE.CANON_EXACT_PATH;
+				machine.SET_MOTION_CONTROL_MODE(motionMode);
+				break;
+			case 611:
+				motionMode = Machine.CANON_MOTION_MODE.CANON_EXACT_STOP;
+				machine.SET_MOTION_CONTROL_MODE(motionMode);
+				break;
+			case 640:
+				motionMode = Machine.CANON_MOTION_MODE.CANON_CONTINUOUS;
+				machine.SET_MOTION_CONTROL_MODE(motionMode);
+				break;
+			case 800:
+				group1Value = 80;
+				break;
+			case 810:
+			case 820:
+			case 830:
+			case 840:
+			case 850:
+			case 860:
+			case 870:
+			case 880:
+			case 890:
+				group1Value = code / 10;
+				lineWords |= MOTION;
+				break;
+			case 980:
+				retractToR = false;
+				break;
+			case 990:
+				retractToR = true;
+				break;
+			default:
+				break;
+		}
 	}
 
-	@Override
-	public void exitEndOfLine(EndOfLineContext ctx) {
+	void endOfLine() {
+		setParameters();
 		if (messageComment != null) {
 			machine.COMMENT(messageComment);
 			messageComment = null;
@@ -247,17 +395,122 @@ class Executor extends GCodeBaseListener
 				machine.ARC_FEED(firstEnd, secondEnd, firstCenter, secondCenter, rotation, axisEnd, aValue, bValue, cValue);
 				break;
 			}
+			case 80: {
+				if ((lineWords & AXES) != 0) {
+					throw new IllegalStateException("Axis words with G80");
+				}
+				break;
+			}
+			case 81:
+			case 82:
+			case 83:
+			case 84:
+			case 85:
+			case 86:
+			case 87:
+			case 88:
+			case 89: {
+				if ((lineWords & (AXES | MOTION)) != 0) {
+					cycle();
+				}
+				break;
+			}
 			default:
 				throw new IllegalStateException("group1: " + group1Value);
 		}
+		if (group1Value < 81) {
+			cycleMode = 0;
+		}
 		xCurrent = xValue;
 		yCurrent = yValue;
 		zCurrent = zValue;
 		iValue = jValue = kValue = 0;
+		lValue = 1;
+		lineWords = 0;
+	}
+
+	// Drills L holes at X and Y with the canned cycle, as in RS274NGC. When the line does not start the cycle, R and Z
+	// are those of the previous cycle line. The tool goes to the R level first and ends at the R level (G99) or the
+	// higher of the R level and the level it started from (G98).
+	private void cycle() {
+		boolean entering = cycleMode != group1Value;
+		if (entering && (lineWords & word('r')) == 0) {
+			throw new IllegalStateException("R word missing with G" + group1Value);
+		}
+		if (entering && (lineWords & word('z')) == 0) {
+			throw new IllegalStateException("Z word missing with G" + group1Value);
+		}
+		double r = rValue;
+		double bottom = (lineWords & word('z')) != 0 ? zValue : cycleZ;
+		if (bottom > r) {
+			throw new IllegalStateException("Z above the R level with G" + group1Value);
+		}
+		if (lValue < 1) {
+			throw new IllegalStateException("L below 1 with G" + group1Value);
+		}
+		double dwell = 0, peck = 0, middle = 0;
+		switch (group1Value) {
+			case 82:
+			case 86:
+			case 88:
+			case 89:
+				if (entering && (lineWords & word('p')) == 0) {
+					throw new IllegalStateException("P word missing with G" + group1Value);
+				}
+				dwell = pValue;
+				break;
+			case 83:
+				if (entering && (lineWords & word('q')) == 0 || qValue <= 0) {
+					throw new IllegalStateException("Q word missing or not positive with G83");
+				}
+				peck = qValue;
+				break;
+			case 87:
+				if ((lineWords & (word('i') | word('j') | word('k'))) != (word('i') | word('j') | word('k'))) {
+					throw new IllegalStateException("I, J or K word missing with G87");
+				}
+				middle = kValue;
+				break;
+			default:
+				break;
+		}
+		double oldZ = zCurrent;
+		if (oldZ < r) {
+			machine.STRAIGHT_TRAVERSE(xCurrent, yCurrent, r, aValue, bValue, cValue);
+			oldZ = r;
+		}
+		double clear = retractToR ? r : oldZ;
+		double peckClearance = units == Machine.CANON_UNITS.CANON_UNITS_INCHES ? CannedCycle.PECK_CLEARANCE_INCH : CannedCycle.PECK_CLEARANCE_MM;
+		CannedCycle cycle = cannedCycle(group1Value, r, bottom, clear, dwell, peck, middle, peckClearance);
+		for (int k = 0; k < lValue; k++) {
+			machine.STRAIGHT_TRAVERSE(xValue, yValue, oldZ, aValue, bValue, cValue);
+			if (oldZ != r) {
+				machine.STRAIGHT_TRAVERSE(xValue, yValue, r, aValue, bValue, cValue);
+			}
+			cycle.execute(machine, xValue, yValue, xValue + iValue, yValue + jValue, aValue, bValue, cValue);
+			oldZ = clear;
+		}
+		cycleZ = bottom;
+		cycleMode = group1Value;
+		zValue = clear;
+	}
+
+	// The template of the canned cycle, made again only when the cycle or its values changed
+	private CannedCycle cannedCycle(int mode, double r, double bottom, double clear, double dwell, double peck, double middle, double peckClearance) {
+		for (CannedCycle cycle : cycles) {
+			if (cycle != null && cycle.isFor(mode, r, bottom, clear, dwell, peck, middle, peckClearance)) {
+				return cycle;
+			}
+		}
+		CannedCycle cycle = new CannedCycle(mode, r, bottom, clear, dwell, peck, middle, peckClearance);
+		cycles[nextCycle] = cycle;
+		nextCycle = (nextCycle + 1) % cycles.length;
+		return cycle;
 	}
 
 	@Override
 	public void exitProgram(ProgramContext ctx) {
+		controlFlow.checkClosed();
 		super.exitProgram(ctx);
 		System.err.println("EXIT");
 	}
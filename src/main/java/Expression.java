@@ -0,0 +1,213 @@
+import static java.lang.StrictMath.abs;
+import static java.lang.StrictMath.acos;
+import static java.lang.StrictMath.asin;
+import static java.lang.StrictMath.atan2;
+import static java.lang.StrictMath.ceil;
+import static java.lang.StrictMath.cos;
+import static java.lang.StrictMath.exp;
+import static java.lang.StrictMath.floor;
+import static java.lang.StrictMath.log;
+import static java.lang.StrictMath.pow;
+import static java.lang.StrictMath.sin;
+import static java.lang.StrictMath.sqrt;
+import static java.lang.StrictMath.tan;
+import static java.lang.StrictMath.toDegrees;
+import static java.lang.StrictMath.toRadians;
+
+// Compiled expression: a constant, or a program for a small stack machine over the parameter table.
+// Evaluating does not allocate; the stack is part of the expression, so one expression is evaluated by one thread
+// at a time. See ExpressionCompiler.
+final class Expression
+{
+	// Instructions, operands follow the opcode in the code array
+	static final int				CONST						= 0;	// constant index
+	static final int				LOAD						= 1;	// parameter number
+	static final int				LOAD_INDIRECT		= 2;	// parameter number on the stack
+	static final int				LOAD_NAMED			= 3;	// slot
+	static final int				EXISTS_NAMED		= 4;	// slot
+
+	// Unary operations and functions, as in RS274NGC angles are in degrees
+	static final int				NEG							= 10;
+	static final int				ABS							= 11;
+	static final int				ACOS						= 12;
+	static final int				ASIN						= 13;
+	static final int				COS							= 14;
+	static final int				SIN							= 15;
+	static final int				TAN							= 16;
+	static final int				EXP							= 17;
+	static final int				LN							= 18;
+	static final int				SQRT						= 19;
+	static final int				FIX							= 20;
+	static final int				FUP							= 21;
+	static final int				ROUND						= 22;
+
+	// Binary operations
+	static final int				ADD							= 30;
+	static final int				SUB							= 31;
+	static final int				MUL							= 32;
+	static final int				DIV							= 33;
+	static final int				MOD							= 34;
+	static final int				POW							= 35;
+	static final int				ATAN						= 36;
+	static final int				AND							= 37;
+	static final int				OR							= 38;
+	static final int				XOR							= 39;
+	static final int				EQ							= 40;
+	static final int				NE							= 41;
+	static final int				GT							= 42;
+	static final int				GE							= 43;
+	static final int				LT							= 44;
+	static final int				LE							= 45;
+
+	private final double		value;
+	private final int[]			code;
+	private final double[]	constants;
+	private final double[]	stack;
+
+	Expression(double value) {
+		this.value = value;
+		this.code = null;
+		this.constants = null;
+		this.stack = null;
+	}
+
+	Expression(int[] code, double[] constants, int maxDepth) {
+		this.value = Double.NaN;
+		this.code = code;
+		this.constants = constants;
+		this.stack = new double[maxDepth];
+	}
+
+	boolean isConstant() {
+		return code == null;
+	}
+
+	// Number of instructions and operands, 0 for a constant
+	int size() {
+		return code == null ? 0 : code.length;
+	}
+
+	double evaluate(ParameterTable parameters) {
+		if (code == null) {
+			return value;
+		}
+		double[] stack = this.stack;
+		int top = -1;
+		for (int pc = 0; pc < code.length; pc++) {
+			int op = code[pc];
+			switch (op) {
+				case CONST:
+					stack[++top] = constants[code[++pc]];
+					break;
+				case LOAD:
+					stack[++top] = parameters.get(code[++pc]);
+					break;
+				case LOAD_INDIRECT:
+					stack[top] = parameters.get(ParameterTable.index(stack[top]));
+					break;
+				case LOAD_NAMED:
+					stack[++top] = parameters.getNamed(code[++pc]);
+					break;
+				case EXISTS_NAMED:
+					stack[++top] = parameters.isDefined(code[++pc]) ? 1 : 0;
+					break;
+				default:
+					if (op < ADD) {
+						stack[top] = apply(op, stack[top]);
+					}
+					else {
+						top--;
+						stack[top] = apply(op, stack[top], stack[top + 1]);
+					}
+					break;
+			}
+		}
+		return stack[0];
+	}
+
+	static double apply(int op, double value) {
+		switch (op) {
+			case NEG:
+				return -value;
+			case ABS:
+				return abs(value);
+			case ACOS:
+				check(value >= -1 && value <= 1, "ACOS argument out of range: ", value);
+				return toDegrees(acos(value));
+			case ASIN:
+				check(value >= -1 && value <= 1, "ASIN argument out of range: ", value);
+				return toDegrees(asin(value));
+			case COS:
+				return cos(toRadians(value));
+			case SIN:
+				return sin(toRadians(value));
+			case TAN:
+				return tan(toRadians(value));
+			case EXP:
+				return exp(value);
+			case LN:
+				check(value > 0, "LN of zero or negative value: ", value);
+				return log(value);
+			case SQRT:
+				check(value >= 0, "SQRT of negative value: ", value);
+				return sqrt(value);
+			case FIX:
+				return floor(value);
+			case FUP:
+				return ceil(value);
+			case ROUND: // half away from zero
+				return value < 0 ? -floor(-value + 0.5) : floor(value + 0.5);
+			default:
+				throw new IllegalStateException("op=" + op);
+		}
+	}
+
+	static double apply(int op, double left, double right) {
+		switch (op) {
+			case ADD:
+				return left + right;
+			case SUB:
+				return left - right;
+			case MUL:
+				return left * right;
+			case DIV:
+				check(right != 0, "Division by zero: ", left);
+				return left / right;
+			case MOD: { // never negative, as in RS274NGC
+				check(right != 0, "Division by zero: ", left);
+				double result = left % right;
+				return result < 0 ? result + abs(right) : result;
+			}
+			case POW:
+				return pow(left, right);
+			case ATAN:
+				return toDegrees(atan2(left, right));
+			case AND:
+				return left != 0 && right != 0 ? 1 : 0;
+			case OR:
+				return left != 0 || right != 0 ? 1 : 0;
+			case XOR:
+				return (left != 0) != (right != 0) ? 1 : 0;
+			case EQ:
+				return left == right ? 1 : 0;
+			case NE:
+				return left != right ? 1 : 0;
+			case GT:
+				return left > right ? 1 : 0;
+			case GE:
+				return left >= right ? 1 : 0;
+			case LT:
+				return left < right ? 1 : 0;
+			case LE:
+				return left <= right ? 1 : 0;
+			default:
+				throw new IllegalStateException("op=" + op);
+		}
+	}
+
+	private static void check(boolean condition, String message, double value) {
+		if (!condition) {
+			throw new IllegalArgumentException(message + value);
+		}
+	}
+}
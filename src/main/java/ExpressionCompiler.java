@@ -0,0 +1,345 @@
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import dkwakkel.jgcode.GCodeParser;
+import dkwakkel.jgcode.GCodeParser.BracketExpressionContext;
+import dkwakkel.jgcode.GCodeParser.DesignatorContext;
+import dkwakkel.jgcode.GCodeParser.EContext;
+import dkwakkel.jgcode.GCodeParser.ParameterContext;
+import dkwakkel.jgcode.GCodeParser.ParameterSettingContext;
+import dkwakkel.jgcode.GCodeParser.PowerExpressionContext;
+import dkwakkel.jgcode.GCodeParser.PrimitiveExpressionContext;
+import dkwakkel.jgcode.GCodeParser.UnaryExpressionContext;
+
+// Compiles expressions of the parse tree into Expressions.
+// Sub-expressions without parameters are folded into constants, so a literal like X[1+2] compiles to the constant 3,
+// and whatever depends on parameters becomes a stack program. Parameter names are resolved to slots here.
+class ExpressionCompiler
+{
+	private final ParameterTable	parameters;
+
+	ExpressionCompiler(ParameterTable parameters) {
+		this.parameters = parameters;
+	}
+
+	// Returns the compiled expression, compiling it the first time
+	Expression compile(EContext ctx) {
+		if (ctx.compiled == null) {
+			ctx.compiled = emit(node(ctx));
+		}
+		return (Expression) ctx.compiled;
+	}
+
+	// Value of a parameter, such as the label of o#1 call
+	Expression compile(ParameterContext ctx) {
+		return emit(node(ctx));
+	}
+
+	// Target of a parameter setting: the Expression for the number of a numbered parameter, or the Integer slot of a
+	// named parameter. Compiled the first time, like compile.
+	Object compileTarget(ParameterSettingContext ctx) {
+		if (ctx.compiled == null) {
+			parameters.referenced = true;
+			DesignatorContext designator = ctx.parameter().designator();
+			ctx.compiled = designator.NAME() != null ? (Object) slot(ctx.parameter()) : emit(index(designator));
+		}
+		return ctx.compiled;
+	}
+
+	private int slot(ParameterContext ctx) {
+		parameters.referenced = true;
+		return parameters.slot(name(ctx.designator().NAME()));
+	}
+
+	private static String name(TerminalNode name) {
+		String text = name.getText();
+		return text.substring(1, text.length() - 1); // without < and >
+	}
+
+	// Tree of the expression, folded while it is built
+	static final class Node
+	{
+		final int			op;
+		final double	value;		// CONST
+		final int			operand;	// LOAD, LOAD_NAMED, EXISTS_NAMED
+		final Node		left;
+		final Node		right;
+
+		private Node(int op, double value, int operand, Node left, Node right) {
+			this.op = op;
+			this.value = value;
+			this.operand = operand;
+			this.left = left;
+			this.right = right;
+		}
+
+		static Node constant(double value) {
+			return new Node(Expression.CONST, value, 0, null, null);
+		}
+
+		static Node load(int op, int operand) {
+			return new Node(op, 0, operand, null, null);
+		}
+
+		static Node unary(int op, Node operand) {
+			if (operand.op == Expression.CONST) {
+				return constant(Expression.apply(op, operand.value));
+			}
+			return new Node(op, 0, 0, operand, null);
+		}
+
+		static Node binary(int op, Node left, Node right) {
+			if (left.op == Expression.CONST && right.op == Expression.CONST) {
+				return constant(Expression.apply(op, left.value, right.value));
+			}
+			return new Node(op, 0, 0, left, right);
+		}
+
+		// Parameter with the number the node evaluates to
+		static Node indirect(Node index) {
+			if (index.op == Expression.CONST) {
+				return load(Expression.LOAD, ParameterTable.index(index.value));
+			}
+			return new Node(Expression.LOAD_INDIRECT, 0, 0, index, null);
+		}
+
+		int depth() {
+			if (left == null) {
+				return 1;
+			}
+			return right == null ? left.depth() : Math.max(left.depth(), right.depth() + 1);
+		}
+	}
+
+	private Node node(EContext ctx) {
+		return node(ctx.logicalExpression());
+	}
+
+	private Node node(ParseTree tree) {
+		if (tree instanceof EContext) {
+			return node((EContext) tree);
+		}
+		if (tree instanceof PowerExpressionContext) {
+			return node((PowerExpressionContext) tree);
+		}
+		if (tree instanceof UnaryExpressionContext) {
+			return node((UnaryExpressionContext) tree);
+		}
+		if (tree instanceof PrimitiveExpressionContext) {
+			return node((PrimitiveExpressionContext) tree);
+		}
+		if (tree instanceof BracketExpressionContext) {
+			return node(((BracketExpressionContext) tree).e());
+		}
+		if (tree instanceof ParameterContext) {
+			return node((ParameterContext) tree);
+		}
+		// logical, comparison, plus/minus and aggregate expressions: operand (operator operand)*, left to right
+		ParserRuleContext ctx = (ParserRuleContext) tree;
+		Node result = null;
+		int operator = 0;
+		for (int k = 0; k < ctx.getChildCount(); k++) {
+			ParseTree child = ctx.getChild(k);
+			if (child instanceof ErrorNode) {
+				continue; // input the parser skipped to recover from a syntax error
+			}
+			if (child instanceof TerminalNode) {
+				operator = binaryOp(child);
+			}
+			else {
+				result = result == null ? node(child) : Node.binary(operator, result, node(child));
+			}
+		}
+		return result;
+	}
+
+	private static int binaryOp(ParseTree operator) {
+		switch (((TerminalNode) operator).getSymbol().getType()) {
+			case GCodeParser.OR:
+				return Expression.OR;
+			case GCodeParser.XOR:
+				return Expression.XOR;
+			case GCodeParser.AND:
+				return Expression.AND;
+			case GCodeParser.EQ:
+				return Expression.EQ;
+			case GCodeParser.NE:
+				return Expression.NE;
+			case GCodeParser.GT:
+				return Expression.GT;
+			case GCodeParser.GE:
+				return Expression.GE;
+			case GCodeParser.LT:
+				return Expression.LT;
+			case GCodeParser.LE:
+				return Expression.LE;
+			case GCodeParser.PLUS:
+				return Expression.ADD;
+			case GCodeParser.MINUS:
+				return Expression.SUB;
+			case GCodeParser.TIMES:
+				return Expression.MUL;
+			case GCodeParser.SLASH:
+				return Expression.DIV;
+			case GCodeParser.MOD:
+				return Expression.MOD;
+			default:
+				throw new IllegalArgumentException("Unknown operator: " + operator.getText());
+		}
+	}
+
+	private Node node(PowerExpressionContext ctx) {
+		Node base = node(ctx.unaryExpression());
+		return ctx.powerExpression() == null ? base : Node.binary(Expression.POW, base, node(ctx.powerExpression()));
+	}
+
+	private Node node(UnaryExpressionContext ctx) {
+		if (ctx.primitiveExpression() != null) {
+			return node(ctx.primitiveExpression());
+		}
+		TerminalNode operator = (TerminalNode) ctx.getChild(0);
+		switch (operator.getSymbol().getType()) {
+			case GCodeParser.MINUS:
+				return Node.unary(Expression.NEG, node(ctx.unaryExpression()));
+			case GCodeParser.PLUS:
+				return node(ctx.unaryExpression());
+			case GCodeParser.ATAN:
+				return Node.binary(Expression.ATAN, node(ctx.bracketExpression(0)), node(ctx.bracketExpression(1)));
+			case GCodeParser.EXISTS:
+				return exists(ctx.bracketExpression(0).e());
+			default:
+				return Node.unary(functionOp(operator), node(ctx.bracketExpression(0)));
+		}
+	}
+
+	private static int functionOp(TerminalNode function) {
+		switch (function.getSymbol().getType()) {
+			case GCodeParser.ABS:
+				return Expression.ABS;
+			case GCodeParser.ACOS:
+				return Expression.ACOS;
+			case GCodeParser.ASIN:
+				return Expression.ASIN;
+			case GCodeParser.COS:
+				return Expression.COS;
+			case GCodeParser.SIN:
+				return Expression.SIN;
+			case GCodeParser.TAN:
+				return Expression.TAN;
+			case GCodeParser.EXP:
+				return Expression.EXP;
+			case GCodeParser.LN:
+				return Expression.LN;
+			case GCodeParser.SQRT:
+				return Expression.SQRT;
+			case GCodeParser.FIX:
+				return Expression.FIX;
+			case GCodeParser.FUP:
+				return Expression.FUP;
+			case GCodeParser.ROUND:
+				return Expression.ROUND;
+			default:
+				throw new IllegalArgumentException("Unknown function: " + function.getText());
+		}
+	}
+
+	// EXISTS[#<name>] is 1 when the named parameter has a value; numbered parameters always exist
+	private Node exists(EContext ctx) {
+		ParserRuleContext argument = ctx;
+		while (argument.getChildCount() == 1 && argument.getChild(0) instanceof ParserRuleContext) {
+			argument = (ParserRuleContext) argument.getChild(0);
+		}
+		if (!(argument instanceof ParameterContext)) {
+			throw new IllegalArgumentException("EXISTS needs a parameter: " + ctx.getText());
+		}
+		ParameterContext parameter = (ParameterContext) argument;
+		if (parameter.designator().NAME() != null) {
+			return Node.load(Expression.EXISTS_NAMED, slot(parameter));
+		}
+		return Node.constant(1);
+	}
+
+	private Node node(PrimitiveExpressionContext ctx) {
+		if (ctx.bracketExpression() != null) {
+			return node(ctx.bracketExpression().e());
+		}
+		if (ctx.parameter() != null) {
+			return node(ctx.parameter());
+		}
+		return Node.constant(Double.parseDouble(ctx.NUMBER().getText()));
+	}
+
+	private Node node(ParameterContext ctx) {
+		parameters.referenced = true;
+		DesignatorContext designator = ctx.designator();
+		if (designator.NAME() != null) {
+			return Node.load(Expression.LOAD_NAMED, slot(ctx));
+		}
+		return Node.indirect(index(designator));
+	}
+
+	// Number of the parameter, #1 is 1, ##1 is the value of #1 and #[...] the value of the expression
+	private Node index(DesignatorContext ctx) {
+		if (ctx.NUMBER() != null) {
+			return Node.constant(Double.parseDouble(ctx.NUMBER().getText()));
+		}
+		if (ctx.parameter() != null) {
+			return node(ctx.parameter());
+		}
+		return node(ctx.bracketExpression().e());
+	}
+
+	static Expression emit(Node node) {
+		if (node.op == Expression.CONST) {
+			return new Expression(node.value);
+		}
+		Emitter emitter = new Emitter();
+		emitter.emit(node);
+		return new Expression(Arrays.copyOf(emitter.code, emitter.size), Arrays.copyOf(emitter.constants, emitter.constantCount), node.depth());
+	}
+
+	private static final class Emitter
+	{
+		int[]			code			= new int[16];
+		int				size;
+		double[]	constants	= new double[4];
+		int				constantCount;
+
+		void emit(Node node) {
+			switch (node.op) {
+				case Expression.CONST:
+					if (constantCount == constants.length) {
+						constants = Arrays.copyOf(constants, constantCount * 2);
+					}
+					constants[constantCount] = node.value;
+					add(Expression.CONST);
+					add(constantCount++);
+					break;
+				case Expression.LOAD:
+				case Expression.LOAD_NAMED:
+				case Expression.EXISTS_NAMED:
+					add(node.op);
+					add(node.operand);
+					break;
+				default:
+					emit(node.left);
+					if (node.right != null) {
+						emit(node.right);
+					}
+					add(node.op);
+					break;
+			}
+		}
+
+		private void add(int value) {
+			if (size == code.length) {
+				code = Arrays.copyOf(code, size * 2);
+			}
+			code[size++] = value;
+		}
+	}
+}
@@ -0,0 +1,230 @@
+// Machine that passes all canonical calls to another machine.
+// Extend it to observe or change a subset of the calls.
+public class ForwardingMachine implements Machine, LineListener, ProgramListener, ParameterHolder
+{
+	protected final Machine	machine;
+
+	public ForwardingMachine(Machine machine) {
+		this.machine = machine;
+	}
+
+	@Override
+	public void startLine(int lineNumber) {
+		if (machine instanceof LineListener) {
+			((LineListener) machine).startLine(lineNumber);
+		}
+	}
+
+	@Override
+	public void endProgram() {
+		MotorMachine.flush(machine);
+	}
+
+	@Override
+	public double[] getParameters() {
+		return Executor.parametersOf(machine);
+	}
+
+	@Override
+	public void SET_ORIGIN_OFFSETS(double x, double y, double z, double a, double b, double c) {
+		machine.SET_ORIGIN_OFFSETS(x, y, z, a, b, c);
+	}
+
+	@Override
+	public void USE_LENGTH_UNITS(CANON_UNITS units) {
+		machine.USE_LENGTH_UNITS(units);
+	}
+
+	@Override
+	public void STRAIGHT_TRAVERSE(double x, double y, double z, double a, double b, double c) {
+		machine.STRAIGHT_TRAVERSE(x, y, z, a, b, c);
+	}
+
+	@Override
+	public void SELECT_PLANE(CANON_PLANE plane) {
+		machine.SELECT_PLANE(plane);
+	}
+
+	@Override
+	public void SET_FEED_RATE(double rate) {
+		machine.SET_FEED_RATE(rate);
+	}
+
+	@Override
+	public void SET_FEED_REFERENCE(CANON_FEED_REFERENCE reference) {
+		machine.SET_FEED_REFERENCE(reference);
+	}
+
+	@Override
+	public void SET_MOTION_CONTROL_MODE(CANON_MOTION_MODE mode) {
+		machine.SET_MOTION_CONTROL_MODE(mode);
+	}
+
+	@Override
+	public void START_SPEED_FEED_SYNCH() {
+		machine.START_SPEED_FEED_SYNCH();
+	}
+
+	@Override
+	public void STOP_SPEED_FEED_SYNCH() {
+		machine.STOP_SPEED_FEED_SYNCH();
+	}
+
+	@Override
+	public void ARC_FEED(	double firstEnd,
+												double secondEnd,
+												double firstCenter,
+												double secondCenter,
+												int rotation,
+												double axisEndPoint,
+												double a,
+												double b,
+												double c) {
+		machine.ARC_FEED(firstEnd, secondEnd, firstCenter, secondCenter, rotation, axisEndPoint, a, b, c);
+	}
+
+	@Override
+	public void DWELL(double seconds) {
+		machine.DWELL(seconds);
+	}
+
+	@Override
+	public void STRAIGHT_FEED(double x, double y, double z, double a, double b, double c) {
+		machine.STRAIGHT_FEED(x, y, z, a, b, c);
+	}
+
+	@Override
+	public void STRAIGHT_PROBE(double x, double y, double z, double a, double b, double c) {
+		machine.STRAIGHT_PROBE(x, y, z, a, b, c);
+	}
+
+	@Override
+	public void ORIENT_SPINDLE(double orientation, CANON_DIRECTION direction) {
+		machine.ORIENT_SPINDLE(orientation, direction);
+	}
+
+	@Override
+	public void SET_SPINDLE_SPEED(double r) {
+		machine.SET_SPINDLE_SPEED(r);
+	}
+
+	@Override
+	public void START_SPINDLE_CLOCKWISE() {
+		machine.START_SPINDLE_CLOCKWISE();
+	}
+
+	@Override
+	public void START_SPINDLE_COUNTERCLOCKWISE() {
+		machine.START_SPINDLE_COUNTERCLOCKWISE();
+	}
+
+	@Override
+	public void STOP_SPINDLE_TURNING() {
+		machine.STOP_SPINDLE_TURNING();
+	}
+
+	@Override
+	public void CHANGE_TOOL(int slot) {
+		machine.CHANGE_TOOL(slot);
+	}
+
+	@Override
+	public void SELECT_TOOL(int i) {
+		machine.SELECT_TOOL(i);
+	}
+
+	@Override
+	public void USE_TOOL_LENGTH_OFFSET(double offset) {
+		machine.USE_TOOL_LENGTH_OFFSET(offset);
+	}
+
+	@Override
+	public void COMMENT(String s) {
+		machine.COMMENT(s);
+	}
+
+	@Override
+	public void DISABLE_FEED_OVERRIDE() {
+		machine.DISABLE_FEED_OVERRIDE();
+	}
+
+	@Override
+	public void DISABLE_SPEED_OVERRIDE() {
+		machine.DISABLE_SPEED_OVERRIDE();
+	}
+
+	@Override
+	public void ENABLE_FEED_OVERRIDE() {
+		machine.ENABLE_FEED_OVERRIDE();
+	}
+
+	@Override
+	public void ENABLE_SPEED_OVERRIDE() {
+		machine.ENABLE_SPEED_OVERRIDE();
+	}
+
+	@Override
+	public void FLOOD_OFF() {
+		machine.FLOOD_OFF();
+	}
+
+	@Override
+	public void FLOOD_ON() {
+		machine.FLOOD_ON();
+	}
+
+	@Override
+	public void INIT_CANON() {
+		machine.INIT_CANON();
+	}
+
+	@Override
+	public void MESSAGE(String s) {
+		machine.MESSAGE(s);
+	}
+
+	@Override
+	public void MIST_OFF() {
+		machine.MIST_OFF();
+	}
+
+	@Override
+	public void MIST_ON() {
+		machine.MIST_ON();
+	}
+
+	@Override
+	public void PALLET_SHUTTLE() {
+		machine.PALLET_SHUTTLE();
+	}
+
+	@Override
+	public void OPTIONAL_PROGRAM_STOP() {
+		machine.OPTIONAL_PROGRAM_STOP();
+	}
+
+	@Override
+	public void PROGRAM_END() {
+		machine.PROGRAM_END();
+	}
+
+	@Override
+	public void PROGRAM_STOP() {
+		machine.PROGRAM_STOP();
+	}
+
+	@Override
+	public void SET_CUTTER_RADIUS_COMPENSATION(double radius) {
+		machine.SET_CUTTER_RADIUS_COMPENSATION(radius);
+	}
+
+	@Override
+	public void START_CUTTER_RADIUS_COMPENSATION(CANON_COMP_SIDE side) {
+		machine.START_CUTTER_RADIUS_COMPENSATION(side);
+	}
+
+	@Override
+	public void STOP_CUTTER_RADIUS_COMPENSATION() {
+		machine.STOP_CUTTER_RADIUS_COMPENSATION();
+	}
+}
@@ -1,3 +1,4 @@
+import java.io.File;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.lang.reflect.InvocationHandler;
@@ -10,7 +11,8 @@ public class HelloWorldGcode {
 	public static void main(String[] args) throws Throwable {
 		try(InputStream gcodeStream = HelloWorldGcode.class.getResourceAsStream("helloworld.gcode")) {
 			// Machine machine = wrapWithProxy(null);
-			Machine machine = new MotorMachine();
+			MotorMachine machine = new MotorMachine();
+			machine.setParameterFile(new File("jgcode.parameters")); // work offsets survive a power cycle
 			MotorMachine.execute(machine, gcodeStream);
 		}
 	}
@@ -0,0 +1,6 @@
+// Optional interface for machines that want to know which program line the following canonical calls belong to.
+// The interpreter calls startLine before the calls of every line.
+public interface LineListener
+{
+	void startLine(int lineNumber);
+}
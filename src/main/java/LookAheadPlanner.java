@@ -0,0 +1,193 @@
+import static java.lang.StrictMath.abs;
+import static java.lang.StrictMath.min;
+import static java.lang.StrictMath.sqrt;
+
+// Look-ahead planner for continuous path mode (G64).
+// Buffers the last segments in a ring buffer and computes the speed at each junction from the angle between
+// the segments and the acceleration limits of the axes (junction deviation, as in grbl), so the machine only
+// slows down as much as needed for a corner instead of stopping after every segment.
+//
+// Positions are in machine units, speeds in units per minute and accelerations in units per minute^2.
+abstract class LookAheadPlanner
+{
+	static final int					AXES	= 6;
+
+	private final int					capacity;
+	private final double[]		target;
+	private final double[]		length;
+	private final double[]		nominalSpeed;
+	private final double[]		acceleration;
+	private final double[]		maxEntrySpeedSqr;
+	private final double[]		entrySpeedSqr;
+
+	private final double[]		axisAcceleration		= new double[AXES];
+	private double						junctionDeviation;
+
+	private final double[]		previousUnitVector	= new double[AXES];
+	private final double[]		unitVector					= new double[AXES];
+	private final double[]		position						= new double[AXES];
+
+	private int								head;																	// oldest planned segment
+	private int								count;
+
+	LookAheadPlanner(int capacity) {
+		this.capacity = capacity;
+		target = new double[capacity * AXES];
+		length = new double[capacity];
+		nominalSpeed = new double[capacity];
+		acceleration = new double[capacity];
+		maxEntrySpeedSqr = new double[capacity];
+		entrySpeedSqr = new double[capacity];
+	}
+
+	// Called for every planned segment, in order, with the speed to use for it
+	protected abstract void move(double x, double y, double z, double a, double b, double c, double speed);
+
+	// Position of the axis after the last issued segment
+	protected abstract double getIssuedPosition(int axis);
+
+	// Called before move with the velocity profile of the segment: a trapezoid from the entry speed up to the peak
+	// speed and down to the exit speed, with the given acceleration
+	protected void profile(double length, double entrySpeed, double peakSpeed, double exitSpeed, double acceleration) {
+		// Nothing
+	}
+
+	void setAcceleration(int axis, double acceleration) {
+		axisAcceleration[axis] = acceleration;
+	}
+
+	void setJunctionDeviation(double junctionDeviation) {
+		this.junctionDeviation = junctionDeviation;
+	}
+
+	double getPosition(int axis) {
+		return count == 0 ? getIssuedPosition(axis) : position[axis];
+	}
+
+	void add(double x, double y, double z, double a, double b, double c, double speed) {
+		if (count == 0) {
+			for (int axis = 0; axis < AXES; axis++) {
+				position[axis] = getIssuedPosition(axis);
+			}
+		}
+		double squaredLength = 0;
+		for (int axis = 0; axis < AXES; axis++) {
+			double delta = get(axis, x, y, z, a, b, c) - position[axis];
+			unitVector[axis] = delta;
+			squaredLength += delta * delta;
+		}
+		if (squaredLength == 0) {
+			return;
+		}
+		if (count == capacity) {
+			issue();
+		}
+
+		double segmentLength = sqrt(squaredLength);
+		double segmentAcceleration = Double.MAX_VALUE;
+		double cosTheta = 0;
+		for (int axis = 0; axis < AXES; axis++) {
+			unitVector[axis] /= segmentLength;
+			if (unitVector[axis] != 0 && axisAcceleration[axis] > 0) { // no limit when not configured
+				segmentAcceleration = min(segmentAcceleration, axisAcceleration[axis] / abs(unitVector[axis]));
+			}
+			cosTheta -= previousUnitVector[axis] * unitVector[axis];
+		}
+
+		double maxEntry;
+		if (count == 0) {
+			maxEntry = 0; // start from stand still
+		}
+		else {
+			int previous = index(count - 1);
+			double junction;
+			if (cosTheta > 0.999999) { // reversal
+				junction = 0;
+			}
+			else if (cosTheta < -0.999999) { // straight on
+				junction = Double.POSITIVE_INFINITY;
+			}
+			else {
+				double sinThetaHalf = sqrt(0.5 * (1.0 - cosTheta));
+				junction = segmentAcceleration * junctionDeviation * sinThetaHalf / (1.0 - sinThetaHalf);
+			}
+			maxEntry = min(junction, min(sqr(nominalSpeed[previous]), sqr(speed)));
+		}
+
+		int k = index(count++);
+		target[k * AXES] = position[0] = x;
+		target[k * AXES + 1] = position[1] = y;
+		target[k * AXES + 2] = position[2] = z;
+		target[k * AXES + 3] = position[3] = a;
+		target[k * AXES + 4] = position[4] = b;
+		target[k * AXES + 5] = position[5] = c;
+		length[k] = segmentLength;
+		nominalSpeed[k] = speed;
+		acceleration[k] = segmentAcceleration;
+		maxEntrySpeedSqr[k] = entrySpeedSqr[k] = maxEntry;
+		System.arraycopy(unitVector, 0, previousUnitVector, 0, AXES);
+
+		recalculate();
+	}
+
+	void flush() {
+		while (count > 0) {
+			issue();
+		}
+	}
+
+	private void recalculate() {
+		// Backward pass: the newest segment has to be able to stop at its end
+		double exitSpeedSqr = 0;
+		for (int s = count - 1; s >= 0; s--) {
+			int k = index(s);
+			double reachable = exitSpeedSqr + 2 * acceleration[k] * length[k];
+			entrySpeedSqr[k] = s == 0 ? min(entrySpeedSqr[k], reachable) : min(maxEntrySpeedSqr[k], reachable);
+			exitSpeedSqr = entrySpeedSqr[k];
+		}
+		// Forward pass: a segment can't enter faster than the previous one can accelerate to
+		for (int s = 1; s < count; s++) {
+			int previous = index(s - 1);
+			int k = index(s);
+			entrySpeedSqr[k] = min(entrySpeedSqr[k], entrySpeedSqr[previous] + 2 * acceleration[previous] * length[previous]);
+		}
+	}
+
+	private void issue() {
+		int k = head;
+		double entry = entrySpeedSqr[k];
+		double exit = count > 1 ? entrySpeedSqr[index(1)] : 0;
+		// peak speed of the trapezoid that fits in the segment
+		double speed = min(nominalSpeed[k], sqrt((2 * acceleration[k] * length[k] + entry + exit) / 2));
+		profile(length[k], sqrt(entry), speed, sqrt(exit), acceleration[k]);
+		head = index(1);
+		count--;
+		int t = k * AXES;
+		move(target[t], target[t + 1], target[t + 2], target[t + 3], target[t + 4], target[t + 5], speed);
+	}
+
+	private int index(int s) {
+		return (head + s) % capacity;
+	}
+
+	private static double get(int axis, double x, double y, double z, double a, double b, double c) {
+		switch (axis) {
+			case 0:
+				return x;
+			case 1:
+				return y;
+			case 2:
+				return z;
+			case 3:
+				return a;
+			case 4:
+				return b;
+			default:
+				return c;
+		}
+	}
+
+	private static double sqr(double value) {
+		return value * value;
+	}
+}
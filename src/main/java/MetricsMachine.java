@@ -0,0 +1,563 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Machine decorator that measures the canonical calls with little enough overhead to leave it on in production.
+// Per canonical function it counts the calls and keeps the total time and a latency histogram with power of two
+// buckets, all in lock-free striped counters. It also counts the program lines (see LineListener), and when the
+// target is a MotorMachine, the arc segments it emits and the time spent in its motors.
+//
+// Read the numbers with snapshot() or through JMX after register().
+public class MetricsMachine extends ForwardingMachine implements MetricsMachineMXBean
+{
+	// Bucket b counts the calls that took from 2^(b-1) up to 2^b nanoseconds, the last one everything longer
+	static final int											BUCKETS						= 40;
+
+	private static final Canonical[]			FUNCTIONS					= Canonical.values();
+
+	private static final int							LINES							= 0;
+	private static final int							MOTOR_MOVES				= 1;
+	private static final int							MOTOR_MOVE_NANOS	= 2;
+	private static final int							MOTOR_SPEEDS			= 3;
+	private static final int							MOTOR_SPEED_NANOS	= 4;
+
+	private final StripedCounters					calls							= new StripedCounters(FUNCTIONS.length);
+	private final StripedCounters					nanos							= new StripedCounters(FUNCTIONS.length);
+	private final StripedCounters					histogram					= new StripedCounters(FUNCTIONS.length * BUCKETS);
+	private final StripedCounters					events						= new StripedCounters(MOTOR_SPEED_NANOS + 1);
+	private final long										startNanos				= System.nanoTime();
+	private MotorMachine									motorMachine;
+
+	public MetricsMachine(Machine machine) {
+		super(machine);
+		if (machine instanceof MotorMachine) {
+			instrument((MotorMachine) machine);
+		}
+	}
+
+	// Measures the motors of the machine and reads its arc segment count.
+	// Call it again after replacing a motor.
+	public void instrument(MotorMachine motorMachine) {
+		this.motorMachine = motorMachine;
+		for (MotorMachine.Axis axis : MotorMachine.Axis.values()) {
+			MotorMachine.Motor motor = motorMachine.getMotor(axis);
+			if (!(motor instanceof TimedMotor)) {
+				motorMachine.setMotor(axis, new TimedMotor(axis.name(), motor));
+			}
+		}
+	}
+
+	// Motor that measures the calls to another motor
+	class TimedMotor extends MotorMachine.Motor
+	{
+		private final MotorMachine.Motor	motor;
+
+		TimedMotor(String name, MotorMachine.Motor motor) {
+			super(name);
+			this.motor = motor;
+		}
+
+		@Override
+		public void setSpeed(double speed) {
+			long start = System.nanoTime();
+			motor.setSpeed(speed);
+			events.add(MOTOR_SPEED_NANOS, System.nanoTime() - start);
+			events.increment(MOTOR_SPEEDS);
+		}
+
+		@Override
+		public void moveTo(double valueInMM) {
+			long start = System.nanoTime();
+			motor.moveTo(valueInMM);
+			events.add(MOTOR_MOVE_NANOS, System.nanoTime() - start);
+			events.increment(MOTOR_MOVES);
+		}
+
+		@Override
+		public void setCoordinated(boolean coordinated) {
+			motor.setCoordinated(coordinated);
+		}
+
+		@Override
+		public void start() {
+			motor.start();
+		}
+	}
+
+	private void record(Canonical function, long start) {
+		long elapsed = System.nanoTime() - start;
+		int ordinal = function.ordinal();
+		calls.increment(ordinal);
+		nanos.add(ordinal, elapsed);
+		histogram.increment(ordinal * BUCKETS + bucket(elapsed));
+	}
+
+	static int bucket(long nanos) {
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+	}
+
+	public Snapshot snapshot() {
+		Snapshot snapshot = new Snapshot();
+		calls.get(0, snapshot.calls);
+		nanos.get(0, snapshot.nanos);
+		histogram.get(0, snapshot.histogram);
+		snapshot.elapsedNanos = System.nanoTime() - startNanos;
+		snapshot.lines = events.get(LINES);
+		snapshot.arcSegments = motorMachine == null ? 0 : motorMachine.getArcSegments();
+		snapshot.motorMoves = events.get(MOTOR_MOVES);
+		snapshot.motorMoveNanos = events.get(MOTOR_MOVE_NANOS);
+		snapshot.motorSpeedChanges = events.get(MOTOR_SPEEDS);
+		snapshot.motorSpeedNanos = events.get(MOTOR_SPEED_NANOS);
+		return snapshot;
+	}
+
+	// Numbers at one moment. Counters are read one by one, so they may be a few calls apart under load.
+	public static class Snapshot
+	{
+		private final long[]	calls			= new long[FUNCTIONS.length];
+		private final long[]	nanos			= new long[FUNCTIONS.length];
+		private final long[]	histogram	= new long[FUNCTIONS.length * BUCKETS];
+		private long					elapsedNanos;
+		private long					lines;
+		private long					arcSegments;
+		private long					motorMoves;
+		private long					motorMoveNanos;
+		private long					motorSpeedChanges;
+		private long					motorSpeedNanos;
+
+		public long getCalls(Canonical function) {
+			return calls[function.ordinal()];
+		}
+
+		public long getNanos(Canonical function) {
+			return nanos[function.ordinal()];
+		}
+
+		public long getMeanNanos(Canonical function) {
+			long count = getCalls(function);
+			return count == 0 ? 0 : getNanos(function) / count;
+		}
+
+		// Number of calls per bucket, see BUCKETS
+		public long[] getHistogram(Canonical function) {
+			int offset = function.ordinal() * BUCKETS;
+			long[] buckets = new long[BUCKETS];
+			System.arraycopy(histogram, offset, buckets, 0, BUCKETS);
+			return buckets;
+		}
+
+		// Upper bound of the bucket that holds the percentile, so at most twice the real value
+		public long getPercentileNanos(Canonical function, double percentile) {
+			long count = getCalls(function);
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(count * percentile / 100);
+			int offset = function.ordinal() * BUCKETS;
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				seen += histogram[offset + bucket];
+				if (seen >= rank) {
+					return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		public long getLines() {
+			return lines;
+		}
+
+		public double getLinesPerSecond() {
+			return elapsedNanos == 0 ? 0 : lines * 1e9 / elapsedNanos;
+		}
+
+		public long getArcSegments() {
+			return arcSegments;
+		}
+
+		public long getMotorMoves() {
+			return motorMoves;
+		}
+
+		public long getMotorMoveNanos() {
+			return motorMoveNanos;
+		}
+
+		public long getMotorSpeedChanges() {
+			return motorSpeedChanges;
+		}
+
+		public long getMotorSpeedNanos() {
+			return motorSpeedNanos;
+		}
+	}
+
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("jgcode:type=MetricsMachine,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	public static void unregister(ObjectName objectName) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+	}
+
+	@Override
+	public long getLines() {
+		return events.get(LINES);
+	}
+
+	@Override
+	public double getLinesPerSecond() {
+		return snapshot().getLinesPerSecond();
+	}
+
+	@Override
+	public long getArcSegments() {
+		return motorMachine == null ? 0 : motorMachine.getArcSegments();
+	}
+
+	@Override
+	public long getMotorMoves() {
+		return events.get(MOTOR_MOVES);
+	}
+
+	@Override
+	public long getMotorMoveNanos() {
+		return events.get(MOTOR_MOVE_NANOS);
+	}
+
+	@Override
+	public long getMotorSpeedChanges() {
+		return events.get(MOTOR_SPEEDS);
+	}
+
+	@Override
+	public long getMotorSpeedNanos() {
+		return events.get(MOTOR_SPEED_NANOS);
+	}
+
+	@Override
+	public Map<String, Long> getCalls() {
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (Canonical function : FUNCTIONS) {
+			values.put(function.name(), calls.get(function.ordinal()));
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Long> getMeanNanos() {
+		Snapshot snapshot = snapshot();
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (Canonical function : FUNCTIONS) {
+			values.put(function.name(), snapshot.getMeanNanos(function));
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Long> getP99Nanos() {
+		Snapshot snapshot = snapshot();
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (Canonical function : FUNCTIONS) {
+			values.put(function.name(), snapshot.getPercentileNanos(function, 99));
+		}
+		return values;
+	}
+
+	@Override
+	public void startLine(int lineNumber) {
+		events.increment(LINES);
+		super.startLine(lineNumber);
+	}
+
+	@Override
+	public void SET_ORIGIN_OFFSETS(double x, double y, double z, double a, double b, double c) {
+		long start = System.nanoTime();
+		super.SET_ORIGIN_OFFSETS(x, y, z, a, b, c);
+		record(Canonical.SET_ORIGIN_OFFSETS, start);
+	}
+
+	@Override
+	public void USE_LENGTH_UNITS(CANON_UNITS units) {
+		long start = System.nanoTime();
+		super.USE_LENGTH_UNITS(units);
+		record(Canonical.USE_LENGTH_UNITS, start);
+	}
+
+	@Override
+	public void STRAIGHT_TRAVERSE(double x, double y, double z, double a, double b, double c) {
+		long start = System.nanoTime();
+		super.STRAIGHT_TRAVERSE(x, y, z, a, b, c);
+		record(Canonical.STRAIGHT_TRAVERSE, start);
+	}
+
+	@Override
+	public void SELECT_PLANE(CANON_PLANE plane) {
+		long start = System.nanoTime();
+		super.SELECT_PLANE(plane);
+		record(Canonical.SELECT_PLANE, start);
+	}
+
+	@Override
+	public void SET_FEED_RATE(double rate) {
+		long start = System.nanoTime();
+		super.SET_FEED_RATE(rate);
+		record(Canonical.SET_FEED_RATE, start);
+	}
+
+	@Override
+	public void SET_FEED_REFERENCE(CANON_FEED_REFERENCE reference) {
+		long start = System.nanoTime();
+		super.SET_FEED_REFERENCE(reference);
+		record(Canonical.SET_FEED_REFERENCE, start);
+	}
+
+	@Override
+	public void SET_MOTION_CONTROL_MODE(CANON_MOTION_MODE mode) {
+		long start = System.nanoTime();
+		super.SET_MOTION_CONTROL_MODE(mode);
+		record(Canonical.SET_MOTION_CONTROL_MODE, start);
+	}
+
+	@Override
+	public void START_SPEED_FEED_SYNCH() {
+		long start = System.nanoTime();
+		super.START_SPEED_FEED_SYNCH();
+		record(Canonical.START_SPEED_FEED_SYNCH, start);
+	}
+
+	@Override
+	public void STOP_SPEED_FEED_SYNCH() {
+		long start = System.nanoTime();
+		super.STOP_SPEED_FEED_SYNCH();
+		record(Canonical.STOP_SPEED_FEED_SYNCH, start);
+	}
+
+	@Override
+	public void ARC_FEED(	double firstEnd,
+												double secondEnd,
+												double firstCenter,
+												double secondCenter,
+												int rotation,
+												double axisEndPoint,
+												double a,
+												double b,
+												double c) {
+		long start = System.nanoTime();
+		super.ARC_FEED(firstEnd, secondEnd, firstCenter, secondCenter, rotation, axisEndPoint, a, b, c);
+		record(Canonical.ARC_FEED, start);
+	}
+
+	@Override
+	public void DWELL(double seconds) {
+		long start = System.nanoTime();
+		super.DWELL(seconds);
+		record(Canonical.DWELL, start);
+	}
+
+	@Override
+	public void STRAIGHT_FEED(double x, double y, double z, double a, double b, double c) {
+		long start = System.nanoTime();
+		super.STRAIGHT_FEED(x, y, z, a, b, c);
+		record(Canonical.STRAIGHT_FEED, start);
+	}
+
+	@Override
+	public void STRAIGHT_PROBE(double x, double y, double z, double a, double b, double c) {
+		long start = System.nanoTime();
+		super.STRAIGHT_PROBE(x, y, z, a, b, c);
+		record(Canonical.STRAIGHT_PROBE, start);
+	}
+
+	@Override
+	public void ORIENT_SPINDLE(double orientation, CANON_DIRECTION direction) {
+		long start = System.nanoTime();
+		super.ORIENT_SPINDLE(orientation, direction);
+		record(Canonical.ORIENT_SPINDLE, start);
+	}
+
+	@Override
+	public void SET_SPINDLE_SPEED(double r) {
+		long start = System.nanoTime();
+		super.SET_SPINDLE_SPEED(r);
+		record(Canonical.SET_SPINDLE_SPEED, start);
+	}
+
+	@Override
+	public void START_SPINDLE_CLOCKWISE() {
+		long start = System.nanoTime();
+		super.START_SPINDLE_CLOCKWISE();
+		record(Canonical.START_SPINDLE_CLOCKWISE, start);
+	}
+
+	@Override
+	public void START_SPINDLE_COUNTERCLOCKWISE() {
+		long start = System.nanoTime();
+		super.START_SPINDLE_COUNTERCLOCKWISE();
+		record(Canonical.START_SPINDLE_COUNTERCLOCKWISE, start);
+	}
+
+	@Override
+	public void STOP_SPINDLE_TURNING() {
+		long start = System.nanoTime();
+		super.STOP_SPINDLE_TURNING();
+		record(Canonical.STOP_SPINDLE_TURNING, start);
+	}
+
+	@Override
+	public void CHANGE_TOOL(int slot) {
+		long start = System.nanoTime();
+		super.CHANGE_TOOL(slot);
+		record(Canonical.CHANGE_TOOL, start);
+	}
+
+	@Override
+	public void SELECT_TOOL(int i) {
+		long start = System.nanoTime();
+		super.SELECT_TOOL(i);
+		record(Canonical.SELECT_TOOL, start);
+	}
+
+	@Override
+	public void USE_TOOL_LENGTH_OFFSET(double offset) {
+		long start = System.nanoTime();
+		super.USE_TOOL_LENGTH_OFFSET(offset);
+		record(Canonical.USE_TOOL_LENGTH_OFFSET, start);
+	}
+
+	@Override
+	public void COMMENT(String s) {
+		long start = System.nanoTime();
+		super.COMMENT(s);
+		record(Canonical.COMMENT, start);
+	}
+
+	@Override
+	public void DISABLE_FEED_OVERRIDE() {
+		long start = System.nanoTime();
+		super.DISABLE_FEED_OVERRIDE();
+		record(Canonical.DISABLE_FEED_OVERRIDE, start);
+	}
+
+	@Override
+	public void DISABLE_SPEED_OVERRIDE() {
+		long start = System.nanoTime();
+		super.DISABLE_SPEED_OVERRIDE();
+		record(Canonical.DISABLE_SPEED_OVERRIDE, start);
+	}
+
+	@Override
+	public void ENABLE_FEED_OVERRIDE() {
+		long start = System.nanoTime();
+		super.ENABLE_FEED_OVERRIDE();
+		record(Canonical.ENABLE_FEED_OVERRIDE, start);
+	}
+
+	@Override
+	public void ENABLE_SPEED_OVERRIDE() {
+		long start = System.nanoTime();
+		super.ENABLE_SPEED_OVERRIDE();
+		record(Canonical.ENABLE_SPEED_OVERRIDE, start);
+	}
+
+	@Override
+	public void FLOOD_OFF() {
+		long start = System.nanoTime();
+		super.FLOOD_OFF();
+		record(Canonical.FLOOD_OFF, start);
+	}
+
+	@Override
+	public void FLOOD_ON() {
+		long start = System.nanoTime();
+		super.FLOOD_ON();
+		record(Canonical.FLOOD_ON, start);
+	}
+
+	@Override
+	public void INIT_CANON() {
+		long start = System.nanoTime();
+		super.INIT_CANON();
+		record(Canonical.INIT_CANON, start);
+	}
+
+	@Override
+	public void MESSAGE(String s) {
+		long start = System.nanoTime();
+		super.MESSAGE(s);
+		record(Canonical.MESSAGE, start);
+	}
+
+	@Override
+	public void MIST_OFF() {
+		long start = System.nanoTime();
+		super.MIST_OFF();
+		record(Canonical.MIST_OFF, start);
+	}
+
+	@Override
+	public void MIST_ON() {
+		long start = System.nanoTime();
+		super.MIST_ON();
+		record(Canonical.MIST_ON, start);
+	}
+
+	@Override
+	public void PALLET_SHUTTLE() {
+		long start = System.nanoTime();
+		super.PALLET_SHUTTLE();
+		record(Canonical.PALLET_SHUTTLE, start);
+	}
+
+	@Override
+	public void OPTIONAL_PROGRAM_STOP() {
+		long start = System.nanoTime();
+		super.OPTIONAL_PROGRAM_STOP();
+		record(Canonical.OPTIONAL_PROGRAM_STOP, start);
+	}
+
+	@Override
+	public void PROGRAM_END() {
+		long start = System.nanoTime();
+		super.PROGRAM_END();
+		record(Canonical.PROGRAM_END, start);
+	}
+
+	@Override
+	public void PROGRAM_STOP() {
+		long start = System.nanoTime();
+		super.PROGRAM_STOP();
+		record(Canonical.PROGRAM_STOP, start);
+	}
+
+	@Override
+	public void SET_CUTTER_RADIUS_COMPENSATION(double radius) {
+		long start = System.nanoTime();
+		super.SET_CUTTER_RADIUS_COMPENSATION(radius);
+		record(Canonical.SET_CUTTER_RADIUS_COMPENSATION, start);
+	}
+
+	@Override
+	public void START_CUTTER_RADIUS_COMPENSATION(CANON_COMP_SIDE side) {
+		long start = System.nanoTime();
+		super.START_CUTTER_RADIUS_COMPENSATION(side);
+		record(Canonical.START_CUTTER_RADIUS_COMPENSATION, start);
+	}
+
+	@Override
+	public void STOP_CUTTER_RADIUS_COMPENSATION() {
+		long start = System.nanoTime();
+		super.STOP_CUTTER_RADIUS_COMPENSATION();
+		record(Canonical.STOP_CUTTER_RADIUS_COMPENSATION, start);
+	}
+}
@@ -0,0 +1,28 @@
+import java.util.Map;
+
+// JMX view of a MetricsMachine, see MetricsMachine.register
+public interface MetricsMachineMXBean
+{
+	long getLines();
+
+	double getLinesPerSecond();
+
+	long getArcSegments();
+
+	long getMotorMoves();
+
+	long getMotorMoveNanos();
+
+	long getMotorSpeedChanges();
+
+	long getMotorSpeedNanos();
+
+	// Number of calls per canonical function
+	Map<String, Long> getCalls();
+
+	// Mean time per canonical function, in nanoseconds
+	Map<String, Long> getMeanNanos();
+
+	// 99th percentile of the time per canonical function, in nanoseconds
+	Map<String, Long> getP99Nanos();
+}
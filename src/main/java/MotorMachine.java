@@ -1,39 +1,163 @@
-import static java.lang.StrictMath.PI;
-import static java.lang.StrictMath.atan2;
-import static java.lang.StrictMath.ceil;
+import static java.lang.StrictMath.abs;
 import static java.lang.StrictMath.cos;
-import static java.lang.StrictMath.max;
 import static java.lang.StrictMath.pow;
 import static java.lang.StrictMath.sin;
 import static java.lang.StrictMath.sqrt;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenFactory;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
 import org.antlr.v4.runtime.TokenStream;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
 
 import dkwakkel.jgcode.GCodeLexer;
 import dkwakkel.jgcode.GCodeParser;
+import dkwakkel.jgcode.GCodeParser.LineContext;
+import dkwakkel.jgcode.GCodeParser.ProgramContext;
 
-public class MotorMachine implements Machine
+public class MotorMachine implements Machine, ProgramListener, ParameterHolder
 {
 	// See Table 2. Default Parameter File
-	// TODO: Persistence
-	double[] parameters = new double[5400 + 1];
-	{
-		parameters[5220] = 1.0;
-	}
+	final double[] parameters = ParameterTable.defaults();
+	private ParameterFile parameterFile;
 
 	public static void execute(Machine machine, java.io.InputStream in) throws Exception {
+		execute(machine, parse(in));
+	}
+
+	public static ProgramContext parse(java.io.InputStream in) throws Exception {
 		ANTLRInputStream input = new ANTLRInputStream(in == null ? System.in : in);
 
 		Lexer lexer = new GCodeLexer(input);
 		TokenStream tokens = new CommonTokenStream(lexer);
 		GCodeParser parser = new GCodeParser(tokens);
+		return parser.program();
+	}
+
+	public static void execute(Machine machine, ProgramContext program) {
+		Executor executor = new Executor(machine);
+		for (LineContext line : program.line()) {
+			executor.execute(line);
+		}
+		executor.exitProgram(program);
+		flush(machine);
+	}
+
+	// Lexes, parses and executes one line at a time, so memory use does not depend on the program size
+	// and the machine receives its first command as soon as the first line is read.
+	public static void executeStreaming(Machine machine, java.io.InputStream in) throws Exception {
+		UnbufferedCharStream input = new UnbufferedCharStream(in == null ? System.in : in);
+
+		Lexer lexer = new GCodeLexer(input);
+		// the unbuffered char stream forgets consumed text, so tokens must keep their own copy
+		lexer.setTokenFactory(new CommonTokenFactory(true));
+		// unlike CommonTokenStream, the unbuffered token stream passes hidden tokens such as whitespace to the parser
+		TokenStream tokens = new UnbufferedTokenStream<CommonToken>(new DefaultChannelTokenSource(lexer));
+		GCodeParser parser = new GCodeParser(tokens);
+
+		Executor executor = new Executor(machine);
+		executeLines(executor, tokens, parser);
+		executor.exitProgram(null);
+		flush(machine);
+	}
+
+	// Token source that only passes the tokens of the default channel
+	static class DefaultChannelTokenSource implements TokenSource
+	{
+		private final TokenSource	source;
+
+		DefaultChannelTokenSource(TokenSource source) {
+			this.source = source;
+		}
 
-		ParseTreeWalker walker = new ParseTreeWalker();
-		walker.walk(new Executor(machine), parser.program());
+		@Override
+		public Token nextToken() {
+			Token token = source.nextToken();
+			while (token.getChannel() != Token.DEFAULT_CHANNEL && token.getType() != Token.EOF) {
+				token = source.nextToken();
+			}
+			return token;
+		}
+
+		@Override
+		public int getLine() {
+			return source.getLine();
+		}
+
+		@Override
+		public int getCharPositionInLine() {
+			return source.getCharPositionInLine();
+		}
+
+		@Override
+		public CharStream getInputStream() {
+			return source.getInputStream();
+		}
+
+		@Override
+		public String getSourceName() {
+			return source.getSourceName();
+		}
+
+		@Override
+		public void setTokenFactory(TokenFactory<?> factory) {
+			source.setTokenFactory(factory);
+		}
+
+		@Override
+		public TokenFactory<?> getTokenFactory() {
+			return source.getTokenFactory();
+		}
+	}
+
+	// Parses and executes line by line until the end of the tokens, skipping the % program start and end markers
+	static void executeLines(Executor executor, TokenStream tokens, GCodeParser parser) {
+		while (tokens.LA(1) != Token.EOF) {
+			int index = tokens.index();
+			if (tokens.LA(1) == GCodeLexer.PERCENT) { // program start or end marker
+				tokens.consume();
+				if (tokens.LA(1) == GCodeLexer.END_OF_LINE) {
+					tokens.consume();
+				}
+				continue;
+			}
+			executor.execute(parser.line());
+			if (tokens.index() == index) { // no progress after syntax error
+				tokens.consume();
+			}
+		}
+	}
+
+	// Ends the program on the machine, see ProgramListener
+	static void flush(Machine machine) {
+		if (machine instanceof ProgramListener) {
+			((ProgramListener) machine).endProgram();
+		}
+	}
+
+	@Override
+	public double[] getParameters() {
+		return parameters;
+	}
+
+	// Keeps the parameters in the file: loads them now, and saves them at the end of every program
+	public void setParameterFile(java.io.File file) throws java.io.IOException {
+		parameterFile = new ParameterFile(file);
+		parameterFile.load(parameters);
+	}
+
+	// Saves the parameters when they changed, if there is a parameter file
+	public void saveParameters() {
+		if (parameterFile != null) {
+			parameterFile.save(parameters);
+		}
 	}
 
 	private static double INCH_IN_MM = 25.4;
@@ -48,6 +172,50 @@ public class MotorMachine implements Machine
 
 	private double								feedRateInUnitPerMinute;
 
+	// Coordinated motion: every axis gets its share of the feed rate and the motors start together, see setCoordinated
+	private boolean								coordinated;
+	private final double[]				targets		= new double[Axis.values().length];
+	private final double[]				distances	= new double[Axis.values().length];
+
+	private final AxisState[]			axes	= new AxisState[Axis.values().length];
+	{
+		for (Axis axis : Axis.values()) {
+			axes[axis.ordinal()] = new AxisState(new Motor(axis.name()));
+		}
+	}
+
+	// Look-ahead planning in continuous mode, see setAcceleration and setJunctionDeviation
+	private static final int			LOOK_AHEAD					= 16;
+	private final double[]				accelerationInMmPerSecond2	= new double[Axis.values().length];
+	private double								junctionDeviationInMm				= 0.05;
+
+	// Maximum distance between an arc and the chords it is cut into, see setArcTolerance
+	private double								arcToleranceInMm						= 0.01;
+	private volatile long					arcSegments;
+
+	private final LookAheadPlanner	planner	= new LookAheadPlanner(LOOK_AHEAD)
+	{
+		@Override
+		protected void move(double x, double y, double z, double a, double b, double c, double speed) {
+			MotorMachine.this.move(x, y, z, a, b, c, speed);
+		}
+
+		@Override
+		protected double getIssuedPosition(int axis) {
+			return axes[axis].currentValue;
+		}
+
+		@Override
+		protected void profile(double length, double entrySpeed, double peakSpeed, double exitSpeed, double acceleration) {
+			MotorMachine.this.profile(entrySpeed, exitSpeed);
+		}
+	};
+	{
+		for (Axis axis : Axis.values()) {
+			setAcceleration(axis, 500);
+		}
+	}
+
 	static class Motor
 	{
 		private final String	name;
@@ -63,12 +231,28 @@ public class MotorMachine implements Machine
 		public void moveTo(double valueInMM) {
 			System.out.println(name + " move to: " + valueInMM);
 		}
+
+		// Called when the machine enters or leaves coordinated mode, and when the motor is set. In coordinated mode the
+		// motor may hold the speed and target until start.
+		public void setCoordinated(boolean coordinated) {
+			// Nothing, moveTo starts the motor
+		}
+
+		// Called in coordinated mode when all moving motors received their speed and target, motors that hold the
+		// target until then start now
+		public void start() {
+			// Nothing, moveTo starts the motor
+		}
 	}
 
 	public enum Axis
 	{
 		X, Y, Z, A, B, C;
+	}
 
+	// State of one axis of this machine
+	static class AxisState
+	{
 		Motor						motor;
 		CANON_UNITS			units					= CANON_UNITS.CANON_UNITS_MM;
 
@@ -76,11 +260,11 @@ public class MotorMachine implements Machine
 		double					currentValue;
 		private double	currentFeedRate;
 
-		Axis() {
-			this.motor = new Motor(name());
+		AxisState(Motor motor) {
+			this.motor = motor;
 		}
 
-		public void setMotor(Motor motor) {
+		void setMotor(Motor motor) {
 			this.motor = motor;
 			origin = currentValue = currentFeedRate = 0;
 		}
@@ -93,7 +277,7 @@ public class MotorMachine implements Machine
 			}
 		}
 
-		public void moveTo(double value) {
+		void moveTo(double value) {
 			if (value != currentValue) {
 				double valueInMM = convertUnit(units, CANON_UNITS.CANON_UNITS_MM, value);
 				motor.moveTo(valueInMM);
@@ -101,7 +285,7 @@ public class MotorMachine implements Machine
 			}
 		}
 
-		public void setUnit(CANON_UNITS units) {
+		void setUnit(CANON_UNITS units) {
 			origin = convertUnit(this.units, units, origin);
 			currentValue = convertUnit(this.units, units, currentValue);
 			this.units = units;
@@ -120,17 +304,86 @@ public class MotorMachine implements Machine
 		,
 		T // tool selection
 		;
-		double	value;
+	}
+
+	private final double[]				dimensions	= new double[DIMENSION.values().length];
+
+	public void setMotor(Axis axis, Motor motor) {
+		state(axis).setMotor(motor);
+		motor.setCoordinated(coordinated);
+	}
+
+	public Motor getMotor(Axis axis) {
+		return state(axis).motor;
+	}
+
+	private AxisState state(Axis axis) {
+		return axes[axis.ordinal()];
+	}
+
+	double getAcceleration(Axis axis) {
+		return accelerationInMmPerSecond2[axis.ordinal()];
+	}
+
+	public void setAcceleration(Axis axis, double accelerationInMmPerSecond2) {
+		this.accelerationInMmPerSecond2[axis.ordinal()] = accelerationInMmPerSecond2;
+		updatePlanner();
+	}
+
+	public void setJunctionDeviation(double junctionDeviationInMm) {
+		this.junctionDeviationInMm = junctionDeviationInMm;
+		updatePlanner();
+	}
+
+	// In coordinated mode each axis runs at its share of the feed rate, so all axes arrive together and the tool moves
+	// along the straight line at the programmed feed rate. Otherwise every axis runs at the full feed rate.
+	public void setCoordinated(boolean coordinated) {
+		flush();
+		this.coordinated = coordinated;
+		for (AxisState axis : axes) {
+			axis.motor.setCoordinated(coordinated);
+		}
+	}
+
+	public void setArcTolerance(double arcToleranceInMm) {
+		this.arcToleranceInMm = arcToleranceInMm;
+	}
+
+	// Number of chords all arcs were cut into
+	public long getArcSegments() {
+		return arcSegments;
+	}
+
+	private void updatePlanner() {
+		flush();
+		for (Axis axis : Axis.values()) {
+			double acceleration = convertUnit(CANON_UNITS.CANON_UNITS_MM, state(axis).units, accelerationInMmPerSecond2[axis.ordinal()]);
+			planner.setAcceleration(axis.ordinal(), acceleration * 60 * 60);
+		}
+		planner.setJunctionDeviation(convertUnit(CANON_UNITS.CANON_UNITS_MM, state(Axis.X).units, junctionDeviationInMm));
+	}
+
+	// Sends all segments still held by the look-ahead planner to the motors
+	public void flush() {
+		planner.flush();
+	}
+
+	// Sends the planned moves and saves the parameters
+	@Override
+	public void endProgram() {
+		flush();
+		saveParameters();
 	}
 
 	@Override
 	public void SET_ORIGIN_OFFSETS(double x, double y, double z, double a, double b, double c) {
-		Axis.X.origin = x;
-		Axis.Y.origin = y;
-		Axis.Z.origin = z;
-		Axis.A.origin = a;
-		Axis.B.origin = b;
-		Axis.C.origin = c;
+		flush();
+		state(Axis.X).origin = x;
+		state(Axis.Y).origin = y;
+		state(Axis.Z).origin = z;
+		state(Axis.A).origin = a;
+		state(Axis.B).origin = b;
+		state(Axis.C).origin = c;
 
 		// TODO: move to correct place
 		COMMENT("Move the mill to its startpoint and press <OK>");
@@ -138,10 +391,12 @@ public class MotorMachine implements Machine
 
 	@Override
 	public void USE_LENGTH_UNITS(CANON_UNITS units) {
-		for (Axis axis : Axis.values()) {
+		flush();
+		for (AxisState axis : axes) {
 			axis.setUnit(units);
 		}
-		// DIMENSION.H.value = convertUnit(this.units, units, DIMENSION.H.value);
+		updatePlanner();
+		// dimensions[DIMENSION.H.ordinal()] = convertUnit(this.units, units, dimensions[DIMENSION.H.ordinal()]);
 	}
 
 	@Override
@@ -173,6 +428,7 @@ public class MotorMachine implements Machine
 
 	@Override
 	public void SET_MOTION_CONTROL_MODE(CANON_MOTION_MODE mode) {
+		flush();
 		this.motionControlMode = mode;
 	}
 
@@ -217,68 +473,52 @@ public class MotorMachine implements Machine
 				throw new IllegalStateException("plane=" + canonPlane);
 		}
 
-		double firstDifference = firstEnd - firstCenter;
-		double secondDifference = secondEnd - secondCenter;
-
-		// Clockwise
-		double angleA, angleB;
-		boolean clockwise = rotation >= 0;
-		if (clockwise) {
-			angleA = atan2(secondDifference, firstDifference);
-			angleB = atan2(second.currentValue, first.currentValue);
-		}
-		// Counterclockwise
-		else {
-			angleA = atan2(second.currentValue, first.currentValue);
-			angleB = atan2(secondDifference, firstDifference);
-		}
-
-		// Make sure angleB is always greater than angleA and if not add 2PI
-		// so that it is (this also takes care of the special case of angleA == angleB,
-		// i.e. we want a complete circle)
-		if (angleB <= angleA) {
-			angleB += 2 * PI;
-		}
-		double angle = angleB - angleA;
-		double radius = sqrt(sqr(first.currentValue - firstCenter) + sqr(second.currentValue - secondCenter));
-		double length = radius * angle;
-
-		// TODO: Good way to calculate steps
-		double curveSection = 1.0; // convertUnit(CANON_UNITS_MM, units, 1.0);
-		// Maximum of either 2.4 times the angle in radians
-		// or the length of the curve divided by the curve section constant
-		int steps = (int) ceil(max(angle * 2.4, length / curveSection));
-
-		for (int s = 1; s <= steps; s++) {
-			int step = clockwise ? steps - s : s;
-
-			double stepValue = ((double) step) / steps;
-			double firstValue = firstCenter + radius * cos(angleA + angle * stepValue);
-			double secondValue = secondCenter + radius * sin(angleA + angle * stepValue);
-
-			double axisValue = calculateStepValue(axis.currentValue, axisEndPoint, steps, s);
-			double aValue = calculateStepValue(Axis.A.currentValue, a, steps, s);
-			double bValue = calculateStepValue(Axis.B.currentValue, b, steps, s);
-			double cValue = calculateStepValue(Axis.C.currentValue, c, steps, s);
-
-			moveTo(first, firstValue, second, secondValue, axis, axisValue, aValue, bValue, cValue);
+		double firstStart = getPosition(first);
+		double secondStart = getPosition(second);
+		double axisStart = getPosition(axis);
+		double aStart = getPosition(Axis.A);
+		double bStart = getPosition(Axis.B);
+		double cStart = getPosition(Axis.C);
+
+		ArcSweep sweep = new ArcSweep(firstStart, secondStart, firstEnd, secondEnd, firstCenter, secondCenter, rotation);
+		int steps = sweep.steps(convertUnit(CANON_UNITS.CANON_UNITS_MM, state(first).units, arcToleranceInMm));
+		arcSegments += steps;
+
+		// Rotate the radius vector by a fixed step instead of calculating sin and cos for every point
+		double stepAngle = sweep.angle / steps;
+		double cosStep = cos(stepAngle);
+		double sinStep = sin(stepAngle);
+		double firstRadius = firstStart - firstCenter;
+		double secondRadius = secondStart - secondCenter;
+
+		double axisStep = (axisEndPoint - axisStart) / steps;
+		double aStep = (a - aStart) / steps;
+		double bStep = (b - bStart) / steps;
+		double cStep = (c - cStart) / steps;
+
+		for (int s = 1; s < steps; s++) {
+			double rotated = firstRadius * cosStep - secondRadius * sinStep;
+			secondRadius = firstRadius * sinStep + secondRadius * cosStep;
+			firstRadius = rotated;
+
+			moveTo(	first, firstCenter + firstRadius,
+							second, secondCenter + secondRadius,
+							axis, axisStart + axisStep * s,
+							aStart + aStep * s, bStart + bStep * s, cStart + cStep * s);
 		}
 
 		// Move to end point
 		moveTo(first, firstEnd, second, secondEnd, axis, axisEndPoint, a, b, c);
 	}
 
-	private double calculateStepValue(double startValue, double endValue, int steps, int s) {
-		return startValue + (endValue - startValue) * (s) / steps;
-	}
-
 	private static double sqr(double value) {
 		return pow(value, 2);
 	}
 
 	@Override
 	public void DWELL(double seconds) {
-		DIMENSION.P.value = seconds;
+		flush();
+		dimensions[DIMENSION.P.ordinal()] = seconds;
 	}
 
 	@Override
@@ -288,6 +528,7 @@ public class MotorMachine implements Machine
 
 	@Override
 	public void STRAIGHT_PROBE(double x, double y, double z, double a, double b, double c) {
+		flush();
 		// TODO Auto-generated method stub
 	}
 
@@ -298,7 +539,7 @@ public class MotorMachine implements Machine
 
 	@Override
 	public void SET_SPINDLE_SPEED(double r) {
-		DIMENSION.S.value = r;
+		dimensions[DIMENSION.S.ordinal()] = r;
 	}
 
 	@Override
@@ -318,17 +559,18 @@ public class MotorMachine implements Machine
 
 	@Override
 	public void CHANGE_TOOL(int slot) {
+		flush();
 		// TODO Auto-generated method stub
 	}
 
 	@Override
 	public void SELECT_TOOL(int i) {
-		DIMENSION.T.value = i;
+		dimensions[DIMENSION.T.ordinal()] = i;
 	}
 
 	@Override
 	public void USE_TOOL_LENGTH_OFFSET(double offset) {
-		DIMENSION.H.value = offset;
+		dimensions[DIMENSION.H.ordinal()] = offset;
 	}
 
 	@Override
@@ -393,22 +635,22 @@ public class MotorMachine implements Machine
 
 	@Override
 	public void OPTIONAL_PROGRAM_STOP() {
-		// TODO Auto-generated method stub
+		flush();
 	}
 
 	@Override
 	public void PROGRAM_END() {
-		// TODO Auto-generated method stub
+		flush();
 	}
 
 	@Override
 	public void PROGRAM_STOP() {
-		// TODO Auto-generated method stub
+		flush();
 	}
 
 	@Override
 	public void SET_CUTTER_RADIUS_COMPENSATION(double radius) {
-		DIMENSION.D.value = radius;
+		dimensions[DIMENSION.D.ordinal()] = radius;
 	}
 
 	@Override
@@ -430,22 +672,90 @@ public class MotorMachine implements Machine
 											double a,
 											double b,
 											double c) {
+		double x = valueOf(Axis.X, firstAxis, firstValue, secondAxis, secondValue, thirdValue);
+		double y = valueOf(Axis.Y, firstAxis, firstValue, secondAxis, secondValue, thirdValue);
+		double z = valueOf(Axis.Z, firstAxis, firstValue, secondAxis, secondValue, thirdValue);
 
-		firstAxis.setSpeed(feedRateInUnitPerMinute);
-		secondAxis.setSpeed(feedRateInUnitPerMinute);
-		thirdAxis.setSpeed(feedRateInUnitPerMinute);
+		if (motionControlMode == CANON_MOTION_MODE.CANON_CONTINUOUS) {
+			planner.add(x, y, z, a, b, c, feedRateInUnitPerMinute);
+		}
+		else {
+			move(x, y, z, a, b, c, feedRateInUnitPerMinute);
+		}
+	}
 
-		firstAxis.moveTo(firstValue);
-		secondAxis.moveTo(secondValue);
-		thirdAxis.moveTo(thirdValue);
+	private static double valueOf(Axis axis, Axis firstAxis, double firstValue, Axis secondAxis, double secondValue, double thirdValue) {
+		return axis == firstAxis ? firstValue : axis == secondAxis ? secondValue : thirdValue;
+	}
 
-		Axis.A.moveTo(a);
-		Axis.B.moveTo(b);
-		Axis.C.moveTo(c);
+	// Called in continuous mode before move with the speeds in units per minute at the start and end of the segment
+	void profile(double entrySpeed, double exitSpeed) {
+		// Nothing
+	}
+
+	// Sends the speed and the targets of a move to the motors, subclasses that drive the motors differently override it
+	void move(double x, double y, double z, double a, double b, double c, double feedRateInUnitPerMinute) {
+		if (coordinated) {
+			moveCoordinated(x, y, z, a, b, c, feedRateInUnitPerMinute);
+			return;
+		}
+		state(Axis.X).setSpeed(feedRateInUnitPerMinute);
+		state(Axis.Y).setSpeed(feedRateInUnitPerMinute);
+		state(Axis.Z).setSpeed(feedRateInUnitPerMinute);
+
+		state(Axis.X).moveTo(x);
+		state(Axis.Y).moveTo(y);
+		state(Axis.Z).moveTo(z);
+
+		state(Axis.A).moveTo(a);
+		state(Axis.B).moveTo(b);
+		state(Axis.C).moveTo(c);
+	}
+
+	// Sends the speeds of all moving axes, then their targets, then starts them. The feed rate is along the XYZ path,
+	// or along the ABC path when only rotary axes move. Traverses keep the maximum speed on every axis.
+	private void moveCoordinated(double x, double y, double z, double a, double b, double c, double feedRateInUnitPerMinute) {
+		targets[Axis.X.ordinal()] = x;
+		targets[Axis.Y.ordinal()] = y;
+		targets[Axis.Z.ordinal()] = z;
+		targets[Axis.A.ordinal()] = a;
+		targets[Axis.B.ordinal()] = b;
+		targets[Axis.C.ordinal()] = c;
+		for (int axis = 0; axis < axes.length; axis++) {
+			distances[axis] = targets[axis] - axes[axis].currentValue;
+		}
+
+		double length = sqrt(sqr(distances[0]) + sqr(distances[1]) + sqr(distances[2]));
+		if (length == 0) {
+			length = sqrt(sqr(distances[3]) + sqr(distances[4]) + sqr(distances[5]));
+			if (length == 0) {
+				return;
+			}
+		}
+		for (int axis = 0; axis < axes.length; axis++) {
+			if (distances[axis] != 0) {
+				double share = abs(distances[axis]) / length;
+				axes[axis].setSpeed(feedRateInUnitPerMinute == Double.MAX_VALUE ? feedRateInUnitPerMinute : feedRateInUnitPerMinute * share);
+			}
+		}
+		for (int axis = 0; axis < axes.length; axis++) {
+			if (distances[axis] != 0) {
+				axes[axis].moveTo(targets[axis]);
+			}
+		}
+		for (int axis = 0; axis < axes.length; axis++) {
+			if (distances[axis] != 0) {
+				axes[axis].motor.start();
+			}
+		}
+	}
+
+	private double getPosition(Axis axis) {
+		return planner.getPosition(axis.ordinal());
 	}
 
 	public void close() {
-		// Nothing
+		flush();
 	}
 
 }
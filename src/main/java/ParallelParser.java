@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+
+import dkwakkel.jgcode.GCodeLexer;
+import dkwakkel.jgcode.GCodeParser;
+import dkwakkel.jgcode.GCodeParser.LineContext;
+
+// Lexes and parses a program on all cores. The input is cut into chunks of whole lines, every chunk is lexed and parsed
+// by its own GCodeLexer and GCodeParser, and the Executor walks the lines of the chunks in program order on the calling
+// thread. Only the Executor carries state from one line to the next, so the Machine gets the same calls as from
+// MotorMachine.execute. At most two chunks per thread are read ahead, so memory use does not depend on the program size.
+public class ParallelParser
+{
+	static final int							CHUNK_SIZE	= 1 << 20;
+
+	private final InputStream			in;
+	private final int							chunkSize;
+
+	private byte[]								buffer;
+	private int										start, limit;
+	private boolean								eof;
+	private int										lineNumber	= 1;
+
+	// A program that starts with % ends at the next %, like the program rule of the grammar
+	private boolean								started;
+	private boolean								percentStart;
+	private boolean								ended;
+
+	ParallelParser(InputStream in, int chunkSize) {
+		this.in = in;
+		this.chunkSize = chunkSize;
+		buffer = new byte[chunkSize];
+	}
+
+	public static void execute(Machine machine, InputStream in) throws IOException {
+		execute(machine, in, Runtime.getRuntime().availableProcessors(), CHUNK_SIZE);
+	}
+
+	static void execute(Machine machine, InputStream in, int parallelism, int chunkSize) throws IOException {
+		ParallelParser chunks = new ParallelParser(in == null ? System.in : in, chunkSize);
+		Executor executor = new Executor(machine);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			ArrayDeque<Future<List<LineContext>>> parsed = new ArrayDeque<>();
+			Chunk chunk;
+			while (!chunks.ended && (chunk = chunks.next()) != null) {
+				if (parsed.size() == 2 * parallelism) {
+					chunks.execute(executor, parsed.removeFirst());
+				}
+				parsed.addLast(pool.submit(chunk));
+			}
+			while (!chunks.ended && !parsed.isEmpty()) {
+				chunks.execute(executor, parsed.removeFirst());
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		executor.exitProgram(null);
+		MotorMachine.flush(machine);
+	}
+
+	// Executes the lines of a parsed chunk, up to the % that ends the program
+	private void execute(Executor executor, Future<List<LineContext>> chunk) {
+		List<LineContext> lines;
+		try {
+			lines = chunk.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		for (LineContext line : lines) {
+			if (line == null) { // %
+				if (!started) {
+					percentStart = true;
+				}
+				else if (percentStart) {
+					ended = true;
+					return;
+				}
+			}
+			else {
+				executor.execute(line);
+			}
+			started = true;
+		}
+	}
+
+	// Lines of the program with the line number of the first one, parsing it is the job of a pool thread
+	static final class Chunk implements Callable<List<LineContext>>
+	{
+		final String	text;
+		final int			lineNumber;
+
+		Chunk(String text, int lineNumber) {
+			this.text = text;
+			this.lineNumber = lineNumber;
+		}
+
+		@Override
+		public List<LineContext> call() {
+			return parse(text, lineNumber);
+		}
+	}
+
+	// Reads the next chunk: a full buffer up to its last end of line outside a comment, or the rest of the input at its end.
+	// Returns null at the end of the input.
+	Chunk next() throws IOException {
+		while (true) {
+			int end = limit - start >= chunkSize || eof ? endOfChunk() : -1;
+			if (end > start) {
+				Chunk chunk = new Chunk(new String(buffer, start, end - start, Charset.defaultCharset()), lineNumber);
+				for (int k = start; k < end; k++) {
+					if (buffer[k] == '\n') {
+						lineNumber++;
+					}
+				}
+				start = end;
+				return chunk;
+			}
+			if (eof) {
+				return null;
+			}
+			if (start > 0) {
+				System.arraycopy(buffer, start, buffer, 0, limit - start);
+				limit -= start;
+				start = 0;
+			}
+			if (limit == buffer.length) { // no end of line in a whole chunk
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				eof = true;
+			}
+			else {
+				limit += read;
+			}
+		}
+	}
+
+	// End of the last complete line in the buffer, the end of the buffer at the end of the input, or -1.
+	// The buffer starts at a line, so comments that span lines are known. A \r at the end of the buffer may be
+	// the first half of \r\n, so it only ends a line at the end of the input.
+	private int endOfChunk() {
+		if (eof) {
+			return limit;
+		}
+		int end = -1;
+		boolean comment = false;
+		for (int k = start; k < limit; k++) {
+			switch (buffer[k]) {
+				case '(':
+					comment = true;
+					break;
+				case ')':
+					comment = false;
+					break;
+				case '\r':
+					if (!comment && k + 1 < limit && buffer[k + 1] != '\n') {
+						end = k + 1;
+					}
+					break;
+				case '\n':
+					if (!comment) {
+						end = k + 1;
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		return end;
+	}
+
+	// Lexes and parses a chunk, the lines keep their line numbers in the program. A % program start or end marker
+	// is a null line, only the sequential pass knows which of the two it is.
+	static List<LineContext> parse(String text, int lineNumber) {
+		GCodeLexer lexer = new GCodeLexer(new ANTLRInputStream(text));
+		lexer.setLine(lineNumber);
+		CommonTokenStream tokens = new CommonTokenStream(lexer);
+		GCodeParser parser = new GCodeParser(tokens);
+		List<LineContext> lines = new ArrayList<>();
+		while (tokens.LA(1) != Token.EOF) {
+			int index = tokens.index();
+			if (tokens.LA(1) == GCodeLexer.PERCENT) {
+				tokens.consume();
+				if (tokens.LA(1) == GCodeLexer.END_OF_LINE) {
+					tokens.consume();
+				}
+				lines.add(null);
+				continue;
+			}
+			lines.add(parser.line());
+			if (tokens.index() == index) { // no progress after syntax error
+				tokens.consume();
+			}
+		}
+		return lines;
+	}
+}
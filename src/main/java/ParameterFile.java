@@ -0,0 +1,115 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// Numbered parameters kept in a memory mapped file, so work offsets and other parameters survive a restart.
+// Value k is parameter #k, numbered as in the RS274NGC parameter file (Table 2); a new file holds the defaults.
+// The file has two copies of the parameters. save writes the older copy in place and forces it to disk, load takes
+// the newest copy with a valid checksum, so a power cut during a save leaves the copy saved before.
+//
+// File layout (little endian):
+// header: magic, format version, number of parameters
+// two copies: sequence number (long), CRC32 of the values (long), values (doubles)
+public class ParameterFile
+{
+	private static final int				MAGIC						= 0x4A475046;	// JGPF
+	private static final int				FORMAT_VERSION	= 1;
+	private static final int				HEADER_SIZE			= 4 * 4;
+	private static final int				COPY_SIZE				= 2 * 8 + ParameterTable.SIZE * 8;
+
+	private final MappedByteBuffer	buffer;
+	private final byte[]						bytes						= new byte[ParameterTable.SIZE * 8];
+	private final CRC32							crc							= new CRC32();
+
+	private long										sequence;
+	private int											current					= -1;	// copy with the newest values, -1 for none
+	private final double[]					saved						= new double[ParameterTable.SIZE];
+
+	public ParameterFile(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			long length = HEADER_SIZE + 2 * COPY_SIZE;
+			boolean created = raf.length() != length;
+			if (created) {
+				raf.setLength(0);
+				raf.setLength(length);
+			}
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (created || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getInt(8) != ParameterTable.SIZE) {
+				buffer.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putInt(8, ParameterTable.SIZE);
+				for (int copy = 0; copy < 2; copy++) {
+					buffer.putLong(offset(copy), 0).putLong(offset(copy) + 8, -1); // no valid checksum
+				}
+				buffer.force();
+			}
+		}
+		for (int copy = 0; copy < 2; copy++) {
+			if (isValid(copy) && (current < 0 || buffer.getLong(offset(copy)) > sequence)) {
+				current = copy;
+				sequence = buffer.getLong(offset(copy));
+			}
+		}
+		if (current >= 0) {
+			values(current).get(saved);
+		}
+		else {
+			System.arraycopy(ParameterTable.defaults(), 0, saved, 0, saved.length);
+		}
+	}
+
+	private static int offset(int copy) {
+		return HEADER_SIZE + copy * COPY_SIZE;
+	}
+
+	private DoubleBuffer values(int copy) {
+		buffer.position(offset(copy) + 16);
+		return buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+	}
+
+	private long checksum(int copy) {
+		buffer.position(offset(copy) + 16);
+		buffer.get(bytes);
+		crc.reset();
+		crc.update(bytes);
+		return crc.getValue();
+	}
+
+	private boolean isValid(int copy) {
+		return buffer.getLong(offset(copy) + 8) == checksum(copy);
+	}
+
+	// Number of saves since the file was created
+	public long getSequence() {
+		return sequence;
+	}
+
+	// Copies the saved parameters, or the defaults for a new file, into values
+	public void load(double[] values) {
+		System.arraycopy(saved, 0, values, 0, ParameterTable.SIZE);
+	}
+
+	// Saves the values when they changed since the last save, returns true when it wrote them
+	public boolean save(double[] values) {
+		if (current >= 0 && Arrays.equals(values, saved)) {
+			return false;
+		}
+		int copy = current == 0 ? 1 : 0;
+		int offset = offset(copy);
+		buffer.putLong(offset + 8, -1); // the copy is invalid until it is complete
+		values(copy).put(values, 0, ParameterTable.SIZE);
+		buffer.putLong(offset, sequence + 1);
+		buffer.putLong(offset + 8, checksum(copy));
+		buffer.force();
+
+		sequence++;
+		current = copy;
+		System.arraycopy(values, 0, saved, 0, ParameterTable.SIZE);
+		return true;
+	}
+}
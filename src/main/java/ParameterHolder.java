@@ -0,0 +1,6 @@
+// Optional interface for machines that keep the parameters of the interpreter, so they outlive one program and can be
+// saved, see Executor.parametersOf. Machines that wrap another machine return the parameters of that machine.
+interface ParameterHolder
+{
+	double[] getParameters();
+}
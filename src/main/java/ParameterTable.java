@@ -0,0 +1,79 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Parameters of the interpreter: the numbered parameters #1 to #5400 of RS274NGC and named parameters (#<name>).
+// Named parameters get a slot when an expression that uses them is compiled, so evaluating only indexes arrays.
+class ParameterTable
+{
+	// See Table 2. Default Parameter File
+	static final int								SIZE					= 5400 + 1;
+
+	final double[]									values;
+	private final Map<String, Integer>	slots					= new HashMap<>();
+	private String[]								names					= new String[16];
+	private double[]								namedValues		= new double[16];
+	private boolean[]								namedDefined	= new boolean[16];
+
+	// True once a compiled expression or parameter setting refers to a parameter, see Executor.usesParameters
+	boolean													referenced;
+
+	ParameterTable(double[] values) {
+		this.values = values;
+	}
+
+	static double[] defaults() {
+		double[] values = new double[SIZE];
+		values[5220] = 1.0; // coordinate system number
+		return values;
+	}
+
+	static int index(double value) {
+		int index = (int) Math.round(value);
+		if (index < 1 || index >= SIZE || Math.abs(index - value) > 0.0001) {
+			throw new IllegalArgumentException("Parameter number out of range: " + value);
+		}
+		return index;
+	}
+
+	double get(int index) {
+		return values[index];
+	}
+
+	void set(int index, double value) {
+		values[index] = value;
+	}
+
+	// Names are case insensitive and spaces in them are ignored
+	int slot(String name) {
+		String key = name.replace(" ", "").toLowerCase();
+		Integer slot = slots.get(key);
+		if (slot == null) {
+			slot = slots.size();
+			if (slot == names.length) {
+				names = Arrays.copyOf(names, slot * 2);
+				namedValues = Arrays.copyOf(namedValues, slot * 2);
+				namedDefined = Arrays.copyOf(namedDefined, slot * 2);
+			}
+			names[slot] = key;
+			slots.put(key, slot);
+		}
+		return slot;
+	}
+
+	double getNamed(int slot) {
+		if (!namedDefined[slot]) {
+			throw new IllegalArgumentException("Named parameter not defined: #<" + names[slot] + ">");
+		}
+		return namedValues[slot];
+	}
+
+	void setNamed(int slot, double value) {
+		namedValues[slot] = value;
+		namedDefined[slot] = true;
+	}
+
+	boolean isDefined(int slot) {
+		return namedDefined[slot];
+	}
+}
@@ -0,0 +1,213 @@
+import static java.lang.StrictMath.sqrt;
+
+// Machine wrapper that sends fewer calls to the target machine without changing the path by more than the tolerance.
+// - STRAIGHT_FEED and STRAIGHT_TRAVERSE to the current position are left out.
+// - SET_FEED_RATE with the feed rate the target already has is left out.
+// - Straight feeds that continue in the same direction are merged into one: a feed is held back while the feed from the
+// last sent point to the next end point passes all held back end points within the tolerance, in order.
+// At most window end points are held back. Any other call, a change of feed rate or of the A, B or C axes sends the held
+// back feed first, so the target gets the calls in the same order. MotorMachine.flush sends it at the end of a program.
+public class PathOptimizer extends CanonicalColumns implements LineListener, ProgramListener, ParameterHolder
+{
+	public static final int				DEFAULT_WINDOW	= 32;
+
+	private static final int			X								= 0, Y = 1, Z = 2, A = 3, B = 4, C = 5;
+	private static final CANON_UNITS[]	UNITS						= CANON_UNITS.values();
+	private static final CANON_PLANE[]	PLANES					= CANON_PLANE.values();
+
+	private final Machine					target;
+	private final double					toleranceInMm;
+
+	private double								unitInMm				= 1;
+	private CANON_PLANE						plane						= CANON_PLANE.CANON_PLANE_XY;
+	private double								feedRate				= Double.NaN;	// of the target
+
+	// Position of the target, or of the start of the held back feed
+	private final double[]				position				= new double[6];
+
+	// End points of the held back feeds, the last one is the end of the merged feed
+	private final double[][]			held;
+	private final int[]						heldLines;
+	private int										holding;
+
+	private int										line;
+	private int										targetLine;
+
+	private long									calls;
+	private long									sentCalls;
+
+	public PathOptimizer(Machine target, double toleranceInMm) {
+		this(target, toleranceInMm, DEFAULT_WINDOW);
+	}
+
+	public PathOptimizer(Machine target, double toleranceInMm, int window) {
+		super(1);
+		this.target = target;
+		this.toleranceInMm = toleranceInMm;
+		held = new double[window][6];
+		heldLines = new int[window];
+	}
+
+	// Number of calls received
+	public long getCalls() {
+		return calls;
+	}
+
+	// Number of calls sent to the target
+	public long getSentCalls() {
+		return sentCalls;
+	}
+
+	@Override
+	int add(Canonical opcode) {
+		op[0] = (byte) opcode.ordinal();
+		return 0;
+	}
+
+	@Override
+	void commit() {
+		calls++;
+		Canonical opcode = Canonical.VALUES[op[0]];
+		switch (opcode) {
+			case STRAIGHT_FEED:
+				feed(x[0], y[0], z[0], a[0], b[0], c[0]);
+				break;
+			case STRAIGHT_TRAVERSE:
+				if (!isPosition(x[0], y[0], z[0], a[0], b[0], c[0])) {
+					send();
+					position[X] = x[0];
+					position[Y] = y[0];
+					position[Z] = z[0];
+					position[A] = a[0];
+					position[B] = b[0];
+					position[C] = c[0];
+				}
+				break;
+			case SET_FEED_RATE:
+				if (f[0] != feedRate) {
+					send();
+					feedRate = f[0];
+				}
+				break;
+			case ARC_FEED: {
+				send();
+				int first = plane == CANON_PLANE.CANON_PLANE_YZ ? Y : X;
+				int second = plane == CANON_PLANE.CANON_PLANE_XY ? Y : Z;
+				int axis = plane == CANON_PLANE.CANON_PLANE_XY ? Z : plane == CANON_PLANE.CANON_PLANE_XZ ? Y : X;
+				position[first] = x[0];
+				position[second] = y[0];
+				position[axis] = z[0];
+				position[A] = a[0];
+				position[B] = b[0];
+				position[C] = c[0];
+				break;
+			}
+			case USE_LENGTH_UNITS:
+				send();
+				unitInMm = MotorMachine.convertUnit(UNITS[n[0]], CANON_UNITS.CANON_UNITS_MM, 1);
+				break;
+			case SELECT_PLANE:
+				send();
+				plane = PLANES[n[0]];
+				break;
+			default:
+				send();
+				break;
+		}
+		text[0] = null;
+	}
+
+	private void feed(double x, double y, double z, double a, double b, double c) {
+		if (isPosition(x, y, z, a, b, c)) {
+			return; // null move
+		}
+		if (holding > 0) {
+			double[] end = held[holding - 1];
+			if (holding == held.length || a != end[A] || b != end[B] || c != end[C] || !passes(x, y, z)) {
+				sendHeld();
+			}
+		}
+		double[] point = held[holding];
+		point[X] = x;
+		point[Y] = y;
+		point[Z] = z;
+		point[A] = a;
+		point[B] = b;
+		point[C] = c;
+		heldLines[holding] = line;
+		holding++;
+	}
+
+	// True when the feed from the position to the point passes the held back end points within the tolerance, in order
+	private boolean passes(double x, double y, double z) {
+		double dx = x - position[X], dy = y - position[Y], dz = z - position[Z];
+		double length2 = dx * dx + dy * dy + dz * dz;
+		if (length2 == 0) { // back to the start
+			return false;
+		}
+		double tolerance = toleranceInMm / unitInMm;
+		double previous = 0;
+		for (int k = 0; k < holding; k++) {
+			double px = held[k][X] - position[X], py = held[k][Y] - position[Y], pz = held[k][Z] - position[Z];
+			double t = (px * dx + py * dy + pz * dz) / length2;
+			if (t < previous || t > 1) {
+				return false;
+			}
+			double ex = px - t * dx, ey = py - t * dy, ez = pz - t * dz;
+			if (sqrt(ex * ex + ey * ey + ez * ez) > tolerance) {
+				return false;
+			}
+			previous = t;
+		}
+		return true;
+	}
+
+	// Sends the held back feed and then the call in the columns
+	private void send() {
+		sendHeld();
+		startTargetLine(line);
+		replay(0, target);
+		sentCalls++;
+	}
+
+	// Sends the merged feed to the last held back end point, in the line of that end point
+	private void sendHeld() {
+		if (holding > 0) {
+			double[] end = held[holding - 1];
+			startTargetLine(heldLines[holding - 1]);
+			target.STRAIGHT_FEED(end[X], end[Y], end[Z], end[A], end[B], end[C]);
+			sentCalls++;
+			System.arraycopy(end, 0, position, 0, 6);
+			holding = 0;
+		}
+	}
+
+	private void startTargetLine(int lineNumber) {
+		if (lineNumber != targetLine && target instanceof LineListener) {
+			((LineListener) target).startLine(lineNumber);
+		}
+		targetLine = lineNumber;
+	}
+
+	private boolean isPosition(double x, double y, double z, double a, double b, double c) {
+		double[] end = holding > 0 ? held[holding - 1] : position;
+		return end[X] == x && end[Y] == y && end[Z] == z && end[A] == a && end[B] == b && end[C] == c;
+	}
+
+	@Override
+	public void startLine(int lineNumber) {
+		line = lineNumber;
+	}
+
+	@Override
+	public double[] getParameters() {
+		return Executor.parametersOf(target);
+	}
+
+	// Sends the held back feed, and ends the program on the target
+	@Override
+	public void endProgram() {
+		sendHeld();
+		MotorMachine.flush(target);
+	}
+}
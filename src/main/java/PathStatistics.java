@@ -0,0 +1,175 @@
+import static java.lang.StrictMath.PI;
+import static java.lang.StrictMath.abs;
+import static java.lang.StrictMath.max;
+import static java.lang.StrictMath.min;
+import static java.lang.StrictMath.signum;
+import static java.lang.StrictMath.sqrt;
+
+// Collects path length and bounding box of the X, Y and Z axes in mm, and passes all calls on.
+// Arcs are measured exactly (helix length and extreme points), not by their chords.
+public class PathStatistics extends ForwardingMachine
+{
+	private static final int		X					= 0, Y = 1, Z = 2;
+
+	private double							unitInMm	= 1;
+	private CANON_PLANE					plane			= CANON_PLANE.CANON_PLANE_XY;
+
+	private final double[]			position	= new double[3];
+	private final double[]			min				= { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+	private final double[]			max				= { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+	private double							rapidDistance;
+	private double							feedDistance;
+	private long								rapidMoves;
+	private long								feedMoves;
+	private long								arcs;
+
+	public PathStatistics(Machine machine) {
+		super(machine);
+	}
+
+	public double getRapidDistance() {
+		return rapidDistance;
+	}
+
+	public double getFeedDistance() {
+		return feedDistance;
+	}
+
+	public double getPathLength() {
+		return rapidDistance + feedDistance;
+	}
+
+	public long getRapidMoves() {
+		return rapidMoves;
+	}
+
+	public long getFeedMoves() {
+		return feedMoves;
+	}
+
+	public long getArcs() {
+		return arcs;
+	}
+
+	// Lowest X, Y and Z reached, positive infinity if there was no movement
+	public double[] getMin() {
+		return min.clone();
+	}
+
+	// Highest X, Y and Z reached, negative infinity if there was no movement
+	public double[] getMax() {
+		return max.clone();
+	}
+
+	@Override
+	public void USE_LENGTH_UNITS(CANON_UNITS units) {
+		unitInMm = MotorMachine.convertUnit(units, CANON_UNITS.CANON_UNITS_MM, 1);
+		super.USE_LENGTH_UNITS(units);
+	}
+
+	@Override
+	public void SELECT_PLANE(CANON_PLANE plane) {
+		this.plane = plane;
+		super.SELECT_PLANE(plane);
+	}
+
+	@Override
+	public void STRAIGHT_TRAVERSE(double x, double y, double z, double a, double b, double c) {
+		rapidDistance += line(x, y, z);
+		rapidMoves++;
+		super.STRAIGHT_TRAVERSE(x, y, z, a, b, c);
+	}
+
+	@Override
+	public void STRAIGHT_FEED(double x, double y, double z, double a, double b, double c) {
+		feedDistance += line(x, y, z);
+		feedMoves++;
+		super.STRAIGHT_FEED(x, y, z, a, b, c);
+	}
+
+	private double line(double x, double y, double z) {
+		include(position);
+		double dx = x * unitInMm - position[X];
+		double dy = y * unitInMm - position[Y];
+		double dz = z * unitInMm - position[Z];
+		position[X] = x * unitInMm;
+		position[Y] = y * unitInMm;
+		position[Z] = z * unitInMm;
+		include(position);
+		return sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	@Override
+	public void ARC_FEED(	double firstEnd,
+												double secondEnd,
+												double firstCenter,
+												double secondCenter,
+												int rotation,
+												double axisEndPoint,
+												double a,
+												double b,
+												double c) {
+		int first, second, axis;
+		switch (plane) {
+			case CANON_PLANE_XY:
+				first = X;
+				second = Y;
+				axis = Z;
+				break;
+			case CANON_PLANE_XZ:
+				first = X;
+				second = Z;
+				axis = Y;
+				break;
+			case CANON_PLANE_YZ:
+				first = Y;
+				second = Z;
+				axis = X;
+				break;
+			default:
+				throw new IllegalStateException("plane=" + plane);
+		}
+		include(position);
+
+		ArcSweep sweep = new ArcSweep(position[first], position[second], firstEnd * unitInMm, secondEnd * unitInMm,
+				firstCenter * unitInMm, secondCenter * unitInMm, rotation);
+		double radius = sweep.radius;
+
+		// Extreme points of the circle that are part of the arc
+		for (int quadrant = 0; quadrant < 4; quadrant++) {
+			double extreme = quadrant * PI / 2;
+			double delta = (extreme - sweep.startAngle) * signum(sweep.angle);
+			delta -= 2 * PI * Math.floor(delta / (2 * PI));
+			if (delta <= abs(sweep.angle)) {
+				double firstValue = firstCenter * unitInMm + (quadrant == 0 ? radius : quadrant == 2 ? -radius : 0);
+				double secondValue = secondCenter * unitInMm + (quadrant == 1 ? radius : quadrant == 3 ? -radius : 0);
+				include(first, firstValue);
+				include(second, secondValue);
+			}
+		}
+
+		double arcLength = sweep.length();
+		double axisDelta = axisEndPoint * unitInMm - position[axis];
+		feedDistance += sqrt(arcLength * arcLength + axisDelta * axisDelta);
+		arcs++;
+
+		position[first] = firstEnd * unitInMm;
+		position[second] = secondEnd * unitInMm;
+		position[axis] = axisEndPoint * unitInMm;
+		include(position);
+
+		super.ARC_FEED(firstEnd, secondEnd, firstCenter, secondCenter, rotation, axisEndPoint, a, b, c);
+	}
+
+	private void include(double[] point) {
+		for (int axis = X; axis <= Z; axis++) {
+			include(axis, point[axis]);
+		}
+	}
+
+	private void include(int axis, double value) {
+		min[axis] = min(min[axis], value);
+		max[axis] = max(max[axis], value);
+	}
+}
@@ -0,0 +1,323 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+// Index of a program file to resume it at any line, for instance after a tool broke.
+// At least every interval lines it keeps a snapshot: the byte offset and line number of a block with the modal state of
+// the Executor before it. That is the motion mode (group 1), plane, units, feed rate, motion control mode, the axis
+// values, whether the last axis word was R and the canned cycle state: the retract mode, the cycle of the previous
+// line and the sticky Z, P and Q values. Resuming seeks to the last snapshot before the line, restores it and
+// executes the lines up to the line without a machine, so resuming at the last line takes as long as at the first.
+// Parameters are not in the snapshots, so programs that use them are not indexed: the lines before the snapshot would
+// not set them, and the saved positions would depend on the parameters of the build. Subroutines defined before the
+// snapshot are unknown after it, and the line can not be in the body of a subroutine or loop.
+//
+// File layout (little endian), kept next to the program:
+// header: magic, format version, Executor version, grammar hash, number of snapshots, program length, modification time
+// snapshots: byte offset (long), line number (int), group 1 value, plane, units, motion control mode (-1 for none),
+// radius format, retract to R, cycle mode (bytes), feed rate, a, b, c, r, x, y, z, cycle Z, P, Q (doubles)
+public class ProgramIndex
+{
+	private static final int													MAGIC						= 0x4A475049;	// JGPI
+	private static final int													FORMAT_VERSION	= 2;
+	private static final int													HEADER_SIZE			= 5 * 4 + 2 * 8;
+	private static final int													SNAPSHOT_SIZE		= 8 + 4 + 7 + 11 * 8;
+	public static final int														DEFAULT_INTERVAL	= 1000;
+
+	private static final Machine.CANON_PLANE[]				PLANES					= Machine.CANON_PLANE.values();
+	private static final Machine.CANON_UNITS[]				UNITS						= Machine.CANON_UNITS.values();
+	private static final Machine.CANON_MOTION_MODE[]	MOTION_MODES		= Machine.CANON_MOTION_MODE.values();
+
+	private final File																program;
+
+	int																								size;
+	long[]																						offsets					= new long[16];
+	int[]																							lines						= new int[16];
+	byte[]																						group1					= new byte[16];
+	byte[]																						planes					= new byte[16];
+	byte[]																						units						= new byte[16];
+	byte[]																						modes						= new byte[16];
+	boolean[]																					radiusFormats		= new boolean[16];
+	boolean[]																					retractToR			= new boolean[16];
+	byte[]																						cycleModes			= new byte[16];
+	double[]																					feedRates				= new double[16];
+	double[]																					a								= new double[16];
+	double[]																					b								= new double[16];
+	double[]																					c								= new double[16];
+	double[]																					r								= new double[16];
+	double[]																					x								= new double[16];
+	double[]																					y								= new double[16];
+	double[]																					z								= new double[16];
+	double[]																					cycleZ					= new double[16];
+	double[]																					p								= new double[16];
+	double[]																					q								= new double[16];
+
+	private ProgramIndex(File program) {
+		this.program = program;
+	}
+
+	// Loads the index kept next to the program, or builds and saves it when the program changed since
+	public static ProgramIndex open(File program) throws IOException {
+		File indexFile = indexFile(program);
+		ProgramIndex index = load(program, indexFile);
+		if (index == null) {
+			index = build(program, DEFAULT_INTERVAL);
+			index.save(indexFile);
+		}
+		return index;
+	}
+
+	static File indexFile(File program) {
+		return new File(program.getPath() + ".index");
+	}
+
+	// Executes the program once without a machine and takes a snapshot at least every interval lines.
+	// The snapshot is taken at the first block after the interval that is not in the body of a subroutine or loop.
+	// Throws IllegalArgumentException for programs that use parameters.
+	public static ProgramIndex build(File program, final int interval) throws IOException {
+		final ProgramIndex index = new ProgramIndex(program);
+		BlockScanner scanner = new BlockScanner(new DiscardMachine()) {
+			@Override
+			void startBlock(long offset, int lineNumber) {
+				if ((index.size == 0 || lineNumber - index.lines[index.size - 1] >= interval) && !executor.isCompiling()) {
+					index.add(offset, lineNumber, executor);
+				}
+			}
+		};
+		try (FileInputStream in = new FileInputStream(program)) {
+			scanner.executeLines(in);
+		}
+		if (scanner.executor.usesParameters()) {
+			throw new IllegalArgumentException("Can not index a program that uses parameters: " + program);
+		}
+		return index;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getLineNumber(int snapshot) {
+		return lines[snapshot];
+	}
+
+	public long getOffset(int snapshot) {
+		return offsets[snapshot];
+	}
+
+	// Executes the program from the block at the line on. The machine first gets the units, motion control mode, plane
+	// and feed rate of the program at the line, and a traverse to the position before the line.
+	public void execute(Machine machine, int lineNumber) throws IOException {
+		int snapshot = snapshotBefore(lineNumber);
+		Executor executor = new Executor(new DiscardMachine(), Executor.parametersOf(machine));
+		restore(snapshot, executor);
+		Resumer scanner = new Resumer(executor, machine, lineNumber);
+		try (FileInputStream in = new FileInputStream(program)) {
+			in.getChannel().position(offsets[snapshot]);
+			scanner.executeLines(in, offsets[snapshot], lines[snapshot]);
+		}
+		if (!scanner.resumed) {
+			throw new IllegalArgumentException("No line " + lineNumber);
+		}
+		executor.exitProgram(null);
+		MotorMachine.flush(machine);
+	}
+
+	// Index of the last snapshot at or before the line
+	int snapshotBefore(int lineNumber) {
+		int snapshot = Arrays.binarySearch(lines, 0, size, lineNumber);
+		if (snapshot < 0) {
+			snapshot = -snapshot - 2;
+		}
+		if (snapshot < 0 || lineNumber < 1) {
+			throw new IllegalArgumentException("No line " + lineNumber);
+		}
+		return snapshot;
+	}
+
+	// Executes the blocks before the line without a machine, and the line and the blocks after it with the machine
+	private static final class Resumer extends BlockScanner
+	{
+		private final Machine	machine;
+		private final int			lineNumber;
+		boolean								resumed;
+
+		Resumer(Executor executor, Machine machine, int lineNumber) {
+			super(executor);
+			this.machine = machine;
+			this.lineNumber = lineNumber;
+		}
+
+		@Override
+		void startBlock(long offset, int line) {
+			if (resumed || line < lineNumber) {
+				return;
+			}
+			if (executor.isCompiling()) {
+				throw new IllegalArgumentException("Line " + lineNumber + " is in the body of a subroutine or loop");
+			}
+			executor.setMachine(machine);
+			machine.USE_LENGTH_UNITS(executor.units);
+			if (executor.motionMode != null) {
+				machine.SET_MOTION_CONTROL_MODE(executor.motionMode);
+			}
+			machine.SELECT_PLANE(executor.plane);
+			machine.SET_FEED_RATE(executor.feedRate);
+			machine.STRAIGHT_TRAVERSE(executor.xValue, executor.yValue, executor.zValue, executor.aValue, executor.bValue, executor.cValue);
+			resumed = true;
+		}
+	}
+
+	private void add(long offset, int lineNumber, Executor executor) {
+		if (size == lines.length) {
+			resize(size * 2);
+		}
+		offsets[size] = offset;
+		lines[size] = lineNumber;
+		group1[size] = (byte) executor.group1Value;
+		planes[size] = (byte) executor.plane.ordinal();
+		units[size] = (byte) executor.units.ordinal();
+		modes[size] = (byte) (executor.motionMode == null ? -1 : executor.motionMode.ordinal());
+		radiusFormats[size] = executor.radiusFormat;
+		retractToR[size] = executor.retractToR;
+		cycleModes[size] = (byte) executor.cycleMode;
+		feedRates[size] = executor.feedRate;
+		a[size] = executor.aValue;
+		b[size] = executor.bValue;
+		c[size] = executor.cValue;
+		r[size] = executor.rValue;
+		x[size] = executor.xValue;
+		y[size] = executor.yValue;
+		z[size] = executor.zValue;
+		cycleZ[size] = executor.cycleZ;
+		p[size] = executor.pValue;
+		q[size] = executor.qValue;
+		size++;
+	}
+
+	// Sets the state of the Executor, the current position is the position after the previous line
+	private void restore(int k, Executor executor) {
+		executor.group1Value = group1[k];
+		executor.plane = PLANES[planes[k]];
+		executor.units = UNITS[units[k]];
+		executor.motionMode = modes[k] < 0 ? null : MOTION_MODES[modes[k]];
+		executor.radiusFormat = radiusFormats[k];
+		executor.retractToR = retractToR[k];
+		executor.cycleMode = cycleModes[k];
+		executor.feedRate = feedRates[k];
+		executor.aValue = a[k];
+		executor.bValue = b[k];
+		executor.cValue = c[k];
+		executor.rValue = r[k];
+		executor.xValue = executor.xCurrent = x[k];
+		executor.yValue = executor.yCurrent = y[k];
+		executor.zValue = executor.zCurrent = z[k];
+		executor.cycleZ = cycleZ[k];
+		executor.pValue = p[k];
+		executor.qValue = q[k];
+	}
+
+	private void resize(int capacity) {
+		offsets = Arrays.copyOf(offsets, capacity);
+		lines = Arrays.copyOf(lines, capacity);
+		group1 = Arrays.copyOf(group1, capacity);
+		planes = Arrays.copyOf(planes, capacity);
+		units = Arrays.copyOf(units, capacity);
+		modes = Arrays.copyOf(modes, capacity);
+		radiusFormats = Arrays.copyOf(radiusFormats, capacity);
+		retractToR = Arrays.copyOf(retractToR, capacity);
+		cycleModes = Arrays.copyOf(cycleModes, capacity);
+		feedRates = Arrays.copyOf(feedRates, capacity);
+		a = Arrays.copyOf(a, capacity);
+		b = Arrays.copyOf(b, capacity);
+		c = Arrays.copyOf(c, capacity);
+		r = Arrays.copyOf(r, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		z = Arrays.copyOf(z, capacity);
+		cycleZ = Arrays.copyOf(cycleZ, capacity);
+		p = Arrays.copyOf(p, capacity);
+		q = Arrays.copyOf(q, capacity);
+	}
+
+	public void save(File indexFile) throws IOException {
+		long length = HEADER_SIZE + (long) size * SNAPSHOT_SIZE;
+		File tmp = new File(indexFile.getPath() + ".tmp");
+		try (RandomAccessFile file = new RandomAccessFile(tmp, "rw")) {
+			file.setLength(length);
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(Executor.VERSION).putInt(ToolpathCache.GRAMMAR_HASH).putInt(size);
+			buffer.putLong(program.length()).putLong(program.lastModified());
+			for (int k = 0; k < size; k++) {
+				buffer.putLong(offsets[k]).putInt(lines[k]);
+				buffer.put(group1[k]).put(planes[k]).put(units[k]).put(modes[k]).put((byte) (radiusFormats[k] ? 1 : 0));
+				buffer.put((byte) (retractToR[k] ? 1 : 0)).put(cycleModes[k]);
+				buffer.putDouble(feedRates[k]).putDouble(a[k]).putDouble(b[k]).putDouble(c[k]);
+				buffer.putDouble(r[k]).putDouble(x[k]).putDouble(y[k]).putDouble(z[k]);
+				buffer.putDouble(cycleZ[k]).putDouble(p[k]).putDouble(q[k]);
+			}
+			buffer.force();
+		}
+		// Readers never see a partially written file
+		Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Returns null when the file is missing, written by another format, grammar or Executor version, or the program changed
+	static ProgramIndex load(File program, File indexFile) throws IOException {
+		if (!indexFile.isFile()) {
+			return null;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+			if (file.length() < HEADER_SIZE) {
+				return null;
+			}
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC
+					|| buffer.getInt() != FORMAT_VERSION
+					|| buffer.getInt() != Executor.VERSION
+					|| buffer.getInt() != ToolpathCache.GRAMMAR_HASH) {
+				return null;
+			}
+			int size = buffer.getInt();
+			if (buffer.getLong() != program.length() || buffer.getLong() != program.lastModified()
+					|| file.length() != HEADER_SIZE + (long) size * SNAPSHOT_SIZE) {
+				return null;
+			}
+			ProgramIndex index = new ProgramIndex(program);
+			index.resize(Math.max(size, 1));
+			for (int k = 0; k < size; k++) {
+				index.offsets[k] = buffer.getLong();
+				index.lines[k] = buffer.getInt();
+				index.group1[k] = buffer.get();
+				index.planes[k] = buffer.get();
+				index.units[k] = buffer.get();
+				index.modes[k] = buffer.get();
+				index.radiusFormats[k] = buffer.get() != 0;
+				index.retractToR[k] = buffer.get() != 0;
+				index.cycleModes[k] = buffer.get();
+				index.feedRates[k] = buffer.getDouble();
+				index.a[k] = buffer.getDouble();
+				index.b[k] = buffer.getDouble();
+				index.c[k] = buffer.getDouble();
+				index.r[k] = buffer.getDouble();
+				index.x[k] = buffer.getDouble();
+				index.y[k] = buffer.getDouble();
+				index.z[k] = buffer.getDouble();
+				index.cycleZ[k] = buffer.getDouble();
+				index.p[k] = buffer.getDouble();
+				index.q[k] = buffer.getDouble();
+			}
+			index.size = size;
+			return index;
+		}
+	}
+}
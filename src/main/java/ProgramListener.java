@@ -0,0 +1,7 @@
+// Optional interface for machines that hold back calls or state until the end of a program, like a path that is
+// still being optimized or parameters that are not saved yet. MotorMachine.flush(Machine) calls endProgram when a
+// program ends; machines that wrap another machine pass it on with MotorMachine.flush(Machine).
+public interface ProgramListener
+{
+	void endProgram();
+}
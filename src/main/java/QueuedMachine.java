@@ -0,0 +1,195 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Decouples the interpreter from the motors: canonical calls are put in a bounded single producer / single consumer
+// ring buffer and a dedicated motion thread calls the target machine.
+// The interpreter blocks when the queue is full (back-pressure), the motion thread parks when it is empty.
+//
+// Only one thread may call the Machine methods.
+public class QueuedMachine extends CanonicalColumns implements ParameterHolder, AutoCloseable
+{
+	private static final int			SPINS							= 100;
+	private static final long			PARK_NANOS				= 50000;
+
+	private final Machine					target;
+	private final int							mask;
+	private final Thread					motionThread;
+
+	private final AtomicLong			head							= new AtomicLong();	// next slot to execute
+	private final AtomicLong			tail							= new AtomicLong();	// next slot to fill
+	private long									cachedHead;															// producer view of head
+	private long									slot;																		// slot being filled
+
+	private volatile Thread				producer;
+	private volatile boolean			consumerParked;
+	private volatile boolean			producerParked;
+	private volatile boolean			closed;
+	private volatile Throwable		failure;
+
+	// Statistics
+	private volatile long					maxQueueDepth;
+	private volatile long					producerWaits;
+	private volatile long					consumerWaits;
+
+	public QueuedMachine(Machine target, int capacity) {
+		super(Math.max(2, Integer.highestOneBit(capacity - 1) << 1));
+		this.target = target;
+		this.mask = op.length - 1;
+		motionThread = new Thread("motion")
+		{
+			@Override
+			public void run() {
+				drain();
+			}
+		};
+		motionThread.setDaemon(true);
+		motionThread.start();
+	}
+
+	public int getCapacity() {
+		return op.length;
+	}
+
+	public long getQueueDepth() {
+		return tail.get() - head.get();
+	}
+
+	public long getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	// The parameters of the target. The motion thread only saves them when the queue closes, after the last call.
+	@Override
+	public double[] getParameters() {
+		return Executor.parametersOf(target);
+	}
+
+	// Number of calls executed by the motion thread
+	public long getExecutedCount() {
+		return head.get();
+	}
+
+	// Number of times the interpreter had to wait for a free slot
+	public long getProducerWaits() {
+		return producerWaits;
+	}
+
+	// Number of times the motion thread found the queue empty
+	public long getConsumerWaits() {
+		return consumerWaits;
+	}
+
+	@Override
+	int add(Canonical opcode) {
+		checkFailure();
+		slot = tail.get();
+		if (slot - cachedHead >= op.length) {
+			waitForSpace();
+		}
+		int k = (int) slot & mask;
+		op[k] = (byte) opcode.ordinal();
+		return k;
+	}
+
+	@Override
+	void commit() {
+		tail.lazySet(slot + 1);
+		cachedHead = head.get();
+		long depth = slot + 1 - cachedHead;
+		if (depth > maxQueueDepth) {
+			maxQueueDepth = depth;
+		}
+		if (consumerParked) {
+			LockSupport.unpark(motionThread);
+		}
+	}
+
+	private void waitForSpace() {
+		producer = Thread.currentThread();
+		producerWaits++;
+		int spins = 0;
+		while (slot - (cachedHead = head.get()) >= op.length) {
+			checkFailure();
+			if (++spins < SPINS) {
+				Thread.yield();
+			}
+			else {
+				producerParked = true;
+				if (slot - head.get() >= op.length) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				producerParked = false;
+			}
+		}
+	}
+
+	private void drain() {
+		try {
+			long next = head.get();
+			while (true) {
+				long available = tail.get();
+				if (next == available) {
+					if (closed && next == tail.get()) {
+						break;
+					}
+					consumerWaits++;
+					consumerParked = true;
+					if (next == tail.get() && !closed) {
+						LockSupport.parkNanos(this, PARK_NANOS);
+					}
+					consumerParked = false;
+					continue;
+				}
+				for (; next < available; next++) {
+					int k = (int) next & mask;
+					replay(k, target);
+					text[k] = null;
+					head.lazySet(next + 1);
+					if (producerParked) {
+						LockSupport.unpark(producer);
+					}
+				}
+			}
+			MotorMachine.flush(target);
+		}
+		catch (Throwable t) {
+			failure = t;
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new IllegalStateException("Motion thread failed", failure);
+		}
+	}
+
+	// Waits until the motion thread executed all queued calls
+	public void waitUntilEmpty() throws InterruptedException {
+		while (getQueueDepth() > 0) {
+			checkFailure();
+			Thread.sleep(1);
+		}
+		checkFailure();
+	}
+
+	// Executes the remaining calls and stops the motion thread. An interrupt does not stop the wait, it is kept in the
+	// interrupt flag of the thread.
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(motionThread);
+		boolean interrupted = false;
+		while (motionThread.isAlive()) {
+			try {
+				motionThread.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		checkFailure();
+	}
+}
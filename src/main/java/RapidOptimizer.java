@@ -0,0 +1,681 @@
+import static java.lang.StrictMath.max;
+import static java.lang.StrictMath.min;
+import static java.lang.StrictMath.sqrt;
+
+import java.io.InputStream;
+import java.util.Arrays;
+
+// Records a program and replays it with its independent features in an order that needs less rapid travel.
+//
+// A link is a run of STRAIGHT_TRAVERSE calls that only move X and Y, the features are the calls between the links:
+// typically a plunge, the cut and the retract to the height of the links. A feature can be moved when it contains only
+// motion, DWELL, COMMENT and SET_FEED_RATE calls, ends at the height, A, B, C and feed rate it started with, and stays
+// below that height. Runs of such features with the same height, A, B, C and feed rate are reordered; all other calls,
+// and the last feature of the program, stay where they are.
+//
+// The order is a nearest neighbour tour, improved with Or-opt (moving up to 3 features elsewhere), and with 2-opt
+// (reversing part of the tour) when every feature ends where it started, as drilled holes do. Both only try the
+// nearest features, found through a grid, and only for features next to links that changed, so 100k features take
+// about a second.
+// A reordered feature is reached with the last traverse of its link, from the end of the feature before it.
+public class RapidOptimizer extends CanonicalColumns implements LineListener
+{
+	private static final int					INITIAL_CAPACITY	= 1024;
+	private static final int					NEIGHBOURS				= 8;
+	private static final double				EPSILON						= 1e-9;
+	private static final int					X									= 0, Y = 1, Z = 2, A = 3, B = 4, C = 5;
+	private static final CANON_UNITS[]	UNITS							= CANON_UNITS.values();
+	private static final CANON_PLANE[]	PLANES						= CANON_PLANE.values();
+
+	int																size;
+	private int[]											lines;
+	private int												line;
+
+	// Calls in the order to replay them, null until optimize
+	private int[]											sequence;
+	private int												sequenceSize;
+
+	// State while scanning the calls
+	private final double[]						position					= new double[6];
+	private CANON_PLANE								plane;
+	private double										feedRate;
+
+	// The feature being scanned: first call of its link, last call of its link (-1 for the calls before the first
+	// link), the point the link starts from and the state at its start
+	private int												featureFirst, featureLink;
+	private double										fromX, fromY;
+	private double										startZ, startA, startB, startC, startFeedRate, maxZ;
+	private boolean										movable;
+
+	// The run of movable features, in program order
+	private int[]											runFirst					= new int[16];
+	private int[]											runLink						= new int[16];
+	private int[]											runEnd						= new int[16];
+	private double[]									runExitX					= new double[16];
+	private double[]									runExitY					= new double[16];
+	private int												runSize;
+	private double										runFromX, runFromY, runZ, runA, runB, runC, runFeedRate;
+
+	private int												reorderedFeatures;
+	private double										rapidDistance;
+	private double										optimizedRapidDistance;
+
+	public RapidOptimizer() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public RapidOptimizer(int capacity) {
+		super(capacity);
+		lines = new int[capacity];
+	}
+
+	public static RapidOptimizer compile(InputStream in) throws Exception {
+		RapidOptimizer optimizer = new RapidOptimizer();
+		BlockScanner.execute(optimizer, in);
+		optimizer.optimize();
+		return optimizer;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Number of features that were reordered
+	public int getReorderedFeatures() {
+		return reorderedFeatures;
+	}
+
+	// Length of the rapid moves of the program as recorded, in mm
+	public double getRapidDistance() {
+		return rapidDistance;
+	}
+
+	// Length of the rapid moves of the program as replayed, in mm
+	public double getOptimizedRapidDistance() {
+		return optimizedRapidDistance;
+	}
+
+	public double getSavedDistance() {
+		return rapidDistance - optimizedRapidDistance;
+	}
+
+	@Override
+	public void startLine(int lineNumber) {
+		line = lineNumber;
+	}
+
+	@Override
+	int add(Canonical opcode) {
+		if (size == op.length) {
+			resize(Math.max(INITIAL_CAPACITY, size * 2));
+			lines = Arrays.copyOf(lines, op.length);
+		}
+		op[size] = (byte) opcode.ordinal();
+		lines[size] = line;
+		sequence = null;
+		return size++;
+	}
+
+	// Replays the calls in optimized order, in the lines they were recorded in
+	public void replay(Machine machine) {
+		if (sequence == null) {
+			optimize();
+		}
+		int targetLine = 0;
+		for (int s = 0; s < sequenceSize; s++) {
+			int k = sequence[s];
+			if (lines[k] != targetLine && machine instanceof LineListener) {
+				((LineListener) machine).startLine(lines[k]);
+			}
+			targetLine = lines[k];
+			replay(k, machine);
+		}
+		MotorMachine.flush(machine);
+	}
+
+	// Finds the features and their order, returns the rapid distance saved in mm
+	public double optimize() {
+		sequence = new int[size];
+		sequenceSize = 0;
+		runSize = 0;
+		reorderedFeatures = 0;
+		Arrays.fill(position, 0);
+		plane = CANON_PLANE.CANON_PLANE_XY;
+		feedRate = Double.NaN;
+		startFeature(0, -1, 0, 0);
+
+		int linkStart = -1;
+		boolean moved = false;
+		double linkFromX = 0, linkFromY = 0;
+		for (int k = 0; k < size; k++) {
+			if (op[k] == Canonical.STRAIGHT_TRAVERSE.ordinal() && z[k] == position[Z] && a[k] == position[A]
+					&& b[k] == position[B] && c[k] == position[C]) {
+				if (linkStart < 0) {
+					linkStart = k;
+					moved = false;
+					linkFromX = position[X];
+					linkFromY = position[Y];
+				}
+				moved |= x[k] != position[X] || y[k] != position[Y];
+				position[X] = x[k];
+				position[Y] = y[k];
+				continue;
+			}
+			if (linkStart >= 0 && moved) {
+				endFeature(linkStart, linkFromX, linkFromY, true);
+				startFeature(linkStart, k - 1, linkFromX, linkFromY);
+			}
+			linkStart = -1;
+			scan(k);
+		}
+		if (linkStart >= 0 && moved) {
+			endFeature(linkStart, linkFromX, linkFromY, true);
+			startFeature(linkStart, size - 1, linkFromX, linkFromY);
+		}
+		endFeature(size, position[X], position[Y], false);
+		endRun();
+
+		rapidDistance = rapidDistance(null, size);
+		optimizedRapidDistance = rapidDistance(sequence, sequenceSize);
+		return getSavedDistance();
+	}
+
+	private void startFeature(int first, int link, double fromX, double fromY) {
+		featureFirst = first;
+		featureLink = link;
+		this.fromX = fromX;
+		this.fromY = fromY;
+		startZ = maxZ = position[Z];
+		startA = position[A];
+		startB = position[B];
+		startC = position[C];
+		startFeedRate = feedRate;
+		movable = link >= 0;
+	}
+
+	// Updates the state of the feature with the call
+	private void scan(int k) {
+		switch (Canonical.VALUES[op[k]]) {
+			case STRAIGHT_TRAVERSE:
+			case STRAIGHT_FEED:
+				move(position, plane, k);
+				maxZ = max(maxZ, z[k]);
+				break;
+			case ARC_FEED:
+				move(position, plane, k);
+				if (plane == CANON_PLANE.CANON_PLANE_XY) {
+					maxZ = max(maxZ, z[k]);
+				} else { // the top of the circle
+					maxZ = max(maxZ, j[k] + sqrt((x[k] - i[k]) * (x[k] - i[k]) + (y[k] - j[k]) * (y[k] - j[k])));
+				}
+				break;
+			case STRAIGHT_PROBE:
+				move(position, plane, k);
+				movable = false;
+				break;
+			case SET_FEED_RATE:
+				feedRate = f[k];
+				break;
+			case SELECT_PLANE:
+				plane = PLANES[n[k]];
+				movable = false;
+				break;
+			case DWELL:
+			case COMMENT:
+				break;
+			default:
+				movable = false;
+				break;
+		}
+	}
+
+	// Adds the feature that ends before the call to the run, or replays it in place after the run
+	private void endFeature(int end, double exitX, double exitY, boolean linked) {
+		boolean movable = this.movable && linked && maxZ <= startZ && position[Z] == startZ && position[A] == startA
+				&& position[B] == startB && position[C] == startC && same(feedRate, startFeedRate);
+		if (runSize > 0 && !(movable && startZ == runZ && startA == runA && startB == runB && startC == runC
+				&& same(startFeedRate, runFeedRate))) {
+			endRun();
+		}
+		if (!movable) {
+			for (int k = featureFirst; k < end; k++) {
+				sequence[sequenceSize++] = k;
+			}
+			return;
+		}
+		if (runSize == runFirst.length) {
+			int capacity = runSize * 2;
+			runFirst = Arrays.copyOf(runFirst, capacity);
+			runLink = Arrays.copyOf(runLink, capacity);
+			runEnd = Arrays.copyOf(runEnd, capacity);
+			runExitX = Arrays.copyOf(runExitX, capacity);
+			runExitY = Arrays.copyOf(runExitY, capacity);
+		}
+		if (runSize == 0) {
+			runFromX = fromX;
+			runFromY = fromY;
+			runZ = startZ;
+			runA = startA;
+			runB = startB;
+			runC = startC;
+			runFeedRate = startFeedRate;
+		}
+		runFirst[runSize] = featureFirst;
+		runLink[runSize] = featureLink;
+		runEnd[runSize] = end;
+		runExitX[runSize] = exitX;
+		runExitY[runSize] = exitY;
+		runSize++;
+	}
+
+	// Replays the run of movable features, in a shorter order if there is one
+	private void endRun() {
+		int[] order = null;
+		if (runSize > 1) {
+			double[] entryX = new double[runSize], entryY = new double[runSize];
+			for (int feature = 0; feature < runSize; feature++) {
+				entryX[feature] = x[runLink[feature]];
+				entryY[feature] = y[runLink[feature]];
+			}
+			order = new Tour(runFromX, runFromY, entryX, entryY, runExitX, runExitY, runSize).order();
+		}
+		if (order != null) {
+			for (int feature : order) {
+				for (int k = runLink[feature]; k < runEnd[feature]; k++) {
+					sequence[sequenceSize++] = k;
+				}
+			}
+			reorderedFeatures += runSize;
+		} else {
+			for (int feature = 0; feature < runSize; feature++) {
+				for (int k = runFirst[feature]; k < runEnd[feature]; k++) {
+					sequence[sequenceSize++] = k;
+				}
+			}
+		}
+		runSize = 0;
+	}
+
+	private static boolean same(double value, double other) {
+		return Double.compare(value, other) == 0;
+	}
+
+	// Updates the position with the end point of the move
+	private void move(double[] position, CANON_PLANE plane, int k) {
+		if (op[k] == Canonical.ARC_FEED.ordinal()) {
+			int first = plane == CANON_PLANE.CANON_PLANE_YZ ? Y : X;
+			int second = plane == CANON_PLANE.CANON_PLANE_XY ? Y : Z;
+			int axis = plane == CANON_PLANE.CANON_PLANE_XY ? Z : plane == CANON_PLANE.CANON_PLANE_XZ ? Y : X;
+			position[first] = x[k];
+			position[second] = y[k];
+			position[axis] = z[k];
+		} else {
+			position[X] = x[k];
+			position[Y] = y[k];
+			position[Z] = z[k];
+		}
+		position[A] = a[k];
+		position[B] = b[k];
+		position[C] = c[k];
+	}
+
+	// Length of the rapid moves of the calls, all calls when calls is null, in mm
+	private double rapidDistance(int[] calls, int count) {
+		double[] position = new double[6];
+		CANON_PLANE plane = CANON_PLANE.CANON_PLANE_XY;
+		double unitInMm = 1;
+		double distance = 0;
+		for (int s = 0; s < count; s++) {
+			int k = calls == null ? s : calls[s];
+			switch (Canonical.VALUES[op[k]]) {
+				case STRAIGHT_TRAVERSE: {
+					double dx = x[k] - position[X], dy = y[k] - position[Y], dz = z[k] - position[Z];
+					distance += sqrt(dx * dx + dy * dy + dz * dz) * unitInMm;
+					move(position, plane, k);
+					break;
+				}
+				case STRAIGHT_FEED:
+				case STRAIGHT_PROBE:
+				case ARC_FEED:
+					move(position, plane, k);
+					break;
+				case USE_LENGTH_UNITS:
+					unitInMm = MotorMachine.convertUnit(UNITS[n[k]], CANON_UNITS.CANON_UNITS_MM, 1);
+					break;
+				case SELECT_PLANE:
+					plane = PLANES[n[k]];
+					break;
+				default:
+					break;
+			}
+		}
+		return distance;
+	}
+
+	// Order of features that visits them all from the start point with less travel between the exit of a feature and
+	// the entry of the next one. The start point is node count, at position 0 of the tour: it has an exit, no entry.
+	static final class Tour
+	{
+		private final int				count;
+		private final double[]	entryX, entryY, exitX, exitY;
+		private final int[]			tour;
+		private final int[]			position;
+
+		// The nearest entries to the exit of each node, and the nearest exits to the entry of each feature, -1 if
+		// there are less than NEIGHBOURS
+		private final int[]			next;
+		private final int[]			previous;
+
+		// Every feature ends where it starts, so a part of the tour can be reversed
+		private final boolean		symmetric;
+		private final int[]			segment	= new int[3];
+
+		// Nodes to try moves for
+		private final int[]			queue;
+		private final boolean[]	queued;
+		private int							queueHead, queueSize;
+
+		Tour(double fromX, double fromY, double[] entryX, double[] entryY, double[] exitX, double[] exitY, int count) {
+			this.count = count;
+			this.entryX = entryX;
+			this.entryY = entryY;
+			this.exitX = Arrays.copyOf(exitX, count + 1);
+			this.exitY = Arrays.copyOf(exitY, count + 1);
+			this.exitX[count] = fromX;
+			this.exitY[count] = fromY;
+			tour = new int[count + 1];
+			position = new int[count + 1];
+			next = new int[(count + 1) * NEIGHBOURS];
+			previous = new int[count * NEIGHBOURS];
+			queue = new int[count + 1];
+			queued = new boolean[count + 1];
+			boolean symmetric = true;
+			for (int feature = 0; feature < count && symmetric; feature++) {
+				symmetric = entryX[feature] == exitX[feature] && entryY[feature] == exitY[feature];
+			}
+			this.symmetric = symmetric;
+		}
+
+		// The features in the new order, null if it is not shorter than the program order
+		int[] order() {
+			Grid entries = new Grid(entryX, entryY, count);
+			Grid exits = new Grid(exitX, exitY, count + 1);
+			int[] found = new int[NEIGHBOURS + 1];
+			for (int node = 0; node <= count; node++) {
+				neighbours(entries, exitX[node], exitY[node], node, found, next);
+			}
+			for (int feature = 0; feature < count; feature++) {
+				neighbours(exits, entryX[feature], entryY[feature], feature, found, previous);
+			}
+
+			tour[0] = count;
+			position[count] = 0;
+			int node = count;
+			for (int p = 1; p <= count; p++) {
+				entries.nearest(exitX[node], exitY[node], 1, found);
+				node = found[0];
+				entries.remove(node);
+				tour[p] = node;
+				position[node] = p;
+			}
+
+			// until no move helps, trying only the nodes next to links that changed
+			for (node = 0; node <= count; node++) {
+				push(node);
+			}
+			while (queueSize > 0) {
+				node = queue[queueHead];
+				queueHead = (queueHead + 1) % queue.length;
+				queueSize--;
+				queued[node] = false;
+				if (symmetric && twoOpt(node) || node < count && orOpt(node)) {
+					push(node);
+				}
+			}
+
+			double programLength = distance(count, 0), length = 0;
+			for (int p = 0; p < count; p++) {
+				programLength += p > 0 ? distance(p - 1, p) : 0;
+				length += link(p);
+			}
+			return length < programLength - EPSILON ? Arrays.copyOfRange(tour, 1, count + 1) : null;
+		}
+
+		private void push(int node) {
+			if (!queued[node]) {
+				queued[node] = true;
+				queue[(queueHead + queueSize++) % queue.length] = node;
+			}
+		}
+
+		// Tries the moves again for the nodes of the links after the positions
+		private void push(int p, int q) {
+			push(tour[p]);
+			push(tour[q]);
+			if (p < count) {
+				push(tour[p + 1]);
+			}
+			if (q < count) {
+				push(tour[q + 1]);
+			}
+		}
+
+		private static void neighbours(Grid grid, double x, double y, int node, int[] found, int[] neighbours) {
+			int size = grid.nearest(x, y, NEIGHBOURS + 1, found);
+			int offset = node * NEIGHBOURS, s = 0;
+			for (int k = 0; k < size && s < NEIGHBOURS; k++) {
+				if (found[k] != node) {
+					neighbours[offset + s++] = found[k];
+				}
+			}
+			Arrays.fill(neighbours, offset + s, offset + NEIGHBOURS, -1);
+		}
+
+		// From the exit of the node to the entry of the feature
+		private double distance(int node, int feature) {
+			double dx = entryX[feature] - exitX[node], dy = entryY[feature] - exitY[node];
+			return sqrt(dx * dx + dy * dy);
+		}
+
+		// Length of the link after position p of the tour
+		private double link(int p) {
+			return p < count ? distance(tour[p], tour[p + 1]) : 0;
+		}
+
+		// Tries to link the node to a near feature by reversing the tour between them
+		private boolean twoOpt(int node) {
+			int p = position[node];
+			for (int s = node * NEIGHBOURS; s < node * NEIGHBOURS + NEIGHBOURS && next[s] >= 0; s++) {
+				int q = position[next[s]];
+				// the node and its neighbour become the first or the second link around the reversed part
+				if (reverse(min(p, q), max(p, q)) || min(p, q) > 0 && reverse(min(p, q) - 1, max(p, q) - 1)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		// Reverses the tour after position first up to position last, if that makes it shorter
+		private boolean reverse(int first, int last) {
+			if (last - first < 2) {
+				return false;
+			}
+			double delta = distance(tour[first], tour[last]) + (last < count ? distance(tour[first + 1], tour[last + 1]) : 0)
+					- link(first) - link(last);
+			if (delta >= -EPSILON) {
+				return false;
+			}
+			push(first, last);
+			for (int from = first + 1, to = last; from < to; from++, to--) {
+				int swap = tour[from];
+				tour[from] = tour[to];
+				tour[to] = swap;
+				position[tour[from]] = from;
+				position[tour[to]] = to;
+			}
+			return true;
+		}
+
+		// Tries to move the feature, and up to two features after it, next to a near feature
+		private boolean orOpt(int feature) {
+			int p = position[feature];
+			for (int length = 1; length <= 3 && p + length <= count + 1; length++) {
+				int last = p + length - 1;
+				int head = tour[p], tail = tour[last];
+				double gain = link(p - 1) + link(last) - (last < count ? distance(tour[p - 1], tour[last + 1]) : 0);
+				if (gain <= EPSILON) {
+					continue;
+				}
+				for (int s = 0; s < 2 * NEIGHBOURS; s++) {
+					int q;
+					if (s < NEIGHBOURS) { // after a node that ends near the head
+						int node = previous[head * NEIGHBOURS + s];
+						q = node < 0 ? -1 : position[node];
+					} else { // before a feature that starts near the tail
+						int node = next[tail * NEIGHBOURS + s - NEIGHBOURS];
+						q = node < 0 ? -1 : position[node] - 1;
+					}
+					if (q < 0 || q >= p - 1 && q <= last) {
+						continue;
+					}
+					double added = distance(tour[q], head) + (q < count ? distance(tail, tour[q + 1]) : 0) - link(q);
+					if (added < gain - EPSILON) {
+						push(p - 1, last);
+						push(q, q);
+						move(p, length, q);
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		// Moves the features at position p and after it to after position q
+		private void move(int p, int length, int q) {
+			System.arraycopy(tour, p, segment, 0, length);
+			int from;
+			if (q < p) {
+				System.arraycopy(tour, q + 1, tour, q + 1 + length, p - q - 1);
+				System.arraycopy(segment, 0, tour, q + 1, length);
+				from = q + 1;
+			} else {
+				System.arraycopy(tour, p + length, tour, p, q - p - length + 1);
+				System.arraycopy(segment, 0, tour, q - length + 1, length);
+				from = p;
+			}
+			for (int k = from, to = max(p + length - 1, q); k <= to; k++) {
+				position[tour[k]] = k;
+			}
+		}
+	}
+
+	// Points sorted into square cells, for nearest point queries
+	static final class Grid
+	{
+		private final double[]	pointX, pointY;
+		private final double		minX, minY, cellSize;
+		private final int				columns, rows;
+		private final int[]			cellStart, cellCount, cellOf, items, slot;
+		private double[]				distances;
+
+		Grid(double[] pointX, double[] pointY, int count) {
+			this.pointX = pointX;
+			this.pointY = pointY;
+			double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+			for (int k = 0; k < count; k++) {
+				minX = min(minX, pointX[k]);
+				minY = min(minY, pointY[k]);
+				maxX = max(maxX, pointX[k]);
+				maxY = max(maxY, pointY[k]);
+			}
+			this.minX = minX;
+			this.minY = minY;
+			// about 2 points per cell
+			double width = maxX - minX, height = maxY - minY;
+			int cells = max(1, count / 2);
+			double cellSize = width * height > 0 ? sqrt(width * height / cells) : max(width, height) / cells;
+			this.cellSize = cellSize > 0 ? cellSize : 1;
+			columns = (int) min(width / this.cellSize, cells) + 1;
+			rows = (int) min(height / this.cellSize, cells) + 1;
+
+			cellStart = new int[columns * rows + 1];
+			cellCount = new int[columns * rows];
+			cellOf = new int[count];
+			items = new int[count];
+			slot = new int[count];
+			for (int k = 0; k < count; k++) {
+				cellOf[k] = row(pointY[k]) * columns + column(pointX[k]);
+				cellStart[cellOf[k] + 1]++;
+			}
+			for (int cell = 0; cell < cellCount.length; cell++) {
+				cellStart[cell + 1] += cellStart[cell];
+			}
+			for (int k = 0; k < count; k++) {
+				int cell = cellOf[k];
+				slot[k] = cellStart[cell] + cellCount[cell]++;
+				items[slot[k]] = k;
+			}
+		}
+
+		private int column(double x) {
+			return max(0, min(columns - 1, (int) ((x - minX) / cellSize)));
+		}
+
+		private int row(double y) {
+			return max(0, min(rows - 1, (int) ((y - minY) / cellSize)));
+		}
+
+		void remove(int point) {
+			int cell = cellOf[point];
+			int last = cellStart[cell] + --cellCount[cell];
+			int other = items[last];
+			items[slot[point]] = other;
+			slot[other] = slot[point];
+			items[last] = point;
+			slot[point] = last;
+		}
+
+		// Finds the nearest points that are not removed, nearest first, returns how many were found
+		int nearest(double x, double y, int wanted, int[] found) {
+			if (distances == null || distances.length < wanted) {
+				distances = new double[wanted];
+			}
+			int size = 0;
+			int centerColumn = column(x), centerRow = row(y);
+			int rings = max(columns, rows);
+			for (int ring = 0; ring <= rings; ring++) {
+				for (int row = max(0, centerRow - ring), lastRow = min(rows - 1, centerRow + ring); row <= lastRow; row++) {
+					int step = ring > 0 && row != centerRow - ring && row != centerRow + ring ? 2 * ring : 1;
+					for (int column = centerColumn - ring; column <= centerColumn + ring; column += step) {
+						if (column < 0 || column >= columns) {
+							continue;
+						}
+						int cell = row * columns + column;
+						for (int s = cellStart[cell], end = s + cellCount[cell]; s < end; s++) {
+							int point = items[s];
+							double dx = pointX[point] - x, dy = pointY[point] - y;
+							double distance = dx * dx + dy * dy;
+							if (size == wanted && distance >= distances[size - 1]) {
+								continue;
+							}
+							int k = size < wanted ? size++ : size - 1;
+							for (; k > 0 && distances[k - 1] > distance; k--) {
+								distances[k] = distances[k - 1];
+								found[k] = found[k - 1];
+							}
+							distances[k] = distance;
+							found[k] = point;
+						}
+					}
+				}
+				// the cells of the next ring are at least ring cells away
+				double reach = ring * cellSize;
+				if (size == wanted && distances[size - 1] <= reach * reach) {
+					break;
+				}
+			}
+			return size;
+		}
+	}
+}
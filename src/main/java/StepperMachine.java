@@ -0,0 +1,322 @@
+import static java.lang.StrictMath.abs;
+import static java.lang.StrictMath.min;
+import static java.lang.StrictMath.round;
+import static java.lang.StrictMath.sqrt;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// MotorMachine for stepper motors: every move becomes step events of all axes with their time in nanoseconds since
+// the start of the program. A DDA steps the axis with the most steps on every tick and the other axes when their
+// Bresenham error overflows, so all axes start and end together. The ticks are timed along a trapezoid speed profile:
+// accelerating from the entry speed to the peak speed and decelerating to the exit speed. The entry and exit speeds
+// come from the look-ahead planner in continuous mode (G64) and are 0 otherwise.
+//
+// The steps go into a ring buffer per axis of preallocated primitive arrays, one thread executes the program and one
+// driver thread drains them (see drain). Executing the program waits while a buffer is full.
+public class StepperMachine extends MotorMachine
+{
+	private static final Axis[]				AXIS_VALUES		= Axis.values();
+	private static final int					AXES					= AXIS_VALUES.length;
+
+	// Receives the steps drained from the buffers, in order per axis
+	public interface StepSink
+	{
+		void step(Axis axis, long timeInNanos, boolean forward);
+	}
+
+	// Single producer, single consumer ring buffer of the steps of one axis
+	static final class StepBuffer
+	{
+		private final long[]		times;
+		private final boolean[]	forward;
+		private final int				mask;
+		private final AtomicLong	head	= new AtomicLong();	// next step to read
+		private final AtomicLong	tail	= new AtomicLong();	// next step to write
+
+		StepBuffer(int capacity) {
+			if (Integer.bitCount(capacity) != 1) {
+				throw new IllegalArgumentException("Capacity is not a power of two: " + capacity);
+			}
+			times = new long[capacity];
+			forward = new boolean[capacity];
+			mask = capacity - 1;
+		}
+
+		void put(long time, boolean forward) {
+			long t = tail.get();
+			while (t - head.get() == times.length) {
+				LockSupport.parkNanos(10000); // wait for the driver
+			}
+			int k = (int) t & mask;
+			times[k] = time;
+			this.forward[k] = forward;
+			tail.lazySet(t + 1);
+		}
+
+		int drain(Axis axis, StepSink sink) {
+			long h = head.get(), t = tail.get();
+			for (long s = h; s < t; s++) {
+				int k = (int) s & mask;
+				sink.step(axis, times[k], forward[k]);
+			}
+			head.lazySet(t);
+			return (int) (t - h);
+		}
+
+		int size() {
+			return (int) (tail.get() - head.get());
+		}
+	}
+
+	// Test sink: counts the steps and the position of every axis and checks their timing
+	public static class StepCounter implements StepSink
+	{
+		private final long[]	steps					= new long[AXES];
+		private final long[]	positions			= new long[AXES];
+		private final long[]	lastTimes			= new long[AXES];
+		private final long[]	minIntervals	= new long[AXES];
+
+		public StepCounter() {
+			Arrays.fill(lastTimes, -1);
+			Arrays.fill(minIntervals, Long.MAX_VALUE);
+		}
+
+		@Override
+		public void step(Axis axis, long timeInNanos, boolean forward) {
+			int k = axis.ordinal();
+			if (timeInNanos < lastTimes[k]) {
+				throw new IllegalStateException(axis + " step at " + timeInNanos + " ns before the step at " + lastTimes[k] + " ns");
+			}
+			if (lastTimes[k] >= 0) {
+				minIntervals[k] = Math.min(minIntervals[k], timeInNanos - lastTimes[k]);
+			}
+			lastTimes[k] = timeInNanos;
+			steps[k]++;
+			positions[k] += forward ? 1 : -1;
+		}
+
+		public long getSteps(Axis axis) {
+			return steps[axis.ordinal()];
+		}
+
+		// Forward minus backward steps
+		public long getPosition(Axis axis) {
+			return positions[axis.ordinal()];
+		}
+
+		// Time of the last step, -1 without steps
+		public long getLastTime(Axis axis) {
+			return lastTimes[axis.ordinal()];
+		}
+
+		// Shortest time between two steps, Long.MAX_VALUE with fewer than two steps
+		public long getMinInterval(Axis axis) {
+			return minIntervals[axis.ordinal()];
+		}
+	}
+
+	// Motor that only keeps the target of the move, StepperMachine.move steps to it
+	private final class StepperMotor extends Motor
+	{
+		private final int	axis;
+
+		StepperMotor(Axis axis) {
+			super(axis.name());
+			this.axis = axis.ordinal();
+		}
+
+		@Override
+		public void setSpeed(double speed) {
+			// Nothing, see move
+		}
+
+		@Override
+		public void moveTo(double valueInMM) {
+			target[axis] = valueInMM;
+		}
+	}
+
+	private final StepBuffer[]				buffers				= new StepBuffer[AXES];
+	private final double[]						stepsPerMm		= new double[AXES];
+	private final double[]						maxSpeed			= new double[AXES];	// mm/s
+
+	private CANON_UNITS								units					= CANON_UNITS.CANON_UNITS_MM;
+	private final double[]						position			= new double[AXES];	// mm, at the end of the last move
+	private final double[]						target				= new double[AXES];	// mm
+	private final long[]							stepPosition	= new long[AXES];
+	private final long[]							delta					= new long[AXES];
+	private final long[]							error					= new long[AXES];
+	private double										entrySpeed;															// units per minute, see profile
+	private double										exitSpeed;
+	private long											time;																		// ns, at the end of the last move
+	private final Profile							profile				= new Profile();
+
+	// Steps per mm (or degree) of all axes, the buffers hold capacity steps per axis (a power of two)
+	public StepperMachine(double stepsPerMm, int capacity) {
+		for (Axis axis : AXIS_VALUES) {
+			buffers[axis.ordinal()] = new StepBuffer(capacity);
+			this.stepsPerMm[axis.ordinal()] = stepsPerMm;
+			maxSpeed[axis.ordinal()] = 6000 / 60.0;
+			setMotor(axis, new StepperMotor(axis));
+		}
+	}
+
+	public void setStepsPerMm(Axis axis, double stepsPerMm) {
+		flush();
+		this.stepsPerMm[axis.ordinal()] = stepsPerMm;
+		stepPosition[axis.ordinal()] = round(position[axis.ordinal()] * stepsPerMm);
+	}
+
+	// Highest speed of the axis, also for rapid moves
+	public void setMaxSpeed(Axis axis, double speedInMmPerMinute) {
+		flush();
+		maxSpeed[axis.ordinal()] = speedInMmPerMinute / 60;
+	}
+
+	// Time at the end of the last move, in ns since the start
+	public long getTime() {
+		return time;
+	}
+
+	// Steps in the buffer of the axis that were not drained yet
+	public int getBufferedSteps(Axis axis) {
+		return buffers[axis.ordinal()].size();
+	}
+
+	// Passes the buffered steps of every axis to the sink and returns their number, called by the driver thread
+	public int drain(StepSink sink) {
+		int drained = 0;
+		for (Axis axis : AXIS_VALUES) {
+			drained += buffers[axis.ordinal()].drain(axis, sink);
+		}
+		return drained;
+	}
+
+	@Override
+	public void USE_LENGTH_UNITS(CANON_UNITS units) {
+		super.USE_LENGTH_UNITS(units);
+		this.units = units;
+	}
+
+	@Override
+	public void DWELL(double seconds) {
+		super.DWELL(seconds);
+		time += round(seconds * 1e9);
+	}
+
+	@Override
+	void profile(double entrySpeed, double exitSpeed) {
+		this.entrySpeed = entrySpeed;
+		this.exitSpeed = exitSpeed;
+	}
+
+	@Override
+	void move(double x, double y, double z, double a, double b, double c, double feedRateInUnitPerMinute) {
+		super.move(x, y, z, a, b, c, feedRateInUnitPerMinute);
+		double entry = convertUnit(units, CANON_UNITS.CANON_UNITS_MM, entrySpeed) / 60;
+		double exit = convertUnit(units, CANON_UNITS.CANON_UNITS_MM, exitSpeed) / 60;
+		entrySpeed = exitSpeed = 0;
+		double speed = feedRateInUnitPerMinute == Double.MAX_VALUE ? Double.MAX_VALUE
+				: convertUnit(units, CANON_UNITS.CANON_UNITS_MM, feedRateInUnitPerMinute) / 60;
+		step(speed, entry, exit);
+	}
+
+	// Steps from the position to the target with the speeds in mm/s
+	private void step(double speed, double entry, double exit) {
+		double squaredLength = 0;
+		long ticks = 0;
+		for (int axis = 0; axis < AXES; axis++) {
+			double distance = target[axis] - position[axis];
+			squaredLength += distance * distance;
+			delta[axis] = round(target[axis] * stepsPerMm[axis]) - stepPosition[axis];
+			ticks = Math.max(ticks, abs(delta[axis]));
+		}
+		double length = sqrt(squaredLength);
+		// the axes limit the speed and acceleration along the move by their share of it
+		double acceleration = Double.MAX_VALUE;
+		for (int axis = 0; axis < AXES; axis++) {
+			double share = abs(target[axis] - position[axis]) / length;
+			if (share > 0) {
+				speed = min(speed, maxSpeed[axis] / share);
+				double axisAcceleration = getAcceleration(AXIS_VALUES[axis]);
+				if (axisAcceleration > 0) { // no limit when not configured
+					acceleration = min(acceleration, axisAcceleration / share);
+				}
+			}
+			position[axis] = target[axis];
+		}
+		if (ticks == 0) {
+			return;
+		}
+		if (speed <= 0) {
+			throw new IllegalStateException("Move without feed rate");
+		}
+		profile.set(length, min(entry, speed), speed, min(exit, speed), acceleration);
+
+		for (int axis = 0; axis < AXES; axis++) {
+			error[axis] = ticks / 2;
+		}
+		long start = time;
+		for (long tick = 1; tick <= ticks; tick++) {
+			long stepTime = start + round(profile.time(length * tick / ticks) * 1e9);
+			for (int axis = 0; axis < AXES; axis++) {
+				error[axis] += abs(delta[axis]);
+				if (error[axis] >= ticks) {
+					error[axis] -= ticks;
+					buffers[axis].put(stepTime, delta[axis] > 0);
+				}
+			}
+		}
+		for (int axis = 0; axis < AXES; axis++) {
+			stepPosition[axis] += delta[axis];
+		}
+		time = start + round(profile.duration * 1e9);
+	}
+
+	// Trapezoid speed profile of a move in mm and seconds
+	static final class Profile
+	{
+		double	length, entry, peak, exit, acceleration;
+		double	accelerationEnd, decelerationStart;	// distances
+		double	accelerationTime, cruiseTime, duration;
+
+		// The speeds are lowered where needed to fit the length, a maximum acceleration means no ramps
+		void set(double length, double entry, double speed, double exit, double acceleration) {
+			this.length = length;
+			this.acceleration = acceleration;
+			if (acceleration == Double.MAX_VALUE) {
+				this.entry = this.peak = this.exit = speed;
+				accelerationEnd = 0;
+				decelerationStart = length;
+				accelerationTime = 0;
+				cruiseTime = duration = length / speed;
+				return;
+			}
+			// the planner keeps the speeds reachable, this only corrects for the limits of the machine
+			entry = min(entry, sqrt(exit * exit + 2 * acceleration * length));
+			exit = min(exit, sqrt(entry * entry + 2 * acceleration * length));
+			this.entry = entry;
+			this.exit = exit;
+			peak = min(speed, sqrt((2 * acceleration * length + entry * entry + exit * exit) / 2));
+			accelerationEnd = (peak * peak - entry * entry) / (2 * acceleration);
+			decelerationStart = length - (peak * peak - exit * exit) / (2 * acceleration);
+			accelerationTime = (peak - entry) / acceleration;
+			cruiseTime = Math.max(0, decelerationStart - accelerationEnd) / peak;
+			duration = accelerationTime + cruiseTime + (peak - exit) / acceleration;
+		}
+
+		// Time at the distance along the move
+		double time(double distance) {
+			if (distance <= accelerationEnd) {
+				return (sqrt(entry * entry + 2 * acceleration * distance) - entry) / acceleration;
+			}
+			if (distance <= decelerationStart) {
+				return accelerationTime + (distance - accelerationEnd) / peak;
+			}
+			double remaining = Math.max(0, length - distance); // not below 0 by rounding
+			return duration - (sqrt(exit * exit + 2 * acceleration * remaining) - exit) / acceleration;
+		}
+	}
+}
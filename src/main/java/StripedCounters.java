@@ -0,0 +1,54 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Array of counters that many threads can update without locks and without contending on the same cache line.
+// Every thread updates its own stripe, chosen by thread id; reading sums all stripes.
+// Java 7 has no LongAdder, this is the same idea for a fixed number of counters.
+class StripedCounters
+{
+	private static final int			PADDING	= 16;	// longs between stripes, two cache lines
+
+	private final int							size;
+	private final int							stride;
+	private final int							mask;
+	private final AtomicLongArray	cells;
+
+	StripedCounters(int size) {
+		this.size = size;
+		this.stride = size + PADDING;
+		int stripes = Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+		this.mask = stripes - 1;
+		this.cells = new AtomicLongArray(stripes * stride);
+	}
+
+	int size() {
+		return size;
+	}
+
+	void increment(int counter) {
+		cells.incrementAndGet(stripe() + counter);
+	}
+
+	void add(int counter, long delta) {
+		cells.addAndGet(stripe() + counter, delta);
+	}
+
+	private int stripe() {
+		return ((int) Thread.currentThread().getId() & mask) * stride;
+	}
+
+	// Sum over all stripes, not an atomic snapshot when updates are going on
+	long get(int counter) {
+		long sum = 0;
+		for (int index = counter; index < cells.length(); index += stride) {
+			sum += cells.get(index);
+		}
+		return sum;
+	}
+
+	// Sums of the counters from offset up to offset + values.length
+	void get(int offset, long[] values) {
+		for (int counter = 0; counter < values.length; counter++) {
+			values[counter] = get(offset + counter);
+		}
+	}
+}
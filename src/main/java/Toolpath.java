@@ -0,0 +1,60 @@
+import java.io.InputStream;
+
+// Compiled program: the canonical calls the Executor made, stored column wise in primitive arrays.
+// Compile once, then replay into any Machine without lexing, parsing or walking a tree again.
+public class Toolpath extends CanonicalColumns
+{
+	private static final int	INITIAL_CAPACITY	= 1024;
+
+	int												size;
+	// True when the program refers to parameters, see Executor.usesParameters
+	boolean										usesParameters;
+
+	public Toolpath() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public Toolpath(int capacity) {
+		super(capacity);
+	}
+
+	public static Toolpath compile(InputStream in) throws Exception {
+		return compile(in, null);
+	}
+
+	// Compiles with the parameters of the machine the toolpath will be replayed into, see Executor.parametersOf.
+	// Parameter settings of the program change them.
+	public static Toolpath compile(InputStream in, Machine machine) throws Exception {
+		Toolpath toolpath = new Toolpath();
+		Executor executor = new Executor(toolpath, Executor.parametersOf(machine));
+		new BlockScanner(executor).executeLines(in == null ? System.in : in);
+		executor.exitProgram(null);
+		toolpath.usesParameters = executor.usesParameters();
+		toolpath.trimToSize();
+		return toolpath;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void replay(Machine machine) {
+		for (int k = 0; k < size; k++) {
+			replay(k, machine);
+		}
+		MotorMachine.flush(machine);
+	}
+
+	public void trimToSize() {
+		resize(size);
+	}
+
+	@Override
+	int add(Canonical opcode) {
+		if (size == op.length) {
+			resize(Math.max(INITIAL_CAPACITY, size * 2));
+		}
+		op[size] = (byte) opcode.ordinal();
+		return size++;
+	}
+}
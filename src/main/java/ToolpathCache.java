@@ -0,0 +1,231 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import dkwakkel.jgcode.GCodeLexer;
+import dkwakkel.jgcode.GCodeParser;
+
+// On-disk cache of compiled programs, keyed by the SHA-256 of the program text.
+// A hit replays the canonical calls straight from the memory mapped file without lexing or parsing.
+// Programs that refer to parameters are not cached: their calls depend on the parameters of the machine, and their
+// parameter settings must reach it on every run.
+//
+// File layout (little endian):
+// header: magic, format version, Executor version, grammar hash, number of calls
+// columns: opcodes as bytes, x, y, z, a, b, c, i, j, f as doubles, n as ints
+// texts: count, then per text the call index, byte length and UTF-8 bytes
+public class ToolpathCache
+{
+	private static final int		MAGIC						= 0x4A475450;	// JGTP
+	private static final int		FORMAT_VERSION	= 1;
+	private static final int		HEADER_SIZE			= 5 * 4;
+	private static final int		DOUBLE_COLUMNS	= 9;
+	// Most calls a file can hold, each column is mapped separately and must stay below 2 GB
+	static final int						MAX_SIZE				= Integer.MAX_VALUE / 8;
+	static final int						GRAMMAR_HASH		= GCodeLexer._serializedATN.hashCode() * 31 + GCodeParser._serializedATN.hashCode();
+
+	private final File					directory;
+
+	public ToolpathCache(File directory) {
+		this.directory = directory;
+	}
+
+	public void execute(Machine machine, File program) throws Exception {
+		File cacheFile = new File(directory, hash(program) + ".toolpath");
+		Columns columns = load(cacheFile);
+		if (columns == null) {
+			Toolpath toolpath;
+			try (InputStream in = new FileInputStream(program)) {
+				toolpath = Toolpath.compile(in, machine);
+			}
+			if (toolpath.usesParameters) {
+				toolpath.replay(machine);
+				return;
+			}
+			directory.mkdirs();
+			write(toolpath, cacheFile);
+			columns = load(cacheFile);
+		}
+		replay(columns, machine);
+	}
+
+	private static String hash(File program) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		try (InputStream in = new DigestInputStream(new FileInputStream(program), digest)) {
+			byte[] buffer = new byte[8192];
+			while (in.read(buffer) != -1) {
+				// digest while reading
+			}
+		}
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest()) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	// The columns of a cache file, each mapped on its own, so the file can be larger than 2 GB
+	static final class Columns
+	{
+		final int															size;
+		final ByteBuffer											op;
+		final DoubleBuffer[]									doubles	= new DoubleBuffer[DOUBLE_COLUMNS];
+		final IntBuffer												n;
+		final ByteBuffer											texts;
+		private final List<MappedByteBuffer>	mapped	= new ArrayList<>();
+
+		Columns(FileChannel channel, int size, FileChannel.MapMode mode) throws IOException {
+			this.size = size;
+			op = map(channel, mode, HEADER_SIZE, size);
+			long position = HEADER_SIZE + (long) size;
+			for (int column = 0; column < DOUBLE_COLUMNS; column++) {
+				doubles[column] = map(channel, mode, position, size * 8L).asDoubleBuffer();
+				position += size * 8L;
+			}
+			n = map(channel, mode, position, size * 4L).asIntBuffer();
+			position += size * 4L;
+			texts = map(channel, mode, position, channel.size() - position);
+		}
+
+		private ByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long length) throws IOException {
+			MappedByteBuffer buffer = channel.map(mode, position, length);
+			mapped.add(buffer);
+			return buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		// Writes the changes to the file
+		void force() {
+			for (MappedByteBuffer buffer : mapped) {
+				buffer.force();
+			}
+		}
+	}
+
+	// Returns null when the file is missing, truncated or written by another format, grammar or Executor version
+	static Columns load(File cacheFile) throws IOException {
+		if (!cacheFile.isFile()) {
+			return null;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r")) {
+			if (file.length() < HEADER_SIZE) {
+				return null;
+			}
+			ByteBuffer header = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC
+					|| header.getInt(4) != FORMAT_VERSION
+					|| header.getInt(8) != Executor.VERSION
+					|| header.getInt(12) != GRAMMAR_HASH) {
+				return null;
+			}
+			int size = header.getInt(16);
+			if (size < 0 || size > MAX_SIZE || file.length() < textOffset(size) + 4 || file.length() - textOffset(size) > Integer.MAX_VALUE) {
+				return null;
+			}
+			return new Columns(file.getChannel(), size, FileChannel.MapMode.READ_ONLY);
+		}
+	}
+
+	private static long textOffset(int size) {
+		return HEADER_SIZE + size * (1 + DOUBLE_COLUMNS * 8L + 4);
+	}
+
+	static void write(Toolpath toolpath, File cacheFile) throws IOException {
+		int size = toolpath.size();
+		if (size > MAX_SIZE) {
+			throw new IllegalArgumentException("Toolpath too large to cache: " + size + " calls, at most " + MAX_SIZE);
+		}
+		int texts = 0;
+		long textBytes = 4;
+		byte[][] encoded = new byte[size][];
+		for (int k = 0; k < size; k++) {
+			if (toolpath.text[k] != null) {
+				encoded[k] = toolpath.text[k].getBytes(UTF_8);
+				texts++;
+				textBytes += 8 + encoded[k].length;
+			}
+		}
+		if (textBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Toolpath texts too large to cache: " + textBytes + " bytes");
+		}
+
+		File tmp = new File(cacheFile.getPath() + ".tmp");
+		try (RandomAccessFile file = new RandomAccessFile(tmp, "rw")) {
+			file.setLength(textOffset(size) + textBytes);
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(Executor.VERSION).putInt(GRAMMAR_HASH).putInt(size);
+
+			Columns columns = new Columns(channel, size, FileChannel.MapMode.READ_WRITE);
+			columns.op.put(toolpath.op, 0, size);
+			double[][] doubles = { toolpath.x, toolpath.y, toolpath.z, toolpath.a, toolpath.b, toolpath.c, toolpath.i, toolpath.j, toolpath.f };
+			for (int column = 0; column < DOUBLE_COLUMNS; column++) {
+				columns.doubles[column].put(doubles[column], 0, size);
+			}
+			columns.n.put(toolpath.n, 0, size);
+			columns.texts.putInt(texts);
+			for (int k = 0; k < size; k++) {
+				if (encoded[k] != null) {
+					columns.texts.putInt(k).putInt(encoded[k].length).put(encoded[k]);
+				}
+			}
+			header.force();
+			columns.force();
+		}
+		// Readers never see a partially written file
+		Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static void replay(Columns columns, Machine machine) {
+		ByteBuffer textBuffer = columns.texts;
+		int texts = textBuffer.getInt(0);
+		int nextTextPosition = 4;
+		int nextText = texts > 0 ? textBuffer.getInt(nextTextPosition) : -1;
+
+		DoubleBuffer[] doubles = columns.doubles;
+		for (int k = 0; k < columns.size; k++) {
+			String text = null;
+			if (k == nextText) {
+				int length = textBuffer.getInt(nextTextPosition + 4);
+				byte[] bytes = new byte[length];
+				ByteBuffer source = textBuffer.duplicate();
+				source.position(nextTextPosition + 8);
+				source.get(bytes);
+				text = new String(bytes, UTF_8);
+				nextTextPosition += 8 + length;
+				nextText = --texts > 0 ? textBuffer.getInt(nextTextPosition) : -1;
+			}
+			CanonicalColumns.call(machine,
+					Canonical.VALUES[columns.op.get(k)],
+					doubles[0].get(k),
+					doubles[1].get(k),
+					doubles[2].get(k),
+					doubles[3].get(k),
+					doubles[4].get(k),
+					doubles[5].get(k),
+					doubles[6].get(k),
+					doubles[7].get(k),
+					doubles[8].get(k),
+					columns.n.get(k),
+					text);
+		}
+		MotorMachine.flush(machine);
+	}
+}
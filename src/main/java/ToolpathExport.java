@@ -0,0 +1,435 @@
+import static java.lang.StrictMath.cos;
+import static java.lang.StrictMath.max;
+import static java.lang.StrictMath.min;
+import static java.lang.StrictMath.sin;
+import static java.lang.StrictMath.sqrt;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Writes the path of X, Y and Z in mm to a file while the interpreter runs, to preview a program, and passes all calls on.
+// Rapid and feed moves become separate polylines. Arcs are cut into chords and the points are decimated on the fly:
+// a point is left out while the segment from the last written point to the next one passes all left out points within
+// half the tolerance, so the written path stays within the tolerance of the programmed path. This is the greedy,
+// streaming form of Douglas-Peucker: at most WINDOW points are held, so memory use does not depend on the program.
+//
+// Formats:
+// - SVG: the XY plane, feed polylines in blue and rapid polylines dashed in red. The view box is only filled in when
+// the channel is seekable.
+// - POLYLINE (little endian): header with magic, format version and tolerance (double), then per point a flags byte
+// (1: feed, 2: first point of a polyline) and x, y, z as doubles.
+// - STL: binary STL with a horizontal ribbon of the ribbon width along every segment. The attribute of a triangle is 0
+// for feed and 1 for rapid. The triangle count is only filled in when the channel is seekable.
+public class ToolpathExport extends ForwardingMachine implements AutoCloseable
+{
+	public enum Format
+	{
+		SVG, POLYLINE, STL
+	}
+
+	static final int									WINDOW						= 256;
+	private static final int					BUFFER_SIZE				= 1 << 16;
+	private static final int					MAGIC							= 0x4A47504C;	// JGPL
+	private static final int					FORMAT_VERSION		= 1;
+	static final int									FEED							= 1, FIRST = 2;
+	private static final int					SVG_VIEW_BOX_SIZE	= 80;
+	private static final int					X									= 0, Y = 1, Z = 2;
+
+	private final WritableByteChannel	channel;
+	private final Format							format;
+	private final double							toleranceInMm;
+	private final ByteBuffer					buffer						= ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private long											written;																			// bytes before the buffer
+	private long											viewBoxOffset;
+	private double										ribbonWidthInMm		= 0.2;
+
+	private double										unitInMm					= 1;
+	private CANON_PLANE								plane							= CANON_PLANE.CANON_PLANE_XY;
+	private final double[]						position					= new double[3];
+	private final double[]						point							= new double[3];
+
+	// Polyline being decimated: the last written point, the points since then and whether it is a feed
+	private boolean										open;
+	private boolean										feed;
+	private final double[]						anchor						= new double[3];
+	private final double[]						pendingX					= new double[WINDOW];
+	private final double[]						pendingY					= new double[WINDOW];
+	private final double[]						pendingZ					= new double[WINDOW];
+	private int												pending;
+
+	// Previous written point, for the ribbon
+	private final double[]						previous					= new double[3];
+
+	private final double[]						min								= { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+	private final double[]						max								= { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+	private long											points;
+	private long											writtenPoints;
+	private long											triangles;
+
+	public ToolpathExport(Machine machine, WritableByteChannel channel, Format format, double toleranceInMm) {
+		super(machine);
+		this.channel = channel;
+		this.format = format;
+		this.toleranceInMm = toleranceInMm;
+		writeHeader();
+	}
+
+	// Export to a file, without another machine
+	public static ToolpathExport open(Path file, Format format, double toleranceInMm) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return new ToolpathExport(new DiscardMachine(), channel, format, toleranceInMm);
+	}
+
+	// Width of the STL ribbon
+	public void setRibbonWidth(double ribbonWidthInMm) {
+		this.ribbonWidthInMm = ribbonWidthInMm;
+	}
+
+	// Number of points of the path, the end points of the moves and chords
+	public long getPoints() {
+		return points;
+	}
+
+	// Number of points written, including the first point of every polyline
+	public long getWrittenPoints() {
+		return writtenPoints;
+	}
+
+	@Override
+	public void USE_LENGTH_UNITS(CANON_UNITS units) {
+		unitInMm = MotorMachine.convertUnit(units, CANON_UNITS.CANON_UNITS_MM, 1);
+		super.USE_LENGTH_UNITS(units);
+	}
+
+	@Override
+	public void SELECT_PLANE(CANON_PLANE plane) {
+		this.plane = plane;
+		super.SELECT_PLANE(plane);
+	}
+
+	@Override
+	public void STRAIGHT_TRAVERSE(double x, double y, double z, double a, double b, double c) {
+		add(x * unitInMm, y * unitInMm, z * unitInMm, false);
+		super.STRAIGHT_TRAVERSE(x, y, z, a, b, c);
+	}
+
+	@Override
+	public void STRAIGHT_FEED(double x, double y, double z, double a, double b, double c) {
+		add(x * unitInMm, y * unitInMm, z * unitInMm, true);
+		super.STRAIGHT_FEED(x, y, z, a, b, c);
+	}
+
+	@Override
+	public void ARC_FEED(	double firstEnd,
+												double secondEnd,
+												double firstCenter,
+												double secondCenter,
+												int rotation,
+												double axisEndPoint,
+												double a,
+												double b,
+												double c) {
+		int first, second, axis;
+		switch (plane) {
+			case CANON_PLANE_XY:
+				first = X;
+				second = Y;
+				axis = Z;
+				break;
+			case CANON_PLANE_XZ:
+				first = X;
+				second = Z;
+				axis = Y;
+				break;
+			case CANON_PLANE_YZ:
+				first = Y;
+				second = Z;
+				axis = X;
+				break;
+			default:
+				throw new IllegalStateException("plane=" + plane);
+		}
+
+		ArcSweep sweep = new ArcSweep(position[first], position[second], firstEnd * unitInMm, secondEnd * unitInMm,
+				firstCenter * unitInMm, secondCenter * unitInMm, rotation);
+		// Chords within half the tolerance, the decimation may use the other half
+		int steps = sweep.steps(toleranceInMm / 2);
+		double stepAngle = sweep.angle / steps;
+		double axisStart = position[axis];
+		double axisStep = (axisEndPoint * unitInMm - axisStart) / steps;
+		for (int s = 1; s < steps; s++) {
+			point[first] = firstCenter * unitInMm + sweep.radius * cos(sweep.startAngle + stepAngle * s);
+			point[second] = secondCenter * unitInMm + sweep.radius * sin(sweep.startAngle + stepAngle * s);
+			point[axis] = axisStart + axisStep * s;
+			add(point[X], point[Y], point[Z], true);
+		}
+		point[first] = firstEnd * unitInMm;
+		point[second] = secondEnd * unitInMm;
+		point[axis] = axisEndPoint * unitInMm;
+		add(point[X], point[Y], point[Z], true);
+
+		super.ARC_FEED(firstEnd, secondEnd, firstCenter, secondCenter, rotation, axisEndPoint, a, b, c);
+	}
+
+	// Adds the end point of a move or chord to the polyline, starting a new polyline when the kind of move changes
+	private void add(double x, double y, double z, boolean feed) {
+		points++;
+		if (x == position[X] && y == position[Y] && z == position[Z]) {
+			return;
+		}
+		if (!open || feed != this.feed) {
+			finish();
+			open = true;
+			this.feed = feed;
+			anchor[X] = position[X];
+			anchor[Y] = position[Y];
+			anchor[Z] = position[Z];
+			write(anchor[X], anchor[Y], anchor[Z], FIRST);
+		}
+		position[X] = x;
+		position[Y] = y;
+		position[Z] = z;
+
+		if (pending > 0 && (pending == WINDOW || !passes(x, y, z))) {
+			// the last pending point can not be left out
+			int last = pending - 1;
+			anchor[X] = pendingX[last];
+			anchor[Y] = pendingY[last];
+			anchor[Z] = pendingZ[last];
+			write(anchor[X], anchor[Y], anchor[Z], 0);
+			pending = 0;
+		}
+		pendingX[pending] = x;
+		pendingY[pending] = y;
+		pendingZ[pending] = z;
+		pending++;
+	}
+
+	// True when the segment from the anchor to the point passes all pending points within half the tolerance
+	private boolean passes(double x, double y, double z) {
+		double dx = x - anchor[X], dy = y - anchor[Y], dz = z - anchor[Z];
+		double length2 = dx * dx + dy * dy + dz * dz;
+		double tolerance2 = toleranceInMm * toleranceInMm / 4;
+		for (int k = 0; k < pending; k++) {
+			double px = pendingX[k] - anchor[X], py = pendingY[k] - anchor[Y], pz = pendingZ[k] - anchor[Z];
+			double t = length2 == 0 ? 0 : max(0, min(1, (px * dx + py * dy + pz * dz) / length2));
+			double ex = px - t * dx, ey = py - t * dy, ez = pz - t * dz;
+			if (ex * ex + ey * ey + ez * ez > tolerance2) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Writes the last point of the polyline
+	private void finish() {
+		if (pending > 0) {
+			write(pendingX[pending - 1], pendingY[pending - 1], pendingZ[pending - 1], 0);
+			pending = 0;
+		}
+	}
+
+	private void write(double x, double y, double z, int flags) {
+		writtenPoints++;
+		if (feed) {
+			flags |= FEED;
+		}
+		min[X] = min(min[X], x);
+		min[Y] = min(min[Y], y);
+		max[X] = max(max[X], x);
+		max[Y] = max(max[Y], y);
+		switch (format) {
+			case SVG:
+				if ((flags & FIRST) != 0) {
+					if (writtenPoints > 1) {
+						put("\"/>\n");
+					}
+					put(feed ? "<polyline stroke=\"blue\" points=\"" : "<polyline stroke=\"red\" stroke-dasharray=\"1\" points=\"");
+				}
+				else {
+					put(" ");
+				}
+				putDecimal(x);
+				put(",");
+				putDecimal(y);
+				break;
+			case POLYLINE:
+				ensure(1 + 3 * 8);
+				buffer.put((byte) flags).putDouble(x).putDouble(y).putDouble(z);
+				break;
+			case STL:
+				if ((flags & FIRST) == 0) {
+					ribbon(previous[X], previous[Y], previous[Z], x, y, z);
+				}
+				previous[X] = x;
+				previous[Y] = y;
+				previous[Z] = z;
+				break;
+			default:
+				throw new IllegalStateException("format=" + format);
+		}
+	}
+
+	// Two triangles of the ribbon along the segment, perpendicular to it in the XY plane
+	private void ribbon(double x0, double y0, double z0, double x1, double y1, double z1) {
+		double dx = x1 - x0, dy = y1 - y0, dz = z1 - z0;
+		double length = sqrt(dx * dx + dy * dy);
+		double ox = length == 0 ? 0 : -dy / length * ribbonWidthInMm / 2;
+		double oy = length == 0 ? ribbonWidthInMm / 2 : dx / length * ribbonWidthInMm / 2;
+		// normal: segment x offset, the triangles are counterclockwise seen from it
+		double nx = -dz * oy, ny = dz * ox, nz = dx * oy - dy * ox;
+		double n = sqrt(nx * nx + ny * ny + nz * nz);
+		if (n > 0) {
+			nx /= n;
+			ny /= n;
+			nz /= n;
+		}
+		triangle(nx, ny, nz, x0 - ox, y0 - oy, z0, x1 - ox, y1 - oy, z1, x1 + ox, y1 + oy, z1);
+		triangle(nx, ny, nz, x0 - ox, y0 - oy, z0, x1 + ox, y1 + oy, z1, x0 + ox, y0 + oy, z0);
+	}
+
+	private void triangle(double nx, double ny, double nz, double... vertices) {
+		ensure(12 * 4 + 2);
+		buffer.putFloat((float) nx).putFloat((float) ny).putFloat((float) nz);
+		for (double vertex : vertices) {
+			buffer.putFloat((float) vertex);
+		}
+		buffer.putShort((short) (feed ? 0 : 1));
+		triangles++;
+	}
+
+	private void writeHeader() {
+		switch (format) {
+			case SVG:
+				put("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<svg xmlns=\"http://www.w3.org/2000/svg\"");
+				viewBoxOffset = written + buffer.position();
+				for (int k = 0; k < SVG_VIEW_BOX_SIZE; k++) {
+					put(" ");
+				}
+				put(">\n<g transform=\"scale(1,-1)\" fill=\"none\" stroke-width=\"0.1\">\n");
+				break;
+			case POLYLINE:
+				buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putDouble(toleranceInMm);
+				break;
+			case STL:
+				byte[] header = "jgcode toolpath ribbon".getBytes(US_ASCII);
+				buffer.put(header).put(new byte[80 - header.length]).putInt(0);
+				break;
+			default:
+				throw new IllegalStateException("format=" + format);
+		}
+	}
+
+	// Writes the last points and closes the channel
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+			switch (format) {
+				case SVG:
+					put(writtenPoints > 0 ? "\"/>\n</g>\n</svg>\n" : "</g>\n</svg>\n");
+					break;
+				case POLYLINE:
+					break;
+				case STL:
+					break;
+				default:
+					throw new IllegalStateException("format=" + format);
+			}
+			flushBuffer();
+			if (channel instanceof SeekableByteChannel) {
+				patchHeader((SeekableByteChannel) channel);
+			}
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private void patchHeader(SeekableByteChannel seekable) throws IOException {
+		if (format == Format.SVG && writtenPoints > 0) {
+			// y is flipped by the transform
+			String viewBox = " viewBox=\"" + decimal(min[X]) + " " + decimal(-max[Y]) + " " + decimal(max[X] - min[X]) + " " + decimal(max[Y] - min[Y])
+					+ "\"";
+			if (viewBox.length() <= SVG_VIEW_BOX_SIZE) {
+				seekable.position(viewBoxOffset);
+				write(seekable, ByteBuffer.wrap(viewBox.getBytes(US_ASCII)));
+			}
+		}
+		else if (format == Format.STL) {
+			seekable.position(80);
+			write(seekable, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, (int) triangles));
+		}
+	}
+
+	private static String decimal(double value) {
+		return String.valueOf(Math.round(value * 1000) / 1000.0);
+	}
+
+	private void put(String text) {
+		ensure(text.length());
+		for (int k = 0; k < text.length(); k++) {
+			buffer.put((byte) text.charAt(k));
+		}
+	}
+
+	// Writes the value rounded to micrometers without allocating
+	private void putDecimal(double value) {
+		long micrometers = Math.round(value * 1000);
+		ensure(24);
+		if (micrometers < 0) {
+			buffer.put((byte) '-');
+			micrometers = -micrometers;
+		}
+		putDigits(micrometers / 1000);
+		long fraction = micrometers % 1000;
+		if (fraction != 0) {
+			buffer.put((byte) '.');
+			buffer.put((byte) ('0' + fraction / 100));
+			if (fraction % 100 != 0) {
+				buffer.put((byte) ('0' + fraction / 10 % 10));
+				if (fraction % 10 != 0) {
+					buffer.put((byte) ('0' + fraction % 10));
+				}
+			}
+		}
+	}
+
+	private void putDigits(long value) {
+		if (value >= 10) {
+			putDigits(value / 10);
+		}
+		buffer.put((byte) ('0' + value % 10));
+	}
+
+	private void ensure(int bytes) {
+		if (buffer.remaining() < bytes) {
+			try {
+				flushBuffer();
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Can not write toolpath", e);
+			}
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		written += buffer.remaining();
+		write(channel, buffer);
+		buffer.clear();
+	}
+
+	private static void write(WritableByteChannel channel, ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import dkwakkel.jgcode.GCodeBaseListener;
+import dkwakkel.jgcode.GCodeParser;
+import dkwakkel.jgcode.GCodeParser.AxisWordContext;
+import dkwakkel.jgcode.GCodeParser.EContext;
+import dkwakkel.jgcode.GCodeParser.FContext;
+import dkwakkel.jgcode.GCodeParser.LineContext;
+import dkwakkel.jgcode.GCodeParser.WordContext;
+import dkwakkel.jgcode.GCodeParser.WordLetterContext;
+
+// Turns the words of a line of the parse tree into calls, in order: the Executor acts on them, CompiledLine records
+// them. G codes go to gCode times ten for every G code the grammar has a rule for, the receiver ignores the codes it
+// does not handle, so BlockScanner can pass G codes straight from the bytes the same way.
+abstract class WordListener extends GCodeBaseListener
+{
+	// G code times ten of every rule, G61.1 is 611, -1 for rules that are not a G code. The rules are named after the
+	// code, g61_1 is G61.1.
+	private static final int[]	RULE_CODES	= new int[GCodeParser.ruleNames.length];
+
+	// Codes times ten that the grammar has a rule for
+	static final boolean[]			G_CODES			= new boolean[1000];
+
+	static {
+		for (int rule = 0; rule < RULE_CODES.length; rule++) {
+			String name = GCodeParser.ruleNames[rule];
+			RULE_CODES[rule] = -1;
+			if (name.matches("g[0-9]+(_[0-9])?")) {
+				int code = (int) Math.round(Double.parseDouble(name.substring(1).replace('_', '.')) * 10);
+				RULE_CODES[rule] = code;
+				G_CODES[code] = true;
+			}
+		}
+	}
+
+	abstract void startLine(int lineNumber);
+
+	// G code times ten
+	abstract void gCode(int code);
+
+	// Axis, F, L, P or Q word with its letter in lower case
+	abstract void word(int letter, EContext value);
+
+	@Override
+	public void enterLine(LineContext ctx) {
+		startLine(ctx.getStart().getLine());
+	}
+
+	@Override
+	public void exitAxisWord(AxisWordContext ctx) {
+		ParserRuleContext word = ctx.getChild(ParserRuleContext.class, 0);
+		if (word != null) {
+			word(Character.toLowerCase(word.getStart().getText().charAt(0)), word.getRuleContext(EContext.class, 0));
+		}
+	}
+
+	@Override
+	public void exitF(FContext ctx) {
+		word('f', ctx.e());
+	}
+
+	@Override
+	public void exitWord(WordContext ctx) {
+		WordLetterContext letter = ctx.wordLetter();
+		if (letter != null && (letter.l() != null || letter.p() != null || letter.q() != null)) {
+			word(letter.l() != null ? 'l' : letter.p() != null ? 'p' : 'q', ctx.e());
+		}
+	}
+
+	@Override
+	public void exitEveryRule(ParserRuleContext ctx) {
+		int code = RULE_CODES[ctx.getRuleIndex()];
+		if (code >= 0) {
+			gCode(code);
+		}
+	}
+}
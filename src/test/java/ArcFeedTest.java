@@ -0,0 +1,66 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ArcFeedTest
+{
+	private static final double	RADIUS	= 50;
+
+	private final List<double[]>	points	= new ArrayList<>();
+	private double								x;
+
+	private final MotorMachine		machine	= new MotorMachine();
+	{
+		machine.setMotor(MotorMachine.Axis.X, new MotorMachine.Motor("X")
+		{
+			@Override
+			public void moveTo(double valueInMM) {
+				x = valueInMM;
+			}
+		});
+		machine.setMotor(MotorMachine.Axis.Y, new MotorMachine.Motor("Y")
+		{
+			@Override
+			public void moveTo(double valueInMM) {
+				points.add(new double[] { x, valueInMM });
+			}
+		});
+	}
+
+	@Test
+	public void quarterCircleWithinTolerance() {
+		machine.STRAIGHT_FEED(RADIUS, 0, 0, 0, 0, 0);
+		points.clear();
+
+		double tolerance = 0.01;
+		machine.setArcTolerance(tolerance);
+		machine.ARC_FEED(0, RADIUS, 0, 0, -270, 0, 0, 0, 0);
+
+		assertEquals(40, points.size());
+		double[] previous = { RADIUS, 0 };
+		for (double[] point : points) {
+			double distance = Math.hypot(point[0], point[1]);
+			assertEquals(RADIUS, distance, 1e-9);
+			double midpoint = Math.hypot((point[0] + previous[0]) / 2, (point[1] + previous[1]) / 2);
+			assertTrue(RADIUS - midpoint <= tolerance);
+			previous = point;
+		}
+		assertEquals(0, previous[0], 0);
+		assertEquals(RADIUS, previous[1], 0);
+	}
+
+	@Test
+	public void coarserToleranceNeedsFewerSegments() {
+		machine.STRAIGHT_FEED(RADIUS, 0, 0, 0, 0, 0);
+		points.clear();
+
+		machine.setArcTolerance(1);
+		machine.ARC_FEED(0, RADIUS, 0, 0, -270, 0, 0, 0, 0);
+
+		assertEquals(4, points.size());
+	}
+}
@@ -0,0 +1,122 @@
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BlockScannerTest
+{
+	static class LineToolpath extends Toolpath implements LineListener
+	{
+		final List<Integer>	lines	= new ArrayList<>();
+
+		@Override
+		public void startLine(int lineNumber) {
+			lines.add(lineNumber);
+		}
+	}
+
+	private final LineToolpath	toolpath	= new LineToolpath();
+	private final BlockScanner	scanner		= new BlockScanner(toolpath);
+
+	@Test
+	public void simpleBlocks() throws Exception {
+		execute("N10 G21 G1 X1.5 Y-2 F300;\n(comment)\r\ng2 x0 y0 i-.75 j1\rG00 Z 5. M03 S1000 T1\n");
+
+		assertEquals(0, scanner.getParsedLines());
+		assertEquals(4, scanner.getScannedLines());
+		assertEquals(Canonical.USE_LENGTH_UNITS, toolpath.getOpcode(0));
+		assertEquals(Canonical.SET_FEED_RATE, toolpath.getOpcode(1));
+		assertEquals(300, toolpath.f[1], 0);
+		assertEquals(Canonical.STRAIGHT_FEED, toolpath.getOpcode(2));
+		assertEquals(1.5, toolpath.x[2], 0);
+		assertEquals(-2, toolpath.y[2], 0);
+		assertEquals(Canonical.STRAIGHT_FEED, toolpath.getOpcode(3)); // a line without words repeats the motion
+		assertEquals(Canonical.ARC_FEED, toolpath.getOpcode(4));
+		assertEquals(0.75, toolpath.i[4], 0);
+		assertEquals(-1, toolpath.j[4], 0);
+		assertEquals(Canonical.STRAIGHT_TRAVERSE, toolpath.getOpcode(5));
+		assertEquals(5, toolpath.z[5], 0);
+		assertEquals(6, toolpath.size());
+
+		// a lone \r ends a line, but only \n counts for line numbers, as in GCodeLexer
+		assertEquals(4, toolpath.lines.size());
+		assertEquals(3, (int) toolpath.lines.get(3));
+	}
+
+	@Test
+	public void numbersAsParseDouble() throws Exception {
+		String[] numbers = { "0", "-0", "1.", ".1", "0.3", "123.456", "-99999.99999", "0.000001", "3.14159265358979",
+				"1234567890.12345678", "0.00000000000000000000001", "+7" };
+		StringBuilder program = new StringBuilder();
+		for (String number : numbers) {
+			program.append("G1 X").append(number).append('\n');
+		}
+		execute(program.toString());
+
+		assertEquals(0, scanner.getParsedLines());
+		for (int k = 0; k < numbers.length; k++) {
+			assertEquals(numbers[k], Double.doubleToLongBits(Double.parseDouble(numbers[k])), Double.doubleToLongBits(toolpath.x[k]));
+		}
+	}
+
+	@Test
+	public void leavesOtherLinesToParser() {
+		String[] lines = { "G1 X[1+2]", "#1=2", "G1 X#1", "G1 X1+2", "G1 XOR", "G12", "G1.0", "G 1", "N123456", "N10.5", "M100",
+				"o100 sub", "/G1 X1", "G1 X1;Y2", "G1 X1.2.3", "G1 X--1", "G1 X(comment)1", "G1 X1 (comment", "G1 E1", "%" };
+		for (String line : lines) {
+			byte[] bytes = line.getBytes(US_ASCII);
+			assertFalse(line, scanner.scan(bytes, 0, bytes.length));
+		}
+		String[] scanned = { "", "  ", "G38.2 Z-1", "G61.1", "G90 G17 G54 M8", "N1 X1Y2Z3", "X - 1", "(MSG hello)" };
+		for (String line : scanned) {
+			byte[] bytes = line.getBytes(US_ASCII);
+			assertTrue(line, scanner.scan(bytes, 0, bytes.length));
+		}
+	}
+
+	@Test
+	public void sameCallsAsParser() throws Exception {
+		String program = "%\nG21 G90\nG0 X0 Y0 Z5\nG1 Z[-1*2] F[100+50]\n#100=3\nG2 X#100 Y0 R1.5\n(multi\nline) G1 X1\nG3 X0 Y0 I-0.5 J0\n%\n";
+		execute(program);
+		assertTrue(scanner.getParsedLines() > 0);
+
+		Toolpath parsed = new Toolpath();
+		try (InputStream in = new ByteArrayInputStream(program.getBytes(US_ASCII))) {
+			MotorMachine.execute(parsed, in);
+		}
+		assertSameCalls(parsed);
+
+		Toolpath streamed = new Toolpath();
+		try (InputStream in = new ByteArrayInputStream(program.getBytes(US_ASCII))) {
+			MotorMachine.executeStreaming(streamed, in);
+		}
+		assertSameCalls(streamed);
+	}
+
+	private void assertSameCalls(Toolpath expected) {
+		assertEquals(expected.size(), toolpath.size());
+		for (int k = 0; k < expected.size(); k++) {
+			assertEquals(expected.getOpcode(k), toolpath.getOpcode(k));
+			assertEquals(expected.x[k], toolpath.x[k], 0);
+			assertEquals(expected.y[k], toolpath.y[k], 0);
+			assertEquals(expected.z[k], toolpath.z[k], 0);
+			assertEquals(expected.i[k], toolpath.i[k], 0);
+			assertEquals(expected.j[k], toolpath.j[k], 0);
+			assertEquals(expected.f[k], toolpath.f[k], 0);
+			assertEquals(expected.n[k], toolpath.n[k]);
+		}
+	}
+
+	private void execute(String program) throws Exception {
+		try (InputStream in = new ByteArrayInputStream(program.getBytes(US_ASCII))) {
+			scanner.executeLines(in);
+		}
+	}
+}
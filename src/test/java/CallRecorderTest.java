@@ -0,0 +1,81 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CallRecorderTest
+{
+	private final File	log	= new File(System.getProperty("java.io.tmpdir"), "CallRecorderTest.log");
+
+	@After
+	public void deleteLog() {
+		log.delete();
+	}
+
+	@Test
+	public void recordsForwardsAndReplays() throws Exception {
+		Toolpath forwarded = new Toolpath();
+		try (CallRecorder recorder = new CallRecorder(log, forwarded)) {
+			recorder.USE_LENGTH_UNITS(Machine.CANON_UNITS.CANON_UNITS_INCHES);
+			recorder.SET_FEED_RATE(12.5);
+			recorder.STRAIGHT_TRAVERSE(1, 2, 3, 4, 5, 6);
+			recorder.ARC_FEED(1, 2, 3, 4, -90, 5, 6, 7, 8);
+			recorder.ORIENT_SPINDLE(45, Machine.CANON_DIRECTION.CANON_COUNTERCLOCKWISE);
+			recorder.COMMENT("caf\u00e9");
+			recorder.MESSAGE(null);
+			recorder.PROGRAM_END();
+			assertEquals(8, recorder.getCalls());
+		}
+		assertEquals(8, forwarded.size());
+
+		Toolpath replayed = new Toolpath();
+		assertEquals(8, CallReplayer.replay(log, replayed, false));
+		assertEquals(8, replayed.size());
+		for (int k = 0; k < replayed.size(); k++) {
+			assertEquals(forwarded.getOpcode(k), replayed.getOpcode(k));
+		}
+		assertEquals(Machine.CANON_UNITS.CANON_UNITS_INCHES.ordinal(), replayed.n[0]);
+		assertEquals(12.5, replayed.f[1], 0);
+		assertEquals(6, replayed.c[2], 0);
+		assertEquals(1, replayed.x[3], 0);
+		assertEquals(2, replayed.y[3], 0);
+		assertEquals(5, replayed.z[3], 0);
+		assertEquals(3, replayed.i[3], 0);
+		assertEquals(4, replayed.j[3], 0);
+		assertEquals(-90, replayed.n[3]);
+		assertEquals(8, replayed.c[3], 0);
+		assertEquals(45, replayed.f[4], 0);
+		assertEquals(Machine.CANON_DIRECTION.CANON_COUNTERCLOCKWISE.ordinal(), replayed.n[4]);
+		assertEquals("caf\u00e9", replayed.text[5]);
+		assertNull(replayed.text[6]);
+	}
+
+	@Test
+	public void logIsCompact() throws Exception {
+		try (CallRecorder recorder = new CallRecorder(log, new Toolpath())) {
+			recorder.STRAIGHT_FEED(1, 2, 3, 0, 0, 0);
+			recorder.FLOOD_ON();
+		}
+		assertEquals(CallRecorder.HEADER_SIZE + (1 + 8 + 6 * 8) + (1 + 8), log.length());
+	}
+
+	@Test
+	public void realTimeReplayKeepsTheTiming() throws Exception {
+		try (CallRecorder recorder = new CallRecorder(log, new Toolpath())) {
+			recorder.FLOOD_ON();
+			Thread.sleep(50);
+			recorder.FLOOD_OFF();
+		}
+		long start = System.nanoTime();
+		CallReplayer.replay(log, new Toolpath(), true);
+		assertTrue(System.nanoTime() - start >= 50000000);
+
+		start = System.nanoTime();
+		CallReplayer.replay(log, new Toolpath(), false);
+		assertTrue(System.nanoTime() - start < 50000000);
+	}
+}
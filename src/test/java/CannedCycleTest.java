@@ -0,0 +1,159 @@
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class CannedCycleTest
+{
+	private final Toolpath			toolpath	= new Toolpath();
+	private final BlockScanner	scanner		= new BlockScanner(toolpath);
+
+	@Test
+	public void drillingRetractsToTheInitialLevel() throws Exception {
+		execute("G0 X0 Y0 Z10\nG98 G81 X1 Y2 Z-3 R2\nX4\nG0 X0\n");
+
+		assertEquals(0, scanner.getParsedLines());
+		assertMove(1, Canonical.STRAIGHT_TRAVERSE, 1, 2, 10);
+		assertMove(2, Canonical.STRAIGHT_TRAVERSE, 1, 2, 2);
+		assertMove(3, Canonical.STRAIGHT_FEED, 1, 2, -3);
+		assertMove(4, Canonical.STRAIGHT_TRAVERSE, 1, 2, 10);
+		assertMove(5, Canonical.STRAIGHT_TRAVERSE, 4, 2, 10); // the next hole, with the R and Z of the cycle
+		assertMove(6, Canonical.STRAIGHT_TRAVERSE, 4, 2, 2);
+		assertMove(7, Canonical.STRAIGHT_FEED, 4, 2, -3);
+		assertMove(8, Canonical.STRAIGHT_TRAVERSE, 4, 2, 10);
+		assertMove(9, Canonical.STRAIGHT_TRAVERSE, 0, 2, 10);
+		assertEquals(10, toolpath.size());
+	}
+
+	@Test
+	public void drillingRetractsToR() throws Exception {
+		execute("G0 X0 Y0 Z10\nG99 G81 X1 Y2 Z-3 R2\nX4\n");
+
+		assertMove(4, Canonical.STRAIGHT_TRAVERSE, 1, 2, 2);
+		assertMove(5, Canonical.STRAIGHT_TRAVERSE, 4, 2, 2);
+		assertMove(6, Canonical.STRAIGHT_FEED, 4, 2, -3);
+		assertMove(7, Canonical.STRAIGHT_TRAVERSE, 4, 2, 2);
+		assertEquals(8, toolpath.size());
+	}
+
+	@Test
+	public void toolBelowRGoesUpFirst() throws Exception {
+		execute("G0 X0 Y0 Z1\nG81 X1 Y2 Z-3 R2\n");
+
+		assertMove(1, Canonical.STRAIGHT_TRAVERSE, 0, 0, 2);
+		assertMove(2, Canonical.STRAIGHT_TRAVERSE, 1, 2, 2);
+		assertMove(3, Canonical.STRAIGHT_FEED, 1, 2, -3);
+		assertMove(4, Canonical.STRAIGHT_TRAVERSE, 1, 2, 2);
+		assertEquals(5, toolpath.size());
+	}
+
+	@Test
+	public void peckDrilling() throws Exception {
+		execute("G0 X0 Y0 Z2\nG83 X1 Y1 Z-5 R2 Q3\n");
+
+		assertMove(2, Canonical.STRAIGHT_FEED, 1, 1, -1);
+		assertMove(3, Canonical.STRAIGHT_TRAVERSE, 1, 1, 2);
+		assertMove(4, Canonical.STRAIGHT_TRAVERSE, 1, 1, -1 + CannedCycle.PECK_CLEARANCE_MM);
+		assertMove(5, Canonical.STRAIGHT_FEED, 1, 1, -4);
+		assertMove(6, Canonical.STRAIGHT_TRAVERSE, 1, 1, 2);
+		assertMove(7, Canonical.STRAIGHT_TRAVERSE, 1, 1, -4 + CannedCycle.PECK_CLEARANCE_MM);
+		assertMove(8, Canonical.STRAIGHT_FEED, 1, 1, -5);
+		assertMove(9, Canonical.STRAIGHT_TRAVERSE, 1, 1, 2);
+		assertEquals(10, toolpath.size());
+	}
+
+	@Test
+	public void dwellAndRepeats() throws Exception {
+		execute("G0 X0 Y0 Z5\nG82 X1 Y1 Z-1 R1 P0.5 L2\n");
+
+		assertMove(1, Canonical.STRAIGHT_TRAVERSE, 1, 1, 5);
+		assertMove(2, Canonical.STRAIGHT_TRAVERSE, 1, 1, 1);
+		assertMove(3, Canonical.STRAIGHT_FEED, 1, 1, -1);
+		assertEquals(Canonical.DWELL, toolpath.getOpcode(4));
+		assertEquals(0.5, toolpath.f[4], 0);
+		assertMove(5, Canonical.STRAIGHT_TRAVERSE, 1, 1, 5);
+		assertMove(6, Canonical.STRAIGHT_TRAVERSE, 1, 1, 5);
+		assertMove(7, Canonical.STRAIGHT_TRAVERSE, 1, 1, 1);
+		assertMove(8, Canonical.STRAIGHT_FEED, 1, 1, -1);
+		assertEquals(Canonical.DWELL, toolpath.getOpcode(9));
+		assertMove(10, Canonical.STRAIGHT_TRAVERSE, 1, 1, 5);
+		assertEquals(11, toolpath.size());
+	}
+
+	@Test
+	public void tapping() throws Exception {
+		execute("G0 X0 Y0 Z2\nG84 X1 Y1 Z-5 R2\n");
+
+		assertEquals(Canonical.START_SPEED_FEED_SYNCH, toolpath.getOpcode(2));
+		assertMove(3, Canonical.STRAIGHT_FEED, 1, 1, -5);
+		assertEquals(Canonical.STOP_SPINDLE_TURNING, toolpath.getOpcode(4));
+		assertEquals(Canonical.START_SPINDLE_COUNTERCLOCKWISE, toolpath.getOpcode(5));
+		assertMove(6, Canonical.STRAIGHT_FEED, 1, 1, 2);
+		assertEquals(Canonical.STOP_SPEED_FEED_SYNCH, toolpath.getOpcode(7));
+		assertEquals(Canonical.STOP_SPINDLE_TURNING, toolpath.getOpcode(8));
+		assertEquals(Canonical.START_SPINDLE_CLOCKWISE, toolpath.getOpcode(9));
+		assertEquals(10, toolpath.size());
+	}
+
+	@Test
+	public void linesWithoutAxisWordsDoNotDrill() throws Exception {
+		execute("G0 X0 Y0 Z5\nG81 X1 Y1 Z-1 R1\n(comment)\nF100\nG80\nG0 X2\n");
+
+		assertEquals(Canonical.SET_FEED_RATE, toolpath.getOpcode(5));
+		assertMove(6, Canonical.STRAIGHT_TRAVERSE, 2, 1, 5);
+		assertEquals(7, toolpath.size());
+	}
+
+	@Test
+	public void sameCyclesDrillTheSame() throws Exception {
+		execute("G0 X0 Y0 Z5\nG83 X1 Y1 Z-5 R1 Q1\nG0 X0\nG83 X1 Y1 Z-5 R1 Q1\n");
+
+		int calls = (toolpath.size() - 2) / 2;
+		assertEquals(2 + 3 * 5 + 2, calls); // to the hole and R, pecks to 0, -1, -2, -3 and -4, the bottom and out
+		for (int k = 1; k <= calls; k++) {
+			assertEquals(toolpath.getOpcode(k), toolpath.getOpcode(k + calls + 1));
+			assertEquals(toolpath.z[k], toolpath.z[k + calls + 1], 0);
+		}
+	}
+
+	@Test
+	public void missingWords() throws Exception {
+		assertFails("G0 Z5\nG81 X1 Y1 Z-1\n");
+		assertFails("G0 Z5\nG81 X1 Y1 R1\n");
+		assertFails("G0 Z5\nG82 X1 Y1 Z-1 R1\n");
+		assertFails("G0 Z5\nG83 X1 Y1 Z-1 R1\n");
+		assertFails("G0 Z5\nG87 X1 Y1 Z-1 R1 I1 J1\n");
+		assertFails("G0 Z5\nG81 X1 Y1 Z2 R1\n");
+		assertFails("G0 Z5\nG81 X1 Y1 Z-1 R1 L0\n");
+		assertFails("G0 Z5\nG80 X1\n");
+		assertFails("G0 Z5\nG81 X1 Y1 Z-1 R1\nG82 X2\n"); // another cycle needs R and Z again
+	}
+
+	private void assertFails(String program) throws Exception {
+		BlockScanner other = new BlockScanner(new Toolpath());
+		try {
+			other.executeLines(new ByteArrayInputStream(program.getBytes(US_ASCII)));
+			fail(program);
+		}
+		catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	private void assertMove(int index, Canonical opcode, double x, double y, double z) {
+		assertEquals(opcode, toolpath.getOpcode(index));
+		assertEquals(x, toolpath.x[index], 0);
+		assertEquals(y, toolpath.y[index], 0);
+		assertEquals(z, toolpath.z[index], 1e-12);
+	}
+
+	private void execute(String program) throws Exception {
+		try (InputStream in = new ByteArrayInputStream(program.getBytes(US_ASCII))) {
+			scanner.executeLines(in);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class ControlFlowTest
+{
+	@Test
+	public void whileLoop() throws Exception {
+		assertMoves("#1=0\no100 while [#1 LT 5]\ng1 x#1 #1=[#1+1]\no100 endwhile\n", 0, 0, 1, 2, 3, 4);
+	}
+
+	@Test
+	public void doWhile() throws Exception {
+		assertMoves("#1=0\no3 do\ng1 x#1 #1=[#1+2]\no3 while [#1 LT 6]\n", 0, 0, 2, 4);
+	}
+
+	@Test
+	public void repeatWithConditionals() throws Exception {
+		String program = "#1=0\n"
+				+ "o1 repeat [5]\n"
+				+ "o2 if [#1 EQ 1]\n"
+				+ "#1=[#1+1]\n"
+				+ "o1 continue\n"
+				+ "o2 elseif [#1 EQ 3]\n"
+				+ "o1 break\n"
+				+ "o2 else\n"
+				+ "g1 x#1 #1=[#1+1]\n"
+				+ "o2 endif\n"
+				+ "o1 endrepeat\n"
+				+ "g0 x[#1*10]\n";
+		assertMoves(program, 0, 0, 0, 2, 30);
+	}
+
+	@Test
+	public void subroutineWithLocalsAndValue() throws Exception {
+		String program = "o<square> sub\n"
+				+ "g1 x#1 y0\n"
+				+ "o<square> endsub [#1*2]\n"
+				+ "#1=7\n"
+				+ "O<square> call [10]\n"
+				+ "g0 x#1 y#<_value>\n";
+		Toolpath toolpath = execute(program);
+		assertEquals(3, toolpath.size());
+		assertEquals(10, toolpath.x[1], 0);
+		assertEquals(7, toolpath.x[2], 0);
+		assertEquals(20, toolpath.y[2], 0);
+	}
+
+	@Test
+	public void recursion() throws Exception {
+		String program = "o<count> sub\n"
+				+ "o<down> if [#1 GT 0]\n"
+				+ "g1 x#1\n"
+				+ "o<count> call [#1-1]\n"
+				+ "o<down> endif\n"
+				+ "o<count> endsub\n"
+				+ "o<count> call [3]\n";
+		assertMoves(program, 3, 2, 1);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void unclosedLoop() throws Exception {
+		execute("o1 while [1]\ng1 x1\n");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void mismatchedLabel() throws Exception {
+		execute("o1 while [0]\no2 endwhile\n");
+	}
+
+	private static void assertMoves(String program, double... x) throws Exception {
+		Toolpath toolpath = execute(program);
+		double[] actual = new double[toolpath.size()];
+		for (int k = 0; k < actual.length; k++) {
+			actual[k] = toolpath.x[k];
+		}
+		assertArrayEquals(x, actual, 0);
+	}
+
+	// Runs the program with BlockScanner and on the parse tree, both must make the same calls
+	private static Toolpath execute(String program) throws Exception {
+		Toolpath scanned = Toolpath.compile(new ByteArrayInputStream(program.getBytes(US_ASCII)));
+		Toolpath walked = new Toolpath();
+		try (InputStream in = new ByteArrayInputStream(program.getBytes(US_ASCII))) {
+			MotorMachine.execute(walked, in);
+		}
+		assertEquals(walked.size(), scanned.size());
+		for (int k = 0; k < walked.size(); k++) {
+			assertEquals(walked.getOpcode(k), scanned.getOpcode(k));
+			assertEquals(walked.x[k], scanned.x[k], 0);
+			assertEquals(walked.y[k], scanned.y[k], 0);
+		}
+		return scanned;
+	}
+}
@@ -0,0 +1,117 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CycleTimeEstimatorTest
+{
+	private final CycleTimeEstimator	estimator	= new CycleTimeEstimator();
+
+	private void setAcceleration(double accelerationInMmPerSecond2) {
+		for (MotorMachine.Axis axis : MotorMachine.Axis.values()) {
+			estimator.setAcceleration(axis, accelerationInMmPerSecond2);
+		}
+	}
+
+	@Test
+	public void feedWithoutAccelerationLimit() {
+		setAcceleration(0);
+		estimator.SET_FEED_RATE(600);
+		estimator.STRAIGHT_FEED(100, 0, 0, 0, 0, 0);
+
+		assertEquals(10, estimator.getCycleTime(), 1e-9);
+	}
+
+	@Test
+	public void trapezoid() {
+		setAcceleration(100);
+		estimator.SET_FEED_RATE(6000); // 100 mm/s, reached after 1 s and 50 mm
+		estimator.STRAIGHT_FEED(300, 0, 0, 0, 0, 0);
+
+		assertEquals(1 + 1 + 2, estimator.getCycleTime(), 1e-9);
+	}
+
+	@Test
+	public void triangle() {
+		setAcceleration(100);
+		estimator.SET_FEED_RATE(6000);
+		estimator.STRAIGHT_FEED(10, 0, 0, 0, 0, 0);
+
+		assertEquals(2 * Math.sqrt(10 / 100.0), estimator.getCycleTime(), 1e-9);
+	}
+
+	@Test
+	public void traverseIsLimitedByRapidRateAndAxisVelocity() {
+		setAcceleration(0);
+		estimator.setRapidRate(6000);
+		estimator.setMaxVelocity(MotorMachine.Axis.X, 3000);
+		estimator.STRAIGHT_TRAVERSE(0, 100, 0, 0, 0, 0);
+		assertEquals(1, estimator.getCycleTime(), 1e-9);
+
+		estimator.STRAIGHT_TRAVERSE(100, 100, 0, 0, 0, 0);
+		assertEquals(1 + 2, estimator.getCycleTime(), 1e-9);
+	}
+
+	@Test
+	public void inches() {
+		setAcceleration(0);
+		estimator.USE_LENGTH_UNITS(Machine.CANON_UNITS.CANON_UNITS_INCHES);
+		estimator.SET_FEED_RATE(1);
+		estimator.STRAIGHT_FEED(2, 0, 0, 0, 0, 0);
+
+		assertEquals(120, estimator.getCycleTime(), 1e-9);
+	}
+
+	@Test
+	public void continuousModeDoesNotStopBetweenCollinearMoves() {
+		setAcceleration(100);
+		estimator.SET_FEED_RATE(6000);
+		estimator.SET_MOTION_CONTROL_MODE(Machine.CANON_MOTION_MODE.CANON_CONTINUOUS);
+		for (int i = 1; i <= 30; i++) {
+			estimator.STRAIGHT_FEED(i * 10, 0, 0, 0, 0, 0);
+		}
+
+		assertEquals(1 + 1 + 2, estimator.getCycleTime(), 1e-9);
+	}
+
+	@Test
+	public void exactStopStopsAfterEveryMove() {
+		setAcceleration(100);
+		estimator.SET_FEED_RATE(6000);
+		for (int i = 1; i <= 30; i++) {
+			estimator.STRAIGHT_FEED(i * 10, 0, 0, 0, 0, 0);
+		}
+
+		assertEquals(30 * 2 * Math.sqrt(10 / 100.0), estimator.getCycleTime(), 1e-9);
+	}
+
+	@Test
+	public void fullCircle() {
+		setAcceleration(0);
+		estimator.SET_FEED_RATE(60);
+		estimator.STRAIGHT_FEED(10, 0, 0, 0, 0, 0);
+		double start = estimator.getCycleTime();
+		estimator.ARC_FEED(10, 0, 0, 0, 0, 0, 0, 0, 0);
+
+		double time = estimator.getCycleTime() - start;
+		assertTrue(time < 2 * Math.PI * 10);
+		assertEquals(2 * Math.PI * 10, time, 0.05); // chords are a little shorter than the arc
+	}
+
+	@Test
+	public void timePerLine() {
+		setAcceleration(0);
+		estimator.startLine(1);
+		estimator.SET_FEED_RATE(600);
+		estimator.startLine(2);
+		estimator.STRAIGHT_FEED(10, 0, 0, 0, 0, 0);
+		estimator.startLine(4);
+		estimator.DWELL(2.5);
+
+		assertEquals(5, estimator.getLineCount());
+		assertEquals(0, estimator.getLineTime(1), 0);
+		assertEquals(1, estimator.getLineTime(2), 1e-9);
+		assertEquals(2.5, estimator.getLineTime(4), 0);
+		assertEquals(3.5, estimator.getCycleTime(), 1e-9);
+	}
+}
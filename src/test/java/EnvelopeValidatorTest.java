@@ -0,0 +1,138 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EnvelopeValidatorTest
+{
+	private final EnvelopeValidator	validator	= new EnvelopeValidator(0.01);
+
+	@Test
+	public void movesThroughKeepOutZones() {
+		validator.addBox("vise", 40, -10, -5, 60, 10, 20);
+		validator.addCylinder("clamp", 0, 50, 5, -5, 20);
+		line(1);
+		validator.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		line(2);
+		validator.STRAIGHT_FEED(100, 0, 5, 0, 0, 0); // through the vise
+		line(3);
+		validator.STRAIGHT_TRAVERSE(100, 0, 30, 0, 0, 0);
+		line(4);
+		validator.STRAIGHT_TRAVERSE(0, 0, 30, 0, 0, 0); // above the vise
+		line(5);
+		validator.STRAIGHT_TRAVERSE(-4, 100, 0, 0, 0, 0); // passes the clamp 2 from its axis
+		line(6);
+		validator.STRAIGHT_TRAVERSE(10, 100, 0, 0, 0, 0);
+
+		List<EnvelopeValidator.Violation> violations = validator.validate(2);
+		assertEquals(2, violations.size());
+		assertEquals(2, violations.get(0).getLine());
+		assertEquals("vise", violations.get(0).getZone());
+		assertFalse(violations.get(0).isRapid());
+		assertEquals(5, violations.get(1).getLine());
+		assertEquals("clamp", violations.get(1).getZone());
+		assertTrue(violations.get(1).isRapid());
+	}
+
+	@Test
+	public void arcsAreCheckedAlongTheirChords() {
+		validator.addBox("block", -1, 9.995, -1, 1, 11, 1); // only the arc reaches it, a chord may pass below it
+		line(1);
+		validator.STRAIGHT_FEED(-10, 0, 0, 0, 0, 0);
+		line(2);
+		validator.ARC_FEED(10, 0, 0, 0, 180, 0, 0, 0, 0); // the top half of a circle with radius 10
+		line(3);
+		validator.ARC_FEED(-10, 0, 0, 0, 180, 0, 0, 0, 0); // the bottom half
+
+		assertTrue(validator.getSegments() > 10);
+		List<EnvelopeValidator.Violation> violations = validator.validate(2);
+		assertEquals(1, violations.size());
+		assertEquals(2, violations.get(0).getLine());
+	}
+
+	@Test
+	public void movesOutsideTheEnvelope() {
+		validator.setEnvelope(-1, -1, -50, 300, 200, 100);
+		line(1);
+		validator.STRAIGHT_TRAVERSE(300, 200, 100, 0, 0, 0); // on the limits
+		line(2);
+		validator.USE_LENGTH_UNITS(Machine.CANON_UNITS.CANON_UNITS_INCHES);
+		validator.STRAIGHT_FEED(0, 0, -2, 0, 0, 0); // -50.8 mm
+		line(3);
+		validator.STRAIGHT_FEED(0, 0, 0, 0, 0, 0); // starts outside
+		line(4);
+		validator.STRAIGHT_FEED(1, 1, 1, 0, 0, 0);
+
+		List<EnvelopeValidator.Violation> violations = validator.validate(1);
+		assertEquals(2, violations.size());
+		assertEquals(2, violations.get(0).getLine());
+		assertEquals("envelope", violations.get(0).getZone());
+		assertEquals(3, violations.get(1).getLine());
+	}
+
+	@Test
+	public void onceForEveryLineAndZone() {
+		validator.addBox("box", -1, -1, -1, 1, 1, 1);
+		line(7);
+		for (int k = 0; k < 100; k++) {
+			validator.STRAIGHT_FEED(k % 2 == 0 ? 5 : -5, 0, 0, 0, 0, 0);
+		}
+
+		List<EnvelopeValidator.Violation> violations = validator.validate(4);
+		assertEquals(1, violations.size());
+		assertEquals(7, violations.get(0).getLine());
+		assertEquals("line 7: feed enters box", violations.get(0).toString());
+	}
+
+	@Test
+	public void sameAsEverySegmentAgainstEveryZone() {
+		Random random = new Random(3);
+		List<double[]> points = new ArrayList<>();
+		double[] point = new double[3];
+		points.add(point.clone());
+		for (int k = 0; k < 200000; k++) {
+			line(k + 1);
+			for (int axis = 0; axis < 3; axis++) {
+				point[axis] = Math.max(-100, Math.min(100, point[axis] + random.nextGaussian()));
+			}
+			validator.STRAIGHT_FEED(point[0], point[1], point[2], 0, 0, 0);
+			points.add(point.clone());
+		}
+		validator.addBox("box", 10, 10, 10, 12, 12, 12);
+		validator.addCylinder("cylinder", -20, 5, 1.5, -5, 5);
+		validator.setEnvelope(-50, -50, -50, 50, 50, 50);
+
+		List<EnvelopeValidator.Violation> violations = validator.validate(4);
+		int expected = 0;
+		for (int k = 1; k < points.size(); k++) {
+			expected += bruteForce(points.get(k - 1), points.get(k));
+		}
+		assertEquals(expected, violations.size());
+		assertTrue(expected > 0);
+		for (int k = 1; k < violations.size(); k++) {
+			assertTrue(violations.get(k - 1).getLine() <= violations.get(k).getLine());
+		}
+	}
+
+	// Number of zones the segment violates, by sampling it densely
+	private static int bruteForce(double[] from, double[] to) {
+		boolean box = false, cylinder = false, outside = false;
+		for (int s = 0; s <= 1000; s++) {
+			double t = s / 1000.0;
+			double x = from[0] + (to[0] - from[0]) * t, y = from[1] + (to[1] - from[1]) * t, z = from[2] + (to[2] - from[2]) * t;
+			box |= x >= 10 && x <= 12 && y >= 10 && y <= 12 && z >= 10 && z <= 12;
+			cylinder |= (x + 20) * (x + 20) + (y - 5) * (y - 5) <= 1.5 * 1.5 && z >= -5 && z <= 5;
+			outside |= Math.abs(x) > 50 || Math.abs(y) > 50 || Math.abs(z) > 50;
+		}
+		return (box ? 1 : 0) + (cylinder ? 1 : 0) + (outside ? 1 : 0);
+	}
+
+	private void line(int lineNumber) {
+		validator.startLine(lineNumber);
+	}
+}
@@ -0,0 +1,153 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class ExpressionTest
+{
+	private final ParameterTable	parameters	= new ParameterTable(ParameterTable.defaults());
+
+	private double								x;
+	private double								z;
+
+	private final MotorMachine		machine			= new MotorMachine();
+	{
+		machine.setMotor(MotorMachine.Axis.X, new MotorMachine.Motor("X")
+		{
+			@Override
+			public void moveTo(double valueInMM) {
+				x = valueInMM;
+			}
+		});
+		machine.setMotor(MotorMachine.Axis.Z, new MotorMachine.Motor("Z")
+		{
+			@Override
+			public void moveTo(double valueInMM) {
+				z = valueInMM;
+			}
+		});
+	}
+
+	@Test
+	public void functionsUseDegrees() {
+		assertEquals(90, Expression.apply(Expression.ACOS, 0), 1e-12);
+		assertEquals(30, Expression.apply(Expression.ASIN, 0.5), 1e-12);
+		assertEquals(0.5, Expression.apply(Expression.COS, 60), 1e-12);
+		assertEquals(1, Expression.apply(Expression.TAN, 45), 1e-12);
+		assertEquals(135, Expression.apply(Expression.ATAN, 1, -1), 1e-12);
+	}
+
+	@Test
+	public void rounding() {
+		assertEquals(3, Expression.apply(Expression.ROUND, 2.5), 0);
+		assertEquals(-3, Expression.apply(Expression.ROUND, -2.5), 0);
+		assertEquals(-2, Expression.apply(Expression.FIX, -1.5), 0);
+		assertEquals(-1, Expression.apply(Expression.FUP, -1.5), 0);
+	}
+
+	@Test
+	public void operators() {
+		assertEquals(2, Expression.apply(Expression.MOD, -7, 3), 0);
+		assertEquals(8, Expression.apply(Expression.POW, 2, 3), 0);
+		assertEquals(1, Expression.apply(Expression.XOR, 1, 0), 0);
+		assertEquals(0, Expression.apply(Expression.AND, 1, 0), 0);
+		assertEquals(1, Expression.apply(Expression.LE, 2, 2), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void lnOfZero() {
+		Expression.apply(Expression.LN, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void divisionByZero() {
+		Expression.apply(Expression.DIV, 1, 0);
+	}
+
+	@Test
+	public void constantsAreFolded() {
+		ExpressionCompiler.Node sum = ExpressionCompiler.Node.binary(Expression.ADD, ExpressionCompiler.Node.constant(1), ExpressionCompiler.Node.constant(2));
+		Expression expression = ExpressionCompiler.emit(ExpressionCompiler.Node.unary(Expression.SQRT, sum));
+		assertTrue(expression.isConstant());
+		assertEquals(Math.sqrt(3), expression.evaluate(parameters), 0);
+	}
+
+	@Test
+	public void constantIndexIsResolved() {
+		ExpressionCompiler.Node index = ExpressionCompiler.Node.binary(Expression.MUL, ExpressionCompiler.Node.constant(50), ExpressionCompiler.Node.constant(2));
+		Expression expression = ExpressionCompiler.emit(ExpressionCompiler.Node.indirect(index));
+		assertEquals(2, expression.size()); // LOAD 100
+		parameters.set(100, 7);
+		assertEquals(7, expression.evaluate(parameters), 0);
+	}
+
+	@Test
+	public void programReadsParameters() {
+		// #1 * [2 + #[#2]]
+		ExpressionCompiler.Node indirect = ExpressionCompiler.Node.indirect(ExpressionCompiler.Node.load(Expression.LOAD, 2));
+		ExpressionCompiler.Node sum = ExpressionCompiler.Node.binary(Expression.ADD, ExpressionCompiler.Node.constant(2), indirect);
+		Expression expression = ExpressionCompiler.emit(ExpressionCompiler.Node.binary(Expression.MUL, ExpressionCompiler.Node.load(Expression.LOAD, 1), sum));
+		assertFalse(expression.isConstant());
+
+		parameters.set(1, 3);
+		parameters.set(2, 10);
+		parameters.set(10, 4);
+		assertEquals(18, expression.evaluate(parameters), 0);
+		parameters.set(10, -1);
+		assertEquals(3, expression.evaluate(parameters), 0);
+	}
+
+	@Test
+	public void namedParameters() {
+		int slot = parameters.slot("Safe Height");
+		assertEquals(slot, parameters.slot("safeheight"));
+		Expression exists = ExpressionCompiler.emit(ExpressionCompiler.Node.load(Expression.EXISTS_NAMED, slot));
+		assertEquals(0, exists.evaluate(parameters), 0);
+		parameters.setNamed(slot, 5);
+		assertEquals(1, exists.evaluate(parameters), 0);
+		assertEquals(5, ExpressionCompiler.emit(ExpressionCompiler.Node.load(Expression.LOAD_NAMED, slot)).evaluate(parameters), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parameterNumberOutOfRange() {
+		ParameterTable.index(5401);
+	}
+
+	@Test
+	public void bracketExpression() throws Exception {
+		execute("g1 x[1+2*3] z-[2**2]\n");
+		assertEquals(7, x, 0);
+		assertEquals(-4, z, 0);
+	}
+
+	@Test
+	public void skippedInputIsNoOperator() throws Exception {
+		execute("g1 x[1+2 3]\n"); // the parser skips the 3
+		assertEquals(3, x, 0);
+	}
+
+	@Test
+	public void parameterSettingTakesEffectAfterLine() throws Exception {
+		execute("#100=4 #101=#100+1\ng1 x#100 z#101\n");
+		assertEquals(4, x, 0);
+		assertEquals(1, z, 0);
+	}
+
+	@Test
+	public void namedParameter() throws Exception {
+		execute("#<depth>=-1.5\ng1 x[exists[#<depth>]] z#<depth>\n");
+		assertEquals(1, x, 0);
+		assertEquals(-1.5, z, 0);
+	}
+
+	private void execute(String program) throws Exception {
+		try (InputStream in = new ByteArrayInputStream(program.getBytes(UTF_8))) {
+			MotorMachine.execute(machine, in);
+		}
+	}
+}
@@ -25,12 +25,12 @@ public class GcodeTest
 
 	private final MotorMachine	machine	= new MotorMachine();
 	{
-		MotorMachine.Axis.X.setMotor(xMotor);
-		MotorMachine.Axis.Y.setMotor(yMotor);
-		MotorMachine.Axis.Z.setMotor(zMotor);
-		MotorMachine.Axis.A.setMotor(aMotor);
-		MotorMachine.Axis.B.setMotor(bMotor);
-		MotorMachine.Axis.C.setMotor(cMotor);
+		machine.setMotor(MotorMachine.Axis.X, xMotor);
+		machine.setMotor(MotorMachine.Axis.Y, yMotor);
+		machine.setMotor(MotorMachine.Axis.Z, zMotor);
+		machine.setMotor(MotorMachine.Axis.A, aMotor);
+		machine.setMotor(MotorMachine.Axis.B, bMotor);
+		machine.setMotor(MotorMachine.Axis.C, cMotor);
 	}
 
 	@Parameters(name = "{0}")
@@ -96,9 +96,9 @@ public class GcodeTest
 		evaluateCode();
 
 		for (MotorMachine.Axis axis : MotorMachine.Axis.values()) {
-			System.err.println(((TestMotor) axis.motor).value);
+			System.err.println(((TestMotor) machine.getMotor(axis)).value);
 		}
-		assertEquals(expected, ((TestMotor) (axis.motor)).value, 0);
+		assertEquals(expected, ((TestMotor) machine.getMotor(axis)).value, 0);
 	}
 
 	private double calculateExpectedValue() {
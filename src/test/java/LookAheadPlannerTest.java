@@ -0,0 +1,69 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LookAheadPlannerTest
+{
+	private final List<double[]>		moves		= new ArrayList<>();
+
+	private final LookAheadPlanner	planner	= new LookAheadPlanner(4)
+	{
+		@Override
+		protected void move(double x, double y, double z, double a, double b, double c, double speed) {
+			moves.add(new double[] { x, y, z, a, b, c, speed });
+		}
+
+		@Override
+		protected double getIssuedPosition(int axis) {
+			return 0;
+		}
+	};
+	{
+		for (int axis = 0; axis < LookAheadPlanner.AXES; axis++) {
+			planner.setAcceleration(axis, 1000 * 3600);
+		}
+		planner.setJunctionDeviation(0.05);
+	}
+
+	@Test
+	public void straightLineRunsAtFeed() {
+		for (int s = 1; s <= 10; s++) {
+			planner.add(s * 10, 0, 0, 0, 0, 0, 600);
+		}
+		planner.flush();
+
+		assertEquals(10, moves.size());
+		for (int s = 0; s < 10; s++) {
+			assertEquals((s + 1) * 10, moves.get(s)[0], 0);
+			assertEquals(600, moves.get(s)[6], 0);
+		}
+	}
+
+	@Test
+	public void cornerSlowsDown() {
+		planner.add(1, 0, 0, 0, 0, 0, 6000);
+		planner.add(1, 1, 0, 0, 0, 0, 6000); // 90 degrees
+		planner.add(1, 2, 0, 0, 0, 0, 6000);
+		planner.flush();
+
+		assertEquals(3, moves.size());
+		double beforeCorner = moves.get(0)[6];
+		assertTrue(beforeCorner < 6000);
+		assertTrue(beforeCorner > 0);
+		assertEquals(2, moves.get(2)[1], 0);
+	}
+
+	@Test
+	public void nullMovesAreSkipped() {
+		planner.add(0, 0, 0, 0, 0, 0, 600);
+		planner.add(5, 0, 0, 0, 0, 0, 600);
+		planner.add(5, 0, 0, 0, 0, 0, 600);
+		planner.flush();
+
+		assertEquals(1, moves.size());
+	}
+}
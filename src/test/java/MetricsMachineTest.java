@@ -0,0 +1,114 @@
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsMachineTest
+{
+	private final MotorMachine		machine	= new MotorMachine();
+	{
+		for (MotorMachine.Axis axis : MotorMachine.Axis.values()) {
+			machine.setMotor(axis, new BatchSimulator.SimulationMotor(axis.name()));
+		}
+	}
+	private final MetricsMachine	metrics	= new MetricsMachine(machine);
+
+	@Test
+	public void countsCallsLinesAndMotors() {
+		metrics.startLine(1);
+		metrics.SET_FEED_RATE(100);
+		metrics.startLine(2);
+		metrics.STRAIGHT_FEED(10, 0, 0, 0, 0, 0);
+		metrics.startLine(3);
+		metrics.ARC_FEED(-10, 0, 0, 0, -180, 0, 0, 0, 0);
+
+		MetricsMachine.Snapshot snapshot = metrics.snapshot();
+		assertEquals(3, snapshot.getLines());
+		assertEquals(1, snapshot.getCalls(Canonical.SET_FEED_RATE));
+		assertEquals(1, snapshot.getCalls(Canonical.STRAIGHT_FEED));
+		assertEquals(1, snapshot.getCalls(Canonical.ARC_FEED));
+		assertEquals(0, snapshot.getCalls(Canonical.DWELL));
+		assertEquals(machine.getArcSegments(), snapshot.getArcSegments());
+		assertTrue(snapshot.getArcSegments() > 1);
+		// one for the feed and one per chord, X changes on every segment
+		assertTrue(snapshot.getMotorMoves() >= 1 + snapshot.getArcSegments());
+		assertTrue(snapshot.getMotorSpeedChanges() > 0);
+
+		long[] histogram = snapshot.getHistogram(Canonical.ARC_FEED);
+		long sum = 0;
+		for (long count : histogram) {
+			sum += count;
+		}
+		assertEquals(1, sum);
+		assertTrue(snapshot.getPercentileNanos(Canonical.ARC_FEED, 99) >= snapshot.getMeanNanos(Canonical.ARC_FEED));
+	}
+
+	@Test
+	public void buckets() {
+		assertEquals(0, MetricsMachine.bucket(0));
+		assertEquals(1, MetricsMachine.bucket(1));
+		assertEquals(2, MetricsMachine.bucket(2));
+		assertEquals(2, MetricsMachine.bucket(3));
+		assertEquals(11, MetricsMachine.bucket(1024));
+		assertEquals(MetricsMachine.BUCKETS - 1, MetricsMachine.bucket(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void jmx() throws Exception {
+		ObjectName name = metrics.register("test");
+		try {
+			metrics.startLine(1);
+			metrics.DWELL(0);
+			assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Lines"));
+			Map<String, Long> calls = metrics.getCalls();
+			assertEquals(Long.valueOf(1), calls.get("DWELL"));
+		}
+		finally {
+			MetricsMachine.unregister(name);
+		}
+	}
+
+	@Test
+	public void stripedCountersAreExactAcrossThreads() throws Exception {
+		final StripedCounters counters = new StripedCounters(2);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run() {
+					for (int i = 0; i < 100000; i++) {
+						counters.increment(1);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, counters.get(0));
+		assertEquals(threads.length * 100000, counters.get(1));
+	}
+
+	@Test
+	public void endsTheProgramOnTheMotorMachine() throws Exception {
+		final double[] x = new double[1];
+		machine.setMotor(MotorMachine.Axis.X, new MotorMachine.Motor("X")
+		{
+			@Override
+			public void moveTo(double valueInMM) {
+				x[0] = valueInMM;
+			}
+		});
+		MotorMachine.execute(new MetricsMachine(machine), new ByteArrayInputStream("G64 G1 X1 F100\nG1 X2 Y1\nG1 X3 Y0\n".getBytes(US_ASCII)));
+		assertEquals(3, x[0], 0);
+	}
+}
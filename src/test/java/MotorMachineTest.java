@@ -1,5 +1,12 @@
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
 import org.junit.experimental.theories.DataPoints;
 import org.junit.experimental.theories.Theories;
 import org.junit.experimental.theories.Theory;
@@ -8,6 +15,7 @@ import org.junit.runner.RunWith;
 @RunWith(Theories.class)
 public class MotorMachineTest
 {
+	private final List<String>	calls		= new ArrayList<>();
 	private final TestMotor			xMotor	= new TestMotor(MotorMachine.Axis.X.name());
 	private final TestMotor			yMotor	= new TestMotor(MotorMachine.Axis.Y.name());
 	private final TestMotor			zMotor	= new TestMotor(MotorMachine.Axis.Z.name());
@@ -17,12 +25,12 @@ public class MotorMachineTest
 
 	private final MotorMachine	machine	= new MotorMachine();
 	{
-		MotorMachine.Axis.X.setMotor(xMotor);
-		MotorMachine.Axis.Y.setMotor(yMotor);
-		MotorMachine.Axis.Z.setMotor(zMotor);
-		MotorMachine.Axis.A.setMotor(aMotor);
-		MotorMachine.Axis.B.setMotor(bMotor);
-		MotorMachine.Axis.C.setMotor(cMotor);
+		machine.setMotor(MotorMachine.Axis.X, xMotor);
+		machine.setMotor(MotorMachine.Axis.Y, yMotor);
+		machine.setMotor(MotorMachine.Axis.Z, zMotor);
+		machine.setMotor(MotorMachine.Axis.A, aMotor);
+		machine.setMotor(MotorMachine.Axis.B, bMotor);
+		machine.setMotor(MotorMachine.Axis.C, cMotor);
 	}
 
 	@DataPoints
@@ -43,23 +51,118 @@ public class MotorMachineTest
 		assertEquals(c, cMotor.value, delta);
 	}
 
+	@Test
+	public void machinesHaveIndependentAxes() {
+		MotorMachine other = new MotorMachine();
+		TestMotor otherXMotor = new TestMotor(MotorMachine.Axis.X.name());
+		other.setMotor(MotorMachine.Axis.X, otherXMotor);
+
+		machine.STRAIGHT_FEED(1, 0, 0, 0, 0, 0);
+		other.USE_LENGTH_UNITS(Machine.CANON_UNITS.CANON_UNITS_INCHES);
+		other.STRAIGHT_FEED(2, 0, 0, 0, 0, 0);
+
+		assertEquals(1, xMotor.value, 0);
+		assertEquals(2 * 25.4, otherXMotor.value, 0);
+	}
+
+	@Test
+	public void coordinatedAxesShareTheFeedRate() {
+		machine.setCoordinated(true);
+		machine.SET_FEED_RATE(500);
+		machine.STRAIGHT_FEED(3, 4, 0, 0, 0, 0);
+
+		assertEquals(300, xMotor.speed, 1e-9);
+		assertEquals(400, yMotor.speed, 1e-9);
+		assertEquals(Arrays.asList("X speed", "Y speed", "X move", "Y move", "X start", "Y start"), calls);
+
+		calls.clear();
+		machine.USE_LENGTH_UNITS(Machine.CANON_UNITS.CANON_UNITS_INCHES);
+		machine.SET_FEED_RATE(10);
+		machine.STRAIGHT_FEED(3 / 25.4, 4 / 25.4, 1 / 25.4, 0, 0, 0); // only Z moves
+		assertEquals(254, zMotor.speed, 1e-9);
+		assertEquals(Arrays.asList("Z speed", "Z move", "Z start"), calls);
+	}
+
+	@Test
+	public void coordinatedRotaryAxes() {
+		machine.setCoordinated(true);
+		machine.SET_FEED_RATE(100);
+		machine.STRAIGHT_FEED(0, 0, 0, 90, 0, 0); // the feed rate is in degrees per minute
+		assertEquals(100, aMotor.speed, 0);
+
+		machine.STRAIGHT_FEED(10, 0, 0, 0, 0, 0); // A turns back while X moves
+		assertEquals(100, xMotor.speed, 0);
+		assertEquals(900, aMotor.speed, 1e-9);
+	}
+
+	@Test
+	public void uncoordinatedAxesRunAtTheFeedRate() {
+		machine.SET_FEED_RATE(500);
+		machine.STRAIGHT_FEED(3, 4, 0, 0, 0, 0);
+
+		assertEquals(500, xMotor.speed, 0);
+		assertEquals(500, yMotor.speed, 0);
+		assertEquals(Arrays.asList("X speed", "Y speed", "Z speed", "X move", "Y move"), calls); // nothing starts them
+	}
+
+	@Test
+	public void coordinatedTraverses() {
+		machine.setCoordinated(true);
+		machine.STRAIGHT_TRAVERSE(3, 4, 0, 0, 0, 0);
+
+		assertEquals(Double.MAX_VALUE, xMotor.speed, 0);
+		assertEquals(Double.MAX_VALUE, yMotor.speed, 0);
+		assertEquals(3, xMotor.value, 0);
+		assertEquals(4, yMotor.value, 0);
+	}
+
+	@Test
+	public void motorsBehindMetricsKnowTheMode() {
+		machine.setCoordinated(true);
+		MetricsMachine metrics = new MetricsMachine(machine); // wraps the motors after the mode was set
+		assertTrue(xMotor.coordinated);
+
+		machine.setCoordinated(false);
+		assertFalse(xMotor.coordinated);
+
+		machine.setCoordinated(true);
+		metrics.SET_FEED_RATE(500);
+		metrics.STRAIGHT_FEED(3, 4, 0, 0, 0, 0);
+		assertEquals(Arrays.asList("X speed", "Y speed", "X move", "Y move", "X start", "Y start"), calls);
+	}
+
 	class TestMotor extends MotorMachine.Motor
 	{
-		double	value;
-		double	speed;
+		private final String	name;
+		double								value;
+		double								speed;
+		boolean								coordinated;
 
 		public TestMotor(String name) {
 			super(name);
+			this.name = name;
 		}
 
 		@Override
 		public void moveTo(double valueInMM) {
 			this.value = valueInMM;
+			calls.add(name + " move");
 		}
 
 		@Override
 		public void setSpeed(double speed) {
 			this.speed = speed;
+			calls.add(name + " speed");
+		}
+
+		@Override
+		public void setCoordinated(boolean coordinated) {
+			this.coordinated = coordinated;
+		}
+
+		@Override
+		public void start() {
+			calls.add(name + " start");
 		}
 	}
 
@@ -0,0 +1,89 @@
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ParallelParserTest
+{
+	@Test
+	public void chunksEndAtLines() throws Exception {
+		List<ParallelParser.Chunk> chunks = chunks("G1 X1\nG1 X2 (a comment\nover two lines)\r\nG1 X3\rG1 X4\n\nG1 X5", 20);
+		assertEquals(3, chunks.size());
+		assertEquals("G1 X1\n", chunks.get(0).text);
+		assertEquals(1, chunks.get(0).lineNumber);
+		assertEquals("G1 X2 (a comment\nover two lines)\r\n", chunks.get(1).text); // an end of line in a comment does not end it
+		assertEquals(2, chunks.get(1).lineNumber);
+		assertEquals("G1 X3\rG1 X4\n\nG1 X5", chunks.get(2).text); // the rest of the input
+		assertEquals(4, chunks.get(2).lineNumber);
+
+		chunks = chunks("G1 X3\rG1 X4\rG1 X5\r\n", 8);
+		assertEquals("G1 X3\r", chunks.get(0).text);
+		assertEquals("G1 X4\r", chunks.get(1).text);
+		assertEquals("G1 X5\r\n", chunks.get(2).text); // \r\n is not cut in two
+		assertEquals(1, chunks.get(2).lineNumber); // only \n counts, as in GCodeLexer
+	}
+
+	private static List<ParallelParser.Chunk> chunks(String program, int chunkSize) throws Exception {
+		ParallelParser parser = new ParallelParser(new ByteArrayInputStream(program.getBytes(US_ASCII)), chunkSize);
+		List<ParallelParser.Chunk> chunks = new ArrayList<>();
+		StringBuilder joined = new StringBuilder();
+		ParallelParser.Chunk chunk;
+		while ((chunk = parser.next()) != null) {
+			chunks.add(chunk);
+			joined.append(chunk.text);
+		}
+		assertEquals(program, joined.toString());
+		assertNull(parser.next());
+		return chunks;
+	}
+
+	@Test
+	public void sameCallsAsSerial() throws Exception {
+		ByteArrayOutputStream program = new ByteArrayOutputStream();
+		try (InputStream in = getClass().getResourceAsStream("Program1.gcode")) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				program.write(buffer, 0, read);
+			}
+		}
+		program.write("G1 X99\n".getBytes(US_ASCII)); // after the closing %, the serial path ignores it
+		assertSameCalls(program.toByteArray());
+	}
+
+	@Test
+	public void sameCallsWithSubroutinesAndLoops() throws Exception {
+		String program = "o1 sub\ng1 x#1\no1 endsub\n#2=0\no2 while [#2 LT 3]\no1 call [#2*2]\n#2=[#2+1]\no2 endwhile\n";
+		assertSameCalls(program.getBytes(US_ASCII));
+	}
+
+	private static void assertSameCalls(byte[] program) throws Exception {
+		BlockScannerTest.LineToolpath serial = new BlockScannerTest.LineToolpath();
+		MotorMachine.execute(serial, new ByteArrayInputStream(program));
+
+		for (int chunkSize : new int[] { 16, 256, ParallelParser.CHUNK_SIZE }) {
+			BlockScannerTest.LineToolpath parallel = new BlockScannerTest.LineToolpath();
+			ParallelParser.execute(parallel, new ByteArrayInputStream(program), 4, chunkSize);
+
+			assertEquals(serial.size(), parallel.size());
+			assertEquals(serial.lines, parallel.lines);
+			for (int k = 0; k < serial.size(); k++) {
+				assertEquals(serial.getOpcode(k), parallel.getOpcode(k));
+				assertEquals(serial.x[k], parallel.x[k], 0);
+				assertEquals(serial.y[k], parallel.y[k], 0);
+				assertEquals(serial.z[k], parallel.z[k], 0);
+				assertEquals(serial.i[k], parallel.i[k], 0);
+				assertEquals(serial.j[k], parallel.j[k], 0);
+				assertEquals(serial.f[k], parallel.f[k], 0);
+				assertEquals(serial.n[k], parallel.n[k]);
+			}
+		}
+	}
+}
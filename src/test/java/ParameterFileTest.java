@@ -0,0 +1,93 @@
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class ParameterFileTest
+{
+	private static final int	COPY_SIZE	= 2 * 8 + ParameterTable.SIZE * 8;
+
+	@Test
+	public void newFileHoldsDefaults() throws Exception {
+		double[] values = new double[ParameterTable.SIZE];
+		new ParameterFile(tempFile()).load(values);
+		assertEquals(1.0, values[5220], 0);
+	}
+
+	@Test
+	public void saveAndLoad() throws Exception {
+		File file = tempFile();
+		ParameterFile parameters = new ParameterFile(file);
+		double[] values = ParameterTable.defaults();
+		values[5221] = 12.5;
+		values[100] = -3;
+		assertTrue(parameters.save(values));
+		assertFalse(parameters.save(values)); // unchanged
+		assertEquals(1, parameters.getSequence());
+
+		double[] loaded = new double[ParameterTable.SIZE];
+		new ParameterFile(file).load(loaded);
+		assertEquals(12.5, loaded[5221], 0);
+		assertEquals(-3, loaded[100], 0);
+	}
+
+	@Test
+	public void tornSaveKeepsPreviousValues() throws Exception {
+		File file = tempFile();
+		ParameterFile parameters = new ParameterFile(file);
+		double[] values = ParameterTable.defaults();
+		values[100] = 1;
+		parameters.save(values); // first copy
+		values[100] = 2;
+		parameters.save(values); // second copy
+
+		// damage the value in the second copy, as a power cut during the save would
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(4 * 4 + COPY_SIZE + 16 + 100 * 8);
+			raf.writeLong(Double.doubleToLongBits(99));
+		}
+		ParameterFile reopened = new ParameterFile(file);
+		double[] loaded = new double[ParameterTable.SIZE];
+		reopened.load(loaded);
+		assertEquals(1, loaded[100], 0);
+		assertEquals(1, reopened.getSequence());
+	}
+
+	@Test
+	public void machineKeepsParameters() throws Exception {
+		File file = tempFile();
+		MotorMachine machine = new MotorMachine();
+		machine.setParameterFile(file);
+		machine.parameters[5221] = 7;
+		MotorMachine.flush(machine);
+
+		MotorMachine restarted = new MotorMachine();
+		restarted.setParameterFile(file);
+		assertEquals(7, restarted.parameters[5221], 0);
+	}
+
+	@Test
+	public void machineBehindAWrapperKeepsParameters() throws Exception {
+		File file = tempFile();
+		MotorMachine machine = new MotorMachine();
+		machine.setParameterFile(file);
+		machine.parameters[100] = 7;
+		MotorMachine.execute(new MetricsMachine(machine), new ByteArrayInputStream("#101=[#100+1]\n".getBytes(US_ASCII)));
+
+		MotorMachine restarted = new MotorMachine();
+		restarted.setParameterFile(file);
+		assertEquals(8, restarted.parameters[101], 0);
+	}
+
+	private static File tempFile() throws Exception {
+		File file = File.createTempFile("parameters", ".par");
+		file.deleteOnExit();
+		return file;
+	}
+}
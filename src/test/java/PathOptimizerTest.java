@@ -0,0 +1,134 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PathOptimizerTest
+{
+	private final BlockScannerTest.LineToolpath	toolpath	= new BlockScannerTest.LineToolpath();
+	private final PathOptimizer									optimizer	= new PathOptimizer(toolpath, 0.01, 4);
+
+	@Test
+	public void collinearFeedsAreMerged() {
+		optimizer.SET_FEED_RATE(100);
+		for (int x = 1; x <= 3; x++) {
+			optimizer.STRAIGHT_FEED(x, x * 0.001, 0, 0, 0, 0); // within the tolerance of the line to 3, 0.003
+		}
+		optimizer.STRAIGHT_FEED(3, 5, 0, 0, 0, 0); // corner
+		MotorMachine.flush(optimizer);
+
+		assertEquals(3, toolpath.size());
+		assertEquals(Canonical.SET_FEED_RATE, toolpath.getOpcode(0));
+		assertFeed(1, 3, 0.003);
+		assertFeed(2, 3, 5);
+		assertEquals(5, optimizer.getCalls());
+		assertEquals(3, optimizer.getSentCalls());
+	}
+
+	@Test
+	public void pointsOutsideTheToleranceAreKept() {
+		optimizer.STRAIGHT_FEED(1, 0.02, 0, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(2, 0, 0, 0, 0, 0);
+		MotorMachine.flush(optimizer);
+
+		assertEquals(2, toolpath.size());
+		assertFeed(0, 1, 0.02);
+		assertFeed(1, 2, 0);
+	}
+
+	@Test
+	public void reversalIsKept() {
+		optimizer.STRAIGHT_FEED(10, 0, 0, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(5, 0, 0, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(0, 0, 0, 0, 0, 0);
+		MotorMachine.flush(optimizer);
+
+		assertEquals(2, toolpath.size());
+		assertFeed(0, 10, 0);
+		assertFeed(1, 0, 0);
+	}
+
+	@Test
+	public void nullMovesAndRepeatedFeedRatesAreLeftOut() {
+		optimizer.SET_FEED_RATE(100);
+		optimizer.STRAIGHT_FEED(0, 0, 0, 0, 0, 0);
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 0, 0, 0, 0);
+		optimizer.SET_FEED_RATE(100);
+		optimizer.STRAIGHT_FEED(1, 0, 0, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(1, 0, 0, 0, 0, 0);
+		optimizer.SET_FEED_RATE(100);
+		optimizer.STRAIGHT_FEED(2, 0, 0, 0, 0, 0);
+		optimizer.SET_FEED_RATE(200); // sends the merged feed first
+		optimizer.STRAIGHT_FEED(3, 0, 0, 0, 0, 0);
+		MotorMachine.flush(optimizer);
+
+		assertEquals(4, toolpath.size());
+		assertEquals(100, toolpath.f[0], 0);
+		assertFeed(1, 2, 0);
+		assertEquals(Canonical.SET_FEED_RATE, toolpath.getOpcode(2));
+		assertEquals(200, toolpath.f[2], 0);
+		assertFeed(3, 3, 0);
+	}
+
+	@Test
+	public void otherCallsKeepTheirOrder() {
+		optimizer.STRAIGHT_FEED(1, 0, 0, 0, 0, 0);
+		optimizer.COMMENT("between");
+		optimizer.STRAIGHT_FEED(2, 0, 0, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(2, 0, 0, 45, 0, 0); // rotary axis
+		optimizer.ARC_FEED(4, 0, 3, 0, 180, 0, 45, 0, 0);
+		optimizer.STRAIGHT_FEED(4, 0, 0, 45, 0, 0); // at the end of the arc
+		MotorMachine.flush(optimizer);
+
+		assertEquals(5, toolpath.size());
+		assertFeed(0, 1, 0);
+		assertEquals(Canonical.COMMENT, toolpath.getOpcode(1));
+		assertFeed(2, 2, 0);
+		assertFeed(3, 2, 0);
+		assertEquals(45, toolpath.a[3], 0);
+		assertEquals(Canonical.ARC_FEED, toolpath.getOpcode(4));
+	}
+
+	@Test
+	public void fullWindowIsSent() {
+		for (int x = 1; x <= 9; x++) {
+			optimizer.STRAIGHT_FEED(x, 0, 0, 0, 0, 0);
+		}
+		MotorMachine.flush(optimizer);
+
+		assertEquals(3, toolpath.size());
+		assertFeed(0, 4, 0);
+		assertFeed(1, 8, 0);
+		assertFeed(2, 9, 0);
+	}
+
+	@Test
+	public void mergedFeedHasTheLineOfItsEndPoint() {
+		optimizer.startLine(1);
+		optimizer.STRAIGHT_FEED(1, 0, 0, 0, 0, 0);
+		optimizer.startLine(2);
+		optimizer.STRAIGHT_FEED(2, 0, 0, 0, 0, 0);
+		optimizer.startLine(3);
+		optimizer.COMMENT("three");
+		MotorMachine.flush(optimizer);
+
+		assertEquals(2, toolpath.size());
+		assertEquals(2, (int) toolpath.lines.get(0));
+		assertEquals(3, (int) toolpath.lines.get(1));
+	}
+
+	@Test
+	public void toleranceIsInMm() {
+		optimizer.USE_LENGTH_UNITS(Machine.CANON_UNITS.CANON_UNITS_INCHES);
+		optimizer.STRAIGHT_FEED(1, 0.001, 0, 0, 0, 0); // 0.0254 mm off the line
+		optimizer.STRAIGHT_FEED(2, 0, 0, 0, 0, 0);
+		MotorMachine.flush(optimizer);
+
+		assertEquals(3, toolpath.size());
+	}
+
+	private void assertFeed(int index, double x, double y) {
+		assertEquals(Canonical.STRAIGHT_FEED, toolpath.getOpcode(index));
+		assertEquals(x, toolpath.x[index], 0);
+		assertEquals(y, toolpath.y[index], 0);
+	}
+}
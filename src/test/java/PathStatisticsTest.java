@@ -0,0 +1,38 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PathStatisticsTest
+{
+	private final PathStatistics	statistics	= new PathStatistics(new Toolpath());
+
+	@Test
+	public void straightMoves() {
+		statistics.STRAIGHT_TRAVERSE(3, 4, 0, 0, 0, 0);
+		statistics.STRAIGHT_FEED(3, 4, -2, 0, 0, 0);
+
+		assertEquals(5, statistics.getRapidDistance(), 1e-9);
+		assertEquals(2, statistics.getFeedDistance(), 1e-9);
+		assertArrayEquals(new double[] { 0, 0, -2 }, statistics.getMin(), 1e-9);
+		assertArrayEquals(new double[] { 3, 4, 0 }, statistics.getMax(), 1e-9);
+	}
+
+	@Test
+	public void counterclockwiseHalfCircle() {
+		statistics.STRAIGHT_TRAVERSE(10, 0, 0, 0, 0, 0);
+		statistics.ARC_FEED(-10, 0, 0, 0, -180, 0, 0, 0, 0);
+
+		assertEquals(Math.PI * 10, statistics.getFeedDistance(), 1e-9);
+		assertArrayEquals(new double[] { -10, 0, 0 }, statistics.getMin(), 1e-9);
+		assertArrayEquals(new double[] { 10, 10, 0 }, statistics.getMax(), 1e-9);
+	}
+
+	@Test
+	public void inches() {
+		statistics.USE_LENGTH_UNITS(Machine.CANON_UNITS.CANON_UNITS_INCHES);
+		statistics.STRAIGHT_FEED(1, 0, 0, 0, 0, 0);
+
+		assertEquals(25.4, statistics.getFeedDistance(), 1e-9);
+	}
+}
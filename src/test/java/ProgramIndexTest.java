@@ -0,0 +1,158 @@
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ProgramIndexTest
+{
+	private static final int	LINES	= 250;
+
+	// Toolpath that knows the line of every call, 0 for calls before the first line
+	static class LineCalls extends Toolpath implements LineListener
+	{
+		final List<Integer>	lines	= new ArrayList<>();
+		int									line;
+
+		@Override
+		public void startLine(int lineNumber) {
+			line = lineNumber;
+		}
+
+		@Override
+		int add(Canonical opcode) {
+			lines.add(line);
+			return super.add(opcode);
+		}
+	}
+
+	@Test
+	public void resumeMakesTheSameCalls() throws Exception {
+		File program = program();
+		LineCalls all = new LineCalls();
+		try (InputStream in = new FileInputStream(program)) {
+			BlockScanner.execute(all, in);
+		}
+		ProgramIndex index = ProgramIndex.build(program, 10);
+		assertEquals(LINES / 10, index.size());
+
+		for (int line : new int[] { 1, 2, 10, 11, 37, 128, 200, LINES }) {
+			LineCalls resumed = new LineCalls();
+			index.execute(resumed, line);
+
+			int first = all.lines.indexOf(line);
+			int prelude = resumed.lines.indexOf(line);
+			assertEquals(all.size() - first, resumed.size() - prelude);
+			for (int k = 0; k < resumed.size() - prelude; k++) {
+				assertEquals(all.getOpcode(first + k), resumed.getOpcode(prelude + k));
+				assertEquals(all.x[first + k], resumed.x[prelude + k], 0);
+				assertEquals(all.y[first + k], resumed.y[prelude + k], 0);
+				assertEquals(all.i[first + k], resumed.i[prelude + k], 0);
+				assertEquals(all.j[first + k], resumed.j[prelude + k], 0);
+				assertEquals(all.f[first + k], resumed.f[prelude + k], 0);
+				assertEquals(all.n[first + k], resumed.n[prelude + k]);
+			}
+
+			// the machine gets the modal state and the position before the line
+			assertEquals(Canonical.STRAIGHT_TRAVERSE, resumed.getOpcode(prelude - 1));
+			if (first > 0) {
+				assertEquals(all.x[first - 1], resumed.x[prelude - 1], 0);
+				assertEquals(all.y[first - 1], resumed.y[prelude - 1], 0);
+			}
+			assertEquals(Canonical.SET_FEED_RATE, resumed.getOpcode(prelude - 2));
+			assertEquals(lastFeedRate(all, first), resumed.f[prelude - 2], 0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void lineAfterTheEnd() throws Exception {
+		ProgramIndex.build(program(), 10).execute(new Toolpath(), LINES + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void programsWithParametersAreNotIndexed() throws Exception {
+		File program = File.createTempFile("program", ".gcode");
+		program.deleteOnExit();
+		Files.write(program.toPath(), "#<depth>=-1\nG1 X#100 Z#<depth> F100\n".getBytes(US_ASCII));
+		ProgramIndex.build(program, 1);
+	}
+
+	@Test
+	public void indexIsKeptUntilTheProgramChanges() throws Exception {
+		File program = program();
+		File indexFile = ProgramIndex.indexFile(program);
+		indexFile.deleteOnExit();
+		ProgramIndex built = ProgramIndex.open(program);
+
+		ProgramIndex loaded = ProgramIndex.load(program, indexFile);
+		assertNotNull(loaded);
+		assertEquals(built.size(), loaded.size());
+		for (int k = 0; k < built.size(); k++) {
+			assertEquals(built.getLineNumber(k), loaded.getLineNumber(k));
+			assertEquals(built.getOffset(k), loaded.getOffset(k));
+			assertEquals(built.x[k], loaded.x[k], 0);
+			assertEquals(built.feedRates[k], loaded.feedRates[k], 0);
+			assertEquals(built.units[k], loaded.units[k]);
+		}
+
+		Files.write(program.toPath(), "G1 X0\n".getBytes(US_ASCII), java.nio.file.StandardOpenOption.APPEND);
+		assertNull(ProgramIndex.load(program, indexFile));
+	}
+
+	private static double lastFeedRate(Toolpath toolpath, int before) {
+		for (int k = before - 1; k >= 0; k--) {
+			if (toolpath.getOpcode(k) == Canonical.SET_FEED_RATE) {
+				return toolpath.f[k];
+			}
+		}
+		return 0;
+	}
+
+	// Lines the BlockScanner scans, with changes of motion mode, feed rate, units, motion control mode and arcs
+	private static File program() throws Exception {
+		StringBuilder program = new StringBuilder();
+		for (int line = 1; line <= LINES; line++) {
+			switch (line % 9) {
+				case 0:
+					program.append("G0 X").append(line % 17).append(" Y").append(line % 5).append('\n');
+					break;
+				case 1:
+					program.append("G1 X").append(line % 11).append(" F").append(100 + line).append('\n');
+					break;
+				case 2:
+					program.append("Y").append(line % 7).append(".5\n");
+					break;
+				case 3:
+					program.append("G2 X").append(line % 11 + 2).append(" Y").append(line % 7).append(" I1 J0\n");
+					break;
+				case 4:
+					program.append(line % 2 == 0 ? "G20\n" : "G21\n");
+					break;
+				case 5:
+					program.append("(comment)\n");
+					break;
+				case 6:
+					program.append(line % 4 == 0 ? "G64 G1 X1\n" : "G61 Z-1\n");
+					break;
+				case 7:
+					program.append("G3 X").append(line % 11).append(" Y1 R5\n");
+					break;
+				default:
+					program.append("N").append(line).append(" X").append(line % 3).append('\n');
+					break;
+			}
+		}
+		File file = File.createTempFile("program", ".ngc");
+		file.deleteOnExit();
+		Files.write(file.toPath(), program.toString().getBytes(US_ASCII));
+		return file;
+	}
+}
@@ -1,7 +1,13 @@
 import java.io.IOException;
 import java.io.InputStream;
+import static org.junit.Assert.assertEquals;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.Token;
 import org.junit.Test;
 
+import dkwakkel.jgcode.GCodeLexer;
+
 public class ProgramTest
 {
 	private final TestMotor			xMotor	= new TestMotor(MotorMachine.Axis.X.name());
@@ -13,12 +19,12 @@ public class ProgramTest
 
 	private final MotorMachine	machine	= new MotorMachine();
 	{
-		MotorMachine.Axis.X.setMotor(xMotor);
-		MotorMachine.Axis.Y.setMotor(yMotor);
-		MotorMachine.Axis.Z.setMotor(zMotor);
-		MotorMachine.Axis.A.setMotor(aMotor);
-		MotorMachine.Axis.B.setMotor(bMotor);
-		MotorMachine.Axis.C.setMotor(cMotor);
+		machine.setMotor(MotorMachine.Axis.X, xMotor);
+		machine.setMotor(MotorMachine.Axis.Y, yMotor);
+		machine.setMotor(MotorMachine.Axis.Z, zMotor);
+		machine.setMotor(MotorMachine.Axis.A, aMotor);
+		machine.setMotor(MotorMachine.Axis.B, bMotor);
+		machine.setMotor(MotorMachine.Axis.C, cMotor);
 	}
 
 	@Test
@@ -26,8 +32,37 @@ public class ProgramTest
 		evaluateCode();
 
 		for (MotorMachine.Axis axis : MotorMachine.Axis.values()) {
-			System.err.println(((TestMotor) axis.motor).value);
+			System.err.println(((TestMotor) machine.getMotor(axis)).value);
+		}
+	}
+
+	@Test
+	public void streaming() throws Exception {
+		evaluateCode();
+
+		MotorMachine streamingMachine = new MotorMachine();
+		for (MotorMachine.Axis axis : MotorMachine.Axis.values()) {
+			streamingMachine.setMotor(axis, new TestMotor(axis.name()));
+		}
+		try (InputStream gcodeStream = getClass().getResourceAsStream("Program1.gcode")) {
+			MotorMachine.executeStreaming(streamingMachine, gcodeStream);
+		}
+
+		for (MotorMachine.Axis axis : MotorMachine.Axis.values()) {
+			assertEquals(((TestMotor) machine.getMotor(axis)).value, ((TestMotor) streamingMachine.getMotor(axis)).value, 0);
+		}
+	}
+
+	@Test
+	public void streamingSkipsWhitespace() {
+		GCodeLexer lexer = new GCodeLexer(new ANTLRInputStream("G1 X 1  Y2 (comment)\n"));
+		MotorMachine.DefaultChannelTokenSource source = new MotorMachine.DefaultChannelTokenSource(lexer);
+		StringBuilder text = new StringBuilder();
+		for (Token token = source.nextToken(); token.getType() != Token.EOF; token = source.nextToken()) {
+			assertEquals(Token.DEFAULT_CHANNEL, token.getChannel());
+			text.append(token.getText());
 		}
+		assertEquals("G1X1Y2(comment)\n", text.toString());
 	}
 
 	private void evaluateCode() throws Exception, IOException {
@@ -0,0 +1,72 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class QueuedMachineTest
+{
+	@Test
+	public void executesAllCallsInOrder() throws Exception {
+		Toolpath target = new Toolpath();
+		int count = 100000;
+		try (QueuedMachine queue = new QueuedMachine(target, 16)) {
+			for (int k = 0; k < count; k++) {
+				queue.STRAIGHT_FEED(k, -k, 0, 0, 0, 0);
+				if (k % 1000 == 0) {
+					queue.COMMENT("line " + k);
+				}
+			}
+			assertTrue(queue.getMaxQueueDepth() <= queue.getCapacity());
+		}
+
+		int index = 0;
+		for (int k = 0; k < count; k++) {
+			assertEquals(Canonical.STRAIGHT_FEED, target.getOpcode(index));
+			assertEquals(k, target.x[index], 0);
+			assertEquals(-k, target.y[index], 0);
+			index++;
+			if (k % 1000 == 0) {
+				assertEquals("line " + k, target.text[index++]);
+			}
+		}
+		assertEquals(index, target.size());
+	}
+
+	@Test
+	public void maxQueueDepthFollowsTheMotionThread() throws Exception {
+		try (QueuedMachine queue = new QueuedMachine(new Toolpath(), 16)) {
+			for (int k = 0; k < 100; k++) {
+				queue.STRAIGHT_FEED(k, 0, 0, 0, 0, 0);
+				queue.waitUntilEmpty();
+			}
+			assertEquals(1, queue.getMaxQueueDepth());
+		}
+	}
+
+	@Test
+	public void interruptedCloseStillExecutesAllCalls() {
+		Toolpath target = new Toolpath();
+		QueuedMachine queue = new QueuedMachine(target, 1024);
+		for (int k = 0; k < 1000; k++) {
+			queue.STRAIGHT_FEED(k, 0, 0, 0, 0, 0);
+		}
+		Thread.currentThread().interrupt();
+		queue.close();
+
+		assertTrue(Thread.interrupted());
+		assertEquals(1000, target.size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void motionFailureReachesInterpreter() throws Exception {
+		try (QueuedMachine queue = new QueuedMachine(new Toolpath()
+		{
+			@Override
+			public void DWELL(double seconds) {
+				throw new IllegalArgumentException("seconds=" + seconds);
+			}
+		}, 4)) {
+			queue.DWELL(-1);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RapidOptimizerTest
+{
+	private final RapidOptimizer	optimizer	= new RapidOptimizer();
+
+	@Test
+	public void holesAreDrilledInAShorterOrder() {
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		optimizer.SET_FEED_RATE(100);
+		List<double[]> holes = new ArrayList<>();
+		for (int x = 0; x < 10; x++) {
+			for (int y = 0; y < 10; y++) {
+				holes.add(new double[] { x * 10, y * 10 });
+			}
+		}
+		Collections.shuffle(holes, new Random(1));
+		for (double[] hole : holes) {
+			drill(hole[0], hole[1]);
+		}
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		optimizer.PROGRAM_END();
+		Toolpath toolpath = replay();
+
+		assertEquals(100, optimizer.getReorderedFeatures());
+		assertEquals(optimizer.size(), toolpath.size());
+		// a snake through the 10 by 10 grid is 990 long, plus 5 to go down at the start and up at the end
+		assertTrue(optimizer.getOptimizedRapidDistance() < 1.1 * 990 + 5 * 2 * 100 + 10);
+		assertEquals(optimizer.getRapidDistance() - optimizer.getOptimizedRapidDistance(), optimizer.getSavedDistance(), 0);
+		PathStatistics statistics = new PathStatistics(new DiscardMachine());
+		toolpath.replay(statistics);
+		assertEquals(statistics.getRapidDistance(), optimizer.getOptimizedRapidDistance(), 1e-9);
+
+		// every hole is drilled once, after a traverse to it
+		List<String> drilled = new ArrayList<>();
+		for (int k = 0; k < toolpath.size(); k++) {
+			if (toolpath.getOpcode(k) == Canonical.STRAIGHT_FEED) {
+				assertEquals(Canonical.STRAIGHT_TRAVERSE, toolpath.getOpcode(k - 1));
+				assertEquals(toolpath.x[k - 1], toolpath.x[k], 0);
+				assertEquals(toolpath.y[k - 1], toolpath.y[k], 0);
+				assertEquals(5, toolpath.z[k - 1], 0);
+				assertEquals(Canonical.STRAIGHT_TRAVERSE, toolpath.getOpcode(k + 1));
+				assertEquals(5, toolpath.z[k + 1], 0);
+				drilled.add(toolpath.x[k] + " " + toolpath.y[k]);
+			}
+		}
+		assertEquals(100, drilled.size());
+		assertEquals(100, new HashSet<>(drilled).size());
+		assertEquals(Canonical.PROGRAM_END, toolpath.getOpcode(toolpath.size() - 1));
+	}
+
+	@Test
+	public void featuresDoNotCrossOtherCalls() {
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		drill(30, 0);
+		drill(10, 0);
+		drill(20, 0);
+		optimizer.CHANGE_TOOL(2);
+		drill(60, 0);
+		drill(40, 0);
+		drill(50, 0);
+		drill(0, 0);
+		Toolpath toolpath = replay();
+
+		// the tool change is part of the feature before it, so that feature ends its run, and the last feature of the
+		// program stays last
+		assertFeeds(toolpath, 10, 30, 20, 40, 50, 60, 0);
+		assertEquals(Canonical.CHANGE_TOOL, toolpath.getOpcode(1 + 3 * 3));
+		assertEquals(5, optimizer.getReorderedFeatures());
+	}
+
+	@Test
+	public void featuresWithOtherStateStayInPlace() {
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		drill(30, 0);
+		optimizer.SET_FEED_RATE(100); // sets the feed rate for the features after it
+		drill(35, 0);
+		drill(50, 0);
+		drill(20, 0);
+		optimizer.STRAIGHT_TRAVERSE(40, 0, 5, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(40, 0, -1, 0, 0, 0);
+		optimizer.STRAIGHT_TRAVERSE(40, 0, 10, 0, 0, 0); // ends higher
+		drill(0, 0);
+		Toolpath toolpath = replay();
+
+		assertFeeds(toolpath, 30, 20, 35, 50, 40, 0);
+	}
+
+	@Test
+	public void directedFeaturesKeepTheirDirection() {
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		slot(100, 0, 110, 0);
+		slot(10, 0, 20, 0);
+		slot(60, 0, 50, 0);
+		slot(20, 0, 40, 0);
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		optimizer.PROGRAM_END();
+		Toolpath toolpath = replay();
+
+		assertFeeds(toolpath, 10, 20, 20, 40, 60, 50, 100, 110);
+		assertTrue(optimizer.getSavedDistance() > 0);
+	}
+
+	@Test
+	public void linesArePassedOn() {
+		optimizer.startLine(1);
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		optimizer.startLine(2);
+		drill(20, 0);
+		optimizer.startLine(3);
+		drill(10, 0);
+		optimizer.startLine(4);
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		optimizer.PROGRAM_END();
+		BlockScannerTest.LineToolpath toolpath = new BlockScannerTest.LineToolpath();
+		optimizer.replay(toolpath);
+
+		assertEquals(Arrays.asList(1, 3, 2, 4), toolpath.lines);
+		assertEquals(10, toolpath.x[1], 0);
+	}
+
+	@Test
+	public void replayFlushesTheLookAheadPlanner() {
+		optimizer.SET_MOTION_CONTROL_MODE(Machine.CANON_MOTION_MODE.CANON_CONTINUOUS);
+		optimizer.SET_FEED_RATE(100);
+		optimizer.STRAIGHT_FEED(1, 0, 0, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(2, 1, 0, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(3, 0, 0, 0, 0, 0);
+		final double[] x = new double[1];
+		MotorMachine machine = new MotorMachine();
+		machine.setMotor(MotorMachine.Axis.X, new MotorMachine.Motor("X")
+		{
+			@Override
+			public void moveTo(double valueInMM) {
+				x[0] = valueInMM;
+			}
+		});
+		optimizer.replay(machine);
+		assertEquals(3, x[0], 0);
+	}
+
+	@Test
+	public void programOrderIsKeptWhenItIsShortest() {
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		for (int x = 1; x <= 10; x++) {
+			drill(x, 0);
+		}
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		optimizer.PROGRAM_END();
+		replay();
+
+		assertEquals(0, optimizer.getReorderedFeatures());
+		assertEquals(0, optimizer.getSavedDistance(), 0);
+	}
+
+	@Test
+	public void manyHoles() {
+		Random random = new Random(2);
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		for (int k = 0; k < 20000; k++) {
+			drill(random.nextInt(1000), random.nextInt(1000));
+		}
+		optimizer.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+		optimizer.PROGRAM_END();
+		optimizer.optimize();
+
+		// a random order is about 20000 * 520 long, a good tour about 0.7 * sqrt(20000 * 1000 * 1000)
+		assertTrue(optimizer.getOptimizedRapidDistance() < 0.9 * Math.sqrt(20000 * 1000.0 * 1000) + 20000 * 10);
+		assertEquals(20000, optimizer.getReorderedFeatures());
+	}
+
+	private void drill(double x, double y) {
+		optimizer.STRAIGHT_TRAVERSE(x, y, 5, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(x, y, -1, 0, 0, 0);
+		optimizer.STRAIGHT_TRAVERSE(x, y, 5, 0, 0, 0);
+	}
+
+	private void slot(double x1, double y1, double x2, double y2) {
+		optimizer.STRAIGHT_TRAVERSE(x1, y1, 5, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(x1, y1, -1, 0, 0, 0);
+		optimizer.STRAIGHT_FEED(x2, y2, -1, 0, 0, 0);
+		optimizer.STRAIGHT_TRAVERSE(x2, y2, 5, 0, 0, 0);
+	}
+
+	private Toolpath replay() {
+		Toolpath toolpath = new Toolpath();
+		optimizer.replay(toolpath);
+		return toolpath;
+	}
+
+	// X of the feeds, in order
+	private static void assertFeeds(Toolpath toolpath, double... x) {
+		List<Double> feeds = new ArrayList<>();
+		for (int k = 0; k < toolpath.size(); k++) {
+			if (toolpath.getOpcode(k) == Canonical.STRAIGHT_FEED) {
+				feeds.add(toolpath.x[k]);
+			}
+		}
+		List<Double> expected = new ArrayList<>();
+		for (double value : x) {
+			expected.add(value);
+		}
+		assertEquals(expected, feeds);
+	}
+}
@@ -0,0 +1,123 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StepperMachineTest
+{
+	private final StepperMachine								machine	= new StepperMachine(100, 1 << 16);
+	private final StepperMachine.StepCounter	counter	= new StepperMachine.StepCounter();
+
+	@Test
+	public void axesStartAndEndTogether() {
+		machine.SET_FEED_RATE(600); // 10 mm/s
+		machine.STRAIGHT_FEED(30, 40, 0, 0, 0, 0); // 50 mm
+		machine.flush();
+		machine.drain(counter);
+
+		assertEquals(3000, counter.getSteps(MotorMachine.Axis.X));
+		assertEquals(4000, counter.getSteps(MotorMachine.Axis.Y));
+		assertEquals(0, counter.getSteps(MotorMachine.Axis.Z));
+		assertEquals(machine.getTime(), counter.getLastTime(MotorMachine.Axis.X));
+		assertEquals(machine.getTime(), counter.getLastTime(MotorMachine.Axis.Y));
+		// Y limits the acceleration along the move to 500 / 0.8 mm/s^2, that takes 0.016 s to 10 mm/s and as long back
+		// to 0, so the move takes 0.016 s longer than 5 s at 10 mm/s
+		assertEquals(5.016e9, machine.getTime(), 1e3);
+		// at most 10 mm/s along the move, 8 mm/s or 800 steps/s for Y
+		assertTrue(counter.getMinInterval(MotorMachine.Axis.Y) >= 1e9 / 800 - 1);
+	}
+
+	@Test
+	public void stepsBackAndForth() {
+		machine.SET_FEED_RATE(600);
+		machine.STRAIGHT_FEED(1.234, 0, 0, 0, 0, 0);
+		machine.STRAIGHT_FEED(-2, 0, 0, 0, 0, 0);
+		machine.STRAIGHT_FEED(0.005, 0, 0, 0, 0, 0);
+		machine.flush();
+		machine.drain(counter);
+
+		assertEquals(123 + 323 + 201, counter.getSteps(MotorMachine.Axis.X)); // rounded to whole steps
+		assertEquals(1, counter.getPosition(MotorMachine.Axis.X));
+	}
+
+	@Test
+	public void rapidsRunAtTheMaxSpeedOfTheAxes() {
+		machine.setAcceleration(MotorMachine.Axis.X, 0); // no ramps
+		machine.setMaxSpeed(MotorMachine.Axis.X, 1200);
+		machine.STRAIGHT_TRAVERSE(10, 0, 0, 0, 0, 0);
+		machine.DWELL(1);
+		machine.STRAIGHT_TRAVERSE(0, 0, 0, 0, 0, 0);
+		machine.flush();
+		machine.drain(counter);
+
+		assertEquals(2000, counter.getSteps(MotorMachine.Axis.X));
+		assertEquals(0, counter.getPosition(MotorMachine.Axis.X));
+		assertEquals(2e9, counter.getLastTime(MotorMachine.Axis.X), 1); // 0.5 s there, 1 s dwell, 0.5 s back
+		assertEquals(500000, counter.getMinInterval(MotorMachine.Axis.X), 1);
+	}
+
+	@Test
+	public void continuousModeDoesNotStopAtStraightJunctions() {
+		machine.SET_MOTION_CONTROL_MODE(Machine.CANON_MOTION_MODE.CANON_CONTINUOUS);
+		machine.SET_FEED_RATE(600);
+		for (int x = 1; x <= 10; x++) {
+			machine.STRAIGHT_FEED(x, 0, 0, 0, 0, 0);
+		}
+		machine.flush();
+		machine.drain(counter);
+
+		assertEquals(1000, counter.getSteps(MotorMachine.Axis.X));
+		assertEquals(1.02e9, machine.getTime(), 1e3); // as one move of 10 mm: 0.02 s to 10 mm/s at 500 mm/s^2 and back
+	}
+
+	@Test
+	public void inches() {
+		machine.USE_LENGTH_UNITS(Machine.CANON_UNITS.CANON_UNITS_INCHES);
+		machine.SET_FEED_RATE(10);
+		machine.STRAIGHT_FEED(0, 0, -1, 0, 0, 0);
+		machine.flush();
+		machine.drain(counter);
+
+		assertEquals(-2540, counter.getPosition(MotorMachine.Axis.Z));
+	}
+
+	@Test(timeout = 60000)
+	public void driverThreadDrainsWhileStepping() throws Exception {
+		final StepperMachine small = new StepperMachine(1000, 1 << 10);
+		for (MotorMachine.Axis axis : MotorMachine.Axis.values()) {
+			small.setMaxSpeed(axis, 1e9);
+		}
+		final boolean[] done = new boolean[1];
+		Thread driver = new Thread()
+		{
+			@Override
+			public void run() {
+				while (true) {
+					synchronized (done) {
+						if (done[0] && small.drain(counter) == 0) {
+							return;
+						}
+					}
+					small.drain(counter);
+				}
+			}
+		};
+		driver.start();
+		long start = System.nanoTime();
+		small.SET_FEED_RATE(1e6);
+		for (int k = 1; k <= 100; k++) {
+			small.STRAIGHT_FEED(k * 10, k * 10, k * 5, 0, 0, 0);
+		}
+		small.flush();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		synchronized (done) {
+			done[0] = true;
+		}
+		driver.join();
+
+		assertEquals(1000000, counter.getSteps(MotorMachine.Axis.X));
+		assertEquals(1000000, counter.getSteps(MotorMachine.Axis.Y));
+		assertEquals(500000, counter.getSteps(MotorMachine.Axis.Z));
+		assertTrue(seconds + " s", 1000000 / seconds > 100000);
+	}
+}
@@ -0,0 +1,123 @@
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class ToolpathCacheTest
+{
+	@Test
+	public void writeAndReplay() throws Exception {
+		Toolpath toolpath = new Toolpath();
+		toolpath.SET_FEED_RATE(120);
+		toolpath.COMMENT("start");
+		toolpath.STRAIGHT_FEED(1, 2, 3, 4, 5, 6);
+		toolpath.ARC_FEED(10, 0, 5, 0, -180, 1, 0, 0, 0);
+		toolpath.MESSAGE("\u00e9nd");
+
+		File file = File.createTempFile("toolpath", ".toolpath");
+		file.deleteOnExit();
+		ToolpathCache.write(toolpath, file);
+
+		Toolpath replayed = new Toolpath();
+		ToolpathCache.replay(ToolpathCache.load(file), replayed);
+
+		assertEquals(toolpath.size(), replayed.size());
+		for (int k = 0; k < toolpath.size(); k++) {
+			assertEquals(toolpath.getOpcode(k), replayed.getOpcode(k));
+			assertEquals(toolpath.x[k], replayed.x[k], 0);
+			assertEquals(toolpath.z[k], replayed.z[k], 0);
+			assertEquals(toolpath.c[k], replayed.c[k], 0);
+			assertEquals(toolpath.i[k], replayed.i[k], 0);
+			assertEquals(toolpath.f[k], replayed.f[k], 0);
+			assertEquals(toolpath.n[k], replayed.n[k]);
+			assertEquals(toolpath.text[k], replayed.text[k]);
+		}
+	}
+
+	@Test
+	public void executeFlushesTheLookAheadPlanner() throws Exception {
+		File program = File.createTempFile("program", ".gcode");
+		program.deleteOnExit();
+		Files.write(program.toPath(), "G64 G1 X1 F100\nG1 X2 Y1\nG1 X3 Y0\n".getBytes(US_ASCII));
+		File directory = Files.createTempDirectory("toolpaths").toFile();
+		directory.deleteOnExit();
+		ToolpathCache cache = new ToolpathCache(directory);
+
+		for (int run = 0; run < 2; run++) { // compiles, then replays from the cache
+			final double[] x = new double[1];
+			MotorMachine machine = new MotorMachine();
+			machine.setMotor(MotorMachine.Axis.X, new MotorMachine.Motor("X")
+			{
+				@Override
+				public void moveTo(double valueInMM) {
+					x[0] = valueInMM;
+				}
+			});
+			cache.execute(machine, program);
+			assertEquals(3, x[0], 0);
+		}
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void programsWithParametersUseTheMachineParameters() throws Exception {
+		File program = File.createTempFile("program", ".gcode");
+		program.deleteOnExit();
+		Files.write(program.toPath(), "G1 X#100 F100\n#101=[#100*2]\n".getBytes(US_ASCII));
+		File directory = Files.createTempDirectory("toolpaths").toFile();
+		directory.deleteOnExit();
+		ToolpathCache cache = new ToolpathCache(directory);
+
+		for (int run = 1; run <= 2; run++) {
+			final double[] x = new double[1];
+			MotorMachine machine = new MotorMachine();
+			machine.setMotor(MotorMachine.Axis.X, new MotorMachine.Motor("X")
+			{
+				@Override
+				public void moveTo(double valueInMM) {
+					x[0] = valueInMM;
+				}
+			});
+			machine.parameters[100] = run;
+			cache.execute(machine, program);
+			assertEquals(run, x[0], 0);
+			assertEquals(run * 2, machine.parameters[101], 0);
+		}
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void staleVersionIsIgnored() throws Exception {
+		File file = File.createTempFile("toolpath", ".toolpath");
+		file.deleteOnExit();
+		ToolpathCache.write(new Toolpath(), file);
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(8);
+			raf.write(ByteBuffer.allocate(4).putInt(Integer.reverseBytes(Executor.VERSION + 1)).array());
+		}
+		assertNull(ToolpathCache.load(file));
+	}
+
+	@Test
+	public void truncatedFileIsIgnored() throws Exception {
+		Toolpath toolpath = new Toolpath();
+		toolpath.STRAIGHT_FEED(1, 2, 3, 4, 5, 6);
+		File file = File.createTempFile("toolpath", ".toolpath");
+		file.deleteOnExit();
+		ToolpathCache.write(toolpath, file);
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 8);
+		}
+		assertNull(ToolpathCache.load(file));
+	}
+}
@@ -0,0 +1,150 @@
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ToolpathExportTest
+{
+	@Test
+	public void collinearFeedsBecomeOneSegment() throws Exception {
+		File file = tempFile(".jgpl");
+		try (ToolpathExport export = ToolpathExport.open(file.toPath(), ToolpathExport.Format.POLYLINE, 0.01)) {
+			for (int x = 1; x <= 100; x++) {
+				export.STRAIGHT_FEED(x, 0, 0, 0, 0, 0);
+			}
+			export.STRAIGHT_TRAVERSE(100, 50, 0, 0, 0, 0);
+			export.STRAIGHT_TRAVERSE(100, 50, 0, 0, 0, 0); // no movement
+			assertEquals(102, export.getPoints());
+		}
+		List<double[]> points = readPolyline(file);
+		assertEquals(4, points.size());
+		assertPoint(points.get(0), ToolpathExport.FEED | ToolpathExport.FIRST, 0, 0);
+		assertPoint(points.get(1), ToolpathExport.FEED, 100, 0);
+		assertPoint(points.get(2), ToolpathExport.FIRST, 100, 0); // rapids are a polyline of their own
+		assertPoint(points.get(3), 0, 100, 50);
+	}
+
+	@Test
+	public void decimatedPathStaysWithinTolerance() throws Exception {
+		double tolerance = 0.05;
+		List<double[]> path = new ArrayList<>();
+		File file = tempFile(".jgpl");
+		try (ToolpathExport export = ToolpathExport.open(file.toPath(), ToolpathExport.Format.POLYLINE, tolerance)) {
+			path.add(new double[] { 0, 0 });
+			for (int k = 1; k <= 2000; k++) {
+				double x = k * 0.01;
+				double y = 0.005 * Math.sin(k * 0.7) + (k > 1000 ? (k - 1000) * 0.01 : 0); // noise, then a corner
+				export.STRAIGHT_FEED(x, y, 0, 0, 0, 0);
+				path.add(new double[] { x, y });
+			}
+			export.USE_LENGTH_UNITS(Machine.CANON_UNITS.CANON_UNITS_INCHES);
+			export.ARC_FEED(20 / 25.4 + 1, 10 / 25.4, 20 / 25.4 + 0.5, 10 / 25.4, 180, 0, 0, 0, 0);
+		}
+		List<double[]> written = readPolyline(file);
+		assertTrue(written.size() < 200);
+		for (double[] point : path) {
+			double distance = Double.POSITIVE_INFINITY;
+			for (int k = 1; k < written.size(); k++) {
+				distance = Math.min(distance, distance(point, written.get(k - 1), written.get(k)));
+			}
+			assertTrue(distance <= tolerance / 2 + 1e-9);
+		}
+		// the arc is a half circle of 12.7 mm radius in mm
+		double[] end = written.get(written.size() - 1);
+		assertEquals(20 + 25.4, end[1], 1e-9);
+		for (int k = written.size() - 1; written.get(k)[1] > 20; k--) {
+			double radius = Math.hypot(written.get(k)[1] - (20 + 12.7), written.get(k)[2] - 10);
+			assertEquals(12.7, radius, tolerance / 2);
+		}
+	}
+
+	@Test
+	public void pointsAreWrittenWhenTheWindowIsFull() throws Exception {
+		File file = tempFile(".jgpl");
+		try (ToolpathExport export = ToolpathExport.open(file.toPath(), ToolpathExport.Format.POLYLINE, 0.01)) {
+			for (int x = 1; x <= 10 * ToolpathExport.WINDOW; x++) {
+				export.STRAIGHT_FEED(x, 0, 0, 0, 0, 0);
+			}
+		}
+		assertEquals(11, readPolyline(file).size());
+	}
+
+	@Test
+	public void stlRibbon() throws Exception {
+		File file = tempFile(".stl");
+		try (ToolpathExport export = ToolpathExport.open(file.toPath(), ToolpathExport.Format.STL, 0.01)) {
+			export.setRibbonWidth(1);
+			export.STRAIGHT_TRAVERSE(0, 0, 5, 0, 0, 0);
+			export.STRAIGHT_FEED(10, 0, 5, 0, 0, 0);
+			export.STRAIGHT_FEED(10, 10, 5, 0, 0, 0);
+		}
+		ByteBuffer stl = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(6, stl.getInt(80)); // one rapid segment and two feed segments
+		assertEquals(84 + 6 * 50, stl.capacity());
+		assertEquals(1, stl.getShort(84 + 48)); // rapid
+		assertEquals(0, stl.getShort(84 + 2 * 50 + 48)); // feed
+		// the first feed triangle lies in z = 5, half the ribbon width next to the X axis
+		int feed = 84 + 2 * 50;
+		assertEquals(1, stl.getFloat(feed + 8), 0);
+		assertEquals(0, stl.getFloat(feed + 12), 0);
+		assertEquals(-0.5, stl.getFloat(feed + 16), 0);
+		assertEquals(5, stl.getFloat(feed + 20), 0);
+	}
+
+	@Test
+	public void svg() throws Exception {
+		File file = tempFile(".svg");
+		try (ToolpathExport export = ToolpathExport.open(file.toPath(), ToolpathExport.Format.SVG, 0.01)) {
+			export.STRAIGHT_TRAVERSE(-1.5, 2, 0, 0, 0, 0);
+			export.STRAIGHT_FEED(3.25, 2, 0, 0, 0, 0);
+		}
+		String svg = new String(Files.readAllBytes(file.toPath()), US_ASCII);
+		assertTrue(svg, svg.startsWith("<?xml"));
+		assertTrue(svg, svg.contains(" viewBox=\"-1.5 -2.0 4.75 2.0\""));
+		assertTrue(svg, svg.contains("<polyline stroke=\"red\" stroke-dasharray=\"1\" points=\"0,0 -1.5,2\"/>"));
+		assertTrue(svg, svg.contains("<polyline stroke=\"blue\" points=\"-1.5,2 3.25,2\"/>"));
+		assertTrue(svg, svg.endsWith("</svg>\n"));
+	}
+
+	private static void assertPoint(double[] point, int flags, double x, double y) {
+		assertEquals(flags, (int) point[0]);
+		assertEquals(x, point[1], 0);
+		assertEquals(y, point[2], 0);
+	}
+
+	// Flags, x, y and z of the points
+	private static List<double[]> readPolyline(File file) throws Exception {
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(0x4A47504C, bytes.getInt());
+		assertEquals(1, bytes.getInt());
+		bytes.getDouble();
+		List<double[]> points = new ArrayList<>();
+		while (bytes.hasRemaining()) {
+			points.add(new double[] { bytes.get(), bytes.getDouble(), bytes.getDouble(), bytes.getDouble() });
+		}
+		return points;
+	}
+
+	// Distance in XY from the point to the segment between two written points
+	private static double distance(double[] point, double[] from, double[] to) {
+		double dx = to[1] - from[1], dy = to[2] - from[2];
+		double px = point[0] - from[1], py = point[1] - from[2];
+		double length2 = dx * dx + dy * dy;
+		double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / length2));
+		return Math.hypot(px - t * dx, py - t * dy);
+	}
+
+	private static File tempFile(String suffix) throws Exception {
+		File file = File.createTempFile("toolpath", suffix);
+		file.deleteOnExit();
+		return file;
+	}
+}
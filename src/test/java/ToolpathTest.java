@@ -0,0 +1,60 @@
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+public class ToolpathTest
+{
+	@Test
+	public void replay() {
+		Toolpath toolpath = new Toolpath(1);
+		toolpath.USE_LENGTH_UNITS(Machine.CANON_UNITS.CANON_UNITS_INCHES);
+		toolpath.SET_FEED_RATE(300);
+		toolpath.STRAIGHT_TRAVERSE(1, 2, 3, 4, 5, 6);
+		toolpath.COMMENT("comment");
+		toolpath.ARC_FEED(10, 0, 5, 0, 180, -1, 0, 0, 0);
+		toolpath.ORIENT_SPINDLE(90, Machine.CANON_DIRECTION.CANON_COUNTERCLOCKWISE);
+		toolpath.PROGRAM_END();
+
+		Toolpath copy = new Toolpath();
+		toolpath.replay(copy);
+
+		assertEquals(7, copy.size());
+		for (int k = 0; k < toolpath.size(); k++) {
+			assertEquals(toolpath.getOpcode(k), copy.getOpcode(k));
+			assertEquals(toolpath.x[k], copy.x[k], 0);
+			assertEquals(toolpath.y[k], copy.y[k], 0);
+			assertEquals(toolpath.z[k], copy.z[k], 0);
+			assertEquals(toolpath.a[k], copy.a[k], 0);
+			assertEquals(toolpath.b[k], copy.b[k], 0);
+			assertEquals(toolpath.c[k], copy.c[k], 0);
+			assertEquals(toolpath.i[k], copy.i[k], 0);
+			assertEquals(toolpath.j[k], copy.j[k], 0);
+			assertEquals(toolpath.f[k], copy.f[k], 0);
+			assertEquals(toolpath.n[k], copy.n[k]);
+			assertEquals(toolpath.text[k], copy.text[k]);
+		}
+		assertEquals(Canonical.ARC_FEED, copy.getOpcode(4));
+		assertEquals(180, copy.n[4]);
+		assertEquals(-1, copy.z[4], 0);
+		assertEquals(Machine.CANON_DIRECTION.CANON_COUNTERCLOCKWISE.ordinal(), copy.n[5]);
+	}
+
+	@Test
+	public void replayFlushesTheLookAheadPlanner() throws Exception {
+		Toolpath toolpath = Toolpath.compile(new ByteArrayInputStream("G64 G1 X1 F100\nG1 X2 Y1\nG1 X3 Y0\n".getBytes(US_ASCII)));
+		final double[] x = new double[1];
+		MotorMachine machine = new MotorMachine();
+		machine.setMotor(MotorMachine.Axis.X, new MotorMachine.Motor("X")
+		{
+			@Override
+			public void moveTo(double valueInMM) {
+				x[0] = valueInMM;
+			}
+		});
+		toolpath.replay(machine);
+		assertEquals(3, x[0], 0);
+	}
+}